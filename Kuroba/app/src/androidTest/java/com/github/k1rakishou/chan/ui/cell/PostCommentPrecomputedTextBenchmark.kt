@@ -0,0 +1,154 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import android.graphics.Color
+import android.text.SpannableString
+import android.text.Spannable
+import android.text.Spanned
+import android.text.style.BackgroundColorSpan
+import android.text.style.ForegroundColorSpan
+import android.text.style.UnderlineSpan
+import android.view.View
+import android.widget.TextView
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import junit.framework.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures how much main thread time a precomputed comment saves when a selectable (thread/search
+ * mode) comment is bound and laid out, compared to the regular setText(). Text measurement is faked
+ * on the JVM (Robolectric) so this has to run on a device. The benchmark itself is only executed
+ * when the RUN_BENCHMARKS instrumentation argument is set to true
+ * (./gradlew connectedDevDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.RUN_BENCHMARKS=true)
+ * because it takes a while and its results only make sense on an otherwise idle device.
+ * */
+@RunWith(AndroidJUnit4::class)
+class PostCommentPrecomputedTextBenchmark {
+  private val instrumentation = InstrumentationRegistry.getInstrumentation()
+
+  @Test
+  fun test_precomputed_text_of_a_selectable_comment_accepts_highlight_spans() {
+    instrumentation.runOnMainSync {
+      val commentView = createCommentView()
+      val comment = createComment(0)
+      val precomputed = PrecomputedTextCompat.create(comment, TextViewCompat.getTextMetricsParams(commentView))
+
+      TextViewCompat.setPrecomputedText(commentView, precomputed)
+      layout(commentView)
+
+      // The same thing PostCell does when a link is touched
+      val buffer = commentView.text as Spannable
+      val highlightSpan = BackgroundColorSpan(Color.RED)
+      buffer.setSpan(highlightSpan, 0, 10, 0)
+      assertEquals(1, buffer.getSpans(0, 10, BackgroundColorSpan::class.java).size)
+
+      buffer.removeSpan(highlightSpan)
+      assertEquals(0, buffer.getSpans(0, 10, BackgroundColorSpan::class.java).size)
+    }
+  }
+
+  @Test
+  fun benchmark() {
+    assumeTrue(InstrumentationRegistry.getArguments().getString("RUN_BENCHMARKS") == "true")
+
+    val comments = List(COMMENTS_COUNT) { index -> createComment(index) }
+    lateinit var commentView: TextView
+
+    instrumentation.runOnMainSync { commentView = createCommentView() }
+    val params = TextViewCompat.getTextMetricsParams(commentView)
+
+    // Done on the preloading coroutine in the app so it's measured separately
+    var precomputeNanos = 0L
+    val precomputedComments = List(MEASUREMENT_ITERATIONS + WARMUP_ITERATIONS) {
+      val start = System.nanoTime()
+      val precomputed = comments.map { comment -> PrecomputedTextCompat.create(comment, params) }
+      precomputeNanos += System.nanoTime() - start
+
+      return@List precomputed
+    }
+
+    var setTextNanos = 0L
+    var setPrecomputedTextNanos = 0L
+
+    instrumentation.runOnMainSync {
+      for (iteration in 0 until WARMUP_ITERATIONS + MEASUREMENT_ITERATIONS) {
+        val measure = iteration >= WARMUP_ITERATIONS
+
+        val setTextStart = System.nanoTime()
+        for (comment in comments) {
+          commentView.setText(comment, TextView.BufferType.SPANNABLE)
+          layout(commentView)
+        }
+
+        if (measure) {
+          setTextNanos += System.nanoTime() - setTextStart
+        }
+
+        // Every iteration gets its own instances just like every view does in the app
+        val setPrecomputedTextStart = System.nanoTime()
+        for (precomputed in precomputedComments[iteration]) {
+          TextViewCompat.setPrecomputedText(commentView, precomputed)
+          layout(commentView)
+        }
+
+        if (measure) {
+          setPrecomputedTextNanos += System.nanoTime() - setPrecomputedTextStart
+        }
+      }
+    }
+
+    val boundComments = COMMENTS_COUNT.toDouble() * MEASUREMENT_ITERATIONS
+    val precomputedCount = COMMENTS_COUNT.toDouble() * (MEASUREMENT_ITERATIONS + WARMUP_ITERATIONS)
+
+    println("setText: ${"%.1f".format(setTextNanos / boundComments / 1000.0)}us per comment")
+    println("setPrecomputedText: ${"%.1f".format(setPrecomputedTextNanos / boundComments / 1000.0)}us per comment")
+    println("PrecomputedTextCompat.create (off the main thread): " +
+      "${"%.1f".format(precomputeNanos / precomputedCount / 1000.0)}us per comment")
+    println("Main thread speedup: ${"%.2f".format(setTextNanos.toDouble() / setPrecomputedTextNanos)}x")
+  }
+
+  private fun createCommentView(): TextView {
+    return TextView(instrumentation.targetContext).apply {
+      textSize = 14f
+      setTextIsSelectable(true)
+    }
+  }
+
+  private fun layout(commentView: TextView) {
+    commentView.measure(
+      View.MeasureSpec.makeMeasureSpec(COMMENT_WIDTH_PX, View.MeasureSpec.EXACTLY),
+      View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+    )
+    commentView.layout(0, 0, commentView.measuredWidth, commentView.measuredHeight)
+  }
+
+  private fun createComment(index: Int): Spanned {
+    val quote = ">>${100000000 + index}\n"
+    val greentext = ">implying this is not a realistic comment\n"
+    val body = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor " +
+      "incididunt ut labore et dolore magna aliqua. https://example.com/${index} "
+    val text = quote + greentext + body.repeat(1 + index % 6)
+
+    return SpannableString(text).apply {
+      setSpan(UnderlineSpan(), 0, quote.length - 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+      setSpan(ForegroundColorSpan(Color.BLUE), 0, quote.length - 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+      setSpan(
+        ForegroundColorSpan(Color.GREEN),
+        quote.length,
+        quote.length + greentext.length - 1,
+        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+      )
+    }
+  }
+
+  companion object {
+    private const val COMMENTS_COUNT = 200
+    private const val COMMENT_WIDTH_PX = 1000
+    private const val WARMUP_ITERATIONS = 3
+    private const val MEASUREMENT_ITERATIONS = 10
+  }
+}
@@ -293,7 +293,8 @@ class Chan : Application(), ActivityLifecycleCallbacks {
       isDevFlavor = isDev,
       isLowRamDevice = ChanSettings.isLowRamDevice(),
       okHttpUseDnsOverHttps = ChanSettings.okHttpUseDnsOverHttps.get(),
-      appConstants = appConstants
+      appConstants = appConstants,
+      compressStoredPostComments = ChanSettings.compressStoredPostComments.get()
     )
 
     // We need to start initializing ChanPostRepository first because it deletes old posts during
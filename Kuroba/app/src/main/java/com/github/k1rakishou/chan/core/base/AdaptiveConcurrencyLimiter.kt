@@ -0,0 +1,185 @@
+package com.github.k1rakishou.chan.core.base
+
+import androidx.annotation.GuardedBy
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+
+/**
+ * Limits the amount of concurrently executed requests to a single server. The limit is not fixed,
+ * it's adjusted using AIMD (like the TCP congestion control does): it grows by one after [limit]
+ * fast successful requests and gets halved when the server responds slowly or tells us to slow down
+ * (429/503 etc). This way a slow or rate limited site only slows down itself and fast sites can
+ * be queried with more concurrent requests.
+ * */
+class AdaptiveConcurrencyLimiter(
+  initialLimit: Int = DEFAULT_INITIAL_LIMIT,
+  private val minLimit: Int = DEFAULT_MIN_LIMIT,
+  private val maxLimit: Int = DEFAULT_MAX_LIMIT,
+  private val slowRequestThresholdMs: Long = DEFAULT_SLOW_REQUEST_THRESHOLD_MS,
+  private val timeProvider: () -> Long = { System.currentTimeMillis() }
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private var limit = initialLimit.coerceIn(minLimit, maxLimit)
+  @GuardedBy("lock")
+  private var inFlight = 0
+  @GuardedBy("lock")
+  private var fastResponsesSinceLastChange = 0
+  @GuardedBy("lock")
+  private var lastDecreaseTime = 0L
+  @GuardedBy("lock")
+  private val waiters = ArrayDeque<CompletableDeferred<Unit>>()
+
+  @GuardedBy("lock")
+  private var requestsCount = 0L
+  @GuardedBy("lock")
+  private var slowDownResponsesCount = 0L
+  @GuardedBy("lock")
+  private var totalLatencyMs = 0L
+  @GuardedBy("lock")
+  private var maxLatencyMs = 0L
+
+  init {
+    require(minLimit in 1..maxLimit) { "Bad limits: minLimit=$minLimit, maxLimit=$maxLimit" }
+  }
+
+  val currentLimit: Int
+    get() = synchronized(lock) { limit }
+
+  /**
+   * Suspends until there is a free slot then executes [func]. [isSlowDownResponse] must return
+   * whether the server asked us to slow down (responded with 429/503, timed out etc).
+   * */
+  suspend fun <T> withPermit(isSlowDownResponse: (T) -> Boolean, func: suspend () -> T): T {
+    acquire()
+
+    val start = timeProvider()
+    var slowDown = false
+
+    try {
+      val result = func()
+      slowDown = isSlowDownResponse(result)
+      return result
+    } catch (error: Throwable) {
+      slowDown = error !is CancellationException
+      throw error
+    } finally {
+      release(latencyMs = timeProvider() - start, slowDown = slowDown)
+    }
+  }
+
+  fun stats(): Stats {
+    return synchronized(lock) {
+      Stats(
+        currentLimit = limit,
+        inFlight = inFlight,
+        waiting = waiters.size,
+        requestsCount = requestsCount,
+        slowDownResponsesCount = slowDownResponsesCount,
+        averageLatencyMs = if (requestsCount > 0) totalLatencyMs / requestsCount else 0L,
+        maxLatencyMs = maxLatencyMs
+      )
+    }
+  }
+
+  private suspend fun acquire() {
+    val waiter = synchronized(lock) {
+      if (inFlight < limit) {
+        ++inFlight
+        return
+      }
+
+      val waiter = CompletableDeferred<Unit>()
+      waiters.addLast(waiter)
+      return@synchronized waiter
+    }
+
+    try {
+      waiter.await()
+    } catch (error: CancellationException) {
+      synchronized(lock) {
+        // We may have been given a slot right before being canceled, give it back
+        if (!waiters.remove(waiter)) {
+          --inFlight
+          dispatchWaitersLocked()
+        }
+      }
+
+      throw error
+    }
+  }
+
+  private fun release(latencyMs: Long, slowDown: Boolean) {
+    synchronized(lock) {
+      --inFlight
+
+      ++requestsCount
+      totalLatencyMs += latencyMs
+      maxLatencyMs = maxOf(maxLatencyMs, latencyMs)
+
+      if (slowDown || latencyMs > slowRequestThresholdMs) {
+        if (slowDown) {
+          ++slowDownResponsesCount
+        }
+
+        decreaseLimitLocked()
+      } else {
+        increaseLimitLocked()
+      }
+
+      dispatchWaitersLocked()
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun increaseLimitLocked() {
+    ++fastResponsesSinceLastChange
+
+    if (fastResponsesSinceLastChange >= limit) {
+      limit = (limit + 1).coerceAtMost(maxLimit)
+      fastResponsesSinceLastChange = 0
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun decreaseLimitLocked() {
+    fastResponsesSinceLastChange = 0
+
+    // All the requests that are already in flight will most likely fail the same way so only
+    // decrease the limit once per cooldown period, otherwise it will instantly drop to minLimit.
+    val now = timeProvider()
+    if (now - lastDecreaseTime < DECREASE_COOLDOWN_MS) {
+      return
+    }
+
+    lastDecreaseTime = now
+    limit = (limit / 2).coerceAtLeast(minLimit)
+  }
+
+  @GuardedBy("lock")
+  private fun dispatchWaitersLocked() {
+    while (inFlight < limit && waiters.isNotEmpty()) {
+      ++inFlight
+      waiters.removeFirst().complete(Unit)
+    }
+  }
+
+  data class Stats(
+    val currentLimit: Int,
+    val inFlight: Int,
+    val waiting: Int,
+    val requestsCount: Long,
+    val slowDownResponsesCount: Long,
+    val averageLatencyMs: Long,
+    val maxLatencyMs: Long
+  )
+
+  companion object {
+    private const val DEFAULT_INITIAL_LIMIT = 4
+    private const val DEFAULT_MIN_LIMIT = 1
+    private const val DEFAULT_MAX_LIMIT = 16
+    private const val DEFAULT_SLOW_REQUEST_THRESHOLD_MS = 5_000L
+    private const val DECREASE_COOLDOWN_MS = 1_000L
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.k1rakishou.chan.core.base
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of latencies with fixed (roughly exponential) buckets. Percentiles are
+ * estimated as the upper bound of the bucket the percentile falls into which is precise enough to
+ * tell a 30ms operation from a 300ms one.
+ * */
+class LatencyHistogram(
+  private val bucketUpperBoundsMs: LongArray = DEFAULT_BUCKET_UPPER_BOUNDS_MS
+) {
+  // The last bucket is for everything above the last upper bound
+  private val buckets = AtomicLongArray(bucketUpperBoundsMs.size + 1)
+  private val count = AtomicLong(0)
+  private val totalMs = AtomicLong(0)
+  private val maxMs = AtomicLong(0)
+
+  init {
+    require(bucketUpperBoundsMs.isNotEmpty()) { "No buckets" }
+
+    for (index in 1 until bucketUpperBoundsMs.size) {
+      require(bucketUpperBoundsMs[index - 1] < bucketUpperBoundsMs[index]) {
+        "Bucket bounds must be sorted: ${bucketUpperBoundsMs.joinToString()}"
+      }
+    }
+  }
+
+  fun record(latencyMs: Long) {
+    val latency = latencyMs.coerceAtLeast(0L)
+
+    buckets.incrementAndGet(bucketIndex(latency))
+    count.incrementAndGet()
+    totalMs.addAndGet(latency)
+    maxMs.accumulateAndGet(latency) { prev, new -> maxOf(prev, new) }
+  }
+
+  fun snapshot(): Snapshot {
+    val bucketCounts = LongArray(buckets.length()) { index -> buckets.get(index) }
+    // The buckets are updated separately so use their sum to keep the snapshot consistent
+    val snapshotCount = bucketCounts.sum()
+
+    return Snapshot(
+      count = snapshotCount,
+      averageMs = if (snapshotCount > 0) totalMs.get() / snapshotCount else 0L,
+      p50Ms = percentile(bucketCounts, snapshotCount, 0.5),
+      p90Ms = percentile(bucketCounts, snapshotCount, 0.9),
+      p99Ms = percentile(bucketCounts, snapshotCount, 0.99),
+      maxMs = maxMs.get()
+    )
+  }
+
+  private fun bucketIndex(latencyMs: Long): Int {
+    for (index in bucketUpperBoundsMs.indices) {
+      if (latencyMs <= bucketUpperBoundsMs[index]) {
+        return index
+      }
+    }
+
+    return bucketUpperBoundsMs.size
+  }
+
+  private fun percentile(bucketCounts: LongArray, totalCount: Long, percentile: Double): Long {
+    if (totalCount <= 0) {
+      return 0L
+    }
+
+    val targetCount = Math.ceil(totalCount * percentile).toLong().coerceAtLeast(1L)
+    var accumulated = 0L
+
+    for (index in bucketCounts.indices) {
+      accumulated += bucketCounts[index]
+
+      if (accumulated >= targetCount) {
+        if (index >= bucketUpperBoundsMs.size) {
+          // Overflow bucket, the max is the best estimate we have
+          return maxMs.get()
+        }
+
+        return minOf(bucketUpperBoundsMs[index], maxMs.get())
+      }
+    }
+
+    return maxMs.get()
+  }
+
+  data class Snapshot(
+    val count: Long,
+    val averageMs: Long,
+    val p50Ms: Long,
+    val p90Ms: Long,
+    val p99Ms: Long,
+    val maxMs: Long
+  )
+
+  companion object {
+    private val DEFAULT_BUCKET_UPPER_BOUNDS_MS = longArrayOf(
+      5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000
+    )
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.k1rakishou.chan.core.base
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Coalesces concurrent executions of the same request (identified by [K]) into one. The first caller
+ * executes the request and everybody else awaits it's result. When the caller that executes the
+ * request gets canceled the others don't fail, one of them takes over and executes the request
+ * again.
+ * */
+class RequestCoalescer<K : Any, V> {
+  private val activeRequests = ConcurrentHashMap<K, CompletableDeferred<V>>()
+  private val coalescedRequestsCount = AtomicLong(0)
+
+  fun coalescedRequestsCount(): Long = coalescedRequestsCount.get()
+
+  suspend fun coalesce(key: K, func: suspend () -> V): V {
+    var coalesced = false
+
+    while (true) {
+      val newRequest = CompletableDeferred<V>()
+
+      val activeRequest = activeRequests.putIfAbsent(key, newRequest)
+      if (activeRequest == null) {
+        return execute(key, newRequest, func)
+      }
+
+      if (!coalesced) {
+        coalesced = true
+        coalescedRequestsCount.incrementAndGet()
+      }
+
+      try {
+        return activeRequest.await()
+      } catch (error: CancellationException) {
+        // Rethrow if we were canceled, otherwise it's the caller that was executing the request that
+        // got canceled so try to execute it ourselves.
+        currentCoroutineContext().ensureActive()
+        activeRequests.remove(key, activeRequest)
+      }
+    }
+  }
+
+  private suspend fun execute(key: K, request: CompletableDeferred<V>, func: suspend () -> V): V {
+    try {
+      val result = func()
+      request.complete(result)
+
+      return result
+    } catch (error: Throwable) {
+      request.completeExceptionally(error)
+      throw error
+    } finally {
+      activeRequests.remove(key, request)
+    }
+  }
+
+}
@@ -44,8 +44,14 @@ import kotlin.time.measureTime
  * minimum cache file life time is 5 minutes. That means we won't delete any cache files (and their
  * meta files) for at least 5 minutes.
  *
- * CacheHandler now also caches file chunks that are used by [ConcurrentChunkedFileDownloader] as well
- * as all media files retrieved via [ImageLoaderV2]
+ * CacheHandler now also caches all media files retrieved via [ImageLoaderV2]. Files downloaded by
+ * [ConcurrentChunkedFileDownloader] in multiple chunks are written directly into the cache file, the
+ * ranges that were already downloaded are kept in a separate file (cache_ranges) until the download
+ * completes so that an interrupted download can be resumed.
+ *
+ * Every inner cache also keeps an LRU index of it's files persisted in a journal ([InnerCacheIndex])
+ * so that the cache metas are only read when the journal is missing and trimming the cache doesn't
+ * need to list the cache directory.
  */
 @OptIn(ExperimentalTime::class)
 class CacheHandler(
@@ -94,9 +100,13 @@ class CacheHandler(
         innerCacheChunksDirFile.mkdirs()
       }
 
+      // Must not be inside of the "files" directory
+      val innerCacheJournalFile = File(File(diskCacheDir, cacheFileType.id.toString()), "journal")
+
       val innerCache = InnerCache(
         cacheDirFile = innerCacheDirFile,
         chunksCacheDirFile = innerCacheChunksDirFile,
+        journalFile = innerCacheJournalFile,
         fileCacheDiskSizeBytes = cacheFileType.calculateDiskSize(totalFileCacheDiskSizeBytes),
         cacheFileType = cacheFileType,
         isDevBuild = ENABLE_LOGGING
@@ -104,6 +114,24 @@ class CacheHandler(
 
       innerCaches.put(cacheFileType, innerCache)
     }
+
+    deleteLegacyExoPlayerCache()
+  }
+
+  /**
+   * Videos used to be cached by ExoPlayer separately (with it's own size limit), now they are played
+   * from the [CacheFileType.PostMediaFull] cache so the old cache directory is not needed anymore.
+   * */
+  private fun deleteLegacyExoPlayerCache() {
+    val legacyExoPlayerCacheDir = appConstants.legacyExoPlayerCacheDir
+    if (!legacyExoPlayerCacheDir.exists()) {
+      return
+    }
+
+    cacheHandlerDispatcher.executor.execute {
+      val deleted = legacyExoPlayerCacheDir.deleteRecursively()
+      Logger.d(TAG, "deleteLegacyExoPlayerCache() deleted: $deleted")
+    }
   }
 
   fun getCacheFileOrNull(cacheFileType: CacheFileType, url: String): File? {
@@ -118,6 +146,22 @@ class CacheHandler(
     return file
   }
 
+  /**
+   * Returns the cache file of [url] if it exists, it may still be partially downloaded. Unlike
+   * [getOrCreateCacheFile] never creates anything on the disk.
+   * */
+  fun getExistingCacheFileOrNull(cacheFileType: CacheFileType, url: String): File? {
+    BackgroundUtils.ensureBackgroundThread()
+    val innerCache = getInnerCacheByFileType(cacheFileType)
+    val file = innerCache.getExistingCacheFileOrNull(url)
+
+    if (ENABLE_LOGGING) {
+      Logger.d(TAG, "getExistingCacheFileOrNull($cacheFileType, $url) -> ${file?.name}")
+    }
+
+    return file
+  }
+
   /**
    * Either returns already downloaded file or creates an empty new one on the disk (also creates
    * cache file meta with default parameters)
@@ -134,26 +178,26 @@ class CacheHandler(
     return file
   }
 
-  fun getChunkCacheFileOrNull(cacheFileType: CacheFileType, chunkStart: Long, chunkEnd: Long, url: String): File? {
-    if (ENABLE_LOGGING) {
-      Logger.d(TAG, "getChunkCacheFileOrNull($cacheFileType, $chunkStart..$chunkEnd, $url)")
-    }
-
+  /**
+   * Returns the file where the completed ranges of a partially downloaded [cacheFile] are persisted
+   * so that the download can be resumed later.
+   * */
+  fun getCacheFileRanges(cacheFileType: CacheFileType, cacheFile: File): File? {
     BackgroundUtils.ensureBackgroundThread()
-    val innerCache = getInnerCacheByFileType(cacheFileType)
 
-    return innerCache.getChunkCacheFileOrNull(chunkStart, chunkEnd, url)
+    return getInnerCacheByFileType(cacheFileType).getCacheFileRanges(cacheFile)
   }
 
-  fun getOrCreateChunkCacheFile(cacheFileType: CacheFileType, chunkStart: Long, chunkEnd: Long, url: String): File? {
+  fun hasResumableDownload(cacheFileType: CacheFileType, cacheFile: File): Boolean {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val hasResumableDownload = getInnerCacheByFileType(cacheFileType).hasResumableDownload(cacheFile)
+
     if (ENABLE_LOGGING) {
-      Logger.d(TAG, "getOrCreateChunkCacheFile($cacheFileType, $chunkStart..$chunkEnd, $url)")
+      Logger.d(TAG, "hasResumableDownload($cacheFileType, ${cacheFile.absolutePath}) -> $hasResumableDownload")
     }
 
-    BackgroundUtils.ensureBackgroundThread()
-    val innerCache = getInnerCacheByFileType(cacheFileType)
-
-    return innerCache.getOrCreateChunkCacheFile(chunkStart, chunkEnd, url)
+    return hasResumableDownload
   }
 
   fun cacheFileExists(cacheFileType: CacheFileType, fileUrl: String): Boolean {
@@ -250,6 +294,13 @@ class CacheHandler(
     return getInnerCacheByFileType(cacheFileType).getMaxSize()
   }
 
+  /**
+   * For diagnostics. How often threads had to wait for each other to access cache files.
+   * */
+  fun getLockContentionStats(cacheFileType: CacheFileType): CacheHandlerSynchronizer.ContentionStats {
+    return getInnerCacheByFileType(cacheFileType).getLockContentionStats()
+  }
+
   /**
    * When a file is downloaded we add it's size to the total cache directory size variable and
    * check whether it exceeds the maximum cache size or not. If it does then the trim() operation
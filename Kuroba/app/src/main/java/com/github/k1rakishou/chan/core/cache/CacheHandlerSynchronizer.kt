@@ -1,8 +1,9 @@
 package com.github.k1rakishou.chan.core.cache
 
-import androidx.annotation.GuardedBy
 import androidx.annotation.VisibleForTesting
-import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.Lock
+import java.util.concurrent.locks.ReentrantReadWriteLock
 
 /**
  * A synchronizer class for CacheHandler that allows synchronization on a value of the key.
@@ -12,30 +13,260 @@ import java.lang.ref.WeakReference
  * access to disk globally every time a thread is doing something with a file which could slow down
  * everything when there were a lot of disk access from multiple threads
  * (Album with 5 columns + prefetch + high-res thumbnails + huge cache size (1GB+).)
+ *
+ * Instead of creating a lock object per key (and keeping them in a map forever) we have a fixed
+ * table of [stripesCount] read-write locks and a key is mapped onto one of them by it's hash. Two
+ * different files may end up sharing the same stripe but with enough stripes this is rare and
+ * readers never block each other anyway.
+ *
+ * All locks are reentrant but a read lock can't be upgraded into a write lock (this will deadlock),
+ * so never call a function that takes the write lock while holding the read lock of the same key.
+ *
+ * Nesting local locks of different keys is forbidden. Two keys may share a stripe (so taking the
+ * second one may block on a lock the thread itself holds as a reader) and two threads taking the
+ * locks of the same two keys in reverse order deadlock each other. Take the lock of one key, do the
+ * work, release it and only then take the next one. Taking the global lock while holding a local
+ * one is forbidden for the same reason. When [checkLockNesting] is set (dev builds) every thread
+ * remembers which stripe it holds and violations of these rules throw instead of deadlocking.
  * */
-class CacheHandlerSynchronizer {
-  @GuardedBy("this")
-  private val synchronizerMap = HashMap<String, WeakReference<Any>>()
+class CacheHandlerSynchronizer(
+  stripesCount: Int = DEFAULT_STRIPES_COUNT,
+  private val checkLockNesting: Boolean = false
+) {
+  private val stripes: Array<ReentrantReadWriteLock>
+  private val mask: Int
+
+  private val lockAcquisitions = AtomicLong(0)
+  private val contendedLockAcquisitions = AtomicLong(0)
+  private val contendedWaitTimeNanos = AtomicLong(0)
+
+  private val heldLocks = ThreadLocal<HeldLocks>()
+
+  init {
+    require(stripesCount > 0 && (stripesCount and (stripesCount - 1)) == 0) {
+      "stripesCount must be a power of two (stripesCount=$stripesCount)"
+    }
+
+    stripes = Array(stripesCount) { ReentrantReadWriteLock() }
+    mask = stripesCount - 1
+  }
 
   @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-  fun getOrCreate(key: String): Any {
-    return synchronized(this) {
-      var value = synchronizerMap[key]?.get()
-      if (value == null) {
-        value = Any()
-        synchronizerMap[key] = WeakReference(value)
-      }
+  fun stripeIndex(key: String): Int {
+    val lockKey = lockKey(key)
+    var hash = lockKey.hashCode()
+
+    // Cache file names are md5 hashes so their String.hashCode() is already well distributed, but
+    // spread the higher bits anyway just in case.
+    hash = hash xor (hash ushr 16)
+    return hash and mask
+  }
+
+  fun <T : Any?> withLocalReadLock(key: String, func: () -> T): T {
+    val stripeIndex = stripeIndex(key)
+    val lock = stripes[stripeIndex].readLock()
 
-      return@synchronized value
+    val heldLocks = onBeforeLocalLock(key, stripeIndex, write = false)
+    acquire(lock)
+    heldLocks?.onLocked(stripeIndex, write = false)
+
+    try {
+      return func()
+    } finally {
+      heldLocks?.onUnlocked(write = false)
+      lock.unlock()
     }
   }
 
-  fun <T : Any?> withLocalLock(key: String, func: () -> T): T {
-    return synchronized(getOrCreate(key)) { func() }
+  fun <T : Any?> withLocalWriteLock(key: String, func: () -> T): T {
+    val stripeIndex = stripeIndex(key)
+    val lock = stripes[stripeIndex].writeLock()
+
+    val heldLocks = onBeforeLocalLock(key, stripeIndex, write = true)
+    acquire(lock)
+    heldLocks?.onLocked(stripeIndex, write = true)
+
+    try {
+      return func()
+    } finally {
+      heldLocks?.onUnlocked(write = true)
+      lock.unlock()
+    }
   }
 
+  /**
+   * Takes write locks of all the stripes (always in the same order so that two global locks can't
+   * deadlock each other). Only use this for operations that must see the cache in a consistent
+   * state, like clearing the whole cache.
+   * */
   fun <T : Any?> withGlobalLock(func: () -> T): T {
-    return synchronized(this) { func() }
+    var acquired = 0
+    val heldLocks = getHeldLocks()
+
+    if (heldLocks != null) {
+      check(heldLocks.globalDepth > 0 || heldLocks.stripeIndex < 0) {
+        "Global lock requested while holding the lock of stripe ${heldLocks.stripeIndex}"
+      }
+    }
+
+    try {
+      for (stripe in stripes) {
+        acquire(stripe.writeLock())
+        ++acquired
+      }
+
+      heldLocks?.let { held -> held.globalDepth++ }
+      return func()
+    } finally {
+      if (heldLocks != null && acquired == stripes.size) {
+        heldLocks.globalDepth--
+      }
+
+      for (index in (acquired - 1) downTo 0) {
+        stripes[index].writeLock().unlock()
+      }
+    }
+  }
+
+  fun contentionStats(): ContentionStats {
+    return ContentionStats(
+      stripesCount = stripes.size,
+      lockAcquisitions = lockAcquisitions.get(),
+      contendedLockAcquisitions = contendedLockAcquisitions.get(),
+      contendedWaitTimeNanos = contendedWaitTimeNanos.get()
+    )
+  }
+
+  private fun getHeldLocks(): HeldLocks? {
+    if (!checkLockNesting) {
+      return null
+    }
+
+    var heldLocks = heldLocks.get()
+    if (heldLocks == null) {
+      heldLocks = HeldLocks()
+      this.heldLocks.set(heldLocks)
+    }
+
+    return heldLocks
+  }
+
+  private fun onBeforeLocalLock(key: String, stripeIndex: Int, write: Boolean): HeldLocks? {
+    val heldLocks = getHeldLocks()
+      ?: return null
+
+    if (heldLocks.globalDepth > 0 || heldLocks.stripeIndex < 0) {
+      return heldLocks
+    }
+
+    check(heldLocks.stripeIndex == stripeIndex) {
+      "Nested lock of key '$key' (stripe $stripeIndex) while holding the lock of stripe ${heldLocks.stripeIndex}"
+    }
+
+    check(!write || heldLocks.writeDepth > 0) {
+      "Write lock of key '$key' requested while holding the read lock of the same stripe"
+    }
+
+    return heldLocks
+  }
+
+  private fun acquire(lock: Lock) {
+    lockAcquisitions.incrementAndGet()
+
+    if (lock.tryLock()) {
+      return
+    }
+
+    val start = System.nanoTime()
+    lock.lock()
+
+    contendedLockAcquisitions.incrementAndGet()
+    contendedWaitTimeNanos.addAndGet(System.nanoTime() - start)
+  }
+
+  /**
+   * A cache file, it's meta and all of it's chunks must be guarded by the same lock since we
+   * sometimes access the meta (or delete the whole thing) while holding the lock of the cache
+   * file. So we only use the part of the file name before the extension (and before the chunk
+   * range) which is the hash of the url.
+   * */
+  private fun lockKey(key: String): String {
+    val endIndex = key.indexOfFirst { ch -> ch == '.' || ch == '_' }
+    if (endIndex <= 0) {
+      return key
+    }
+
+    return key.substring(0, endIndex)
+  }
+
+  /**
+   * Locks held by the current thread. Only tracked when [checkLockNesting] is set.
+   * */
+  private class HeldLocks {
+    var stripeIndex = -1
+    var readDepth = 0
+    var writeDepth = 0
+    var globalDepth = 0
+
+    fun onLocked(stripeIndex: Int, write: Boolean) {
+      if (globalDepth > 0) {
+        return
+      }
+
+      this.stripeIndex = stripeIndex
+
+      if (write) {
+        ++writeDepth
+      } else {
+        ++readDepth
+      }
+    }
+
+    fun onUnlocked(write: Boolean) {
+      if (globalDepth > 0) {
+        return
+      }
+
+      if (write) {
+        --writeDepth
+      } else {
+        --readDepth
+      }
+
+      if (readDepth == 0 && writeDepth == 0) {
+        stripeIndex = -1
+      }
+    }
+  }
+
+  data class ContentionStats(
+    val stripesCount: Int,
+    val lockAcquisitions: Long,
+    val contendedLockAcquisitions: Long,
+    val contendedWaitTimeNanos: Long
+  ) {
+
+    val contentionPercent: Float
+      get() {
+        if (lockAcquisitions <= 0L) {
+          return 0f
+        }
+
+        return (contendedLockAcquisitions.toFloat() / lockAcquisitions.toFloat()) * 100f
+      }
+
+    override fun toString(): String {
+      return "ContentionStats{" +
+        "stripesCount=$stripesCount, " +
+        "lockAcquisitions=$lockAcquisitions, " +
+        "contendedLockAcquisitions=$contendedLockAcquisitions (${"%.2f".format(contentionPercent)}%), " +
+        "contendedWaitTime=${contendedWaitTimeNanos / 1_000_000}ms" +
+        "}"
+    }
+  }
+
+  companion object {
+    private const val DEFAULT_STRIPES_COUNT = 64
   }
 
-}
\ No newline at end of file
+}
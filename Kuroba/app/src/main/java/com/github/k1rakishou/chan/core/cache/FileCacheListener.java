@@ -26,7 +26,7 @@ import java.io.File;
 /**
  * Callback call order:
  *
- * onStart -> onProgress (?) -> (onSuccess | onFail | onNotFound | onStop | onCancel) -> onEnd
+ * onStart -> (onProgress | onPartialContentAvailable) (?) -> (onSuccess | onFail | onNotFound | onStop | onCancel) -> onEnd
  * */
 @DoNotStrip
 public abstract class FileCacheListener {
@@ -50,6 +50,16 @@ public abstract class FileCacheListener {
     public void onProgress(int chunkIndex, long downloaded, long total) {
     }
 
+    /**
+     * Called (on the main thread, after onProgress) when the beginning of the cache file has grown.
+     * The first [readableBytes] bytes of [file] are already downloaded (without any gaps) and may be
+     * read (e.g. decoded as a partial progressive JPEG/interlaced PNG) while the rest of the file is
+     * still being downloaded. [totalBytes] is 0 or less when the size of the file is unknown.
+     * <b>Do not modify the file!</b>
+     */
+    public void onPartialContentAvailable(@NonNull File file, long readableBytes, long totalBytes) {
+    }
+
     /**
      * Called when the file download was completed.
      */
@@ -7,7 +7,6 @@ import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient
 import com.github.k1rakishou.chan.core.cache.downloader.ActiveDownloads
 import com.github.k1rakishou.chan.core.cache.downloader.CancelableDownload
 import com.github.k1rakishou.chan.core.cache.downloader.ChunkDownloader
-import com.github.k1rakishou.chan.core.cache.downloader.ChunkMerger
 import com.github.k1rakishou.chan.core.cache.downloader.ChunkPersister
 import com.github.k1rakishou.chan.core.cache.downloader.ConcurrentChunkedFileDownloader
 import com.github.k1rakishou.chan.core.cache.downloader.DownloadRequestExtraInfo
@@ -15,7 +14,9 @@ import com.github.k1rakishou.chan.core.cache.downloader.DownloadState
 import com.github.k1rakishou.chan.core.cache.downloader.FileCacheException
 import com.github.k1rakishou.chan.core.cache.downloader.FileDownloadRequest
 import com.github.k1rakishou.chan.core.cache.downloader.FileDownloadResult
+import com.github.k1rakishou.chan.core.cache.downloader.OutputFileFinalizer
 import com.github.k1rakishou.chan.core.cache.downloader.PartialContentSupportChecker
+import com.github.k1rakishou.chan.core.cache.downloader.StreamingWrite
 import com.github.k1rakishou.chan.core.cache.downloader.log
 import com.github.k1rakishou.chan.core.cache.downloader.logError
 import com.github.k1rakishou.chan.core.cache.downloader.logErrorsAndExtractErrorMessage
@@ -86,13 +87,12 @@ class FileCacheV2(
     appConstants
   )
 
-  private val chunkReader = ChunkPersister(
-    cacheHandler,
+  private val chunkPersister = ChunkPersister(
     activeDownloads,
     verboseLogs
   )
 
-  private val chunkPersister = ChunkMerger(
+  private val outputFileFinalizer = OutputFileFinalizer(
     fileManager,
     cacheHandler,
     activeDownloads,
@@ -102,8 +102,8 @@ class FileCacheV2(
   private val concurrentChunkedFileDownloader = ConcurrentChunkedFileDownloader(
     siteResolver,
     chunkDownloader,
-    chunkReader,
     chunkPersister,
+    outputFileFinalizer,
     workerScheduler,
     verboseLogs,
     activeDownloads,
@@ -157,6 +157,18 @@ class FileCacheV2(
     }
   }
 
+  /**
+   * See [ActiveDownloads.tryClaimStreamingWrite]. A download of the same url started while the
+   * claim is held revokes it.
+   * */
+  internal fun tryClaimStreamingWrite(url: String): StreamingWrite? {
+    return activeDownloads.tryClaimStreamingWrite(url)
+  }
+
+  internal fun releaseStreamingWrite(streamingWrite: StreamingWrite) {
+    activeDownloads.releaseStreamingWrite(streamingWrite)
+  }
+
   fun enqueueMediaPrefetchRequest(
     cacheFileType: CacheFileType,
     postImage: ChanPostImage
@@ -269,6 +281,7 @@ class FileCacheV2(
         url = url,
         downloaded = AtomicLong(0L),
         total = AtomicLong(0L),
+        readableBytes = AtomicLong(0L),
         cancelableDownload = cancelableDownload,
         extraInfo = extraInfo,
         cacheFileType = cacheFileType
@@ -292,7 +305,7 @@ class FileCacheV2(
           activeDownloads.get(url)?.cancelableDownload?.cancel()
         }
 
-        purgeOutput(request.url, request.getOutputFile())
+        purgeOutput(request.url, request.getOutputFile(), result)
       }
 
       val networkClass = getNetworkClassOrDefaultText(result)
@@ -378,6 +391,8 @@ class FileCacheV2(
           resultHandler(url, request, false) {
             onProgress(result.chunkIndex, result.downloaded, chunkSize)
           }
+
+          notifyPartialContentAvailable(url, request)
         }
 
         // Cancel
@@ -445,7 +460,6 @@ class FileCacheV2(
               is FileCacheException.NoResponseBodyException,
               is FileCacheException.CouldNotCreateOutputCacheFile,
               is FileCacheException.OutputFileDoesNotExist,
-              is FileCacheException.ChunkFileDoesNotExist,
               is FileCacheException.HttpCodeException,
               is FileCacheException.BadOutputFileException -> {
                 if (result.fileCacheException is FileCacheException.HttpCodeException
@@ -512,6 +526,18 @@ class FileCacheV2(
     }
   }
 
+  private fun notifyPartialContentAvailable(url: String, request: FileDownloadRequest) {
+    val readableBytes = request.takeNewReadableBytes()
+      ?: return
+    val output = request.getOutputFile()
+      ?: return
+    val total = request.total.get()
+
+    resultHandler(url, request, false) {
+      onPartialContentAvailable(output, readableBytes, total)
+    }
+  }
+
   private fun handleFileDownload(url: String): Flowable<FileDownloadResult> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -525,6 +551,9 @@ class FileCacheV2(
 
     val cacheFileType = request.cacheFileType
 
+    // A media player may be writing into the same cache file, take it over before touching it
+    activeDownloads.revokeStreamingWrite(url)
+
     val outputFile = cacheHandler.get().getOrCreateCacheFile(
       cacheFileType = cacheFileType,
       url = url
@@ -563,7 +592,7 @@ class FileCacheV2(
       }
   }
 
-  private fun purgeOutput(url: String, output: File?) {
+  private fun purgeOutput(url: String, output: File?, result: FileDownloadResult) {
     BackgroundUtils.ensureBackgroundThread()
 
     val request = activeDownloads.get(url)
@@ -579,6 +608,16 @@ class FileCacheV2(
       return
     }
 
+    val canBeResumed = result is FileDownloadResult.Canceled
+      || (result is FileDownloadResult.UnknownException && result.error is IOException)
+
+    if (canBeResumed && cacheHandler.get().hasResumableDownload(request.cacheFileType, output)) {
+      // Keep the partially downloaded file, the next download of this url will continue from the
+      // already downloaded ranges
+      log(TAG, "Keeping partially downloaded url=${url}, file=${output.absolutePath}")
+      return
+    }
+
     log(TAG, "Purging url=${url}, file=${output.absolutePath}")
 
     if (!cacheHandler.get().deleteCacheFile(request.cacheFileType, output)) {
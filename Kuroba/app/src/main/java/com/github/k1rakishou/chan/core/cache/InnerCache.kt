@@ -1,7 +1,6 @@
 package com.github.k1rakishou.chan.core.cache
 
 import android.os.Environment
-import androidx.annotation.GuardedBy
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.BackgroundUtils
@@ -27,8 +26,9 @@ import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 
 internal class InnerCache(
-  cacheDirFile: File,
+  private val cacheDirFile: File,
   chunksCacheDirFile: File,
+  journalFile: File,
   private val fileCacheDiskSizeBytes: Long,
   private val cacheFileType: CacheFileType,
   private val isDevBuild: Boolean
@@ -36,7 +36,8 @@ internal class InnerCache(
   private val TAG = "InnerCache{${cacheFileType.id}}"
 
   private val executor = Executors.newSingleThreadExecutor()
-  private val cacheHandlerSynchronizer = CacheHandlerSynchronizer()
+  private val cacheHandlerSynchronizer = CacheHandlerSynchronizer(checkLockNesting = isDevBuild)
+  private val cacheIndex = InnerCacheIndex(journalFile, executor, TAG)
 
   /**
    * An estimation of the current size of the directory. Used to check if trim must be run
@@ -45,28 +46,9 @@ internal class InnerCache(
   private val size = AtomicLong()
   private val lastTrimTime = AtomicLong(0)
   private val trimRunning = AtomicBoolean(false)
-  private val recalculationRunning = AtomicBoolean(false)
   private val trimChunksRunning = AtomicBoolean(false)
   private val directoriesChecked = AtomicBoolean(false)
 
-  @GuardedBy("itself")
-  private val filesOnDiskCache = hashSetWithCap<String>(128)
-  @GuardedBy("itself")
-  private val fullyDownloadedFiles = hashSetWithCap<String>(128)
-
-  private val _cacheDirFile: File = cacheDirFile
-  private val cacheDirFile: File
-    get() {
-      if (!_cacheDirFile.exists()) {
-        _cacheDirFile.mkdirs()
-
-        synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-        synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
-      }
-
-      return _cacheDirFile
-    }
-
   private val _chunksCacheDirFile: File = chunksCacheDirFile
   private val chunksCacheDirFile: File
     get() {
@@ -81,7 +63,9 @@ internal class InnerCache(
     Logger.d(TAG, "cacheFileType=$cacheFileType, " +
       "fileCacheDiskSize=${ChanPostUtils.getReadableFileSize(fileCacheDiskSizeBytes)}")
 
-    backgroundRecalculateSize()
+    backgroundLoadIndex()
+    // Chunks are not stored in separate files anymore, this only removes the leftovers of the old
+    // versions of the app
     backgroundClearChunksCacheDir()
   }
 
@@ -93,60 +77,46 @@ internal class InnerCache(
     return fileCacheDiskSizeBytes
   }
 
-  fun containsFile(fileName: String): Boolean {
-    return synchronized(filesOnDiskCache) { filesOnDiskCache.contains(fileName) }
+  fun getLockContentionStats(): CacheHandlerSynchronizer.ContentionStats {
+    return cacheHandlerSynchronizer.contentionStats()
   }
 
-  fun getChunkCacheFileOrNull(chunkStart: Long, chunkEnd: Long, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-    val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
-
-    return cacheHandlerSynchronizer.withLocalLock(chunkCacheFile.name) {
-      try {
-        if (chunkCacheFile.exists()) {
-          return@withLocalLock chunkCacheFile
-        }
+  fun containsFile(fileName: String): Boolean {
+    return cacheIndex.contains(fileName)
+  }
 
-        return@withLocalLock null
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Error while trying to get chunk cache file (deleting)", error)
+  fun getCacheFileOrNull(url: String): File? {
+    val cacheFile = getExistingCacheFileOrNull(url)
+      ?: return null
 
-        createDirectories(forced = true)
-        deleteCacheFile(chunkCacheFile)
-        return@withLocalLock null
-      }
+    // Must be called without holding the read lock since it may need to delete the file
+    if (!isAlreadyDownloaded(cacheFile)) {
+      return null
     }
+
+    cacheIndex.onAccessed(cacheFile.name)
+    return cacheFile
   }
 
-  fun getCacheFileOrNull(url: String): File? {
+  /**
+   * Returns the cache file of [url] if it exists no matter whether it's downloaded or not. Never
+   * creates anything.
+   * */
+  fun getExistingCacheFileOrNull(url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
 
     createDirectories()
     val cacheFile = getCacheFileByUrl(url)
 
-    return cacheHandlerSynchronizer.withLocalLock(cacheFile.name) {
-      try {
-        if (!cacheFile.exists()) {
-          return@withLocalLock null
-        }
-
-        if (!getCacheFileMetaInternal(url).exists()) {
-          return@withLocalLock null
-        }
-
-        if (!isAlreadyDownloaded(cacheFile)) {
-          return@withLocalLock null
-        }
-
-        return@withLocalLock cacheFile
-      } catch (error: IOException) {
-        Logger.e(TAG, "Error while trying to get cache file (deleting)", error)
+    val exists = cacheHandlerSynchronizer.withLocalReadLock(cacheFile.name) {
+      return@withLocalReadLock cacheFile.exists() && getCacheFileMetaInternal(url).exists()
+    }
 
-        createDirectories(forced = true)
-        deleteCacheFile(cacheFile)
-        return@withLocalLock null
-      }
+    if (!exists) {
+      return null
     }
+
+    return cacheFile
   }
 
   fun getOrCreateCacheFile(url: String): File? {
@@ -155,12 +125,13 @@ internal class InnerCache(
     createDirectories()
     val cacheFile = getCacheFileByUrl(url)
 
-    return cacheHandlerSynchronizer.withLocalLock(cacheFile.name) {
+    return cacheHandlerSynchronizer.withLocalWriteLock(cacheFile.name) {
       try {
         if (!cacheFile.exists() && !cacheFile.createNewFile()) {
           throw IOException("Couldn't create cache file, path = ${cacheFile.absolutePath}")
         }
 
+        val createdOn = System.currentTimeMillis()
         val cacheFileMeta = getCacheFileMetaInternal(url)
         if (!cacheFileMeta.exists()) {
           if (!cacheFileMeta.createNewFile()) {
@@ -170,7 +141,7 @@ internal class InnerCache(
           val result = updateCacheFileMeta(
             file = cacheFileMeta,
             overwrite = true,
-            createdOn = System.currentTimeMillis(),
+            createdOn = createdOn,
             fileDownloaded = false
           )
 
@@ -180,43 +151,47 @@ internal class InnerCache(
         }
 
         val cacheFileName = cacheFile.name
-        synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
+        if (!cacheIndex.contains(cacheFileName)) {
+          cacheIndex.onCreated(cacheFileName, createdOn)
+        }
 
-        return@withLocalLock cacheFile
+        return@withLocalWriteLock cacheFile
       } catch (error: IOException) {
         Logger.e(TAG, "Error while trying to get or create cache file (deleting)", error)
 
         createDirectories(forced = true)
         deleteCacheFile(cacheFile)
-        return@withLocalLock null
+        return@withLocalWriteLock null
       }
     }
   }
 
-  fun getOrCreateChunkCacheFile(chunkStart: Long, chunkEnd: Long, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-    val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
+  /**
+   * Returns the file where the completed ranges of a partially downloaded [cacheFile] are persisted
+   * (see ChunkedOutputFile) or null if [cacheFile] is not a cache file.
+   * */
+  fun getCacheFileRanges(cacheFile: File): File? {
+    val fileNameWithExtension = cacheFile.name
+    if (!fileNameWithExtension.endsWith(CACHE_EXTENSION)) {
+      Logger.e(TAG, "Bad file (not a cache file), file = ${cacheFile.absolutePath}")
+      return null
+    }
 
-    return cacheHandlerSynchronizer.withLocalLock(chunkCacheFile.name) {
-      try {
-        if (chunkCacheFile.exists()) {
-          if (!chunkCacheFile.delete()) {
-            throw IOException("Couldn't delete old chunk cache file")
-          }
-        }
+    val originalFileName = StringUtils.removeExtensionFromFileName(fileNameWithExtension)
+    if (originalFileName.isEmpty()) {
+      Logger.e(TAG, "Bad fileNameWithExtension, fileNameWithExtension = $fileNameWithExtension")
+      return null
+    }
 
-        if (!chunkCacheFile.createNewFile()) {
-          throw IOException("Couldn't create new chunk cache file")
-        }
+    return File(cacheDirFile, formatCacheFileRangesName(originalFileName))
+  }
 
-        return@withLocalLock chunkCacheFile
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Error while trying to get or create chunk cache file (deleting)", error)
+  fun hasResumableDownload(cacheFile: File): Boolean {
+    val cacheFileRanges = getCacheFileRanges(cacheFile)
+      ?: return false
 
-        createDirectories(forced = true)
-        deleteCacheFile(chunkCacheFile)
-        return@withLocalLock null
-      }
+    return cacheHandlerSynchronizer.withLocalReadLock(cacheFile.name) {
+      cacheFile.exists() && cacheFileRanges.exists() && cacheFileRanges.length() > 0
     }
   }
 
@@ -226,85 +201,104 @@ internal class InnerCache(
     createDirectories()
     val cacheFileName = cacheFile.name
 
-    return cacheHandlerSynchronizer.withLocalLock(cacheFileName) {
-      try {
-        val containsInCache = synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.contains(cacheFileName) }
-        if (containsInCache) {
-          return@withLocalLock true
-        }
+    // Fast path, most of the time the file was already checked (or marked as downloaded) before so
+    // there is no need to take any locks or read the meta. The index may be stale though (e.g. the
+    // cache directory was cleared by the OS) so the file itself is still checked.
+    if (cacheIndex.isDownloaded(cacheFileName)) {
+      if (cacheFile.exists() && cacheFile.length() > 0) {
+        return true
+      }
 
-        if (!cacheFile.exists()) {
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+      Logger.e(TAG, "Cache file is marked as downloaded in the index but it's missing or empty. " +
+        "file: ${cacheFile.absolutePath}")
 
-        if (!cacheFileName.endsWith(CACHE_EXTENSION)) {
-          Logger.e(TAG, "Not a cache file (deleting). file: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+      // Drop the stale entry and let the slow path decide what to do with the file
+      cacheIndex.onRemoved(cacheFileName)
+    }
 
-        val cacheFileMetaFile = getCacheFileMetaByCacheFile(cacheFile)
-        if (cacheFileMetaFile == null) {
-          Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). cacheFile: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+    val isDownloaded = try {
+      cacheHandlerSynchronizer.withLocalReadLock(cacheFileName) { readIsDownloaded(cacheFile) }
+    } catch (error: Throwable) {
+      Logger.e(TAG, "Error while trying to check whether the file is already downloaded", error)
+      null
+    }
 
-        if (!cacheFileMetaFile.exists()) {
-          Logger.e(TAG, "Cache file meta does not exist (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+    if (isDownloaded == null) {
+      // The read lock is already released here so we can take the write lock
+      deleteCacheFile(cacheFile)
+      return false
+    }
 
-        if (cacheFileMetaFile.length() <= 0) {
-          Logger.e(TAG, "Cache file meta is empty (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+    if (isDownloaded) {
+      // The index didn't know about this file (or didn't know that it was downloaded)
+      cacheIndex.onDownloaded(cacheFileName, cacheFile.length())
+    }
 
-        val cacheFileMeta = readCacheFileMeta(cacheFileMetaFile)
-        if (cacheFileMeta == null) {
-          Logger.e(TAG, "Failed to read cache file meta (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+    return isDownloaded
+  }
 
-        val isDownloaded = cacheFileMeta.isDownloaded
-        if (isDownloaded) {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += cacheFileName }
-        } else {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles -= cacheFileName }
-        }
+  /**
+   * Returns null when the cache file or it's meta are broken and must be deleted.
+   * */
+  @Throws(IOException::class)
+  private fun readIsDownloaded(cacheFile: File): Boolean? {
+    if (!cacheFile.exists()) {
+      return null
+    }
 
-        return@withLocalLock isDownloaded
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Error while trying to check whether the file is already downloaded", error)
-        deleteCacheFile(cacheFile)
-        return@withLocalLock false
-      }
+    if (!cacheFile.name.endsWith(CACHE_EXTENSION)) {
+      Logger.e(TAG, "Not a cache file (deleting). file: ${cacheFile.absolutePath}")
+      return null
     }
-  }
 
+    val cacheFileMetaFile = getCacheFileMetaByCacheFile(cacheFile)
+    if (cacheFileMetaFile == null) {
+      Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). cacheFile: ${cacheFile.absolutePath}")
+      return null
+    }
+
+    if (!cacheFileMetaFile.exists()) {
+      Logger.e(TAG, "Cache file meta does not exist (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
+      return null
+    }
+
+    if (cacheFileMetaFile.length() <= 0) {
+      Logger.e(TAG, "Cache file meta is empty (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
+      return null
+    }
+
+    val cacheFileMeta = readCacheFileMeta(cacheFileMetaFile)
+    if (cacheFileMeta == null) {
+      Logger.e(TAG, "Failed to read cache file meta (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
+      return null
+    }
+
+    if (cacheFileMeta.isDownloaded && cacheFile.length() <= 0) {
+      Logger.e(TAG, "Downloaded cache file is empty (deleting). cacheFile: ${cacheFile.absolutePath}")
+      return null
+    }
+
+    return cacheFileMeta.isDownloaded
+  }
 
   fun markFileDownloaded(output: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
-    return cacheHandlerSynchronizer.withLocalLock(output.name) {
+    return cacheHandlerSynchronizer.withLocalWriteLock(output.name) {
       try {
         createDirectories()
 
         if (!output.exists()) {
           Logger.e(TAG, "File does not exist (deleting). file: ${output.absolutePath}")
           deleteCacheFile(output)
-          return@withLocalLock false
+          return@withLocalWriteLock false
         }
 
         val cacheFileMeta = getCacheFileMetaByCacheFile(output)
         if (cacheFileMeta == null) {
           Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). output: ${output.absolutePath}")
           deleteCacheFile(output)
-          return@withLocalLock false
+          return@withLocalWriteLock false
         }
 
         val updateResult = updateCacheFileMeta(
@@ -320,15 +314,17 @@ internal class InnerCache(
             "cacheFileMeta: ${cacheFileMeta.absolutePath}, output: ${output.absolutePath}")
           deleteCacheFile(output)
         } else {
-          val outputFileName = output.name
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += outputFileName }
+          cacheIndex.onDownloaded(output.name, output.length())
+
+          // The file is fully downloaded, nothing to resume anymore
+          getCacheFileRanges(output)?.delete()
         }
 
-        return@withLocalLock updateResult
+        return@withLocalWriteLock updateResult
       } catch (error: Throwable) {
         Logger.e(TAG, "Error while trying to mark file as downloaded (deleting)", error)
         deleteCacheFile(output)
-        return@withLocalLock false
+        return@withLocalWriteLock false
       }
     }
   }
@@ -374,11 +370,11 @@ internal class InnerCache(
   }
 
   fun deleteCacheFile(fileName: String): Boolean {
-    return cacheHandlerSynchronizer.withLocalLock(fileName) {
+    return cacheHandlerSynchronizer.withLocalWriteLock(fileName) {
       val originalFileName = StringUtils.removeExtensionFromFileName(fileName)
       if (originalFileName.isEmpty()) {
         Logger.e(TAG, "Couldn't parse original file name, fileName = $fileName")
-        return@withLocalLock false
+        return@withLocalWriteLock false
       }
 
       val cacheFileName = formatCacheFileName(originalFileName)
@@ -386,8 +382,13 @@ internal class InnerCache(
 
       val cacheFile = File(cacheDirFile, cacheFileName)
       val cacheMetaFile = File(cacheDirFile, cacheMetaFileName)
+      val cacheFileRanges = File(cacheDirFile, formatCacheFileRangesName(originalFileName))
       val cacheFileSize = cacheFile.length()
 
+      if (cacheFileRanges.exists() && !cacheFileRanges.delete()) {
+        Logger.e(TAG, "Failed to delete cache file ranges = ${cacheFileRanges.absolutePath}")
+      }
+
       val deleteCacheFileResult = !cacheFile.exists() || cacheFile.delete()
       if (!deleteCacheFileResult) {
         Logger.e(TAG, "Failed to delete cache file, fileName = ${cacheFile.absolutePath}")
@@ -398,8 +399,7 @@ internal class InnerCache(
         Logger.e(TAG, "Failed to delete cache file meta = ${cacheMetaFile.absolutePath}")
       }
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.remove(cacheFileName) }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.remove(cacheFileName) }
+      cacheIndex.onRemoved(cacheFileName)
 
       if (deleteCacheFileResult && deleteCacheFileMetaResult) {
         val fileSize = if (cacheFileSize < 0) {
@@ -421,11 +421,11 @@ internal class InnerCache(
           }
         }
 
-        return@withLocalLock true
+        return@withLocalWriteLock true
       }
 
       // Only one of the files could be deleted
-      return@withLocalLock false
+      return@withLocalWriteLock false
     }
   }
 
@@ -449,9 +449,7 @@ internal class InnerCache(
         }
       }
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
-
+      cacheIndex.clear()
       recalculateSize()
     }
   }
@@ -479,15 +477,15 @@ internal class InnerCache(
     createdOn: Long?,
     fileDownloaded: Boolean?
   ): Boolean {
-    return cacheHandlerSynchronizer.withLocalLock(file.name) {
+    return cacheHandlerSynchronizer.withLocalWriteLock(file.name) {
       if (!file.exists()) {
         Logger.e(TAG, "Cache file meta does not exist!")
-        return@withLocalLock false
+        return@withLocalWriteLock false
       }
 
       if (!file.name.endsWith(CACHE_META_EXTENSION)) {
         Logger.e(TAG, "Not a cache file meta! file = ${file.absolutePath}")
-        return@withLocalLock false
+        return@withLocalWriteLock false
       }
 
       val prevCacheFileMeta = readCacheFileMeta(file).let { cacheFileMeta ->
@@ -519,7 +517,7 @@ internal class InnerCache(
         }
       }
 
-      return@withLocalLock file.outputStream().use { stream ->
+      return@withLocalWriteLock file.outputStream().use { stream ->
         return@use PrintWriter(stream).use { pw ->
           val toWrite = String.format(
             Locale.ENGLISH,
@@ -542,7 +540,7 @@ internal class InnerCache(
 
   @Throws(IOException::class)
   private fun readCacheFileMeta(cacheFileMeta: File): CacheFileMeta? {
-    return cacheHandlerSynchronizer.withLocalLock(cacheFileMeta.name) {
+    return cacheHandlerSynchronizer.withLocalReadLock(cacheFileMeta.name) {
       if (!cacheFileMeta.exists()) {
         throw IOException("Cache file meta does not exist, path = ${cacheFileMeta.absolutePath}")
       }
@@ -557,14 +555,14 @@ internal class InnerCache(
 
       if (cacheFileMeta.length() <= 0) {
         // This is a valid case
-        return@withLocalLock null
+        return@withLocalReadLock null
       }
 
       if (!cacheFileMeta.name.endsWith(CACHE_META_EXTENSION)) {
         throw IOException("Not a cache file meta! file = ${cacheFileMeta.absolutePath}")
       }
 
-      return@withLocalLock cacheFileMeta.reader().use { reader ->
+      return@withLocalReadLock cacheFileMeta.reader().use { reader ->
         val lengthBuffer = CharArray(CACHE_FILE_META_HEADER_SIZE)
 
         var read = reader.read(lengthBuffer)
@@ -615,17 +613,6 @@ internal class InnerCache(
     return File(cacheDirFile, fileName)
   }
 
-  private fun getChunkCacheFileInternal(
-    chunkStart: Long,
-    chunkEnd: Long,
-    url: String
-  ): File {
-    createDirectories()
-
-    val fileName = formatChunkCacheFileName(chunkStart, chunkEnd, hashUrl(url))
-    return File(chunksCacheDirFile, fileName)
-  }
-
   internal fun getCacheFileMetaInternal(url: String): File {
     createDirectories()
 
@@ -638,39 +625,32 @@ internal class InnerCache(
     return HashingUtil.stringHash(url)
   }
 
-  private fun formatChunkCacheFileName(
-    chunkStart: Long,
-    chunkEnd: Long,
-    originalFileName: String
-  ): String {
+  fun formatCacheFileName(originalFileName: String): String {
     return String.format(
       Locale.ENGLISH,
-      CHUNK_CACHE_FILE_NAME_FORMAT,
+      CACHE_FILE_NAME_FORMAT,
       originalFileName,
-      chunkStart,
-      chunkEnd,
       // AbstractFile expects all file names to have extensions
-      CHUNK_CACHE_EXTENSION
+      CACHE_EXTENSION
     )
   }
 
-  fun formatCacheFileName(originalFileName: String): String {
+  private fun formatCacheFileMetaName(originalFileName: String): String {
     return String.format(
       Locale.ENGLISH,
       CACHE_FILE_NAME_FORMAT,
       originalFileName,
       // AbstractFile expects all file names to have extensions
-      CACHE_EXTENSION
+      CACHE_META_EXTENSION
     )
   }
 
-  private fun formatCacheFileMetaName(originalFileName: String): String {
+  private fun formatCacheFileRangesName(originalFileName: String): String {
     return String.format(
       Locale.ENGLISH,
       CACHE_FILE_NAME_FORMAT,
       originalFileName,
-      // AbstractFile expects all file names to have extensions
-      CACHE_META_EXTENSION
+      CACHE_RANGES_EXTENSION
     )
   }
 
@@ -684,10 +664,16 @@ internal class InnerCache(
       Logger.d(TAG, "createDirectories(forced)")
     }
 
-    if (!cacheDirFile.exists() && !cacheDirFile.mkdirs()) {
-      throw RuntimeException(
-        "Unable to create file cache dir ${cacheDirFile.absolutePath}, " +
-          "additional info = ${getAdditionalDebugInfo(cacheDirFile)}")
+    if (!cacheDirFile.exists()) {
+      if (!cacheDirFile.mkdirs()) {
+        throw RuntimeException(
+          "Unable to create file cache dir ${cacheDirFile.absolutePath}, " +
+            "additional info = ${getAdditionalDebugInfo(cacheDirFile)}")
+      }
+
+      // The directory was removed (e.g. the app cache was cleared from the system settings) so
+      // nothing the index knows about exists anymore
+      cacheIndex.clear()
     }
 
     if (!chunksCacheDirFile.exists() && !chunksCacheDirFile.mkdirs()) {
@@ -707,9 +693,9 @@ internal class InnerCache(
     try {
       Logger.d(TAG, "clearChunksCacheDirInternal() start")
 
-      cacheHandlerSynchronizer.withGlobalLock {
-        if (chunksCacheDirFile.exists()) {
-          chunksCacheDirFile.listFiles()?.forEach { file -> file.delete() }
+      if (chunksCacheDirFile.exists()) {
+        chunksCacheDirFile.listFiles()?.forEach { file ->
+          cacheHandlerSynchronizer.withLocalWriteLock(file.name) { file.delete() }
         }
       }
 
@@ -719,82 +705,132 @@ internal class InnerCache(
     }
   }
 
-  private fun backgroundRecalculateSize() {
-    if (recalculationRunning.get()) {
-      return
-    }
-
+  private fun backgroundLoadIndex() {
     executor.execute {
-      recalculateSize()
+      try {
+        loadIndex()
+      } catch (error: Throwable) {
+        Logger.e(TAG, "loadIndex() error", error)
+      }
     }
   }
 
   @OptIn(ExperimentalTime::class)
-  private fun recalculateSize() {
-    var calculatedSize: Long = 0
+  private fun loadIndex() {
+    Logger.d(TAG, "loadIndex() start")
 
-    if (!recalculationRunning.compareAndSet(false, true)) {
-      return
+    var rebuilt = false
+
+    val time = measureTime {
+      if (!cacheIndex.load()) {
+        rebuildIndex()
+        rebuilt = true
+      }
+
+      recalculateSize()
     }
 
-    Logger.d(TAG, "recalculateSize() start")
+    Logger.d(TAG, "loadIndex() end took $time, rebuilt=$rebuilt, " +
+      "entriesCount=${cacheIndex.entriesCount()}, " +
+      "cacheSize=${ChanPostUtils.getReadableFileSize(size.get())}")
+  }
 
-    val time = measureTime {
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
+  /**
+   * The slow path, only used when there is no journal (first start after an update or the journal
+   * got corrupted). Lists the cache directory and reads every cache file meta.
+   * */
+  private fun rebuildIndex() {
+    val files = cacheDirFile.listFiles() ?: emptyArray()
+    val cacheFileNames = hashSetWithCap<String>(files.size)
+    val cacheFileMetaNames = mutableListWithCap<String>(files.size / 2)
+    val entries = mutableListWithCap<InnerCacheIndex.Entry>(files.size / 2)
 
-      try {
-        cacheHandlerSynchronizer.withGlobalLock {
-          val files = cacheDirFile.listFiles() ?: emptyArray()
-          for (file in files) {
-            if (file.name.endsWith(CACHE_META_EXTENSION)) {
-              continue
-            }
+    for (file in files) {
+      val fileName = file.name
 
-            calculatedSize += file.length()
-            val cacheFileName = file.name
+      when {
+        fileName.endsWith(CACHE_META_EXTENSION) -> cacheFileMetaNames += fileName
+        fileName.endsWith(CACHE_EXTENSION) -> cacheFileNames += fileName
+        else -> continue
+      }
+    }
 
-            synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
-          }
+    for (cacheFileName in cacheFileNames) {
+      val cacheFile = File(cacheDirFile, cacheFileName)
+      val cacheFileMetaFile = getCacheFileMetaByCacheFile(cacheFile)
+
+      val cacheFileMeta = try {
+        cacheFileMetaFile?.let { metaFile -> readCacheFileMeta(metaFile) }
+      } catch (error: IOException) {
+        null
+      }
+
+      if (cacheFileMeta == null) {
+        Logger.e(TAG, "Couldn't read cache meta for file = ${cacheFile.absolutePath}")
+
+        if (!deleteCacheFile(cacheFile)) {
+          Logger.e(TAG, "Couldn't delete cache file with meta for file = ${cacheFile.absolutePath}")
         }
 
-        size.set(calculatedSize)
-      } finally {
-        recalculationRunning.set(false)
+        continue
       }
+
+      entries += InnerCacheIndex.Entry(
+        fileName = cacheFileName,
+        createdOn = cacheFileMeta.createdOn,
+        // We don't know when the file was accessed the last time
+        lastAccessTime = cacheFileMeta.createdOn,
+        size = if (cacheFileMeta.isDownloaded) cacheFile.length() else 0L,
+        isDownloaded = cacheFileMeta.isDownloaded
+      )
     }
 
-    Logger.d(
-      TAG, "recalculateSize() end took $time, " +
-      "filesOnDiskCount=${filesOnDiskCache.size}, " +
-      "fullyDownloadedFilesCount=${fullyDownloadedFiles.size}")
+    // Sort in ascending order, the oldest files are in the beginning of the list
+    entries.sortBy { entry -> entry.createdOn }
+    cacheIndex.rebuild(entries)
+
+    deleteCacheFileMetasWithoutCacheFiles(cacheFileNames, cacheFileMetaNames)
+  }
+
+  private fun recalculateSize() {
+    size.set(cacheIndex.totalSize())
+  }
+
+  private fun deleteCacheFileMetasWithoutCacheFiles(
+    cacheFileNames: Set<String>,
+    cacheFileMetaNames: List<String>
+  ) {
+    for (cacheFileMetaName in cacheFileMetaNames) {
+      val originalFileName = StringUtils.removeExtensionFromFileName(cacheFileMetaName)
+      val cacheFileName = formatCacheFileName(originalFileName)
+
+      if (cacheFileNames.contains(cacheFileName)) {
+        continue
+      }
+
+      cacheHandlerSynchronizer.withLocalWriteLock(cacheFileName) {
+        // The cache file may have been created after we listed the directory
+        if (!File(cacheDirFile, cacheFileName).exists()) {
+          deleteCacheFile(cacheFileName)
+        }
+      }
+    }
   }
 
   private fun trim() {
     BackgroundUtils.ensureBackgroundThread()
     createDirectories()
 
-    val directoryFiles = cacheHandlerSynchronizer.withGlobalLock { cacheDirFile.listFiles() ?: emptyArray() }
-    // Don't try to trim empty directories or just two files in it.
-    // Two (not one) because for every cache file we now have a cache file meta with some
-    // additional info.
-    if (directoryFiles.size <= 2) {
+    // Don't try to trim empty directories or just one file in it.
+    if (cacheIndex.entriesCount() <= 1) {
       return
     }
 
     val start = System.currentTimeMillis()
 
-    // LastModified doesn't work on some platforms/phones
-    // (https://issuetracker.google.com/issues/36930892)
-    // so we have to use a workaround. When creating a cache file for a download we also create a
-    // meta file where we will put some info about this download: the main file creation time and
-    // a flag that will tell us whether the download is complete or not. So now we need to parse
-    // the creation time from the meta file to sort cache files in ascending order (from the
-    // oldest cache file to the newest).
-
     var totalDeleted = 0L
     var filesDeleted = 0
 
-    val sortedFiles = groupFilterAndSortFiles(directoryFiles)
     val now = System.currentTimeMillis()
 
     val currentCacheSizeToUse = if (size.get() > fileCacheDiskSizeBytes) {
@@ -807,39 +843,44 @@ internal class InnerCache(
     val calculatedSizeToFree = (currentCacheSizeToUse / (100f / ChanSettings.diskCacheCleanupRemovePercent.get().toFloat())).toLong()
     val sizeToFree = sizeDiff + calculatedSizeToFree
 
+    val minCacheFileLifeTime = if (AppModuleAndroidUtils.isDevBuild()) {
+      0
+    } else {
+      // Do not delete files that were created or accessed very recently because it may happen
+      // right at the time user switched to it (or the file is still being downloaded).
+      MIN_CACHE_FILE_LIFE_TIME
+    }
+
+    // The index is sorted from the least recently used file to the most recently used one so we
+    // only need to take as many entries from the head as needed to free sizeToFree bytes. We used
+    // to list the directory and parse every cache file meta here to sort the files by their
+    // creation time.
+    val evictionCandidates = cacheIndex.evictionCandidates(
+      bytesToFree = sizeToFree,
+      accessedBefore = now - minCacheFileLifeTime
+    )
+
     Logger.d(
       TAG, "trim() started, " +
       "cacheFileType=${cacheFileType}, " +
       "currentCacheSize=${ChanPostUtils.getReadableFileSize(size.get())}, " +
       "fileCacheDiskSizeBytes=${ChanPostUtils.getReadableFileSize(fileCacheDiskSizeBytes)}, " +
-      "sizeToFree=${ChanPostUtils.getReadableFileSize(sizeToFree)}")
-
-    // We either delete all files we can in the cache directory or at most half of the cache
-    for (cacheFile in sortedFiles) {
-      val file = cacheFile.file
-      val createdOn = cacheFile.createdOn
-
-      val minCacheFileLifeTime = if (AppModuleAndroidUtils.isDevBuild()) {
-        0
-      } else {
-        // Do not delete fresh files because it may happen right at the time user switched
-        // to it. Since the list is sorted there is no point to iterate it anymore since all
-        // the following files will be "too young" to be deleted so we just break out of
-        // the loop.
-        MIN_CACHE_FILE_LIFE_TIME
-      }
-
-      if (now - createdOn < minCacheFileLifeTime) {
-        break
-      }
+      "sizeToFree=${ChanPostUtils.getReadableFileSize(sizeToFree)}, " +
+      "evictionCandidates=${evictionCandidates.size}")
 
+    for (entry in evictionCandidates) {
       if (totalDeleted >= sizeToFree) {
         break
       }
 
-      val fileSize = file.length()
+      val fileSize = if (entry.isDownloaded) {
+        entry.size
+      } else {
+        // Most likely a download that was interrupted a long time ago
+        File(cacheDirFile, entry.fileName).length()
+      }
 
-      if (deleteCacheFile(file)) {
+      if (deleteCacheFile(entry.fileName)) {
         totalDeleted += fileSize
         ++filesDeleted
       }
@@ -855,96 +896,8 @@ internal class InnerCache(
 
     Logger.d(TAG, "trim() ended (took ${timeDiff} ms), " +
       "cacheFileType=$cacheFileType, filesDeleted=$filesDeleted, " +
-      "total space freed=${ChanPostUtils.getReadableFileSize(totalDeleted)}") }
-
-  private fun groupFilterAndSortFiles(directoryFiles: Array<File>): List<CacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val groupedCacheFiles = filterAndGroupCacheFilesWithMeta(directoryFiles)
-    val cacheFiles = ArrayList<CacheFile>(groupedCacheFiles.size)
-
-    for ((abstractFile, abstractFileMeta) in groupedCacheFiles) {
-      val cacheFileMeta = try {
-        readCacheFileMeta(abstractFileMeta)
-      } catch (error: IOException) {
-        null
-      }
-
-      if (cacheFileMeta == null) {
-        Logger.e(TAG, "Couldn't read cache meta for file = ${abstractFile.absolutePath}")
-
-        if (!deleteCacheFile(abstractFile)) {
-          Logger.e(TAG, "Couldn't delete cache file with meta for file = ${abstractFile.absolutePath}")
-        }
-        continue
-      }
-
-      cacheFiles.add(CacheFile(abstractFile, cacheFileMeta))
-    }
-
-    // Sort in ascending order, the oldest files are in the beginning of the list
-    Collections.sort(cacheFiles, CACHE_FILE_COMPARATOR)
-    return cacheFiles
-  }
-
-  private fun filterAndGroupCacheFilesWithMeta(
-    directoryFiles: Array<File>
-  ): List<GroupedCacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val grouped = directoryFiles
-      .map { file -> Pair(file, file.name) }
-      .filter { (_, fileName) ->
-        // Either cache file or cache meta
-        fileName.endsWith(CACHE_EXTENSION) || fileName.endsWith(CACHE_META_EXTENSION)
-      }
-      .groupBy { (_, fileName) ->
-        StringUtils.removeExtensionFromFileName(fileName)
-      }
-
-    val groupedCacheFileList = mutableListWithCap<GroupedCacheFile>(grouped.size / 2)
-
-    for ((fileName, groupOfFiles) in grouped) {
-      // We have already filtered all non-cache related files so it's safe to delete them here.
-      // We delete files without where either the cache file or cache file meta (or both) are
-      // missing.
-      if (groupOfFiles.isEmpty()) {
-        deleteCacheFile(fileName)
-        continue
-      }
-
-      // We also handle a hypothetical case where there are more than one cache file/meta with
-      // the same name
-      if (groupOfFiles.size != 2) {
-        groupOfFiles.forEach { (file, _) -> deleteCacheFile(file) }
-        continue
-      }
-
-      val (file1, fileName1) = groupOfFiles[0]
-      val (file2, fileName2) = groupOfFiles[1]
-
-      val cacheFile = when {
-        fileName1.endsWith(CACHE_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      val cacheFileMeta = when {
-        fileName1.endsWith(CACHE_META_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_META_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file meta! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      groupedCacheFileList += GroupedCacheFile(cacheFile, cacheFileMeta)
-    }
-
-    return groupedCacheFileList
+      "total space freed=${ChanPostUtils.getReadableFileSize(totalDeleted)}, " +
+      "lockContentionStats=${cacheHandlerSynchronizer.contentionStats()}")
   }
 
   private fun getAdditionalDebugInfo(file: File): String {
@@ -964,23 +917,6 @@ internal class InnerCache(
       "internalCacheDir = ${internalCacheDir})"
   }
 
-  private class CacheFile(
-    val file: File,
-    private val cacheFileMeta: CacheFileMeta
-  ) {
-
-    val createdOn: Long
-      get() = cacheFileMeta.createdOn
-
-    override fun toString(): String {
-      return "CacheFile{" +
-        "file=${file.absolutePath}" +
-        ", cacheFileMeta=${cacheFileMeta}" +
-        "}"
-    }
-
-  }
-
   internal class CacheFileMeta(
     val version: Int = CURRENT_META_FILE_VERSION,
     val createdOn: Long,
@@ -1006,11 +942,6 @@ internal class InnerCache(
     }
   }
 
-  private data class GroupedCacheFile(
-    val cacheFile: File,
-    val cacheFileMeta: File
-  )
-
   companion object {
     private const val CURRENT_META_FILE_VERSION = 1
     private const val CACHE_FILE_META_HEADER_SIZE = 4
@@ -1021,18 +952,13 @@ internal class InnerCache(
     private const val MAX_CACHE_META_SIZE = 1024L
 
     private const val CACHE_FILE_NAME_FORMAT = "%s.%s"
-    private const val CHUNK_CACHE_FILE_NAME_FORMAT = "%s_%d_%d.%s"
     private const val CACHE_FILE_META_CONTENT_FORMAT = "%d,%d,%b"
     internal const val CACHE_EXTENSION = "cache"
     internal const val CACHE_META_EXTENSION = "cache_meta"
-    internal const val CHUNK_CACHE_EXTENSION = "chunk"
+    internal const val CACHE_RANGES_EXTENSION = "cache_ranges"
 
     private val MIN_CACHE_FILE_LIFE_TIME = TimeUnit.MINUTES.toMillis(1)
     private val MIN_TRIM_INTERVAL = TimeUnit.SECONDS.toMillis(5)
-
-    private val CACHE_FILE_COMPARATOR = Comparator<CacheFile> { cacheFile1, cacheFile2 ->
-      cacheFile1.createdOn.compareTo(cacheFile2.createdOn)
-    }
   }
 
 }
\ No newline at end of file
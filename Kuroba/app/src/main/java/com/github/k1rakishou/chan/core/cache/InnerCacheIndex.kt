@@ -0,0 +1,551 @@
+package com.github.k1rakishou.chan.core.cache
+
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.core_logger.Logger
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.Writer
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * In-memory index of the files of an [InnerCache] ordered from the least recently used to the
+ * most recently used, backed by an append-only journal (similar to the one DiskLruCache uses) so
+ * that we don't have to list the cache directory and read every cache file meta on every app start
+ * or when trimming the cache.
+ *
+ * Journal format (after the header, one operation per line):
+ *   DIRTY <fileName> <createdOn>       a new cache file was created (the download is not finished yet)
+ *   CLEAN <fileName> <size> <time>     the download was finished
+ *   READ <fileName> <time>             the file was accessed
+ *   REMOVE <fileName>                  the file was deleted
+ *
+ * READ operations are not flushed right away, losing some of them when the app is killed only
+ * makes the LRU order a little bit less precise. When there are too many redundant operations the
+ * journal is compacted in the background.
+ *
+ * The whole journal is never rewritten while holding the index lock (it's taken on every cache
+ * lookup). A rewrite only takes a snapshot of the entries under the lock, the snapshot is written
+ * and renamed without it and the operations that happen in the meantime are buffered and appended
+ * to the new journal afterwards.
+ * */
+internal class InnerCacheIndex(
+  private val journalFile: File,
+  private val executor: Executor,
+  private val tag: String
+) {
+  private val journalTmpFile = File(journalFile.parentFile, journalFile.name + ".tmp")
+  private val compactionScheduled = AtomicBoolean(false)
+  // Only one journal rewrite at a time. Must never be taken while holding the index lock.
+  private val rewriteLock = Any()
+
+  // The least recently used entry is the first one. We don't use the access order mode of
+  // LinkedHashMap because there get() moves the entry to the end which we don't always want, instead
+  // an accessed entry is re-inserted.
+  @GuardedBy("this")
+  private var entries = LinkedHashMap<String, Entry>(128)
+  @GuardedBy("this")
+  private var totalSize = 0L
+  @GuardedBy("this")
+  private var redundantOpsCount = 0
+  @GuardedBy("this")
+  private var journalWriter: Writer? = null
+  @GuardedBy("this")
+  private var loaded = false
+  // Operations that happened before the journal was loaded. They are newer than anything in the
+  // journal so they are applied on top of it once it's loaded.
+  @GuardedBy("this")
+  private val pendingOperations = mutableListOf<String>()
+  @GuardedBy("this")
+  private var journalRewriteRequested = false
+  @GuardedBy("this")
+  private var journalRewriteRunning = false
+  // Operations that happened while the journal was being rewritten. They are not in the snapshot so
+  // they are appended to the new journal once it's written.
+  @GuardedBy("this")
+  private val operationsDuringRewrite = mutableListOf<String>()
+
+  /**
+   * Reads the journal. Returns false if there is no journal or it's broken, in this case the
+   * index must be rebuilt from the cache directory with [rebuild].
+   * */
+  fun load(): Boolean {
+    synchronized(this) {
+      check(!loaded) { "Already loaded" }
+
+      if (!journalFile.exists()) {
+        return false
+      }
+
+      val loadedEntries = LinkedHashMap<String, Entry>(128)
+      var opsCount = 0
+      var malformedLinesCount = 0
+
+      try {
+        journalFile.bufferedReader().use { reader ->
+          val magic = reader.readLine()
+          val version = reader.readLine()
+          val blank = reader.readLine()
+
+          if (magic != MAGIC || version != VERSION.toString() || blank != "") {
+            Logger.e(tag, "Bad journal header: [$magic, $version, $blank]")
+            return false
+          }
+
+          while (true) {
+            val line = reader.readLine()
+              ?: break
+
+            ++opsCount
+
+            // The last line may be truncated if the app was killed while writing it
+            if (applyOperation(loadedEntries, line) == ApplyResult.Malformed) {
+              ++malformedLinesCount
+            }
+          }
+        }
+      } catch (error: IOException) {
+        Logger.e(tag, "Failed to read the journal", error)
+        return false
+      }
+
+      pendingOperations.forEach { operation -> applyOperation(loadedEntries, operation) }
+
+      setEntries(loadedEntries)
+      redundantOpsCount = opsCount - loadedEntries.size
+      loaded = true
+
+      if (malformedLinesCount > 0) {
+        Logger.e(tag, "Journal has ${malformedLinesCount} malformed lines, rewriting it")
+        journalRewriteRequested = true
+      } else {
+        openJournalWriter()
+        pendingOperations.forEach { operation -> writeOperation(operation, flush = false) }
+        flushJournal()
+      }
+
+      pendingOperations.clear()
+      Logger.d(tag, "Loaded journal, entries=${entries.size}, redundantOpsCount=${redundantOpsCount}")
+    }
+
+    rewriteJournal()
+    compactIfNeeded()
+    return true
+  }
+
+  /**
+   * Replaces the whole index with [newEntries] (must be sorted from the least recently used to the
+   * most recently used) and writes a new journal.
+   * */
+  fun rebuild(newEntries: List<Entry>) {
+    synchronized(this) {
+      val rebuiltEntries = LinkedHashMap<String, Entry>(newEntries.size.coerceAtLeast(128))
+      newEntries.forEach { entry -> rebuiltEntries[entry.fileName] = entry }
+      pendingOperations.forEach { operation -> applyOperation(rebuiltEntries, operation) }
+
+      setEntries(rebuiltEntries)
+      pendingOperations.clear()
+      loaded = true
+      journalRewriteRequested = true
+    }
+
+    rewriteJournal()
+    Logger.d(tag, "Rebuilt journal, entries=${entriesCount()}")
+  }
+
+  fun contains(fileName: String): Boolean {
+    return synchronized(this) { entries.containsKey(fileName) }
+  }
+
+  fun isDownloaded(fileName: String): Boolean {
+    return synchronized(this) { entries[fileName]?.isDownloaded == true }
+  }
+
+  fun totalSize(): Long {
+    return synchronized(this) { totalSize }
+  }
+
+  fun entriesCount(): Int {
+    return synchronized(this) { entries.size }
+  }
+
+  fun onCreated(fileName: String, createdOn: Long) {
+    synchronized(this) { executeOperation("$DIRTY $fileName $createdOn", flush = true) }
+  }
+
+  fun onDownloaded(fileName: String, size: Long, time: Long = System.currentTimeMillis()) {
+    synchronized(this) {
+      if (entries[fileName] == null) {
+        executeOperation("$DIRTY $fileName $time", flush = false)
+      }
+
+      executeOperation("$CLEAN $fileName ${size.coerceAtLeast(0)} $time", flush = true)
+    }
+  }
+
+  fun onAccessed(fileName: String, time: Long = System.currentTimeMillis()) {
+    synchronized(this) {
+      if (entries[fileName] == null) {
+        return
+      }
+
+      executeOperation("$READ $fileName $time", flush = false)
+    }
+  }
+
+  fun onRemoved(fileName: String) {
+    synchronized(this) {
+      if (entries[fileName] == null) {
+        return
+      }
+
+      executeOperation("$REMOVE $fileName", flush = true)
+    }
+  }
+
+  fun clear() {
+    synchronized(this) {
+      setEntries(LinkedHashMap(128))
+
+      if (!loaded) {
+        // Nothing to load anymore, the index will be rebuilt from the (now empty) directory
+        pendingOperations.clear()
+        journalFile.delete()
+        return
+      }
+
+      journalRewriteRequested = true
+    }
+
+    rewriteJournal()
+  }
+
+  /**
+   * Returns the least recently used entries which were not accessed after [accessedBefore] and
+   * which sizes in total are at least [bytesToFree] (or less if there are not enough such entries).
+   * The returned list is a snapshot, the entries are not removed from the index.
+   * */
+  fun evictionCandidates(bytesToFree: Long, accessedBefore: Long): List<Entry> {
+    synchronized(this) {
+      val candidates = mutableListOf<Entry>()
+      var candidatesSize = 0L
+
+      for (entry in entries.values) {
+        if (candidatesSize >= bytesToFree) {
+          break
+        }
+
+        // All the entries that follow were accessed even later
+        if (entry.lastAccessTime > accessedBefore) {
+          break
+        }
+
+        candidates += entry
+        candidatesSize += entry.size
+      }
+
+      return candidates
+    }
+  }
+
+  fun flush() {
+    // Writers are synchronized internally so there is no need to hold the index lock while the
+    // buffered operations are being written to the disk
+    val writer = synchronized(this) { journalWriter }
+      ?: return
+
+    try {
+      writer.flush()
+    } catch (error: IOException) {
+      synchronized(this) {
+        // Otherwise the writer was closed by a journal rewrite in the meantime
+        if (journalWriter === writer) {
+          Logger.e(tag, "Failed to flush the journal", error)
+          closeJournalWriter()
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  fun snapshot(): List<Entry> {
+    return synchronized(this) { entries.values.toList() }
+  }
+
+  @GuardedBy("this")
+  private fun executeOperation(operation: String, flush: Boolean) {
+    val applyResult = applyOperation(entries, operation, updateTotalSize = true)
+    if (applyResult != ApplyResult.NewEntry) {
+      ++redundantOpsCount
+    }
+
+    if (!loaded) {
+      pendingOperations += operation
+      return
+    }
+
+    if (journalRewriteRequested || journalRewriteRunning) {
+      operationsDuringRewrite += operation
+      return
+    }
+
+    writeOperation(operation, flush)
+    compactIfNeeded()
+  }
+
+  /**
+   * Operations that don't add a new entry are [ApplyResult.Redundant], meaning they will be gone
+   * after the journal is compacted.
+   * */
+  @GuardedBy("this")
+  private fun applyOperation(
+    entriesMap: LinkedHashMap<String, Entry>,
+    operation: String,
+    updateTotalSize: Boolean = false
+  ): ApplyResult {
+    val parts = operation.split(' ')
+    if (parts.size < 2) {
+      return ApplyResult.Malformed
+    }
+
+    val fileName = parts[1]
+
+    when (parts[0]) {
+      DIRTY -> {
+        val createdOn = parts.getOrNull(2)?.toLongOrNull()
+          ?: return ApplyResult.Malformed
+
+        val prevEntry = entriesMap.remove(fileName)
+        entriesMap[fileName] = Entry(fileName, createdOn, createdOn, 0L, false)
+        if (updateTotalSize && prevEntry != null) {
+          totalSize -= prevEntry.size
+        }
+
+        return if (prevEntry == null) ApplyResult.NewEntry else ApplyResult.Redundant
+      }
+      CLEAN -> {
+        val size = parts.getOrNull(2)?.toLongOrNull()
+          ?: return ApplyResult.Malformed
+        val time = parts.getOrNull(3)?.toLongOrNull()
+          ?: return ApplyResult.Malformed
+        val prevEntry = entriesMap.remove(fileName)
+          ?: return ApplyResult.Redundant
+
+        entriesMap[fileName] = prevEntry.copy(lastAccessTime = time, size = size, isDownloaded = true)
+
+        if (updateTotalSize) {
+          totalSize += size - prevEntry.size
+        }
+
+        return ApplyResult.Redundant
+      }
+      READ -> {
+        val time = parts.getOrNull(2)?.toLongOrNull()
+          ?: return ApplyResult.Malformed
+        val prevEntry = entriesMap.remove(fileName)
+          ?: return ApplyResult.Redundant
+
+        entriesMap[fileName] = prevEntry.copy(lastAccessTime = time)
+        return ApplyResult.Redundant
+      }
+      REMOVE -> {
+        val prevEntry = entriesMap.remove(fileName)
+        if (updateTotalSize && prevEntry != null) {
+          totalSize -= prevEntry.size
+        }
+
+        return ApplyResult.Redundant
+      }
+      else -> return ApplyResult.Malformed
+    }
+  }
+
+  @GuardedBy("this")
+  private fun setEntries(newEntries: LinkedHashMap<String, Entry>) {
+    entries = newEntries
+    totalSize = newEntries.values.sumOf { entry -> entry.size }
+  }
+
+  @GuardedBy("this")
+  private fun openJournalWriter() {
+    closeJournalWriter()
+
+    try {
+      journalWriter = FileOutputStream(journalFile, true).bufferedWriter()
+    } catch (error: IOException) {
+      Logger.e(tag, "Failed to open the journal", error)
+      journalWriter = null
+    }
+  }
+
+  @GuardedBy("this")
+  private fun writeOperation(operation: String, flush: Boolean) {
+    val writer = journalWriter
+      ?: return
+
+    try {
+      writer.write(operation)
+      writer.write("\n")
+
+      if (flush) {
+        writer.flush()
+      }
+    } catch (error: IOException) {
+      // The index still works, just without persistence. We will rebuild the journal on the next
+      // app start (the last line will most likely be malformed).
+      Logger.e(tag, "Failed to write into the journal", error)
+      closeJournalWriter()
+    }
+  }
+
+  @GuardedBy("this")
+  private fun flushJournal() {
+    try {
+      journalWriter?.flush()
+    } catch (error: IOException) {
+      Logger.e(tag, "Failed to flush the journal", error)
+      closeJournalWriter()
+    }
+  }
+
+  @GuardedBy("this")
+  private fun closeJournalWriter() {
+    try {
+      journalWriter?.close()
+    } catch (ignored: IOException) {
+    } finally {
+      journalWriter = null
+    }
+  }
+
+  /**
+   * Rewrites the journal if a rewrite was requested (by setting [journalRewriteRequested] while
+   * holding the index lock). Must not be called while holding the index lock.
+   * */
+  private fun rewriteJournal() {
+    synchronized(rewriteLock) {
+      while (true) {
+        val snapshot: List<Entry>
+        val snapshotRedundantOpsCount: Int
+
+        synchronized(this) {
+          if (!journalRewriteRequested) {
+            return
+          }
+
+          journalRewriteRequested = false
+          journalRewriteRunning = true
+
+          closeJournalWriter()
+          snapshot = entries.values.toList()
+          snapshotRedundantOpsCount = redundantOpsCount
+          // Everything that was buffered so far is already in the snapshot
+          operationsDuringRewrite.clear()
+        }
+
+        val success = writeJournalSnapshot(snapshot)
+
+        synchronized(this) {
+          journalRewriteRunning = false
+
+          if (success) {
+            redundantOpsCount = (redundantOpsCount - snapshotRedundantOpsCount).coerceAtLeast(0)
+
+            openJournalWriter()
+            operationsDuringRewrite.forEach { operation -> writeOperation(operation, flush = false) }
+            flushJournal()
+          }
+
+          operationsDuringRewrite.clear()
+        }
+      }
+    }
+  }
+
+  private fun writeJournalSnapshot(snapshot: List<Entry>): Boolean {
+    try {
+      journalTmpFile.outputStream().bufferedWriter().use { writer ->
+        writeHeader(writer)
+
+        for (entry in snapshot) {
+          writer.write("$DIRTY ${entry.fileName} ${entry.createdOn}\n")
+
+          if (entry.isDownloaded) {
+            writer.write("$CLEAN ${entry.fileName} ${entry.size} ${entry.lastAccessTime}\n")
+          } else if (entry.lastAccessTime != entry.createdOn) {
+            writer.write("$READ ${entry.fileName} ${entry.lastAccessTime}\n")
+          }
+        }
+      }
+
+      if (!journalTmpFile.renameTo(journalFile)) {
+        throw IOException("Failed to rename ${journalTmpFile.absolutePath} into ${journalFile.absolutePath}")
+      }
+
+      return true
+    } catch (error: IOException) {
+      // The index still works, just without persistence. The journal will be rebuilt on the next
+      // app start.
+      Logger.e(tag, "Failed to rewrite the journal", error)
+      journalTmpFile.delete()
+      journalFile.delete()
+      return false
+    }
+  }
+
+  private fun writeHeader(writer: BufferedWriter) {
+    writer.write(MAGIC)
+    writer.write("\n")
+    writer.write(VERSION.toString())
+    writer.write("\n")
+    writer.write("\n")
+  }
+
+  private fun compactIfNeeded() {
+    val needsCompaction = synchronized(this) {
+      loaded && redundantOpsCount >= REDUNDANT_OPS_COMPACTION_THRESHOLD && redundantOpsCount >= entries.size
+    }
+
+    if (!needsCompaction || !compactionScheduled.compareAndSet(false, true)) {
+      return
+    }
+
+    executor.execute {
+      try {
+        synchronized(this) { journalRewriteRequested = true }
+        rewriteJournal()
+      } finally {
+        compactionScheduled.set(false)
+      }
+    }
+  }
+
+  private enum class ApplyResult {
+    NewEntry,
+    Redundant,
+    Malformed
+  }
+
+  data class Entry(
+    val fileName: String,
+    val createdOn: Long,
+    val lastAccessTime: Long,
+    val size: Long,
+    val isDownloaded: Boolean
+  )
+
+  companion object {
+    private const val MAGIC = "kuroba.inner_cache.journal"
+    private const val VERSION = 1
+    private const val REDUNDANT_OPS_COMPACTION_THRESHOLD = 2000
+
+    private const val DIRTY = "DIRTY"
+    private const val CLEAN = "CLEAN"
+    private const val READ = "READ"
+    private const val REMOVE = "REMOVE"
+  }
+
+}
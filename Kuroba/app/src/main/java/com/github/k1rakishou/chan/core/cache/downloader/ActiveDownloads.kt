@@ -9,14 +9,62 @@ internal open class ActiveDownloads {
 
   @GuardedBy("itself")
   private val activeDownloads = hashMapOf<String, FileDownloadRequest>()
+  @GuardedBy("activeDownloads")
+  private val streamingWrites = hashMapOf<String, StreamingWrite>()
 
   fun clear() {
-    synchronized(activeDownloads) {
+    val toRevoke = synchronized(activeDownloads) {
       activeDownloads.values.forEach { download ->
         download.cancelableDownload.cancel()
         download.cancelableDownload.clearCallbacks()
       }
+
+      val toRevoke = streamingWrites.values.toList()
+      streamingWrites.clear()
+
+      return@synchronized toRevoke
     }
+
+    toRevoke.forEach { streamingWrite -> streamingWrite.revoke() }
+  }
+
+  /**
+   * Claims the cache file of [url] for a media player that wants to write into it. Returns null if
+   * the file is being downloaded right now or is already claimed by another player. The claim must
+   * be released with [releaseStreamingWrite].
+   * */
+  fun tryClaimStreamingWrite(url: String): StreamingWrite? {
+    return synchronized(activeDownloads) {
+      if (activeDownloads.containsKey(url) || streamingWrites.containsKey(url)) {
+        return@synchronized null
+      }
+
+      val streamingWrite = StreamingWrite(url)
+      streamingWrites[url] = streamingWrite
+
+      return@synchronized streamingWrite
+    }
+  }
+
+  fun releaseStreamingWrite(streamingWrite: StreamingWrite) {
+    synchronized(activeDownloads) {
+      if (streamingWrites[streamingWrite.url] === streamingWrite) {
+        streamingWrites.remove(streamingWrite.url)
+      }
+    }
+  }
+
+  /**
+   * Must be called by a download (which is already in [activeDownloads] so no new claims can be
+   * made) before it touches the cache file of [url]. Blocks until the player that holds the claim
+   * (if any) is done with it's current write, the player won't touch the cache file after that.
+   * */
+  fun revokeStreamingWrite(url: String) {
+    val streamingWrite = synchronized(activeDownloads) { streamingWrites.remove(url) }
+      ?: return
+
+    // Must not be called while holding the lock since it may wait for a disk write
+    streamingWrite.revoke()
   }
 
   fun remove(url: String) {
@@ -76,6 +124,16 @@ internal open class ActiveDownloads {
     }
   }
 
+  /**
+   * [readableBytes] is the length of the beginning of the output file that is already downloaded
+   * (without any gaps) and can be read while the rest of the file is still being downloaded.
+   * */
+  fun updateReadableBytes(url: String, readableBytes: Long) {
+    synchronized(activeDownloads) {
+      activeDownloads[url]?.readableBytes?.set(readableBytes)
+    }
+  }
+
   fun addDisposeFunc(url: String, disposeFunc: () -> Unit): DownloadState {
     return synchronized(activeDownloads) {
       val state = activeDownloads[url]?.cancelableDownload?.getState()
@@ -96,20 +154,6 @@ internal open class ActiveDownloads {
     }
   }
 
-  fun getChunks(url: String): Set<Chunk> {
-    return synchronized(activeDownloads) { activeDownloads[url]?.chunks?.toSet() ?: emptySet() }
-  }
-
-  fun clearChunks(url: String) {
-    synchronized(activeDownloads) { activeDownloads[url]?.chunks?.clear() }
-  }
-
-  fun addChunks(url: String, chunks: List<Chunk>) {
-    synchronized(activeDownloads) {
-      activeDownloads[url]?.chunks?.addAll(chunks)
-    }
-  }
-
   /**
    * Marks current CancelableDownload as canceled and throws CancellationException to terminate
    * the reactive stream
@@ -1,9 +1,7 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
-import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.exhaustive
-import dagger.Lazy
 import io.reactivex.BackpressureStrategy
 import io.reactivex.Flowable
 import io.reactivex.FlowableEmitter
@@ -11,22 +9,18 @@ import okhttp3.Response
 import okhttp3.ResponseBody
 import okhttp3.internal.closeQuietly
 import okio.Buffer
-import okio.BufferedSink
 import okio.BufferedSource
-import okio.buffer
-import okio.sink
-import java.io.File
 import java.io.IOException
 import java.util.concurrent.atomic.AtomicLong
 
 internal class ChunkPersister(
-  private val cacheHandler: Lazy<CacheHandler>,
   private val activeDownloads: ActiveDownloads,
   private val verboseLogs: Boolean
 ) {
   fun storeChunkInFile(
     url: String,
     chunkResponse: ChunkResponse,
+    chunkedOutputFile: ChunkedOutputFile,
     totalDownloaded: AtomicLong,
     chunkIndex: Int,
     totalChunksCount: Int
@@ -34,8 +28,9 @@ internal class ChunkPersister(
     return Flowable.create({ emitter ->
       BackgroundUtils.ensureBackgroundThread()
 
-      val request = activeDownloads.get(url)
-        ?: activeDownloads.throwCancellationException(url)
+      if (activeDownloads.get(url) == null) {
+        activeDownloads.throwCancellationException(url)
+      }
 
       val serializedEmitter = emitter.serialize()
       val chunk = chunkResponse.chunk
@@ -59,54 +54,48 @@ internal class ChunkPersister(
           throw FileCacheException.HttpCodeException(response.code)
         }
 
-        val chunkCacheFile = cacheHandler.get().getOrCreateChunkCacheFile(
-          cacheFileType = request.cacheFileType,
-          chunkStart = chunk.start,
-          chunkEnd = chunk.end,
-          url = url
-        ) ?: throw IOException("Couldn't create chunk cache file")
-
-        try {
-          response.useAsResponseBody { responseBody ->
-            var chunkSize = responseBody.contentLength()
-
-            if (totalChunksCount == 1) {
-              if (chunkSize <= 0) {
-                chunkSize = activeDownloads.get(url)?.extraInfo?.fileSize ?: -1
-              }
-
-              // When downloading the whole file in a single chunk we can only know
-              // for sure the whole size of the file at this point since we probably
-              // didn't send the HEAD request
-              activeDownloads.updateTotalLength(url, chunkSize)
-            }
+        if (!chunk.isWholeFile() && response.code != 206) {
+          // The server ignored the Range header, we can't write the whole file at the chunk's offset
+          throw FileCacheException.HttpCodeException(response.code)
+        }
+
+        // Each chunk writes directly into the output file at it's own offset
+        val rangeWriter = chunkedOutputFile.rangeWriter(chunk)
 
-            responseBody.source().use { bufferedSource ->
-              if (!bufferedSource.isOpen) {
-                activeDownloads.throwCancellationException(url)
-              }
-
-              chunkCacheFile.useAsBufferedSink { bufferedSink ->
-                readBodyLoop(
-                  chunkSize,
-                  url,
-                  bufferedSource,
-                  bufferedSink,
-                  totalDownloaded,
-                  serializedEmitter,
-                  chunkIndex,
-                  chunkCacheFile,
-                  chunk
-                )
-              }
+        response.useAsResponseBody { responseBody ->
+          var chunkSize = responseBody.contentLength()
+
+          if (chunk.isWholeFile()) {
+            if (chunkSize <= 0) {
+              chunkSize = activeDownloads.get(url)?.extraInfo?.fileSize ?: -1
             }
+
+            // When downloading the whole file in a single chunk we can only know
+            // for sure the whole size of the file at this point since we probably
+            // didn't send the HEAD request
+            activeDownloads.updateTotalLength(url, chunkSize)
           }
 
-          log(TAG, "storeChunkInFile(${chunkIndex}) success, url=$url, chunk ${chunk.start}..${chunk.end}")
-        } catch (error: Throwable) {
-          deleteChunkFile(chunkCacheFile)
-          throw error
+          responseBody.source().use { bufferedSource ->
+            if (!bufferedSource.isOpen) {
+              activeDownloads.throwCancellationException(url)
+            }
+
+            readBodyLoop(
+              chunkSize,
+              url,
+              bufferedSource,
+              chunkedOutputFile,
+              rangeWriter,
+              totalDownloaded,
+              serializedEmitter,
+              chunkIndex,
+              chunk
+            )
+          }
         }
+
+        log(TAG, "storeChunkInFile(${chunkIndex}) success, url=$url, chunk ${chunk.start}..${chunk.end}")
       } catch (error: Throwable) {
         handleErrors(
           url,
@@ -172,23 +161,15 @@ internal class ChunkPersister(
     }
   }
 
-  private fun File.useAsBufferedSink(func: (BufferedSink) -> Unit) {
-    outputStream().sink().use { sink ->
-      sink.buffer().use { bufferedSink ->
-        func(bufferedSink)
-      }
-    }
-  }
-
   private fun readBodyLoop(
     chunkSize: Long,
     url: String,
     bufferedSource: BufferedSource,
-    bufferedSink: BufferedSink,
+    chunkedOutputFile: ChunkedOutputFile,
+    rangeWriter: ChunkedOutputFile.RangeWriter,
     totalDownloaded: AtomicLong,
     serializedEmitter: FlowableEmitter<ChunkDownloadEvent>,
     chunkIndex: Int,
-    chunkCacheFile: File,
     chunk: Chunk
   ) {
     var downloaded = 0L
@@ -213,10 +194,11 @@ internal class ChunkPersister(
         }
 
         downloaded += read
-        bufferedSink.write(buffer, read)
+        rangeWriter.write(buffer)
 
         val total = totalDownloaded.addAndGet(read)
         activeDownloads.updateDownloaded(url, chunkIndex, total)
+        activeDownloads.updateReadableBytes(url, chunkedOutputFile.readableBytes())
 
         if (downloaded >= notifyTotal + notifySize) {
           notifyTotal = downloaded
@@ -231,8 +213,6 @@ internal class ChunkPersister(
         }
       }
 
-      bufferedSink.flush()
-
       // So that we have 100% progress for every chunk
       if (chunkSize >= 0) {
         serializedEmitter.onNext(
@@ -256,7 +236,6 @@ internal class ChunkPersister(
       serializedEmitter.onNext(
         ChunkDownloadEvent.ChunkSuccess(
           chunkIndex,
-          chunkCacheFile,
           chunk
         )
       )
@@ -282,12 +261,6 @@ internal class ChunkPersister(
     return !request.cancelableDownload.isRunning()
   }
 
-  private fun deleteChunkFile(chunkFile: File) {
-    if (!chunkFile.delete()) {
-      logError(TAG, "Couldn't delete chunk file: ${chunkFile.absolutePath}")
-    }
-  }
-
   companion object {
     private const val TAG = "ChunkReader"
   }
@@ -0,0 +1,236 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import com.github.k1rakishou.common.mutableListWithCap
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.*
+
+/**
+ * Tracks which parts of a file downloaded with Range requests were already written into the output
+ * file. The file is split into blocks of [blockSize] bytes and a block is marked as completed only once
+ * all of its bytes are written. The bitmap is persisted next to the cache file so that an interrupted
+ * download can be resumed (even after the app restart) by only requesting the missing blocks.
+ * */
+internal class ChunkRangeBitmap(
+  val fileLength: Long,
+  val blockSize: Long = DEFAULT_BLOCK_SIZE,
+  private val completedBlocks: BitSet = BitSet()
+) {
+  val blocksCount: Int = ((fileLength + blockSize - 1) / blockSize).toInt()
+
+  init {
+    require(fileLength > 0) { "Bad fileLength: $fileLength" }
+    require(blockSize > 0) { "Bad blockSize: $blockSize" }
+  }
+
+  /**
+   * Marks all blocks that are fully inside of [start]..<[endExclusive] as completed. The last block of
+   * the file may be shorter than [blockSize]. Returns the amount of newly completed blocks.
+   * */
+  @Synchronized
+  fun markWritten(start: Long, endExclusive: Long): Int {
+    val firstBlock = ((start + blockSize - 1) / blockSize).toInt()
+    val lastBlockExclusive = if (endExclusive >= fileLength) {
+      blocksCount
+    } else {
+      (endExclusive / blockSize).toInt()
+    }
+
+    var newlyCompleted = 0
+
+    for (block in firstBlock until lastBlockExclusive) {
+      if (!completedBlocks.get(block)) {
+        completedBlocks.set(block)
+        ++newlyCompleted
+      }
+    }
+
+    return newlyCompleted
+  }
+
+  @Synchronized
+  fun isComplete(): Boolean {
+    return completedBlocks.cardinality() >= blocksCount
+  }
+
+  @Synchronized
+  fun completedBytes(): Long {
+    var completed = 0L
+    var block = completedBlocks.nextSetBit(0)
+
+    while (block in 0 until blocksCount) {
+      completed += blockEnd(block) - blockStart(block)
+      block = completedBlocks.nextSetBit(block + 1)
+    }
+
+    return completed
+  }
+
+  /**
+   * Returns the (exclusive) end of the run of completed blocks that contains [position] or
+   * [position] itself if it's block is not completed.
+   * */
+  @Synchronized
+  fun completedUntil(position: Long): Long {
+    if (position < 0 || position >= fileLength) {
+      return position
+    }
+
+    val block = (position / blockSize).toInt()
+    if (!completedBlocks.get(block)) {
+      return position
+    }
+
+    val firstMissingBlock = completedBlocks.nextClearBit(block)
+    if (firstMissingBlock >= blocksCount) {
+      return fileLength
+    }
+
+    return blockStart(firstMissingBlock)
+  }
+
+  /**
+   * Splits the missing (not yet completed) parts of the file into at most [chunksCount] block aligned
+   * chunks. Missing ranges separated by small completed gaps are joined together (the gaps are
+   * downloaded again) when there are more of them than [chunksCount] and the biggest ranges are split
+   * in halves when there are less.
+   * */
+  @Synchronized
+  fun missingChunks(chunksCount: Int): List<Chunk> {
+    require(chunksCount > 0) { "ChunksCount ($chunksCount) must be greater than zero!" }
+
+    // Block index ranges, end is exclusive
+    val ranges = mutableListOf<LongRange>()
+    var block = completedBlocks.nextClearBit(0)
+
+    while (block < blocksCount) {
+      val rangeEnd = completedBlocks.nextSetBit(block)
+        .takeIf { setBit -> setBit in 0 until blocksCount }
+        ?: blocksCount
+
+      ranges += block.toLong() until rangeEnd.toLong()
+      block = completedBlocks.nextClearBit(rangeEnd)
+    }
+
+    while (ranges.size > chunksCount) {
+      var smallestGapIndex = 0
+      var smallestGap = Long.MAX_VALUE
+
+      for (index in 0 until ranges.lastIndex) {
+        val gap = ranges[index + 1].first - (ranges[index].last + 1)
+        if (gap < smallestGap) {
+          smallestGap = gap
+          smallestGapIndex = index
+        }
+      }
+
+      val joined = ranges[smallestGapIndex].first..ranges[smallestGapIndex + 1].last
+      ranges.removeAt(smallestGapIndex + 1)
+      ranges[smallestGapIndex] = joined
+    }
+
+    while (ranges.size < chunksCount) {
+      val largestIndex = ranges.indices.maxByOrNull { index -> rangeSize(ranges[index]) }
+        ?: break
+
+      val largest = ranges[largestIndex]
+      if (rangeSize(largest) < 2) {
+        break
+      }
+
+      val middle = largest.first + rangeSize(largest) / 2
+      ranges[largestIndex] = largest.first until middle
+      ranges.add(largestIndex + 1, middle..largest.last)
+    }
+
+    val chunks = mutableListWithCap<Chunk>(ranges.size)
+
+    for (range in ranges) {
+      chunks += Chunk(blockStart(range.first.toInt()), blockEnd(range.last.toInt()))
+    }
+
+    return chunks
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun writeTo(file: File) {
+    val tmpFile = File(file.parentFile, file.name + TMP_FILE_SUFFIX)
+
+    DataOutputStream(tmpFile.outputStream().buffered()).use { stream ->
+      val bytes = completedBlocks.toByteArray()
+
+      stream.writeInt(MAGIC)
+      stream.writeInt(CURRENT_VERSION)
+      stream.writeLong(fileLength)
+      stream.writeLong(blockSize)
+      stream.writeInt(bytes.size)
+      stream.write(bytes)
+    }
+
+    // Replace the old bitmap atomically so that we never end up with a half written one
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete()
+      throw IOException("Couldn't rename ${tmpFile.absolutePath} into ${file.absolutePath}")
+    }
+  }
+
+  private fun rangeSize(range: LongRange): Long = range.last - range.first + 1
+
+  private fun blockStart(block: Int): Long = block.toLong() * blockSize
+
+  private fun blockEnd(block: Int): Long = ((block.toLong() + 1) * blockSize).coerceAtMost(fileLength)
+
+  override fun toString(): String {
+    return "ChunkRangeBitmap(fileLength=$fileLength, blockSize=$blockSize, " +
+      "completedBlocks=${completedBlocks.cardinality()}/$blocksCount)"
+  }
+
+  companion object {
+    const val DEFAULT_BLOCK_SIZE = 64L * 1024L
+
+    private const val MAGIC = 0x4B524E47
+    private const val CURRENT_VERSION = 1
+    private const val TMP_FILE_SUFFIX = ".tmp"
+    private const val MAX_BITMAP_SIZE_BYTES = 1024 * 1024
+
+    /**
+     * Returns null if there is no persisted bitmap, it's broken or it was created for a file of a
+     * different length (the file on the server has changed).
+     * */
+    fun readOrNull(file: File, expectedFileLength: Long): ChunkRangeBitmap? {
+      if (!file.exists() || file.length() <= 0) {
+        return null
+      }
+
+      return try {
+        DataInputStream(file.inputStream().buffered()).use { stream ->
+          if (stream.readInt() != MAGIC || stream.readInt() != CURRENT_VERSION) {
+            return@use null
+          }
+
+          val fileLength = stream.readLong()
+          val blockSize = stream.readLong()
+          if (fileLength != expectedFileLength || blockSize <= 0) {
+            return@use null
+          }
+
+          val bytesCount = stream.readInt()
+          if (bytesCount < 0 || bytesCount > MAX_BITMAP_SIZE_BYTES) {
+            return@use null
+          }
+
+          val bytes = ByteArray(bytesCount)
+          stream.readFully(bytes)
+
+          return@use ChunkRangeBitmap(fileLength, blockSize, BitSet.valueOf(bytes))
+        }
+      } catch (error: IOException) {
+        logError("ChunkRangeBitmap", "readOrNull(${file.absolutePath}) error", error)
+        null
+      }
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import okio.Buffer
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * The cache file a download is written into. Every chunk writes directly at its own offset via
+ * positional [FileChannel] writes so there are no intermediate chunk files that have to be merged
+ * afterwards.
+ *
+ * When the file size is known and the server supports Range requests the file is preallocated and
+ * the written ranges are tracked by [rangeBitmap] which is persisted into [rangesFile] every
+ * [PERSIST_INTERVAL_BYTES] (and when the file is closed) so that the download can be resumed later.
+ * Otherwise the file is written sequentially from the beginning by a single chunk.
+ * */
+internal class ChunkedOutputFile private constructor(
+  val output: File,
+  val rangeBitmap: ChunkRangeBitmap?,
+  private val rangesFile: File?,
+  private val randomAccessFile: RandomAccessFile
+) : Closeable {
+  private val channel: FileChannel = randomAccessFile.channel
+
+  // Guarded by this
+  private var bytesSinceLastPersist = 0L
+  // Guarded by this
+  private var closed = false
+  // Only used when the file is written sequentially (not ranged)
+  @Volatile
+  private var sequentiallyWritten = 0L
+
+  val isRanged: Boolean
+    get() = rangeBitmap != null
+
+  fun isComplete(): Boolean = rangeBitmap?.isComplete() ?: true
+
+  fun completedBytes(): Long = rangeBitmap?.completedBytes() ?: 0L
+
+  /**
+   * The amount of bytes from the beginning of the file that are already written without any gaps,
+   * i.e. the part of the file that can already be read (decoded) while the download is running.
+   * */
+  fun readableBytes(): Long = rangeBitmap?.completedUntil(0L) ?: sequentiallyWritten
+
+  /**
+   * Returns the (exclusive) end of the already downloaded range that contains [position] or
+   * [position] itself if the byte at [position] is not downloaded yet.
+   * */
+  fun completedUntil(position: Long): Long = rangeBitmap?.completedUntil(position) ?: position
+
+  fun missingChunks(chunksCount: Int): List<Chunk> {
+    return checkNotNull(rangeBitmap) { "Not a ranged output file" }.missingChunks(chunksCount)
+  }
+
+  fun rangeWriter(chunk: Chunk): RangeWriter {
+    return RangeWriter(chunk)
+  }
+
+  /**
+   * Called once all the chunks were successfully written. Closes the file, the persisted ranges are
+   * deleted once the file is marked as downloaded.
+   * */
+  @Throws(IOException::class)
+  fun complete() {
+    if (!isComplete()) {
+      throw IOException("Not all ranges were downloaded, ${rangeBitmap}")
+    }
+
+    closeInternal(persistRanges = false)
+  }
+
+  override fun close() {
+    closeInternal(persistRanges = true)
+  }
+
+  /**
+   * Closes the file without persisting the ranges. Used when somebody else took over the file and
+   * the ranges we know about may no longer be true.
+   * */
+  fun discard() {
+    closeInternal(persistRanges = false)
+  }
+
+  @Synchronized
+  private fun closeInternal(persistRanges: Boolean) {
+    if (closed) {
+      return
+    }
+
+    try {
+      if (persistRanges) {
+        persistRanges()
+      }
+    } catch (error: IOException) {
+      logError(TAG, "Failed to persist ranges of ${output.absolutePath}", error)
+    } finally {
+      closed = true
+      randomAccessFile.close()
+    }
+  }
+
+  private fun onRangeWritten(start: Long, endExclusive: Long) {
+    val bitmap = rangeBitmap
+      ?: return
+
+    val newlyCompletedBlocks = bitmap.markWritten(start, endExclusive)
+    if (newlyCompletedBlocks <= 0) {
+      return
+    }
+
+    synchronized(this) {
+      bytesSinceLastPersist += newlyCompletedBlocks * bitmap.blockSize
+
+      if (bytesSinceLastPersist >= PERSIST_INTERVAL_BYTES && !closed) {
+        persistRanges()
+      }
+    }
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  private fun persistRanges() {
+    val bitmap = rangeBitmap
+      ?: return
+    val file = rangesFile
+      ?: return
+
+    // The data must hit the disk before the bitmap that says that it's there
+    channel.force(false)
+    bitmap.writeTo(file)
+
+    bytesSinceLastPersist = 0L
+  }
+
+  /**
+   * Writes the body of one chunk at the chunk's offset. Not thread-safe, every chunk must use it's
+   * own writer.
+   * */
+  inner class RangeWriter(private val chunk: Chunk) {
+    private val byteBuffer = ByteBuffer.allocate(FileDownloader.BUFFER_SIZE.toInt())
+    private var position = chunk.start
+    // Always points to a block boundary (or to the chunk start)
+    private var markedUpTo = chunk.start
+
+    val written: Long
+      get() = position - chunk.start
+
+    @Throws(IOException::class)
+    fun write(source: Buffer) {
+      while (!source.exhausted()) {
+        byteBuffer.clear()
+        source.read(byteBuffer)
+        byteBuffer.flip()
+
+        writeByteBuffer()
+      }
+
+      markWritten()
+    }
+
+    @Throws(IOException::class)
+    fun write(bytes: ByteArray, offset: Int, length: Int) {
+      var current = offset
+      val end = offset + length
+
+      while (current < end) {
+        val toWrite = minOf(end - current, byteBuffer.capacity())
+
+        byteBuffer.clear()
+        byteBuffer.put(bytes, current, toWrite)
+        byteBuffer.flip()
+
+        writeByteBuffer()
+        current += toWrite
+      }
+
+      markWritten()
+    }
+
+    private fun writeByteBuffer() {
+      while (byteBuffer.hasRemaining()) {
+        position += channel.write(byteBuffer, position)
+      }
+
+      if (rangeBitmap == null && chunk.start == 0L) {
+        sequentiallyWritten = position
+      }
+    }
+
+    private fun markWritten() {
+      val bitmap = rangeBitmap
+        ?: return
+
+      if (position - markedUpTo >= bitmap.blockSize || position >= bitmap.fileLength) {
+        onRangeWritten(markedUpTo, position)
+        markedUpTo = (position / bitmap.blockSize) * bitmap.blockSize
+      }
+    }
+  }
+
+  companion object {
+    private const val TAG = "ChunkedOutputFile"
+    private const val PERSIST_INTERVAL_BYTES = 2L * 1024L * 1024L
+
+    /**
+     * Opens [output] for a download with Range requests. Ranges completed by a previous (interrupted)
+     * download of the same file are restored from [rangesFile] unless the output file was modified
+     * since then.
+     * */
+    @Throws(IOException::class)
+    fun openRanged(output: File, rangesFile: File, fileLength: Long): ChunkedOutputFile {
+      require(fileLength > 0) { "Bad fileLength: $fileLength" }
+
+      var rangeBitmap = if (output.length() == fileLength) {
+        ChunkRangeBitmap.readOrNull(rangesFile, fileLength)
+      } else {
+        null
+      }
+
+      if (rangeBitmap == null) {
+        rangesFile.delete()
+        rangeBitmap = ChunkRangeBitmap(fileLength)
+      }
+
+      val randomAccessFile = RandomAccessFile(output, "rw")
+
+      try {
+        // Preallocate the whole file so that every chunk can write at it's own offset
+        randomAccessFile.setLength(fileLength)
+      } catch (error: IOException) {
+        randomAccessFile.close()
+        throw error
+      }
+
+      return ChunkedOutputFile(output, rangeBitmap, rangesFile, randomAccessFile)
+    }
+
+    @Throws(IOException::class)
+    fun openWholeFile(output: File): ChunkedOutputFile {
+      val randomAccessFile = RandomAccessFile(output, "rw")
+
+      try {
+        randomAccessFile.setLength(0L)
+      } catch (error: IOException) {
+        randomAccessFile.close()
+        throw error
+      }
+
+      return ChunkedOutputFile(output, null, null, randomAccessFile)
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
 import com.github.k1rakishou.chan.core.cache.CacheHandler
-import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.site.SiteBase
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.utils.BackgroundUtils
@@ -9,7 +8,6 @@ import dagger.Lazy
 import io.reactivex.Flowable
 import io.reactivex.Scheduler
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
-import java.io.File
 import java.io.IOException
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
@@ -19,7 +17,7 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
   private val siteResolver: SiteResolver,
   private val chunkDownloader: ChunkDownloader,
   private val chunkPersister: ChunkPersister,
-  private val chunkMerger: ChunkMerger,
+  private val outputFileFinalizer: OutputFileFinalizer,
   private val workerScheduler: Scheduler,
   private val verboseLogs: Boolean,
   activeDownloads: ActiveDownloads,
@@ -33,8 +31,9 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
   ): Flowable<FileDownloadResult> {
     BackgroundUtils.ensureBackgroundThread()
 
-    val output = activeDownloads.get(url)
-      ?.getOutputFile()
+    val request = activeDownloads.get(url)
+      ?: activeDownloads.throwCancellationException(url)
+    val output = request.getOutputFile()
       ?: activeDownloads.throwCancellationException(url)
 
     if (!output.exists()) {
@@ -45,31 +44,58 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
     val chunksCount = getChunksCount(supportsPartialContentDownload, partialContentCheckResult, url)
     check(chunksCount >= 1) { "Chunks count is less than 1 = $chunksCount" }
 
-    // Split the whole file size into chunks
-    val chunks = if (chunksCount > 1) {
-      chunkLong(
-        partialContentCheckResult.length,
-        chunksCount,
-        FileCacheV2.MIN_CHUNK_SIZE
-      )
+    val canUseRanges = supportsPartialContentDownload
+      && partialContentCheckResult.couldDetermineFileSize()
+      && partialContentCheckResult.length > 0
+
+    val chunkedOutputFile = try {
+      if (canUseRanges) {
+        val rangesFile = cacheHandler.get().getCacheFileRanges(request.cacheFileType, output)
+          ?: return Flowable.error(IOException("Couldn't get ranges file for ${output.absolutePath}"))
+
+        ChunkedOutputFile.openRanged(output, rangesFile, partialContentCheckResult.length)
+      } else {
+        ChunkedOutputFile.openWholeFile(output)
+      }
+    } catch (error: IOException) {
+      return Flowable.error(error)
+    }
+
+    // Only request the parts of the file that are not downloaded yet (the whole file unless we are
+    // resuming an interrupted download)
+    val chunks = if (chunkedOutputFile.isRanged) {
+      val missingChunks = chunkedOutputFile.missingChunks(chunksCount)
+
+      if (missingChunks.size == 1 && missingChunks[0].chunkSize() == partialContentCheckResult.length) {
+        // Nothing was downloaded yet and we only need one chunk, no need to use the "Range" header
+        listOf(Chunk.wholeFile())
+      } else {
+        missingChunks
+      }
     } else {
-      // If there is only one chunk then we should download the whole file without using
-      // Partial Content
+      // If we can't use ranges then we should download the whole file without using Partial Content
       listOf(Chunk.wholeFile())
     }
 
+    if (chunkedOutputFile.isRanged && chunks.size != chunksCount) {
+      request.chunksCount(chunks.size)
+    }
+
+    activeDownloads.updateReadableBytes(url, chunkedOutputFile.readableBytes())
+
+    if (chunkedOutputFile.completedBytes() > 0) {
+      log(TAG, "Resuming download ($url), already downloaded ${chunkedOutputFile.completedBytes()} " +
+        "out of ${partialContentCheckResult.length} bytes, remaining chunks: $chunks")
+    }
+
     return Flowable.concat(
-      Flowable.just(FileDownloadResult.Start(chunksCount)),
-      Flowable.defer { downloadInternal(url, chunks, partialContentCheckResult, output) }
+      Flowable.just(FileDownloadResult.Start(chunks.size.coerceAtLeast(1))),
+      Flowable.defer { downloadInternal(url, chunks, partialContentCheckResult, chunkedOutputFile) }
         .doOnSubscribe { log(TAG, "Starting downloading ($url)") }
-        .doOnComplete {
-          log(TAG, "Completed downloading ($url)")
-          removeChunksFromDisk(url)
-        }
-        .doOnError { error ->
-          logErrorsAndExtractErrorMessage(TAG, "Error while trying to download", error)
-          removeChunksFromDisk(url)
-        }
+        .doOnComplete { log(TAG, "Completed downloading ($url)") }
+        .doOnError { error -> logErrorsAndExtractErrorMessage(TAG, "Error while trying to download", error) }
+        // Persists the downloaded ranges if the download didn't complete
+        .doFinally { chunkedOutputFile.close() }
         .subscribeOn(workerScheduler)
     )
   }
@@ -111,38 +137,11 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
     return chunksCount
   }
 
-  private fun removeChunksFromDisk(url: String) {
-    val chunks = activeDownloads.getChunks(url)
-    if (chunks.isEmpty()) {
-      return
-    }
-
-    val request = activeDownloads.get(url)
-      ?: activeDownloads.throwCancellationException(url)
-
-    for (chunk in chunks) {
-      val chunkFile = cacheHandler.get().getChunkCacheFileOrNull(
-        cacheFileType = request.cacheFileType,
-        chunkStart = chunk.start,
-        chunkEnd = chunk.end,
-        url = url
-      ) ?: continue
-
-      if (chunkFile.delete()) {
-        log(TAG, "Deleted chunk file ${chunkFile.absolutePath}")
-      } else {
-        logError(TAG, "Couldn't delete chunk file ${chunkFile.absolutePath}")
-      }
-    }
-
-    activeDownloads.clearChunks(url)
-  }
-
   private fun downloadInternal(
     url: String,
     chunks: List<Chunk>,
     partialContentCheckResult: PartialContentCheckResult,
-    output: File
+    chunkedOutputFile: ChunkedOutputFile
   ): Flowable<FileDownloadResult> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -164,10 +163,14 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
     }
 
     val startTime = System.currentTimeMillis()
-    val totalDownloaded = AtomicLong(0L)
+    val totalDownloaded = AtomicLong(chunkedOutputFile.completedBytes())
     val chunkIndex = AtomicInteger(0)
 
-    activeDownloads.addChunks(url, chunks)
+    if (chunks.isEmpty()) {
+      // Everything was already downloaded before the download got interrupted
+      return outputFileFinalizer.finalizeOutputFile(url, chunkedOutputFile, startTime)
+        .map { event -> mapChunkDownloadEvent(event) }
+    }
 
     val downloadedChunks = Flowable.fromIterable(chunks)
       .subscribeOn(workerScheduler)
@@ -175,6 +178,7 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
       .flatMap { chunk ->
         return@flatMap processChunks(
           url,
+          chunkedOutputFile,
           totalDownloaded,
           chunkIndex.getAndIncrement(),
           chunk,
@@ -238,11 +242,9 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
           }
         }
 
-        @Suppress("UNCHECKED_CAST")
-        return@flatMap chunkMerger.mergeChunksIntoCacheFile(
+        return@flatMap outputFileFinalizer.finalizeOutputFile(
           url = url,
-          chunkSuccessEvents = chunkEvents as List<ChunkDownloadEvent.ChunkSuccess>,
-          output = output,
+          chunkedOutputFile = chunkedOutputFile,
           requestStartTime = startTime
         )
       }
@@ -253,32 +255,35 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
 
     // Merge them back into a single stream
     return Flowable.merge(skipEvents, successEvents)
-      .map { cde ->
-        // Map ChunkDownloadEvent to FileDownloadResult
-        return@map when (cde) {
-          is ChunkDownloadEvent.Success -> {
-            FileDownloadResult.Success(
-              cde.output,
-              cde.requestTime
-            )
-          }
-          is ChunkDownloadEvent.Progress -> {
-            FileDownloadResult.Progress(
-              cde.chunkIndex,
-              cde.downloaded,
-              cde.chunkSize
-            )
-          }
-          is ChunkDownloadEvent.ChunkError,
-          is ChunkDownloadEvent.ChunkSuccess -> {
-            throw RuntimeException("Not used, ${cde.javaClass.name}")
-          }
-        }
+      .map { cde -> mapChunkDownloadEvent(cde) }
+  }
+
+  private fun mapChunkDownloadEvent(cde: ChunkDownloadEvent): FileDownloadResult {
+    // Map ChunkDownloadEvent to FileDownloadResult
+    return when (cde) {
+      is ChunkDownloadEvent.Success -> {
+        FileDownloadResult.Success(
+          cde.output,
+          cde.requestTime
+        )
+      }
+      is ChunkDownloadEvent.Progress -> {
+        FileDownloadResult.Progress(
+          cde.chunkIndex,
+          cde.downloaded,
+          cde.chunkSize
+        )
       }
+      is ChunkDownloadEvent.ChunkError,
+      is ChunkDownloadEvent.ChunkSuccess -> {
+        throw RuntimeException("Not used, ${cde.javaClass.name}")
+      }
+    }
   }
 
   private fun processChunks(
     url: String,
+    chunkedOutputFile: ChunkedOutputFile,
     totalDownloaded: AtomicLong,
     chunkIndex: Int,
     chunk: Chunk,
@@ -298,15 +303,14 @@ internal class ConcurrentChunkedFileDownloader @Inject constructor(
       .observeOn(workerScheduler)
       .map { response -> ChunkResponse(chunk, response) }
       .flatMap { chunkResponse ->
-        // Here is where the most fun is happening. At this point we have sent multiple
-        // requests to the server and got responses. Now we need to read the bodies of
-        // those responses each into it's own chunk file. Then, after we have read
-        // them all, we need to sort them and write all chunks into the resulting
-        // file - cache file. After that we need to do clean up: delete chunk files
-        // (we also need to delete them in case of an error)
+        // At this point we have sent multiple requests to the server and got responses.
+        // Now we need to read the body of each response directly into the cache file
+        // at the chunk's offset. Once all of them are read the cache file is ready, there
+        // is nothing to merge.
         return@flatMap chunkPersister.storeChunkInFile(
           url = url,
           chunkResponse = chunkResponse,
+          chunkedOutputFile = chunkedOutputFile,
           totalDownloaded = totalDownloaded,
           chunkIndex = chunkIndex,
           totalChunksCount = totalChunksCount
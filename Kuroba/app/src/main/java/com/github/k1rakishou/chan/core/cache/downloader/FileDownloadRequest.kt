@@ -11,22 +11,37 @@ internal open class FileDownloadRequest(
   val downloaded: AtomicLong,
   // How many bytes a file we download takes in total
   val total: AtomicLong,
+  // How many bytes from the beginning of the file are already on the disk (without any gaps)
+  val readableBytes: AtomicLong,
   // A handle to cancel the current download
   val cancelableDownload: CancelableDownload,
   val extraInfo: DownloadRequestExtraInfo,
-  // Chunks to delete from the disk upon download success or error
-  val chunks: MutableSet<Chunk> = mutableSetOf(),
   val cacheFileType: CacheFileType
 ) {
   private var output: File? = null
 
   private var chunksCount = AtomicInteger(-1)
+  // How many readable bytes the listeners were already notified about
+  private val notifiedReadableBytes = AtomicLong(0L)
 
   @Synchronized
   fun chunksCount(count: Int) {
     chunksCount.set(count)
   }
 
+  /**
+   * Returns the current [readableBytes] if it has grown since the last call of this method,
+   * otherwise returns null.
+   * */
+  fun takeNewReadableBytes(): Long? {
+    val current = readableBytes.get()
+    if (current <= 0L || notifiedReadableBytes.getAndSet(current) >= current) {
+      return null
+    }
+
+    return current
+  }
+
   @Synchronized
   fun setOutputFile(outputFile: File) {
     if (output != null) {
@@ -8,25 +8,29 @@ import io.reactivex.Flowable
 import java.io.File
 
 
-internal class ChunkMerger(
+internal class OutputFileFinalizer(
   private val fileManager: FileManager,
   private val cacheHandler: Lazy<CacheHandler>,
   private val activeDownloads: ActiveDownloads,
   private val verboseLogs: Boolean
 ) {
 
-  fun mergeChunksIntoCacheFile(
+  /**
+   * All chunks are already written directly into the output file (see [ChunkedOutputFile]) so there
+   * is nothing to merge here, we only need to close the file and mark it as downloaded.
+   * */
+  fun finalizeOutputFile(
     url: String,
-    chunkSuccessEvents: List<ChunkDownloadEvent.ChunkSuccess>,
-    output: File,
+    chunkedOutputFile: ChunkedOutputFile,
     requestStartTime: Long
   ): Flowable<ChunkDownloadEvent> {
     BackgroundUtils.ensureBackgroundThread()
 
     return Flowable.fromCallable {
+      val output = chunkedOutputFile.output
+
       if (verboseLogs) {
-        log(TAG, "mergeChunksIntoCacheFile called ($url), " +
-          "chunks count = ${chunkSuccessEvents.size}")
+        log(TAG, "finalizeOutputFile called ($url), isRanged = ${chunkedOutputFile.isRanged}")
       }
 
       val isRunning = activeDownloads.get(url)?.cancelableDownload?.isRunning() ?: false
@@ -34,39 +38,12 @@ internal class ChunkMerger(
         activeDownloads.throwCancellationException(url)
       }
 
-      try {
-        // Must be sorted in ascending order!!!
-        val sortedChunkEvents = chunkSuccessEvents.sortedBy { event -> event.chunk.start }
-
-        if (!output.exists()) {
-          throw FileCacheException.OutputFileDoesNotExist(output.absolutePath)
-        }
-
-        output.outputStream().use { outputStream ->
-          // Iterate each chunk and write it to the output file
-          for (chunkEvent in sortedChunkEvents) {
-            val chunkFile = chunkEvent.chunkCacheFile
-
-            if (!chunkFile.exists()) {
-              throw FileCacheException.ChunkFileDoesNotExist(chunkFile.absolutePath)
-            }
-
-            chunkFile.inputStream().use { inputStream ->
-              inputStream.copyTo(outputStream)
-            }
-          }
-
-          outputStream.flush()
-        }
-      } finally {
-        // In case of success or an error we want delete all chunk files
-        chunkSuccessEvents.forEach { event ->
-          if (!event.chunkCacheFile.delete()) {
-            logError(TAG, "Couldn't delete chunk file: ${event.chunkCacheFile.absolutePath}")
-          }
-        }
+      if (!output.exists()) {
+        throw FileCacheException.OutputFileDoesNotExist(output.absolutePath)
       }
 
+      chunkedOutputFile.complete()
+
       // Mark file as downloaded
       markFileAsDownloaded(output, url)
 
@@ -83,7 +60,7 @@ internal class ChunkMerger(
     }
 
     val requestOutputFile = checkNotNull(request.getOutputFile()) {
-      "Output file is null at the final stage of merging"
+      "Output file is null at the final stage of downloading"
     }
 
     check(actualOutput.absolutePath == requestOutputFile.absolutePath) {
@@ -103,6 +80,6 @@ internal class ChunkMerger(
   }
 
   companion object {
-    private const val TAG = "ChunkPersister"
+    private const val TAG = "OutputFileFinalizer"
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import androidx.annotation.GuardedBy
+
+/**
+ * A claim of the cache file of [url] by a media player that writes the bytes it streams from the
+ * network into the cache file (see [ActiveDownloads.tryClaimStreamingWrite]). Only one writer may
+ * touch a cache file at a time so a download of the same url revokes the claim before it opens the
+ * cache file. Everything the player does with the cache file (including creating it, persisting the
+ * ranges and marking it as downloaded) must be done inside [runIfClaimed].
+ * */
+internal class StreamingWrite(val url: String) {
+  @GuardedBy("this")
+  private var revoked = false
+
+  /**
+   * Runs [func] unless the claim was revoked. Returns false (without running [func]) if it was. A
+   * claim can't be revoked while [func] is running.
+   * */
+  @Synchronized
+  fun runIfClaimed(func: () -> Unit): Boolean {
+    if (revoked) {
+      return false
+    }
+
+    func()
+    return true
+  }
+
+  /**
+   * Waits until the current [runIfClaimed] (if any) completes, nothing will be run after that.
+   * */
+  @Synchronized
+  fun revoke() {
+    revoked = true
+  }
+
+}
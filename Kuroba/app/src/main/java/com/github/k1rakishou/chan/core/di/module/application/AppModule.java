@@ -25,6 +25,7 @@ import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
 import com.github.k1rakishou.chan.core.helper.ImageLoaderFileManagerWrapper;
+import com.github.k1rakishou.chan.core.image.ImageLoadScheduler;
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2;
 import com.github.k1rakishou.chan.core.manager.ArchivesManager;
 import com.github.k1rakishou.chan.core.manager.BoardManager;
@@ -155,7 +156,8 @@ public class AppModule {
             Lazy<ImageLoaderFileManagerWrapper> imageLoaderFileManagerWrapper,
             Lazy<SiteResolver> siteResolver,
             Lazy<CoilOkHttpClient> coilOkHttpClient,
-            Lazy<ThreadDownloadManager> threadDownloadManager
+            Lazy<ThreadDownloadManager> threadDownloadManager,
+            ImageLoadScheduler imageLoadScheduler
     ) {
         Logger.deps("ImageLoaderV2");
 
@@ -170,7 +172,20 @@ public class AppModule {
                 imageLoaderFileManagerWrapper,
                 siteResolver,
                 coilOkHttpClient,
-                threadDownloadManager
+                threadDownloadManager,
+                imageLoadScheduler
+        );
+    }
+
+    @Provides
+    @Singleton
+    public ImageLoadScheduler provideImageLoadScheduler() {
+        Logger.deps("ImageLoadScheduler");
+
+        return new ImageLoadScheduler(
+                ImageLoadScheduler.DEFAULT_MAX_LOADS_PER_HOST,
+                ImageLoadScheduler.DEFAULT_MAX_BACKGROUND_LOADS_PER_HOST,
+                ImageLoadScheduler.DEFAULT_MAX_PREFETCH_LOADS_PER_HOST
         );
     }
 
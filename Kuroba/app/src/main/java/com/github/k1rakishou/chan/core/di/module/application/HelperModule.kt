@@ -6,6 +6,8 @@ import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.helper.AppRestarter
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.ConditionalRequestHelper
+import com.github.k1rakishou.chan.core.helper.WatcherThreadResponseCache
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
@@ -17,7 +19,6 @@ import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.site.loader.ChanThreadLoaderCoordinator
 import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
-import com.github.k1rakishou.chan.features.media_viewer.helper.ExoPlayerCache
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToImagePostHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToPostHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerOpenAlbumHelper
@@ -35,6 +36,7 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.github.k1rakishou.model.repository.ConditionalRequestValidatorRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.squareup.moshi.Moshi
@@ -60,7 +62,9 @@ class HelperModule {
     chanThreadsCache: ChanThreadsCache,
     chanCatalogSnapshotCache: ChanCatalogSnapshotCache,
     threadDownloadManager: ThreadDownloadManager,
-    parsePostsV1UseCase: ParsePostsV1UseCase
+    parsePostsV1UseCase: ParsePostsV1UseCase,
+    conditionalRequestHelper: ConditionalRequestHelper,
+    watcherThreadResponseCache: WatcherThreadResponseCache
   ): ChanThreadLoaderCoordinator {
     Logger.deps("ChanThreadLoaderCoordinator")
     return ChanThreadLoaderCoordinator(
@@ -74,10 +78,28 @@ class HelperModule {
       chanThreadsCache,
       chanCatalogSnapshotCache,
       threadDownloadManager,
-      parsePostsV1UseCase
+      parsePostsV1UseCase,
+      conditionalRequestHelper,
+      watcherThreadResponseCache
     )
   }
 
+  @Provides
+  @Singleton
+  fun provideConditionalRequestHelper(
+    conditionalRequestValidatorRepository: ConditionalRequestValidatorRepository
+  ): ConditionalRequestHelper {
+    Logger.deps("ConditionalRequestHelper")
+    return ConditionalRequestHelper(conditionalRequestValidatorRepository)
+  }
+
+  @Provides
+  @Singleton
+  fun provideWatcherThreadResponseCache(): WatcherThreadResponseCache {
+    Logger.deps("WatcherThreadResponseCache")
+    return WatcherThreadResponseCache()
+  }
+
   @Provides
   @Singleton
   fun provideShareFilePicker(
@@ -196,13 +218,6 @@ class HelperModule {
     return MediaViewerOpenAlbumHelper(chanThreadManager)
   }
 
-  @Provides
-  @Singleton
-  fun provideExoPlayerDiskCache(context: Context, appConstants: AppConstants): ExoPlayerCache {
-    Logger.deps("ExoPlayerCache");
-    return ExoPlayerCache(context, appConstants)
-  }
-
   @Provides
   @Singleton
   fun provideAppSettingsUpdateAppRefreshHelper(): AppSettingsUpdateAppRefreshHelper {
@@ -1,9 +1,11 @@
 package com.github.k1rakishou.chan.core.di.module.application;
 
+import com.github.k1rakishou.ChanSettings;
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
 import com.github.k1rakishou.chan.core.helper.FilterEngine;
+import com.github.k1rakishou.chan.core.image.ImageLoadScheduler;
 import com.github.k1rakishou.chan.core.loader.impl.Chan4CloudFlareImagePreloader;
 import com.github.k1rakishou.chan.core.loader.impl.PostExtraContentLoader;
 import com.github.k1rakishou.chan.core.loader.impl.PostHighlightFilterLoader;
@@ -25,6 +27,7 @@ import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager;
 import com.github.k1rakishou.common.AppConstants;
 import com.github.k1rakishou.core_logger.Logger;
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository;
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,6 +37,7 @@ import javax.inject.Singleton;
 import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
+import kotlinx.coroutines.CoroutineScope;
 
 @Module
 public class LoaderModule {
@@ -46,7 +50,8 @@ public class LoaderModule {
             PrefetchStateManager prefetchStateManager,
             Lazy<ChanThreadManager> chanThreadManager,
             Lazy<ArchivesManager> archivesManager,
-            Lazy<ThreadDownloadManager> threadDownloadManager
+            Lazy<ThreadDownloadManager> threadDownloadManager,
+            ImageLoadScheduler imageLoadScheduler
     ) {
         Logger.deps("PrefetchLoader");
 
@@ -56,25 +61,31 @@ public class LoaderModule {
                 chanThreadManager,
                 archivesManager,
                 prefetchStateManager,
-                threadDownloadManager
+                threadDownloadManager,
+                imageLoadScheduler
         );
     }
 
     @Provides
     @Singleton
     public ThirdEyeLoader provideThirdEyeLoader(
+            CoroutineScope appScope,
             AppConstants appConstants,
             Lazy<ThirdEyeManager> thirdEyeManager,
             Lazy<ChanThreadManager> chanThreadManager,
-            Lazy<ProxiedOkHttpClient> proxiedOkHttpClient
+            Lazy<ProxiedOkHttpClient> proxiedOkHttpClient,
+            Lazy<ThirdEyeLookupRepository> thirdEyeLookupRepository
     ) {
         Logger.deps("ThirdEyeLoader");
 
         return new ThirdEyeLoader(
+                appScope,
+                ChanSettings.verboseLogs.get(),
                 appConstants,
                 thirdEyeManager,
                 chanThreadManager,
-                proxiedOkHttpClient
+                proxiedOkHttpClient,
+                thirdEyeLookupRepository
         );
     }
 
@@ -116,8 +116,10 @@ import com.github.k1rakishou.model.repository.ChanThreadViewableInfoRepository;
 import com.github.k1rakishou.model.repository.CompositeCatalogRepository;
 import com.github.k1rakishou.model.repository.HistoryNavigationRepository;
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository;
+import com.github.k1rakishou.model.repository.SavedImageRepository;
 import com.github.k1rakishou.model.repository.SeenPostRepository;
 import com.github.k1rakishou.model.repository.SiteRepository;
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository;
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository;
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository;
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache;
@@ -274,9 +276,8 @@ public class ManagerModule {
                 () -> {
                     List<OnDemandContentLoader> loaders = new ArrayList<>();
 
-                    // Order matters! Loaders at the beginning of the list will be executed first.
-                    // If a loader depends on the results of another loader then add it before
-                    // the other loader.
+                    // Loaders are executed concurrently, the order only defines the order of
+                    // the results. A loader must not depend on the results of another loader.
                     loaders.add(chan4CloudFlareImagePreloader.get());
                     loaders.add(prefetchLoader.get());
                     loaders.add(postExtraContentLoader.get());
@@ -288,6 +289,7 @@ public class ManagerModule {
 
         return new OnDemandContentLoaderManager(
                 appScope,
+                ChanSettings.verboseLogs.get(),
                 appConstants,
                 Dispatchers.getDefault(),
                 loadersLazy,
@@ -745,6 +747,7 @@ public class ManagerModule {
             SiteResolver siteResolver,
             ChanPostImageRepository chanPostImageRepository,
             ImageDownloadRequestRepository imageDownloadRequestRepository,
+            SavedImageRepository savedImageRepository,
             ChanThreadManager chanThreadManager,
             ThreadDownloadManager threadDownloadManager
     ) {
@@ -760,6 +763,7 @@ public class ManagerModule {
                 siteResolver,
                 chanPostImageRepository,
                 imageDownloadRequestRepository,
+                savedImageRepository,
                 chanThreadManager,
                 threadDownloadManager
         );
@@ -915,7 +919,8 @@ public class ManagerModule {
             ChanThreadsCache chanThreadsCache,
             AppConstants appConstants,
             Moshi moshi,
-            FileManager fileManager
+            FileManager fileManager,
+            ThirdEyeLookupRepository thirdEyeLookupRepository
     ) {
         Logger.deps("ThirdEyeManager");
 
@@ -925,7 +930,8 @@ public class ManagerModule {
                 appConstants,
                 moshi,
                 chanThreadsCache,
-                fileManager
+                fileManager,
+                thirdEyeLookupRepository
         );
     }
 
@@ -13,12 +13,15 @@ import com.github.k1rakishou.model.repository.ChanPostRepository;
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository;
 import com.github.k1rakishou.model.repository.ChanThreadViewableInfoRepository;
 import com.github.k1rakishou.model.repository.CompositeCatalogRepository;
+import com.github.k1rakishou.model.repository.ConditionalRequestValidatorRepository;
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository;
 import com.github.k1rakishou.model.repository.HistoryNavigationRepository;
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository;
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository;
+import com.github.k1rakishou.model.repository.SavedImageRepository;
 import com.github.k1rakishou.model.repository.SeenPostRepository;
 import com.github.k1rakishou.model.repository.SiteRepository;
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository;
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository;
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository;
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache;
@@ -221,4 +224,31 @@ public class RoomDatabaseModule {
         return modelComponent.getCompositeCatalogRepository();
     }
 
+    @Provides
+    @Singleton
+    public ConditionalRequestValidatorRepository provideConditionalRequestValidatorRepository(
+            ModelComponent modelComponent
+    ) {
+        Logger.deps("ConditionalRequestValidatorRepository");
+        return modelComponent.getConditionalRequestValidatorRepository();
+    }
+
+    @Provides
+    @Singleton
+    public ThirdEyeLookupRepository provideThirdEyeLookupRepository(
+            ModelComponent modelComponent
+    ) {
+        Logger.deps("ThirdEyeLookupRepository");
+        return modelComponent.getThirdEyeLookupRepository();
+    }
+
+    @Provides
+    @Singleton
+    public SavedImageRepository provideSavedImageRepository(
+            ModelComponent modelComponent
+    ) {
+        Logger.deps("SavedImageRepository");
+        return modelComponent.getSavedImageRepository();
+    }
+
 }
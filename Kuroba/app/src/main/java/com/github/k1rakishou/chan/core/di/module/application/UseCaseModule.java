@@ -8,7 +8,9 @@ import com.github.k1rakishou.ChanSettings;
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier;
+import com.github.k1rakishou.chan.core.helper.ConditionalRequestHelper;
 import com.github.k1rakishou.chan.core.helper.FilterEngine;
+import com.github.k1rakishou.chan.core.helper.WatcherThreadResponseCache;
 import com.github.k1rakishou.chan.core.manager.BoardManager;
 import com.github.k1rakishou.chan.core.manager.BookmarksManager;
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager;
@@ -59,6 +61,7 @@ import com.github.k1rakishou.model.repository.ChanFilterWatchRepository;
 import com.github.k1rakishou.model.repository.ChanPostRepository;
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository;
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository;
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache;
 import com.google.gson.Gson;
 import com.squareup.moshi.Moshi;
 
@@ -100,6 +103,9 @@ public class UseCaseModule {
             Lazy<ProxiedOkHttpClient> okHttpClient,
             SiteManager siteManager,
             BookmarksManager bookmarksManager,
+            ConditionalRequestHelper conditionalRequestHelper,
+            WatcherThreadResponseCache watcherThreadResponseCache,
+            ChanThreadsCache chanThreadsCache,
             AppConstants appConstants
 
     ) {
@@ -111,6 +117,9 @@ public class UseCaseModule {
                 okHttpClient,
                 siteManager,
                 bookmarksManager,
+                conditionalRequestHelper,
+                watcherThreadResponseCache,
+                chanThreadsCache,
                 appConstants
         );
     }
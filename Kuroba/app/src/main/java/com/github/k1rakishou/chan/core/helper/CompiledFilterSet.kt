@@ -0,0 +1,386 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.AnyThread
+import com.github.k1rakishou.common.RegexPatternCompiler
+import com.github.k1rakishou.common.datastructure.AhoCorasick
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+/**
+ * Immutable snapshot of the enabled non-watch filters compiled for fast matching of many posts.
+ * Built by [com.github.k1rakishou.chan.core.manager.ChanFilterManager] every time the filters
+ * change.
+ *
+ * Filters are grouped by board (lazily, on the first request for a board) and then by [FilterType].
+ * Simple keyword filters ("exact sentence" and whole word filters without wildcards) of every
+ * [FilterType] are merged into a single [AhoCorasick] automaton so that every post field is scanned
+ * only once no matter how many keyword filters there are. Only the real /regex/ filters (and
+ * wildcard filters) are matched one by one.
+ *
+ * The matching semantics are the same as of [FilterEngine.matches] applied to every filter in
+ * order and picking the first one that matched. Both paths are case-insensitive for ASCII letters
+ * only ([Pattern.CASE_INSENSITIVE] without [Pattern.UNICODE_CASE] and [AhoCorasick.foldCase]).
+ * */
+class CompiledFilterSet private constructor(
+  val version: Long,
+  private val filters: List<ChanFilter>
+) {
+  private val boardFiltersCache = ConcurrentHashMap<BoardDescriptor, BoardFilters>()
+
+  val filtersCount: Int
+    get() = filters.size
+
+  @AnyThread
+  fun forBoard(boardDescriptor: BoardDescriptor): BoardFilters {
+    val cached = boardFiltersCache[boardDescriptor]
+    if (cached != null) {
+      return cached
+    }
+
+    val boardFilters = BoardFilters(filters.filter { filter -> filter.matchesBoard(boardDescriptor) })
+    return boardFiltersCache.putIfAbsent(boardDescriptor, boardFilters) ?: boardFilters
+  }
+
+  class BoardFilters internal constructor(
+    private val filters: List<ChanFilter>
+  ) {
+    private val emptyCommentFilterIndexes: IntArray
+    private val fieldMatchers: Map<FilterType, FieldMatcher>
+
+    val filtersCount: Int
+      get() = filters.size
+
+    init {
+      val compiledPatterns = filters.map { filter -> compileFilterPattern(filter) }
+
+      emptyCommentFilterIndexes = filters.indices
+        .filter { index -> filters[index].applyToEmptyComments }
+        .toIntArray()
+
+      val matchers = mutableMapOf<FilterType, FieldMatcher>()
+
+      for (filterType in FilterType.values()) {
+        val filterIndexes = filters.indices.filter { index -> filters[index].type and filterType.flag != 0 }
+        if (filterIndexes.isEmpty()) {
+          continue
+        }
+
+        val fieldMatcher = FieldMatcher.create(filterIndexes, compiledPatterns)
+        if (fieldMatcher != null) {
+          matchers[filterType] = fieldMatcher
+        }
+      }
+
+      fieldMatchers = matchers
+    }
+
+    fun isEmpty(): Boolean = filters.isEmpty()
+
+    /**
+     * Returns the first filter (in the order of the ChanFilterManager's filters) that matches the
+     * [post] or null if none of them do.
+     * */
+    @AnyThread
+    fun findFirstMatchingFilter(post: ChanPostBuilder): ChanFilter? {
+      if (filters.isEmpty()) {
+        return null
+      }
+
+      if (post.moderatorCapcode.isNotEmpty() || post.sticky) {
+        return null
+      }
+
+      val isApplicable = { filterIndex: Int -> isApplicableToPost(filters[filterIndex], post) }
+      var bestIndex = NO_MATCH
+
+      val comment = post.postCommentBuilder.getComment()
+      if (comment.isEmpty()) {
+        val emptyCommentFilterIndex = emptyCommentFilterIndexes.firstOrNull(isApplicable)
+        if (emptyCommentFilterIndex != null) {
+          bestIndex = emptyCommentFilterIndex
+        }
+      }
+
+      bestIndex = matchField(FilterType.COMMENT, comment, bestIndex, isApplicable)
+      bestIndex = matchField(FilterType.SUBJECT, post.subject, bestIndex, isApplicable)
+      bestIndex = matchField(FilterType.NAME, post.name, bestIndex, isApplicable)
+      bestIndex = matchField(FilterType.TRIPCODE, post.tripcode, bestIndex, isApplicable)
+      bestIndex = matchField(FilterType.ID, post.posterId, bestIndex, isApplicable)
+
+      if (post.postImages.isNotEmpty()) {
+        for (image in post.postImages) {
+          bestIndex = matchField(FilterType.IMAGE, image.fileHash, bestIndex, isApplicable)
+        }
+
+        if (fieldMatchers.containsKey(FilterType.FILENAME)) {
+          val fileNames = StringBuilder()
+
+          for (image in post.postImages) {
+            fileNames.append(image.filename).append(" ")
+          }
+
+          bestIndex = matchField(FilterType.FILENAME, fileNames, bestIndex, isApplicable)
+        }
+      }
+
+      if (post.httpIcons.isNotEmpty() && fieldMatchers.containsKey(FilterType.COUNTRY_CODE)) {
+        bestIndex = matchField(FilterType.COUNTRY_CODE, extractCountryCode(post), bestIndex, isApplicable)
+      }
+
+      return filters.getOrNull(bestIndex)
+    }
+
+    private fun matchField(
+      filterType: FilterType,
+      text: CharSequence?,
+      bestIndex: Int,
+      isApplicable: (Int) -> Boolean
+    ): Int {
+      if (text.isNullOrEmpty() || bestIndex == 0) {
+        return bestIndex
+      }
+
+      val fieldMatcher = fieldMatchers[filterType]
+        ?: return bestIndex
+
+      return fieldMatcher.findFirstMatch(text, bestIndex, isApplicable)
+    }
+
+    private fun isApplicableToPost(filter: ChanFilter, post: ChanPostBuilder): Boolean {
+      if (filter.onlyOnOP && !post.op) {
+        return false
+      }
+
+      if (filter.applyToSaved && !post.isSavedReply) {
+        return false
+      }
+
+      return true
+    }
+
+    private fun extractCountryCode(post: ChanPostBuilder): String? {
+      for (icon in post.httpIcons) {
+        val index = icon.iconName.indexOf('/')
+        if (index != -1) {
+          return icon.iconName.substring(index + 1)
+        }
+      }
+
+      return null
+    }
+
+    override fun toString(): String {
+      return "BoardFilters{filtersCount=${filters.size}, fieldMatchers=${fieldMatchers}}"
+    }
+
+    companion object {
+      val EMPTY = BoardFilters(emptyList())
+    }
+  }
+
+  private class FieldMatcher(
+    private val keywordsAutomaton: AhoCorasick?,
+    // Indexed by the automaton's payload
+    private val keywordFilterIndexes: IntArray,
+    private val keywordRequiresWordBoundaries: BooleanArray,
+    // Sorted by filter index
+    private val regexFilterIndexes: IntArray,
+    private val regexPatterns: Array<Pattern>
+  ) {
+
+    fun findFirstMatch(text: CharSequence, currentBestIndex: Int, isApplicable: (Int) -> Boolean): Int {
+      var bestIndex = currentBestIndex
+
+      if (keywordsAutomaton != null) {
+        keywordsAutomaton.search(text) { start, end, payload ->
+          val filterIndex = keywordFilterIndexes[payload]
+
+          if (filterIndex < bestIndex
+            && (!keywordRequiresWordBoundaries[payload] || isWholeWord(text, start, end))
+            && isApplicable(filterIndex)
+          ) {
+            bestIndex = filterIndex
+          }
+
+          // Nothing can beat the very first filter
+          return@search bestIndex != 0
+        }
+      }
+
+      for (index in regexFilterIndexes.indices) {
+        val filterIndex = regexFilterIndexes[index]
+        if (filterIndex >= bestIndex) {
+          // Sorted, so all the remaining ones have lower priority than what we already have
+          break
+        }
+
+        if (!isApplicable(filterIndex)) {
+          continue
+        }
+
+        val pattern = regexPatterns[index]
+
+        val found = try {
+          pattern.matcher(text).find()
+        } catch (error: IllegalArgumentException) {
+          Logger.e(TAG, "matcher.find() exception, pattern=" + pattern.pattern(), error)
+          false
+        }
+
+        if (found) {
+          bestIndex = filterIndex
+          break
+        }
+      }
+
+      return bestIndex
+    }
+
+    override fun toString(): String {
+      return "FieldMatcher{keywords=${keywordsAutomaton?.keywordsCount ?: 0}, regexes=${regexPatterns.size}}"
+    }
+
+    companion object {
+      fun create(filterIndexes: List<Int>, compiledPatterns: List<CompiledPattern>): FieldMatcher? {
+        val automatonBuilder = AhoCorasick.Builder()
+        val keywordFilterIndexes = mutableListOf<Int>()
+        val keywordRequiresWordBoundaries = mutableListOf<Boolean>()
+        val regexFilterIndexes = mutableListOf<Int>()
+        val regexPatterns = mutableListOf<Pattern>()
+
+        for (filterIndex in filterIndexes) {
+          when (val compiledPattern = compiledPatterns[filterIndex]) {
+            CompiledPattern.NeverMatches -> {
+              // no-op
+            }
+            is CompiledPattern.Keywords -> {
+              for (keyword in compiledPattern.keywords) {
+                automatonBuilder.addKeyword(keyword, keywordFilterIndexes.size)
+                keywordFilterIndexes += filterIndex
+                keywordRequiresWordBoundaries += compiledPattern.wholeWords
+              }
+            }
+            is CompiledPattern.Regex -> {
+              regexFilterIndexes += filterIndex
+              regexPatterns += compiledPattern.pattern
+            }
+          }
+        }
+
+        if (keywordFilterIndexes.isEmpty() && regexFilterIndexes.isEmpty()) {
+          return null
+        }
+
+        val keywordsAutomaton = if (keywordFilterIndexes.isNotEmpty()) {
+          automatonBuilder.build()
+        } else {
+          null
+        }
+
+        return FieldMatcher(
+          keywordsAutomaton = keywordsAutomaton,
+          keywordFilterIndexes = keywordFilterIndexes.toIntArray(),
+          keywordRequiresWordBoundaries = keywordRequiresWordBoundaries.toBooleanArray(),
+          regexFilterIndexes = regexFilterIndexes.toIntArray(),
+          regexPatterns = regexPatterns.toTypedArray()
+        )
+      }
+    }
+  }
+
+  private sealed class CompiledPattern {
+    object NeverMatches : CompiledPattern()
+    class Keywords(val keywords: List<String>, val wholeWords: Boolean) : CompiledPattern()
+    class Regex(val pattern: Pattern) : CompiledPattern()
+  }
+
+  companion object {
+    private const val TAG = "CompiledFilterSet"
+    private const val NO_MATCH = Int.MAX_VALUE
+
+    private val isRegexPattern = Pattern.compile("^/(.*)/(\\w+)?$")
+
+    fun create(version: Long, filters: List<ChanFilter>): CompiledFilterSet {
+      val postFilters = filters.filter { filter -> filter.enabled && !filter.isWatchFilter() }
+      return CompiledFilterSet(version, postFilters)
+    }
+
+    /**
+     * Mirrors [RegexPatternCompiler.compile]: "quoted" patterns are (ASCII) case-insensitive substring
+     * searches, space separated words are (ASCII) case-insensitive whole word searches (unless they
+     * contain wildcards) and /patterns/ are regular expressions.
+     * */
+    private fun compileFilterPattern(filter: ChanFilter): CompiledPattern {
+      val rawPattern = filter.pattern
+      if (rawPattern.isNullOrEmpty()) {
+        return CompiledPattern.NeverMatches
+      }
+
+      if (!isRegexPattern.matcher(rawPattern).matches()) {
+        val isExactSentence = rawPattern.length >= 2
+          && rawPattern[0] == '"'
+          && rawPattern[rawPattern.length - 1] == '"'
+
+        if (isExactSentence) {
+          val sentence = rawPattern.substring(1, rawPattern.length - 1)
+          if (sentence.isEmpty()) {
+            return CompiledPattern.NeverMatches
+          }
+
+          return CompiledPattern.Keywords(listOf(sentence), wholeWords = false)
+        }
+
+        val words = rawPattern
+          .split(" ")
+          .map { word -> word.trim() }
+          .filter { word -> word.isNotEmpty() }
+
+        if (words.isEmpty()) {
+          return CompiledPattern.NeverMatches
+        }
+
+        if (words.none { word -> word.contains('*') }) {
+          return CompiledPattern.Keywords(words, wholeWords = true)
+        }
+
+        // Wildcards can't be handled by the automaton so fallback to the regex
+      }
+
+      val extraFlags = if (filter.type and FilterType.COUNTRY_CODE.flag != 0) {
+        Pattern.CASE_INSENSITIVE
+      } else {
+        0
+      }
+
+      val pattern = RegexPatternCompiler.compile(rawPattern, extraFlags).patternOrNull
+        ?: return CompiledPattern.NeverMatches
+
+      return CompiledPattern.Regex(pattern)
+    }
+
+    /**
+     * Same as surrounding the keyword with "\b" in a regex.
+     * */
+    private fun isWholeWord(text: CharSequence, start: Int, end: Int): Boolean {
+      return isWordBoundary(text, start) && isWordBoundary(text, end)
+    }
+
+    private fun isWordBoundary(text: CharSequence, index: Int): Boolean {
+      val prevIsWordChar = index > 0 && isWordChar(text[index - 1])
+      val nextIsWordChar = index < text.length && isWordChar(text[index])
+
+      return prevIsWordChar != nextIsWordChar
+    }
+
+    private fun isWordChar(ch: Char): Boolean {
+      return ch == '_'
+        || Character.isLetterOrDigit(ch)
+        || Character.getType(ch) == Character.NON_SPACING_MARK.toInt()
+    }
+  }
+}
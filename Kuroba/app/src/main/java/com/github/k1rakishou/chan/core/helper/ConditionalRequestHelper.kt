@@ -0,0 +1,104 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import com.github.k1rakishou.model.repository.ConditionalRequestValidatorRepository
+import okhttp3.HttpUrl
+import okhttp3.Request
+import okhttp3.Response
+
+/**
+ * Adds If-Modified-Since/If-None-Match headers to thread/catalog requests of sites that support
+ * them (see [com.github.k1rakishou.chan.core.site.parser.ChanReader.supportsConditionalRequests])
+ * and stores Last-Modified/ETag headers of successfully processed responses.
+ * */
+class ConditionalRequestHelper(
+  private val conditionalRequestValidatorRepository: ConditionalRequestValidatorRepository
+) {
+
+  /**
+   * Returns true if at least one of the conditional headers was added to the [requestBuilder]
+   * which means that the server may respond with 304.
+   * */
+  suspend fun addConditionalHeaders(
+    consumer: ConditionalRequestConsumer,
+    chanDescriptor: ChanDescriptor,
+    requestUrl: HttpUrl,
+    requestBuilder: Request.Builder
+  ): Boolean {
+    val validator = conditionalRequestValidatorRepository.getValidator(consumer, chanDescriptor)
+      .peekError { error ->
+        Logger.e(TAG, "getValidator($consumer, $chanDescriptor) error: ${error.errorMessageOrClassName()}")
+      }
+      .valueOrNull()
+      ?: return false
+
+    if (validator.isEmpty() || validator.requestUrl != requestUrl.toString()) {
+      return false
+    }
+
+    val etag = validator.etag
+    if (!etag.isNullOrEmpty()) {
+      requestBuilder.header(IF_NONE_MATCH_HEADER, etag)
+    }
+
+    val lastModified = validator.lastModified
+    if (!lastModified.isNullOrEmpty()) {
+      requestBuilder.header(IF_MODIFIED_SINCE_HEADER, lastModified)
+    }
+
+    return true
+  }
+
+  fun extractValidator(requestUrl: HttpUrl, response: Response): ConditionalRequestValidator? {
+    val validator = ConditionalRequestValidator(
+      requestUrl = requestUrl.toString(),
+      lastModified = response.header(LAST_MODIFIED_HEADER),
+      etag = response.header(ETAG_HEADER)
+    )
+
+    if (validator.isEmpty()) {
+      return null
+    }
+
+    return validator
+  }
+
+  suspend fun storeValidator(
+    consumer: ConditionalRequestConsumer,
+    chanDescriptor: ChanDescriptor,
+    validator: ConditionalRequestValidator?
+  ) {
+    val result = if (validator == null) {
+      conditionalRequestValidatorRepository.deleteValidator(consumer, chanDescriptor)
+    } else {
+      conditionalRequestValidatorRepository.storeValidator(consumer, chanDescriptor, validator)
+    }
+
+    result.peekError { error ->
+      Logger.e(TAG, "storeValidator($consumer, $chanDescriptor) error: ${error.errorMessageOrClassName()}")
+    }.ignore()
+  }
+
+  suspend fun clearValidator(consumer: ConditionalRequestConsumer, chanDescriptor: ChanDescriptor) {
+    storeValidator(consumer, chanDescriptor, null)
+  }
+
+  fun isNotModified(response: Response): Boolean {
+    return response.code == NOT_MODIFIED_STATUS
+  }
+
+  companion object {
+    private const val TAG = "ConditionalRequestHelper"
+
+    private const val NOT_MODIFIED_STATUS = 304
+
+    private const val IF_MODIFIED_SINCE_HEADER = "If-Modified-Since"
+    private const val IF_NONE_MATCH_HEADER = "If-None-Match"
+    private const val LAST_MODIFIED_HEADER = "Last-Modified"
+    private const val ETAG_HEADER = "ETag"
+  }
+}
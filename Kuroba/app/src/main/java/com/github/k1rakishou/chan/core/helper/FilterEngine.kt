@@ -52,6 +52,9 @@ class FilterEngine @Inject constructor(
   val enabledFilters: List<ChanFilter>
     get() = chanFilterManager.getEnabledFiltersSorted()
 
+  val compiledFilterSet: CompiledFilterSet
+    get() = chanFilterManager.getCompiledFilterSet()
+
   fun matchesBoard(filter: ChanFilter, board: ChanBoard): Boolean {
     return filter.matchesBoard(board.boardDescriptor)
   }
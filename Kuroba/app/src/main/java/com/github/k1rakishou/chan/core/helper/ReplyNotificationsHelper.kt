@@ -22,6 +22,7 @@ import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.activity.StartActivity
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.image.ImageLoadPriority
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.receiver.ReplyNotificationDeleteIntentBroadcastReceiver
@@ -562,7 +563,9 @@ class ReplyNotificationsHelper(
 
             cancellableContinuation.resumeValueSafe(null)
           }
-        }
+        },
+        // Nobody is looking at the screen waiting for this one
+        priority = ImageLoadPriority.Background
       )
 
       cancellableContinuation.invokeOnCancellation { cause ->
@@ -0,0 +1,210 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.HttpUrl
+import java.util.concurrent.TimeUnit
+
+/**
+ * The bookmark watcher downloads the whole thread json only to extract the bookmark info out of it.
+ * For threads that were recently viewed (and thus will most likely be opened again soon) we keep the
+ * downloaded json for a short period of time so that the thread loader can use it instead of
+ * downloading the same json again.
+ *
+ * Every response can only be taken once, after that the thread loader will go to the network as usual.
+ *
+ * The watcher also registers the fetches of such threads while they are running so that a thread
+ * loader that wants to load the same thread at the same time can wait for the watcher's response
+ * (see [awaitFetch]) instead of sending the same request again.
+ * */
+class WatcherThreadResponseCache(
+  private val maxEntries: Int = MAX_ENTRIES,
+  private val maxTotalSize: Long = MAX_TOTAL_SIZE,
+  private val maxAgeMs: Long = MAX_AGE_MS,
+  private val timeProvider: () -> Long = { System.currentTimeMillis() }
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private val responses = LinkedHashMap<ChanDescriptor.ThreadDescriptor, CachedResponse>()
+  @GuardedBy("lock")
+  private var totalSize = 0L
+  @GuardedBy("lock")
+  private val activeFetches = HashMap<ChanDescriptor.ThreadDescriptor, CompletableDeferred<Unit>>()
+
+  @GuardedBy("lock")
+  private var storedResponsesCount = 0L
+  @GuardedBy("lock")
+  private var reusedResponsesCount = 0L
+  @GuardedBy("lock")
+  private var reusedBytes = 0L
+  @GuardedBy("lock")
+  private var awaitedFetchesCount = 0L
+
+  fun put(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    requestUrl: HttpUrl,
+    body: ByteArray,
+    validator: ConditionalRequestValidator?
+  ) {
+    if (body.isEmpty() || body.size > maxTotalSize) {
+      return
+    }
+
+    synchronized(lock) {
+      removeLocked(threadDescriptor)
+
+      responses[threadDescriptor] = CachedResponse(
+        requestUrl = requestUrl.toString(),
+        body = body,
+        validator = validator,
+        storedAt = timeProvider()
+      )
+
+      totalSize += body.size
+      ++storedResponsesCount
+
+      trimLocked()
+    }
+  }
+
+  fun onFetchStarted(threadDescriptor: ChanDescriptor.ThreadDescriptor): CompletableDeferred<Unit> {
+    val fetch = CompletableDeferred<Unit>()
+    synchronized(lock) { activeFetches[threadDescriptor] = fetch }
+
+    return fetch
+  }
+
+  /**
+   * Must be called after the response (if any) was [put] into the cache, no matter whether the
+   * fetch succeeded or not.
+   * */
+  fun onFetchFinished(threadDescriptor: ChanDescriptor.ThreadDescriptor, fetch: CompletableDeferred<Unit>) {
+    synchronized(lock) {
+      if (activeFetches[threadDescriptor] === fetch) {
+        activeFetches.remove(threadDescriptor)
+      }
+    }
+
+    fetch.complete(Unit)
+  }
+
+  /**
+   * Waits (for at most [maxWaitMs]) until the watcher's fetch of [threadDescriptor] that is running
+   * right now (if any) is finished. The response can then be taken with [take]. If the fetch failed
+   * or got canceled there will be nothing to take and the thread loader simply goes to the network.
+   * */
+  suspend fun awaitFetch(threadDescriptor: ChanDescriptor.ThreadDescriptor, maxWaitMs: Long = MAX_FETCH_WAIT_MS) {
+    val fetch = synchronized(lock) {
+      val fetch = activeFetches[threadDescriptor]
+      if (fetch != null) {
+        ++awaitedFetchesCount
+      }
+
+      return@synchronized fetch
+    } ?: return
+
+    withTimeoutOrNull(maxWaitMs) { fetch.await() }
+  }
+
+  /**
+   * Returns the response downloaded by the bookmark watcher if it's still fresh and was downloaded
+   * from the same [requestUrl]. The response is removed from the cache.
+   * */
+  fun take(threadDescriptor: ChanDescriptor.ThreadDescriptor, requestUrl: HttpUrl): CachedResponse? {
+    synchronized(lock) {
+      val cachedResponse = removeLocked(threadDescriptor)
+        ?: return null
+
+      if (timeProvider() - cachedResponse.storedAt > maxAgeMs) {
+        return null
+      }
+
+      if (cachedResponse.requestUrl != requestUrl.toString()) {
+        return null
+      }
+
+      ++reusedResponsesCount
+      reusedBytes += cachedResponse.body.size
+
+      return cachedResponse
+    }
+  }
+
+  /**
+   * Must be called when the thread was loaded from the network by someone else so that we never
+   * replace newer posts with the older ones.
+   * */
+  fun remove(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    synchronized(lock) { removeLocked(threadDescriptor) }
+  }
+
+  fun stats(): Stats {
+    return synchronized(lock) {
+      Stats(
+        entriesCount = responses.size,
+        totalSize = totalSize,
+        storedResponsesCount = storedResponsesCount,
+        reusedResponsesCount = reusedResponsesCount,
+        reusedBytes = reusedBytes,
+        awaitedFetchesCount = awaitedFetchesCount
+      )
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun removeLocked(threadDescriptor: ChanDescriptor.ThreadDescriptor): CachedResponse? {
+    val removed = responses.remove(threadDescriptor)
+      ?: return null
+
+    totalSize -= removed.body.size
+    return removed
+  }
+
+  @GuardedBy("lock")
+  private fun trimLocked() {
+    val now = timeProvider()
+    val iterator = responses.values.iterator()
+
+    // Entries are stored in insertion order so the oldest ones come first
+    while (iterator.hasNext()) {
+      val cachedResponse = iterator.next()
+
+      val isStale = now - cachedResponse.storedAt > maxAgeMs
+      val overLimit = responses.size > maxEntries || totalSize > maxTotalSize
+
+      if (!isStale && !overLimit) {
+        break
+      }
+
+      iterator.remove()
+      totalSize -= cachedResponse.body.size
+    }
+  }
+
+  class CachedResponse(
+    val requestUrl: String,
+    val body: ByteArray,
+    val validator: ConditionalRequestValidator?,
+    val storedAt: Long
+  )
+
+  data class Stats(
+    val entriesCount: Int,
+    val totalSize: Long,
+    val storedResponsesCount: Long,
+    val reusedResponsesCount: Long,
+    val reusedBytes: Long,
+    val awaitedFetchesCount: Long
+  )
+
+  companion object {
+    private const val MAX_ENTRIES = 16
+    private const val MAX_TOTAL_SIZE = 8L * 1024 * 1024
+    private val MAX_AGE_MS = TimeUnit.MINUTES.toMillis(1)
+    private val MAX_FETCH_WAIT_MS = TimeUnit.SECONDS.toMillis(15)
+  }
+}
@@ -0,0 +1,319 @@
+package com.github.k1rakishou.chan.core.image
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+
+enum class ImageLoadPriority {
+  // The view that requested the image is on the screen
+  Visible,
+  // The view is bound but not on the screen (e.g. cached by the RecyclerView after scrolling past it)
+  NearVisible,
+  // Media prefetching
+  Prefetch,
+  // Everything else (nobody is waiting for the result)
+  Background;
+
+  val isForeground: Boolean
+    get() = this == Visible || this == NearVisible
+
+  val isPrefetch: Boolean
+    get() = this == Prefetch
+}
+
+/**
+ * Limits the amount of image network loads running at the same time for each host and decides which
+ * of the waiting loads goes next.
+ *
+ * - The waiting load with the highest priority goes first (the order of enqueueing is used for equal
+ * priorities). Priorities are read every time a permit is released so a load that was demoted while
+ * waiting (its view was scrolled off the screen) will wait for the ones that are on the screen.
+ * - [ImageLoadPriority.Background] loads can only take up to [maxBackgroundLoadsPerHost] of the
+ * [maxLoadsPerHost] permits of a host so that they never take all of the permits away from the loads
+ * the user is waiting for.
+ * - [ImageLoadPriority.Prefetch] loads have their own [maxPrefetchLoadsPerHost] permits of a host.
+ * Prefetches hold their permit for the whole (possibly very long) download of the original file so
+ * they must not take any of the permits of the thumbnails. They also go through a different
+ * OkHttpClient so they don't compete with thumbnails for the per host limit of its dispatcher either.
+ * */
+class ImageLoadScheduler(
+  private val maxLoadsPerHost: Int = DEFAULT_MAX_LOADS_PER_HOST,
+  private val maxBackgroundLoadsPerHost: Int = DEFAULT_MAX_BACKGROUND_LOADS_PER_HOST,
+  private val maxPrefetchLoadsPerHost: Int = DEFAULT_MAX_PREFETCH_LOADS_PER_HOST
+) {
+  private val lock = Any()
+
+  // Guarded by lock
+  private val hosts = hashMapOf<String, HostState>()
+  // Guarded by lock
+  private var nextTicketId = 0L
+
+  // Guarded by lock
+  private val grantedByPriority = LongArray(ImageLoadPriority.values().size)
+  // Guarded by lock
+  private var canceledWhileQueued = 0L
+
+  init {
+    require(maxLoadsPerHost > 0) { "Bad maxLoadsPerHost: $maxLoadsPerHost" }
+    require(maxBackgroundLoadsPerHost in 1..maxLoadsPerHost) {
+      "Bad maxBackgroundLoadsPerHost: $maxBackgroundLoadsPerHost"
+    }
+    require(maxPrefetchLoadsPerHost > 0) { "Bad maxPrefetchLoadsPerHost: $maxPrefetchLoadsPerHost" }
+  }
+
+  /**
+   * Enqueues a load of [url] with the priority returned by [priority]. [onGranted] is called (on the
+   * thread that released the previous permit or on the current thread if there is a free permit right
+   * now) once the load is allowed to start. [Ticket.release] must be called once the load is done
+   * (or isn't needed anymore).
+   * */
+  fun enqueue(
+    url: String,
+    priority: () -> ImageLoadPriority,
+    onGranted: ((Ticket) -> Unit)? = null
+  ): Ticket {
+    val host = extractHost(url)
+
+    val (ticket, granted) = synchronized(lock) {
+      val hostState = hosts.getOrPut(host) { HostState(host) }
+      val ticket = Ticket(nextTicketId++, hostState, priority, onGranted)
+
+      hostState.queue += ticket
+      return@synchronized ticket to dispatch(hostState)
+    }
+
+    notifyGranted(granted)
+    return ticket
+  }
+
+  /**
+   * Waits for a permit for [url], runs [func] and releases the permit.
+   * */
+  suspend fun <T> withPermit(
+    url: String,
+    priority: () -> ImageLoadPriority,
+    func: suspend () -> T
+  ): T {
+    val ticket = enqueue(url, priority)
+
+    try {
+      ticket.awaitGranted()
+    } catch (error: CancellationException) {
+      ticket.release()
+      throw error
+    }
+
+    try {
+      return func()
+    } finally {
+      ticket.release()
+    }
+  }
+
+  fun stats(): ImageLoadSchedulerStats {
+    return synchronized(lock) {
+      val queuedByPriority = mutableMapOf<ImageLoadPriority, Int>()
+
+      hosts.values.forEach { hostState ->
+        hostState.queue.forEach { ticket ->
+          val ticketPriority = ticket.priority()
+          queuedByPriority[ticketPriority] = (queuedByPriority[ticketPriority] ?: 0) + 1
+        }
+      }
+
+      return@synchronized ImageLoadSchedulerStats(
+        maxLoadsPerHost = maxLoadsPerHost,
+        maxBackgroundLoadsPerHost = maxBackgroundLoadsPerHost,
+        maxPrefetchLoadsPerHost = maxPrefetchLoadsPerHost,
+        runningByHost = hosts.values
+          .filter { hostState -> hostState.running > 0 }
+          .associate { hostState -> hostState.host to hostState.running },
+        runningPrefetchesByHost = hosts.values
+          .filter { hostState -> hostState.runningPrefetches > 0 }
+          .associate { hostState -> hostState.host to hostState.runningPrefetches },
+        queuedByPriority = queuedByPriority,
+        grantedByPriority = ImageLoadPriority.values()
+          .associateWith { imageLoadPriority -> grantedByPriority[imageLoadPriority.ordinal] },
+        canceledWhileQueued = canceledWhileQueued
+      )
+    }
+  }
+
+  private fun releaseTicket(ticket: Ticket) {
+    val granted = synchronized(lock) {
+      when (ticket.state) {
+        TicketState.Released -> return
+        TicketState.Queued -> {
+          ticket.state = TicketState.Released
+          ticket.hostState.queue.remove(ticket)
+          ++canceledWhileQueued
+        }
+        TicketState.Running -> {
+          ticket.state = TicketState.Released
+
+          val hostState = ticket.hostState
+          val grantedPriority = ticket.grantedPriority
+
+          when {
+            grantedPriority.isPrefetch -> --hostState.runningPrefetches
+            grantedPriority.isForeground -> --hostState.running
+            else -> {
+              --hostState.running
+              --hostState.runningBackground
+            }
+          }
+        }
+      }
+
+      val hostState = ticket.hostState
+      val granted = dispatch(hostState)
+
+      if (hostState.running == 0 && hostState.runningPrefetches == 0 && hostState.queue.isEmpty()) {
+        hosts.remove(hostState.host)
+      }
+
+      return@synchronized granted
+    }
+
+    notifyGranted(granted)
+  }
+
+  /**
+   * Must be called with the lock held. Returns the tickets that were granted a permit, they must be
+   * notified after the lock is released.
+   * */
+  private fun dispatch(hostState: HostState): List<Ticket> {
+    var granted: MutableList<Ticket>? = null
+
+    while (hostState.queue.isNotEmpty()) {
+      var bestTicket: Ticket? = null
+      var bestPriority: ImageLoadPriority? = null
+
+      // The queue is in the order of enqueueing so the first ticket wins among the ones with the same
+      // priority
+      for (ticket in hostState.queue) {
+        val ticketPriority = ticket.priority()
+        if (!hostState.canRun(ticketPriority)) {
+          continue
+        }
+
+        if (bestPriority == null || ticketPriority < bestPriority) {
+          bestTicket = ticket
+          bestPriority = ticketPriority
+        }
+      }
+
+      if (bestTicket == null || bestPriority == null) {
+        // All the permits that the waiting loads can use are taken
+        break
+      }
+
+      hostState.queue.remove(bestTicket)
+      bestTicket.state = TicketState.Running
+      bestTicket.grantedPriority = bestPriority
+
+      when {
+        bestPriority.isPrefetch -> ++hostState.runningPrefetches
+        bestPriority.isForeground -> ++hostState.running
+        else -> {
+          ++hostState.running
+          ++hostState.runningBackground
+        }
+      }
+
+      ++grantedByPriority[bestPriority.ordinal]
+
+      if (granted == null) {
+        granted = mutableListOf()
+      }
+
+      granted += bestTicket
+    }
+
+    return granted ?: emptyList()
+  }
+
+  private fun notifyGranted(granted: List<Ticket>) {
+    granted.forEach { ticket ->
+      ticket.granted.complete(Unit)
+      ticket.onGranted?.invoke(ticket)
+    }
+  }
+
+  inner class Ticket internal constructor(
+    private val id: Long,
+    internal val hostState: HostState,
+    internal val priority: () -> ImageLoadPriority,
+    internal val onGranted: ((Ticket) -> Unit)?
+  ) {
+    // Guarded by lock
+    internal var state = TicketState.Queued
+    // Guarded by lock
+    internal var grantedPriority = ImageLoadPriority.Background
+
+    internal val granted = CompletableDeferred<Unit>()
+
+    val host: String
+      get() = hostState.host
+
+    internal suspend fun awaitGranted() {
+      granted.await()
+    }
+
+    /**
+     * Releases the permit (or removes the ticket from the queue if it hasn't been granted a permit
+     * yet). Can be called multiple times.
+     * */
+    fun release() {
+      releaseTicket(this)
+    }
+
+    override fun toString(): String {
+      return "Ticket{id=$id, host=$host}"
+    }
+  }
+
+  internal inner class HostState(val host: String) {
+    val queue = mutableListOf<Ticket>()
+    // Non-prefetch loads (including the background ones)
+    var running = 0
+    var runningBackground = 0
+    var runningPrefetches = 0
+
+    fun canRun(priority: ImageLoadPriority): Boolean {
+      return when {
+        priority.isPrefetch -> runningPrefetches < maxPrefetchLoadsPerHost
+        priority.isForeground -> running < maxLoadsPerHost
+        else -> running < maxLoadsPerHost && runningBackground < maxBackgroundLoadsPerHost
+      }
+    }
+  }
+
+  internal enum class TicketState {
+    Queued,
+    Running,
+    Released
+  }
+
+  data class ImageLoadSchedulerStats(
+    val maxLoadsPerHost: Int,
+    val maxBackgroundLoadsPerHost: Int,
+    val maxPrefetchLoadsPerHost: Int,
+    val runningByHost: Map<String, Int>,
+    val runningPrefetchesByHost: Map<String, Int>,
+    val queuedByPriority: Map<ImageLoadPriority, Int>,
+    val grantedByPriority: Map<ImageLoadPriority, Long>,
+    val canceledWhileQueued: Long
+  )
+
+  companion object {
+    // The same as the per host limit of the OkHttp dispatcher that loads the thumbnails
+    const val DEFAULT_MAX_LOADS_PER_HOST = 5
+    const val DEFAULT_MAX_BACKGROUND_LOADS_PER_HOST = 2
+    const val DEFAULT_MAX_PREFETCH_LOADS_PER_HOST = 2
+
+    private fun extractHost(url: String): String {
+      return url.toHttpUrlOrNull()?.host ?: url
+    }
+  }
+}
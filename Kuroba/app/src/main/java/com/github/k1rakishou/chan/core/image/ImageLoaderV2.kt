@@ -8,10 +8,8 @@ import android.graphics.ColorFilter
 import android.graphics.Matrix
 import android.graphics.Paint
 import android.graphics.drawable.BitmapDrawable
-import android.util.LruCache
 import android.view.View
 import androidx.annotation.DrawableRes
-import androidx.annotation.GuardedBy
 import androidx.core.graphics.drawable.toBitmap
 import androidx.lifecycle.Lifecycle
 import coil.ImageLoader
@@ -57,7 +55,6 @@ import com.github.k1rakishou.common.isExceptionImportant
 import com.github.k1rakishou.common.removeIfKt
 import com.github.k1rakishou.common.resumeValueSafe
 import com.github.k1rakishou.common.suspendCall
-import com.github.k1rakishou.common.withLockNonCancellable
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.fsaf.FileManager
@@ -76,7 +73,6 @@ import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.withContext
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
@@ -84,6 +80,8 @@ import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTimedValue
@@ -100,12 +98,16 @@ class ImageLoaderV2(
   private val _imageLoaderFileManagerWrapper: Lazy<ImageLoaderFileManagerWrapper>,
   private val _siteResolver: Lazy<SiteResolver>,
   private val _coilOkHttpClient: Lazy<CoilOkHttpClient>,
-  private val _threadDownloadManager: Lazy<ThreadDownloadManager>
+  private val _threadDownloadManager: Lazy<ThreadDownloadManager>,
+  private val imageLoadScheduler: ImageLoadScheduler
 ) {
-  private val mutex = Mutex()
+  // Each ActiveRequest is synchronized on its own so requests for different urls never wait for
+  // each other.
+  private val activeRequests = ConcurrentHashMap<String, ActiveRequest>()
 
-  @GuardedBy("mutex")
-  private val activeRequests = LruCache<String, ActiveRequest>(1024)
+  private val memoryCacheHits = AtomicLong(0L)
+  private val diskCacheHits = AtomicLong(0L)
+  private val networkLoads = AtomicLong(0L)
 
   val imageLoader: ImageLoader
     get() = _imageLoader.get()
@@ -282,7 +284,8 @@ class ImageLoaderV2(
     imageSize: ImageSize,
     transformations: List<Transformation>,
     listener: FailureAwareImageListener,
-    postDescriptor: PostDescriptor? = null
+    postDescriptor: PostDescriptor? = null,
+    priority: ImageLoadPriority = ImageLoadPriority.Visible
   ): Disposable {
     return loadFromNetwork(
       context = context,
@@ -291,7 +294,8 @@ class ImageLoaderV2(
       imageSize = imageSize,
       inputTransformations = transformations,
       imageListenerParam = ImageListenerParam.FailureAwareImageListener(listener),
-      postDescriptor = postDescriptor
+      postDescriptor = postDescriptor,
+      priority = priority
     )
   }
 
@@ -304,9 +308,38 @@ class ImageLoaderV2(
     imageListenerParam: ImageListenerParam,
     // If postDescriptor is not null we will attempt to search for this file among downloaded
     // threads files' first and if not found then attempt to load it from the network.
-    postDescriptor: PostDescriptor? = null
+    postDescriptor: PostDescriptor? = null,
+    // May be changed later via ImageLoaderRequestDisposable.updatePriority()
+    priority: ImageLoadPriority = ImageLoadPriority.Visible
   ): Disposable {
+    // 0. Check whether we have already decoded this image with the same size and transformations.
+    // This is the most common case when scrolling back and forth so it's done synchronously, without
+    // launching any coroutines.
+    val memoryCachedDrawable = tryLoadFromMemoryCacheOrNull(
+      context = context,
+      url = url,
+      cacheFileType = cacheFileType,
+      imageSize = imageSize,
+      transformations = inputTransformations
+    )
+
+    if (memoryCachedDrawable != null) {
+      memoryCacheHits.incrementAndGet()
+
+      when (imageListenerParam) {
+        is ImageListenerParam.SimpleImageListener -> {
+          imageListenerParam.listener.onResponse(memoryCachedDrawable)
+        }
+        is ImageListenerParam.FailureAwareImageListener -> {
+          imageListenerParam.listener.onResponse(memoryCachedDrawable, true)
+        }
+      }
+
+      return CompletedRequestDisposable
+    }
+
     val completableDeferred = CompletableDeferred<Unit>()
+    val requestPriority = AtomicReference(priority)
 
     val job = appScope.launch(Dispatchers.IO) {
       BackgroundUtils.ensureBackgroundThread()
@@ -316,23 +349,15 @@ class ImageLoaderV2(
 
         // 1. Enqueue a new request (or add a callback to an old request if there is already a
         // request with this url).
-        val alreadyHasActiveRequest = mutex.withLockNonCancellable {
-          var activeRequest = activeRequests.get(url)
-          if (activeRequest == null) {
-            // Create new ActiveRequest is it's not created yet
-            activeRequest = ActiveRequest(url)
-            activeRequests.put(url, activeRequest)
-          }
-
-          // Add all the listeners into this request (there may be multiple of them)
-          return@withLockNonCancellable activeRequest.addImageListener(
-            imageListenerParam = imageListenerParam,
-            imageSize = imageSize,
-            transformations = inputTransformations
-          )
-        }
-
-        if (alreadyHasActiveRequest) {
+        val activeRequest = registerImageListener(
+          url = url,
+          imageListenerParam = imageListenerParam,
+          imageSize = imageSize,
+          transformations = inputTransformations,
+          priority = requestPriority
+        )
+
+        if (activeRequest == null) {
           // Another request with the same url is already running, wait until the other request is
           // completed, it will invoke all callbacks.
           return@launch
@@ -340,17 +365,25 @@ class ImageLoaderV2(
 
         // 2. Check whether we have this bitmap cached on the disk
         var imageFile = tryLoadFromDiskCacheOrNull(url, cacheFileType, postDescriptor)
+        if (imageFile != null) {
+          diskCacheHits.incrementAndGet()
+        }
 
         // 3. Failed to find this bitmap in the disk cache. Load it from the network.
         if (imageFile == null) {
           isFromCache = false
+          networkLoads.incrementAndGet()
 
-          imageFile = loadFromNetworkInternal(
-            context = context,
-            url = url,
-            cacheFileType = cacheFileType,
-            imageSize = imageSize
-          )
+          // The network loads are limited per host, the ones with the highest priority among all the
+          // listeners of the request go first.
+          imageFile = imageLoadScheduler.withPermit(url, priority = { activeRequest.priority() }) {
+            loadFromNetworkInternal(
+              context = context,
+              url = url,
+              cacheFileType = cacheFileType,
+              imageSize = imageSize
+            )
+          }
 
           if (imageFile == null) {
             val errorMessage = "Failed to load image '$url' from disk and network"
@@ -364,14 +397,9 @@ class ImageLoaderV2(
 
         // 4. We have this image on disk, now we need to reload it from disk, apply transformations
         // with size and notify all listeners.
-        val activeListeners = mutex.withLockNonCancellable {
-          val activeRequests = activeRequests.get(url)
-            ?: return@withLockNonCancellable null
+        val activeListeners = activeRequest.consumeAllListeners()
 
-          return@withLockNonCancellable activeRequests.consumeAllListeners()
-        }
-
-        if (activeListeners == null || activeListeners.isEmpty()) {
+        if (activeListeners.isEmpty()) {
           if (verboseLogs) {
             Logger.e(TAG, "Failed to load '$url', activeListeners is null or empty")
           }
@@ -390,13 +418,8 @@ class ImageLoaderV2(
               cacheFileType = cacheFileType
             )
 
-            mutex.withLockNonCancellable {
-              val activeRequest = activeRequests.get(url)
-                ?: return@withLockNonCancellable
-
-              if (activeRequest.removeImageListenerParam(imageListenerParam)) {
-                activeRequests.remove(url)
-              }
+            if (activeRequest.removeImageListenerParam(imageListenerParam)) {
+              activeRequests.remove(url, activeRequest)
             }
 
             if (resultBitmapDrawable == null) {
@@ -418,6 +441,14 @@ class ImageLoaderV2(
             }
 
             launch(Dispatchers.Main) {
+              storeInMemoryCache(
+                url = url,
+                cacheFileType = cacheFileType,
+                imageSize = activeListener.imageSize,
+                transformations = activeListener.transformations,
+                bitmapDrawable = resultBitmapDrawable
+              )
+
               when (val listenerParam = activeListener.imageListenerParam) {
                 is ImageListenerParam.SimpleImageListener -> {
                   listenerParam.listener.onResponse(resultBitmapDrawable)
@@ -446,7 +477,105 @@ class ImageLoaderV2(
 
     return ImageLoaderRequestDisposable(
       imageLoaderJob = job,
-      imageLoaderCompletableDeferred = completableDeferred
+      imageLoaderCompletableDeferred = completableDeferred,
+      priority = requestPriority
+    )
+  }
+
+  fun stats(): ImageLoaderStats {
+    return ImageLoaderStats(
+      memoryCacheHits = memoryCacheHits.get(),
+      diskCacheHits = diskCacheHits.get(),
+      networkLoads = networkLoads.get(),
+      activeRequests = activeRequests.size
+    )
+  }
+
+  /**
+   * Returns null if there is already a request for this [url] running (the listener will be notified
+   * by that request), otherwise returns the new request that the caller has to execute.
+   * */
+  private fun registerImageListener(
+    url: String,
+    imageListenerParam: ImageListenerParam,
+    imageSize: ImageSize,
+    transformations: List<Transformation>,
+    priority: AtomicReference<ImageLoadPriority>
+  ): ActiveRequest? {
+    while (true) {
+      val activeRequest = activeRequests.getOrPut(url) { ActiveRequest(url) }
+
+      // Add all the listeners into this request (there may be multiple of them)
+      val alreadyHasActiveRequest = activeRequest.addImageListener(
+        imageListenerParam = imageListenerParam,
+        imageSize = imageSize,
+        transformations = transformations,
+        priority = priority
+      )
+
+      if (alreadyHasActiveRequest != null) {
+        return if (alreadyHasActiveRequest) null else activeRequest
+      }
+
+      // The request has just been completed and is about to be removed, try again with a new one.
+      activeRequests.remove(url, activeRequest)
+    }
+  }
+
+  private fun tryLoadFromMemoryCacheOrNull(
+    context: Context,
+    url: String,
+    cacheFileType: CacheFileType,
+    imageSize: ImageSize,
+    transformations: List<Transformation>
+  ): BitmapDrawable? {
+    if (!BackgroundUtils.isMainThread()) {
+      // Listeners expect to be called on the main thread
+      return null
+    }
+
+    val memoryCacheKey = memoryCacheKey(url, cacheFileType, imageSize, transformations)
+      ?: return null
+
+    val bitmap = imageLoader.memoryCache[memoryCacheKey]
+    if (bitmap == null || bitmap.isRecycled) {
+      return null
+    }
+
+    return BitmapDrawable(context.resources, bitmap)
+  }
+
+  private fun storeInMemoryCache(
+    url: String,
+    cacheFileType: CacheFileType,
+    imageSize: ImageSize,
+    transformations: List<Transformation>,
+    bitmapDrawable: BitmapDrawable
+  ) {
+    val memoryCacheKey = memoryCacheKey(url, cacheFileType, imageSize, transformations)
+      ?: return
+
+    imageLoader.memoryCache[memoryCacheKey] = bitmapDrawable.bitmap
+  }
+
+  private fun memoryCacheKey(
+    url: String,
+    cacheFileType: CacheFileType,
+    imageSize: ImageSize,
+    transformations: List<Transformation>
+  ): MemoryCache.Key? {
+    val size = imageSize.sizeOrNull()
+      ?: return null
+
+    val transformationKeys = transformations.joinToString(separator = ",") { transformation ->
+      transformation.key()
+    }
+
+    // highResCells adds RESIZE_TRANSFORMATION
+    val highResCells = ChanSettings.highResCells.get()
+
+    return MemoryCache.Key.invoke(
+      "${TAG}_${cacheFileType.name}_${url}_${size.width}x${size.height}_${highResCells}_${transformationKeys}"
     )
   }
 
@@ -507,10 +636,11 @@ class ImageLoaderV2(
     url: String,
     error: Throwable
   ) {
-    val listeners = mutex.withLockNonCancellable { activeRequests.get(url)?.consumeAllListeners() }
-    if (listeners == null) {
-      return
-    }
+    val activeRequest = activeRequests[url]
+      ?: return
+
+    val listeners = activeRequest.complete()
+    activeRequests.remove(url, activeRequest)
 
     listeners.forEach { listener ->
       handleFailure(
@@ -1316,6 +1446,17 @@ class ImageLoaderV2(
       }
     }
 
+    /**
+     * Same as [size] but doesn't wait for the view to be measured (returns null instead).
+     * */
+    fun sizeOrNull(): PixelSize? {
+      return when (this) {
+        is FixedImageSize -> PixelSize(width, height)
+        is MeasurableImageSize -> (sizeResolver as? FixedViewSizeResolver<*>)?.sizeOrNull()
+        is Unspecified -> PixelSize(0, 0)
+      }
+    }
+
     object Unspecified : ImageSize()
 
     data class FixedImageSize(val width: Int, val height: Int) : ImageSize() {
@@ -1336,9 +1477,18 @@ class ImageLoaderV2(
 
   class ImageLoaderRequestDisposable(
     private val imageLoaderJob: Job,
-    private val imageLoaderCompletableDeferred: CompletableDeferred<Unit>
+    private val imageLoaderCompletableDeferred: CompletableDeferred<Unit>,
+    private val priority: AtomicReference<ImageLoadPriority>? = null
   ) : Disposable {
 
+    /**
+     * Changes the priority of a network request that is waiting for its turn (e.g. when the view that
+     * requested the image goes off the screen or comes back).
+     * */
+    fun updatePriority(newPriority: ImageLoadPriority) {
+      priority?.set(newPriority)
+    }
+
     override val isDisposed: Boolean
       get() = !imageLoaderJob.isActive
 
@@ -1354,6 +1504,28 @@ class ImageLoaderV2(
 
   }
 
+  private object CompletedRequestDisposable : Disposable {
+    override val isDisposed: Boolean
+      get() = true
+
+    @ExperimentalCoilApi
+    override suspend fun await() {
+      // no-op
+    }
+
+    override fun dispose() {
+      // no-op
+    }
+
+  }
+
+  data class ImageLoaderStats(
+    val memoryCacheHits: Long,
+    val diskCacheHits: Long,
+    val networkLoads: Long,
+    val activeRequests: Int
+  )
+
   private class ResizeTransformation : Transformation {
     override fun key(): String = "${TAG}_ResizeTransformation"
 
@@ -1445,24 +1617,51 @@ class ImageLoaderV2(
   class ActiveListener(
     val imageListenerParam: ImageListenerParam,
     val imageSize: ImageSize,
-    val transformations: List<Transformation>
+    val transformations: List<Transformation>,
+    val priority: AtomicReference<ImageLoadPriority>
   )
 
   private data class ActiveRequest(val url: String) {
     private val listeners = hashSetOf<ActiveListener>()
+    // Set once the request is about to be removed from activeRequests, no listeners may be added
+    // after that.
+    private var completed = false
 
+    /**
+     * Returns null if this request is already completed (a new one needs to be created).
+     * */
     @Synchronized
     fun addImageListener(
       imageListenerParam: ImageListenerParam,
       imageSize: ImageSize,
-      transformations: List<Transformation>
-    ): Boolean {
+      transformations: List<Transformation>,
+      priority: AtomicReference<ImageLoadPriority>
+    ): Boolean? {
+      if (completed) {
+        return null
+      }
+
       val alreadyHasActiveRequest = listeners.isNotEmpty()
-      listeners += ActiveListener(imageListenerParam, imageSize, transformations)
+      listeners += ActiveListener(imageListenerParam, imageSize, transformations, priority)
 
       return alreadyHasActiveRequest
     }
 
+    /**
+     * The highest priority among the listeners of this request.
+     * */
+    @Synchronized
+    fun priority(): ImageLoadPriority {
+      return listeners.minOfOrNull { activeListener -> activeListener.priority.get() }
+        ?: ImageLoadPriority.Background
+    }
+
+    @Synchronized
+    fun complete(): Set<ActiveListener> {
+      completed = true
+      return consumeAllListeners()
+    }
+
     @Synchronized
     fun consumeAllListeners(): Set<ActiveListener> {
       val imageListenersCopy = listeners.toSet()
@@ -1477,7 +1676,11 @@ class ImageLoaderV2(
         activeListener.imageListenerParam === imageListenerParam
       }
 
-      return listeners.isEmpty()
+      if (listeners.isEmpty()) {
+        completed = true
+      }
+
+      return completed
     }
   }
 
@@ -1,14 +1,47 @@
 package com.github.k1rakishou.chan.core.loader
 
 import com.github.k1rakishou.model.data.post.LoaderType
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 
 abstract class OnDemandContentLoader(
   val loaderType: LoaderType
 ) {
+  /**
+   * Loaders that can process all posts bound within one batching window of
+   * OnDemandContentLoaderManager at once (e.g. with one database query instead of one query per
+   * post) should return true here and override the list versions of [isCached] and [startLoading].
+   * Otherwise the manager calls the single post versions concurrently for every post.
+   * */
+  open val supportsBatching: Boolean = false
+
   abstract suspend fun isCached(postLoaderData: PostLoaderData): Boolean
   abstract suspend fun startLoading(postLoaderData: PostLoaderData): LoaderResult
   abstract fun cancelLoading(postLoaderData: PostLoaderData)
 
+  /**
+   * Must return the results in the same order as [postLoaderDataList].
+   * */
+  open suspend fun isCached(postLoaderDataList: List<PostLoaderData>): List<Boolean> {
+    return coroutineScope {
+      postLoaderDataList
+        .map { postLoaderData -> async { isCached(postLoaderData) } }
+        .awaitAll()
+    }
+  }
+
+  /**
+   * Must return the results in the same order as [postLoaderDataList].
+   * */
+  open suspend fun startLoading(postLoaderDataList: List<PostLoaderData>): List<LoaderResult> {
+    return coroutineScope {
+      postLoaderDataList
+        .map { postLoaderData -> async { startLoading(postLoaderData) } }
+        .awaitAll()
+    }
+  }
+
   protected fun succeeded(needUpdateView: Boolean): LoaderResult {
     return LoaderResult.Succeeded(loaderType, needUpdateView)
   }
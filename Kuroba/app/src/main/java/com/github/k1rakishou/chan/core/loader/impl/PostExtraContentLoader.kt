@@ -16,9 +16,12 @@ import com.github.k1rakishou.common.processDataCollectionConcurrently
 import com.github.k1rakishou.common.putIfNotContainsLazy
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.PostLinkable
-import com.github.k1rakishou.model.data.media.GenericVideoId
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.LoaderType
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.withTimeout
 import java.util.concurrent.TimeUnit
 
@@ -27,25 +30,55 @@ internal class PostExtraContentLoader(
   private val linkExtraInfoFetchers: List<ExternalMediaServiceExtraInfoFetcher>
 ) : OnDemandContentLoader(LoaderType.PostExtraContentLoader) {
 
+  // Link extra info of all posts of a batch is loaded from the database with one query per media
+  // service (see preloadCache())
+  override val supportsBatching: Boolean = true
+
   override suspend fun isCached(postLoaderData: PostLoaderData): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
-    val videoIds = extractVideoIds(postLoaderData)
-    if (videoIds.isEmpty()) {
+    val linkInfoRequests = extractLinkInfoRequests(postLoaderData)
+    if (linkInfoRequests.isEmpty()) {
       return true
     }
 
-    val results = processDataCollectionConcurrently(linkExtraInfoFetchers) { fetcher ->
-      return@processDataCollectionConcurrently videoIds.all { videoId ->
-        try {
-          return@all fetcher.isCached(videoId)
-        } catch (error: Throwable) {
-          return@all false
-        }
+    return linkInfoRequests.all { linkInfoRequest ->
+      val fetcher = linkExtraInfoFetchers.firstOrNull { fetcher ->
+        fetcher.mediaServiceType == linkInfoRequest.mediaServiceType
+      } ?: return@all true
+
+      try {
+        return@all fetcher.isCached(linkInfoRequest.videoId)
+      } catch (error: Throwable) {
+        return@all false
       }
     }
+  }
+
+  override suspend fun isCached(postLoaderDataList: List<PostLoaderData>): List<Boolean> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    preloadCache(postLoaderDataList)
+    return postLoaderDataList.map { postLoaderData -> isCached(postLoaderData) }
+  }
 
-    return results.all { success -> success }
+  override suspend fun startLoading(postLoaderDataList: List<PostLoaderData>): List<LoaderResult> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    preloadCache(postLoaderDataList)
+
+    return supervisorScope {
+      postLoaderDataList
+        .map { postLoaderData ->
+          async {
+            return@async ModularResult.Try { startLoading(postLoaderData) }
+              .peekError { error -> Logger.e(TAG, "startLoading(${postLoaderData.postDescriptor}) error", error) }
+              .valueOrNull()
+              ?: failed()
+          }
+        }
+        .awaitAll()
+    }
   }
 
   override suspend fun startLoading(postLoaderData: PostLoaderData): LoaderResult {
@@ -92,7 +125,34 @@ internal class PostExtraContentLoader(
     // I guess there is no real need to cancel these requests since they are lightweight
   }
 
-  private fun extractVideoIds(postLoaderData: PostLoaderData): List<GenericVideoId> {
+  private suspend fun preloadCache(postLoaderDataList: List<PostLoaderData>) {
+    val videoIdsByMediaServiceType = postLoaderDataList
+      .flatMap { postLoaderData -> extractLinkInfoRequests(postLoaderData) }
+      .groupBy(
+        keySelector = { linkInfoRequest -> linkInfoRequest.mediaServiceType },
+        valueTransform = { linkInfoRequest -> linkInfoRequest.videoId }
+      )
+
+    linkExtraInfoFetchers.forEach { fetcher ->
+      val videoIds = videoIdsByMediaServiceType[fetcher.mediaServiceType]
+      if (videoIds.isNullOrEmpty()) {
+        return@forEach
+      }
+
+      try {
+        fetcher.preloadCache(videoIds.toSet())
+      } catch (error: Throwable) {
+        if (error is CancellationException) {
+          throw error
+        }
+
+        // Not a big deal, everything will be loaded one by one
+        Logger.e(TAG, "preloadCache(${fetcher.mediaServiceType}, ${videoIds.size}) error", error)
+      }
+    }
+  }
+
+  private fun extractLinkInfoRequests(postLoaderData: PostLoaderData): Collection<LinkInfoRequest> {
     val post = chanThreadManager.getPost(postLoaderData.postDescriptor)
       ?: return emptyList()
 
@@ -106,8 +166,7 @@ internal class PostExtraContentLoader(
       return emptyList()
     }
 
-    return createNewRequests(postLinkableSpans)
-      .map { (_, linkInfoRequest) -> linkInfoRequest.videoId }
+    return createNewRequests(postLinkableSpans).values
   }
 
   private suspend fun updateSpans(
@@ -5,6 +5,8 @@ import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheListener
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.image.ImageLoadPriority
+import com.github.k1rakishou.chan.core.image.ImageLoadScheduler
 import com.github.k1rakishou.chan.core.loader.LoaderResult
 import com.github.k1rakishou.chan.core.loader.OnDemandContentLoader
 import com.github.k1rakishou.chan.core.loader.PostLoaderData
@@ -30,7 +32,8 @@ class PrefetchLoader(
   private val chanThreadManager: Lazy<ChanThreadManager>,
   private val archivesManager: Lazy<ArchivesManager>,
   private val prefetchStateManager: PrefetchStateManager,
-  private val threadDownloadManager: Lazy<ThreadDownloadManager>
+  private val threadDownloadManager: Lazy<ThreadDownloadManager>,
+  private val imageLoadScheduler: ImageLoadScheduler
 ) : OnDemandContentLoader(LoaderType.PrefetchLoader) {
   private val cacheFileType = CacheFileType.PostMediaFull
 
@@ -84,61 +87,95 @@ class PrefetchLoader(
     }
 
     prefetchList.forEach { prefetch ->
-      val cancelableDownload = fileCacheV2.get().enqueueMediaPrefetchRequest(
-        cacheFileType = cacheFileType,
-        postImage = prefetch.postImage
+      val imageUrl = prefetch.postImage.imageUrl?.toString()
+        ?: return@forEach
+
+      // Prefetches have their own per host limit of concurrent loads (see ImageLoadScheduler) so that
+      // they don't slow down the loading of the images the user is looking at.
+      val ticket = imageLoadScheduler.enqueue(
+        url = imageUrl,
+        priority = { ImageLoadPriority.Prefetch },
+        onGranted = { ticket -> startPrefetch(post, prefetch, postLoaderData, ticket) }
       )
 
-      if (cancelableDownload == null) {
-        // Already cached or something like that
-        onPrefetchCompleted(prefetch.postImage)
-        return@forEach
-      }
+      postLoaderData.addDisposeFunc { ticket.release() }
+    }
+
+    // Always false for prefetches because there is nothing in the view that we need to update
+    // after doing a prefetch (Actually there is but we don't need to do notifyItemChanged for
+    // PostAdapter).
+    return succeeded(needUpdateView = false)
+  }
 
-      cancelableDownload.addCallback(object : FileCacheListener() {
+  override fun cancelLoading(postLoaderData: PostLoaderData) {
+    // no-op
+  }
 
-        override fun onStart(chunksCount: Int) {
-          super.onStart(chunksCount)
-          require(chunksCount == 1) { "Bad chunksCount for prefetch: $chunksCount" }
+  private fun startPrefetch(
+    post: ChanPost,
+    prefetch: Prefetch,
+    postLoaderData: PostLoaderData,
+    ticket: ImageLoadScheduler.Ticket
+  ) {
+    val cancelableDownload = fileCacheV2.get().enqueueMediaPrefetchRequest(
+      cacheFileType = cacheFileType,
+      postImage = prefetch.postImage
+    )
+
+    if (cancelableDownload == null) {
+      // Already cached or something like that
+      ticket.release()
+      onPrefetchCompleted(prefetch.postImage)
+      return
+    }
 
-          onPrefetchStarted(prefetch.postImage)
-        }
+    cancelableDownload.addCallback(object : FileCacheListener() {
 
-        override fun onProgress(chunkIndex: Int, downloaded: Long, total: Long) {
-          super.onProgress(chunkIndex, downloaded, total)
-          require(chunkIndex == 0) { "Bad chunkIndex for prefetch: $chunkIndex" }
+      override fun onStart(chunksCount: Int) {
+        super.onStart(chunksCount)
+        require(chunksCount == 1) { "Bad chunksCount for prefetch: $chunksCount" }
 
-          val progress = if (total != 0L) {
-            downloaded.toFloat() / total.toFloat()
-          } else {
-            0f
-          }
+        onPrefetchStarted(prefetch.postImage)
+      }
 
-          onPrefetchProgress(prefetch.postImage, abs(1f - progress))
-        }
+      override fun onProgress(chunkIndex: Int, downloaded: Long, total: Long) {
+        super.onProgress(chunkIndex, downloaded, total)
+        require(chunkIndex == 0) { "Bad chunkIndex for prefetch: $chunkIndex" }
 
-        override fun onSuccess(file: File) {
-          chanThreadManager.get().setContentLoadedForLoader(post.postDescriptor, loaderType)
-          onPrefetchCompleted(prefetch.postImage)
+        val progress = if (total != 0L) {
+          downloaded.toFloat() / total.toFloat()
+        } else {
+          0f
         }
 
-        override fun onFail(exception: Exception?) = onPrefetchCompleted(prefetch.postImage)
-        override fun onNotFound() = onPrefetchCompleted(prefetch.postImage)
-        override fun onStop(file: File?) = onPrefetchCompleted(prefetch.postImage)
-        override fun onCancel() = onPrefetchCompleted(prefetch.postImage, false)
-      })
+        onPrefetchProgress(prefetch.postImage, abs(1f - progress))
+      }
 
-      postLoaderData.addDisposeFunc { cancelableDownload.cancelPrefetch() }
-    }
+      override fun onSuccess(file: File) {
+        chanThreadManager.get().setContentLoadedForLoader(post.postDescriptor, loaderType)
+        onPrefetchCompleted(prefetch.postImage)
+      }
 
-    // Always false for prefetches because there is nothing in the view that we need to update
-    // after doing a prefetch (Actually there is but we don't need to do notifyItemChanged for
-    // PostAdapter).
-    return succeeded(needUpdateView = false)
-  }
+      override fun onFail(exception: Exception?) = onPrefetchCompleted(prefetch.postImage)
+      override fun onNotFound() = onPrefetchCompleted(prefetch.postImage)
+      override fun onStop(file: File?) = onPrefetchCompleted(prefetch.postImage)
+      override fun onCancel() = onPrefetchCompleted(prefetch.postImage, false)
 
-  override fun cancelLoading(postLoaderData: PostLoaderData) {
-    // no-op
+      override fun onEnd() {
+        super.onEnd()
+        ticket.release()
+      }
+    })
+
+    if (!cancelableDownload.isRunning()) {
+      // Already canceled, the callback won't be called
+      ticket.release()
+    }
+
+    postLoaderData.addDisposeFunc {
+      cancelableDownload.cancelPrefetch()
+      ticket.release()
+    }
   }
 
   private fun tryGetPrefetchBatch(
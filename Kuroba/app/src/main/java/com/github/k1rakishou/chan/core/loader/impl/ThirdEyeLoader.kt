@@ -11,12 +11,12 @@ import com.github.k1rakishou.chan.features.thirdeye.data.BooruSetting
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.chan.utils.traverseJson
 import com.github.k1rakishou.common.AppConstants
-import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.StringUtils
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.isJson
 import com.github.k1rakishou.common.isNotNullNorBlank
 import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.processDataCollectionConcurrently
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
@@ -24,6 +24,9 @@ import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.ChanPostImageBuilder
 import com.github.k1rakishou.model.data.post.LoaderType
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupImage
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository
 import com.squareup.moshi.JsonReader
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
@@ -36,13 +39,15 @@ import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
 import java.util.*
-import java.util.concurrent.atomic.AtomicBoolean
 
 class ThirdEyeLoader(
+  private val appScope: CoroutineScope,
+  private val verboseLogsEnabled: Boolean,
   private val appConstants: AppConstants,
   private val _thirdEyeManager: Lazy<ThirdEyeManager>,
   private val _chanThreadManager: Lazy<ChanThreadManager>,
-  private val _proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>
+  private val _proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>,
+  private val _thirdEyeLookupRepository: Lazy<ThirdEyeLookupRepository>
 ) : OnDemandContentLoader(loaderType = LoaderType.ThirdEyeLoader) {
 
   private val thirdEyeManager: ThirdEyeManager
@@ -51,6 +56,39 @@ class ThirdEyeLoader(
     get() = _chanThreadManager.get()
   private val proxiedOkHttpClient: ProxiedOkHttpClient
     get() = _proxiedOkHttpClient.get()
+  private val thirdEyeLookupRepository: ThirdEyeLookupRepository
+    get() = _thirdEyeLookupRepository.get()
+
+  private val lookupCoordinator by lazy {
+    ThirdEyeLookupCoordinator(
+      scope = appScope,
+      lookupStorage = object : ThirdEyeLookupCoordinator.LookupStorage {
+        override suspend fun getLookupResults(
+          booruKey: String,
+          imageHashes: Collection<String>
+        ): Map<String, ThirdEyeLookupResult> {
+          return thirdEyeLookupRepository.getLookupResults(booruKey, imageHashes)
+            .peekError { error -> Logger.e(TAG, "getLookupResults() error", error) }
+            .valueOrNull()
+            ?: emptyMap()
+        }
+
+        override suspend fun storeLookupResults(lookupResults: List<ThirdEyeLookupResult>) {
+          thirdEyeLookupRepository.storeLookupResults(lookupResults)
+            .peekError { error -> Logger.e(TAG, "storeLookupResults() error", error) }
+            .ignore()
+        }
+      },
+      booruFetcher = object : ThirdEyeLookupCoordinator.BooruFetcher {
+        override suspend fun fetch(
+          booruSetting: BooruSetting,
+          imageHashes: List<String>
+        ): Map<String, ThirdEyeLookupImage>? {
+          return fetchFromBooru(booruSetting, imageHashes)
+        }
+      }
+    )
+  }
 
   override suspend fun isCached(postLoaderData: PostLoaderData): Boolean {
     BackgroundUtils.ensureBackgroundThread()
@@ -172,7 +210,6 @@ class ThirdEyeLoader(
     // no-op
   }
 
-  @Suppress("MoveVariableDeclarationIntoWhen")
   private suspend fun CoroutineScope.processImages(
     catalogMode: Boolean,
     postDescriptor: PostDescriptor,
@@ -199,47 +236,36 @@ class ThirdEyeLoader(
           break
         }
 
-        val skipImageCompletely = AtomicBoolean(false)
+        val lookupResult = lookupCoordinator.lookup(booruSettings, imageHash)
+          ?: continue
+        val lookupImage = lookupResult.image
+          ?: continue
 
-        val thirdEyeImageResult = ModularResult.Try {
-          return@Try processSingleBooru(
-            booruSettings = booruSettings,
-            imageHash = imageHash,
-            postDescriptor = postImage.ownerPostDescriptor,
-            skipImageCompletely = skipImageCompletely
-          )
+        if (hasBannedTags(booruSettings, imageHash, lookupImage)) {
+          break
         }
 
-        if (skipImageCompletely.get()) {
-          break
+        val thirdEyeImage = createChanPostImage(
+          imageHash = imageHash,
+          postDescriptor = postImage.ownerPostDescriptor,
+          lookupImage = lookupImage
+        ) ?: continue
+
+        if (!chanThreadManager.addImage(thirdEyeImage)) {
+          return@processDataCollectionConcurrently false
         }
 
-        when (thirdEyeImageResult) {
-          is ModularResult.Error -> {
-            Logger.e(TAG, "processSingleBooru() unhandled error", thirdEyeImageResult.error)
-            continue
-          }
-          is ModularResult.Value -> {
-            val thirdEyeImage = thirdEyeImageResult.value
-              ?: continue
-
-            if (!chanThreadManager.addImage(thirdEyeImage)) {
-              return@processDataCollectionConcurrently false
-            }
-
-            thirdEyeManager.addImage(
-              catalogMode = catalogMode,
-              postDescriptor = postDescriptor,
-              imageHash = imageHash,
-              chanPostImage = thirdEyeImage
-            )
+        thirdEyeManager.addImage(
+          catalogMode = catalogMode,
+          postDescriptor = postDescriptor,
+          imageHash = imageHash,
+          chanPostImage = thirdEyeImage
+        )
 
-            // Image found
-            Logger.d(TAG, "Found third eye image: ${thirdEyeImage}")
+        // Image found
+        Logger.d(TAG, "Found third eye image: ${thirdEyeImage}")
 
-            return@processDataCollectionConcurrently true
-          }
-        }
+        return@processDataCollectionConcurrently true
       }
 
       // No image found on the external sites. We still need to add info about it into the
@@ -255,24 +281,95 @@ class ThirdEyeLoader(
       return@processDataCollectionConcurrently false
     }
 
+    if (verboseLogsEnabled) {
+      Logger.d(TAG, "processImages() lookupStats=${lookupCoordinator.stats()}")
+    }
+
     return results.any { success -> success }
   }
 
-  private suspend fun processSingleBooru(
+  private fun hasBannedTags(
     booruSettings: BooruSetting,
+    imageHash: String,
+    lookupImage: ThirdEyeLookupImage
+  ): Boolean {
+    val bannedTagsAsSet = booruSettings.bannedTagsAsSet
+    if (bannedTagsAsSet.isEmpty()) {
+      return false
+    }
+
+    for (imageTag in lookupImage.tags) {
+      if (imageTag.lowercase(Locale.ENGLISH) in bannedTagsAsSet) {
+        Logger.d(TAG, "hasBannedTags() Found banned tag: '${imageTag}', " +
+          "skipping this image (imageHash='$imageHash')")
+        return true
+      }
+    }
+
+    return false
+  }
+
+  private fun createChanPostImage(
     imageHash: String,
     postDescriptor: PostDescriptor,
-    skipImageCompletely: AtomicBoolean
+    lookupImage: ThirdEyeLookupImage
   ): ChanPostImage? {
-    val imageByMd5EndpointUrl = booruSettings.formatFullImageByMd5EndpointUrl(imageHash)
-    if (imageByMd5EndpointUrl == null) {
-      Logger.e(TAG, "processSingleBooru() failed to format imageByMd5EndpointUrl. " +
-          "imageByMd5Endpoint=${booruSettings.apiEndpoint}, imageHash=${imageHash}")
+    val fullUrl = lookupImage.imageUrl.toHttpUrlOrNull()
+      ?: return null
+    val previewUrl = lookupImage.thumbnailUrl.toHttpUrlOrNull()
+      ?: return null
+
+    val chanPostImageBuilder = ChanPostImageBuilder(postDescriptor).apply {
+      imageUrl(fullUrl)
+      thumbnailUrl(previewUrl)
+
+      inlined()
+      fileHash(imageHash, false)
+      serverFilename(imageHash)
+
+      val extension = StringUtils.extractFileNameExtension(fullUrl.encodedPath)
+      if (extension.isNotNullNorBlank() && extension.length < 5) {
+        extension(extension)
+      }
+
+      lookupImage.imageWidth?.let { w -> imageWidth(w) }
+      lookupImage.imageHeight?.let { h -> imageHeight(h) }
+      lookupImage.imageSize?.let { size -> imageSize(size) }
+    }
+
+    return chanPostImageBuilder.build()
+  }
+
+  /**
+   * Returns found images keyed by the (requested) image hash or null if the request failed (in which
+   * case nothing will be stored in the lookup cache). Multiple hashes are only passed here for boorus
+   * that support batch lookups.
+   * */
+  private suspend fun fetchFromBooru(
+    booruSettings: BooruSetting,
+    imageHashes: List<String>
+  ): Map<String, ThirdEyeLookupImage>? {
+    if (imageHashes.isEmpty()) {
+      return emptyMap()
+    }
+
+    val batchLookup = imageHashes.size > 1
+
+    val endpointUrl = if (batchLookup) {
+      booruSettings.formatBatchImagesByMd5EndpointUrl(imageHashes)
+    } else {
+      booruSettings.formatFullImageByMd5EndpointUrl(imageHashes.first())
+    }
+
+    if (endpointUrl == null) {
+      Logger.e(TAG, "fetchFromBooru() failed to format endpointUrl. " +
+          "imageByMd5Endpoint=${booruSettings.apiEndpoint}, " +
+          "batchImagesByMd5Endpoint=${booruSettings.batchApiEndpoint}, imageHashes=${imageHashes}")
       return null
     }
 
     val request = Request.Builder()
-      .url(imageByMd5EndpointUrl)
+      .url(endpointUrl)
       .get()
       .addDefaultHeaders(appConstants)
       .build()
@@ -280,14 +377,14 @@ class ThirdEyeLoader(
     val response = proxiedOkHttpClient.okHttpClient().suspendCall(request)
 
     if (!response.isSuccessful) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+      Logger.e(TAG, "fetchFromBooru() failure, url='$endpointUrl', " +
         "bad status: ${response.code}")
       return null
     }
 
     val responseBody = response.body
     if (responseBody == null) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+      Logger.e(TAG, "fetchFromBooru() failure, url='$endpointUrl', " +
         "no response body")
       return null
     }
@@ -295,47 +392,100 @@ class ThirdEyeLoader(
     val contentType = responseBody.contentType()
     val isJsonContent = contentType?.isJson() ?: false
     if (!isJsonContent) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+      Logger.e(TAG, "fetchFromBooru() failure, url='$endpointUrl', " +
         "bad content type: '$contentType'")
       return null
     }
 
-    val chanPostImage = responseBody.source().use { source ->
-      return@use JsonReader.of(source).use { jsonReader ->
-        return@use extractChanPostImageDataFromJson(
-          imageHash = imageHash,
-          imageByMd5EndpointUrl = imageByMd5EndpointUrl,
-          postDescriptor = postDescriptor,
-          booruSettings = booruSettings,
-          jsonReader = jsonReader,
-          skipImageCompletely = skipImageCompletely
-        )
+    val foundImages = try {
+      responseBody.source().use { source ->
+        return@use JsonReader.of(source).use { jsonReader ->
+          if (batchLookup) {
+            return@use extractBatchLookupImagesFromJson(
+              imageHashes = imageHashes,
+              endpointUrl = endpointUrl,
+              booruSettings = booruSettings,
+              jsonReader = jsonReader
+            )
+          }
+
+          val imageHash = imageHashes.first()
+          val booruImage = extractBooruImageFromJson(
+            endpointUrl = endpointUrl,
+            booruSettings = booruSettings,
+            jsonReader = jsonReader,
+            withMd5 = false
+          )
+
+          if (booruImage == null) {
+            return@use emptyMap()
+          }
+
+          return@use mapOf(imageHash to booruImage.lookupImage)
+        }
       }
+    } catch (error: Throwable) {
+      Logger.e(TAG, "fetchFromBooru() url='$endpointUrl', " +
+        "error: ${error.errorMessageOrClassName()}")
+      return null
     }
 
-    Logger.d(TAG, "processSingleBooru() imageHash='$imageHash', " +
-      "url='$imageByMd5EndpointUrl', matches: ${chanPostImage != null}")
-    return chanPostImage
+    Logger.d(TAG, "fetchFromBooru() imageHashes=${imageHashes.size}, " +
+      "url='$endpointUrl', matches: ${foundImages.size}")
+    return foundImages
   }
 
-  private fun extractChanPostImageDataFromJson(
-    imageHash: String,
-    imageByMd5EndpointUrl: HttpUrl,
-    postDescriptor: PostDescriptor,
+  /**
+   * Batch endpoints must return a json array of posts. Every post must contain the image md5 hash
+   * (under [BooruSetting.md5JsonKey]) so that we can match it with the requested hash.
+   * */
+  private fun extractBatchLookupImagesFromJson(
+    imageHashes: List<String>,
+    endpointUrl: HttpUrl,
     booruSettings: BooruSetting,
-    jsonReader: JsonReader,
-    skipImageCompletely: AtomicBoolean
-  ): ChanPostImage? {
-    if (skipImageCompletely.get()) {
-      return null
+    jsonReader: JsonReader
+  ): Map<String, ThirdEyeLookupImage> {
+    val requestedHashes = imageHashes.associateBy { imageHash -> imageHash.lowercase(Locale.ENGLISH) }
+    val foundImages = mutableMapWithCap<String, ThirdEyeLookupImage>(imageHashes.size)
+
+    jsonReader.beginArray()
+
+    while (jsonReader.hasNext()) {
+      if (jsonReader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+        jsonReader.skipValue()
+        continue
+      }
+
+      val booruImage = extractBooruImageFromJson(
+        endpointUrl = endpointUrl,
+        booruSettings = booruSettings,
+        jsonReader = jsonReader,
+        withMd5 = true
+      ) ?: continue
+
+      val requestedHash = booruImage.md5?.let { md5 -> requestedHashes[md5.lowercase(Locale.ENGLISH)] }
+        ?: continue
+
+      foundImages[requestedHash] = booruImage.lookupImage
     }
 
+    jsonReader.endArray()
+    return foundImages
+  }
+
+  private fun extractBooruImageFromJson(
+    endpointUrl: HttpUrl,
+    booruSettings: BooruSetting,
+    jsonReader: JsonReader,
+    withMd5: Boolean
+  ): BooruImage? {
     val fullUrlJsonKey = JsonKey(booruSettings.fullUrlJsonKey.lowercase(Locale.ENGLISH).trim())
     val previewUrlJsonKey = JsonKey(booruSettings.previewUrlJsonKey.lowercase(Locale.ENGLISH).trim())
     val fileSizeJsonKey = JsonKey(booruSettings.fileSizeJsonKey.lowercase(Locale.ENGLISH).trim())
     val widthJsonKey = JsonKey(booruSettings.widthJsonKey.lowercase(Locale.ENGLISH).trim())
     val heightJsonKey = JsonKey(booruSettings.heightJsonKey.lowercase(Locale.ENGLISH).trim())
     val tagsJsonKey = JsonKey(booruSettings.tagsJsonKey.lowercase(Locale.ENGLISH).trim())
+    val md5JsonKey = JsonKey(booruSettings.md5JsonKey.lowercase(Locale.ENGLISH).trim())
 
     val namesToCheck = mutableMapOf<JsonKey, JsonValue?>(
       fullUrlJsonKey to null,
@@ -346,76 +496,50 @@ class ThirdEyeLoader(
       tagsJsonKey to null,
     )
 
-    try {
-      jsonReader.traverseJson(
-        visitor = { path, name, value -> visit(namesToCheck, path, name, value) },
-        currentName = null,
-        jsonDebugOutput = null
-      )
-    } catch (error: Throwable) {
-      Logger.e(TAG, "parseJsonInternal() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
-        "error: ${error.errorMessageOrClassName()}")
-      return null
+    if (withMd5) {
+      namesToCheck[md5JsonKey] = null
     }
 
-    if (namesToCheck.values.all { value -> value == null }) {
-      return null
-    }
+    jsonReader.traverseJson(
+      visitor = { path, name, value -> visit(namesToCheck, path, name, value) },
+      currentName = null,
+      jsonDebugOutput = null
+    )
 
-    if (skipImageCompletely.get()) {
+    if (namesToCheck.values.all { value -> value == null }) {
       return null
     }
 
-    val tags = namesToCheck[tagsJsonKey]?.asList() ?: emptyList()
-    val bannedTagsAsSet = booruSettings.bannedTagsAsSet
-
-    for (imageTag in tags) {
-      if (imageTag.lowercase(Locale.ENGLISH) in bannedTagsAsSet) {
-        Logger.d(TAG, "extractChanPostImageDataFromJson() Found banned tag: '${imageTag}', " +
-          "skipping this image (imageHash='$imageHash')")
-
-        skipImageCompletely.set(true)
-        return null
-      }
-    }
-
     val previewUrl = namesToCheck[previewUrlJsonKey]?.firstOrNull()?.toHttpUrlOrNull()
     val fullUrl = namesToCheck[fullUrlJsonKey]?.firstOrNull()?.toHttpUrlOrNull()
     val width = namesToCheck[widthJsonKey]?.firstOrNull()?.toIntOrNull()
     val height = namesToCheck[heightJsonKey]?.firstOrNull()?.toIntOrNull()
     val fileSize = namesToCheck[fileSizeJsonKey]?.firstOrNull()?.toLongOrNull()
+    val tags = namesToCheck[tagsJsonKey]?.asList() ?: emptyList()
 
     if (fullUrl == null) {
-      Logger.e(TAG, "extractChanPostImageDataFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
+      Logger.e(TAG, "extractBooruImageFromJson() endpointUrl='$endpointUrl', " +
         "failed to extract fullUrl: '${namesToCheck[fullUrlJsonKey]?.firstOrNull()}'")
       return null
     }
 
     if (previewUrl == null) {
-      Logger.e(TAG, "extractChanPostImageDataFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
+      Logger.e(TAG, "extractBooruImageFromJson() endpointUrl='$endpointUrl', " +
         "failed to extract previewUrl: '${namesToCheck[previewUrlJsonKey]?.firstOrNull()}'")
       return null
     }
 
-    val chanPostImageBuilder = ChanPostImageBuilder(postDescriptor).apply {
-      imageUrl(fullUrl)
-      thumbnailUrl(previewUrl)
-
-      inlined()
-      fileHash(imageHash, false)
-      serverFilename(imageHash)
-
-      val extension = StringUtils.extractFileNameExtension(fullUrl.encodedPath)
-      if (extension.isNotNullNorBlank() && extension.length < 5) {
-        extension(extension)
-      }
-
-      width?.let { w -> imageWidth(w) }
-      height?.let { h -> imageHeight(h) }
-      fileSize?.let { size -> imageSize(size) }
-    }
+    val lookupImage = ThirdEyeLookupImage(
+      imageUrl = fullUrl.toString(),
+      thumbnailUrl = previewUrl.toString(),
+      imageWidth = width,
+      imageHeight = height,
+      imageSize = fileSize,
+      tags = tags
+    )
 
-    return chanPostImageBuilder.build()
+    val md5 = if (withMd5) namesToCheck[md5JsonKey]?.firstOrNull() else null
+    return BooruImage(md5, lookupImage)
   }
 
   private fun visit(
@@ -576,6 +700,11 @@ class ThirdEyeLoader(
     class JsonArray(val values: MutableList<String>) : JsonValue()
   }
 
+  private class BooruImage(
+    val md5: String?,
+    val lookupImage: ThirdEyeLookupImage
+  )
+
   companion object {
     private const val TAG = "ThirdEyeLoader"
   }
@@ -0,0 +1,201 @@
+package com.github.k1rakishou.chan.core.loader.impl
+
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruSetting
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupImage
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.joda.time.DateTime
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Looks up image hashes on boorus. Results (including negative ones) are stored persistently by
+ * [LookupStorage] so every hash is only requested once per booru until its result expires. Lookups of
+ * the same hash that are already in flight are coalesced and for boorus that support it
+ * ([BooruSetting.supportsBatchLookup]) hashes requested within [batchDelayMs] of each other (which is
+ * what happens when a page of posts gets bound) are looked up with one request.
+ *
+ * Failed requests are not stored, the next lookup of the same hash will try again.
+ * */
+class ThirdEyeLookupCoordinator(
+  private val scope: CoroutineScope,
+  private val lookupStorage: LookupStorage,
+  private val booruFetcher: BooruFetcher,
+  private val batchDelayMs: Long = BATCH_DELAY_MS,
+  private val maxBatchSize: Int = MAX_BATCH_SIZE
+) {
+  private val lock = Any()
+
+  // Guarded by lock
+  private val inFlightLookups = HashMap<LookupKey, CompletableDeferred<ThirdEyeLookupResult?>>()
+  // Guarded by lock
+  private val pendingBatches = HashMap<String, PendingBatch>()
+
+  private val cacheHits = AtomicLong(0)
+  private val coalescedLookups = AtomicLong(0)
+  private val requests = AtomicLong(0)
+  private val requestedHashes = AtomicLong(0)
+
+  /**
+   * Returns null if the booru could not be queried (network error, bad response etc).
+   * */
+  suspend fun lookup(booruSetting: BooruSetting, imageHash: String): ThirdEyeLookupResult? {
+    val booruKey = booruSetting.booruUniqueKey
+
+    val cachedResult = lookupStorage.getLookupResults(booruKey, listOf(imageHash))[imageHash]
+    if (cachedResult != null) {
+      cacheHits.incrementAndGet()
+      return cachedResult
+    }
+
+    val lookupKey = LookupKey(booruKey, imageHash)
+    var batchToFetch: List<String>? = null
+
+    val deferred = synchronized(lock) {
+      val activeLookup = inFlightLookups[lookupKey]
+      if (activeLookup != null) {
+        coalescedLookups.incrementAndGet()
+        return@synchronized activeLookup
+      }
+
+      val newLookup = CompletableDeferred<ThirdEyeLookupResult?>()
+      inFlightLookups[lookupKey] = newLookup
+
+      if (!booruSetting.supportsBatchLookup() || maxBatchSize <= 1) {
+        batchToFetch = listOf(imageHash)
+        return@synchronized newLookup
+      }
+
+      var pendingBatch = pendingBatches[booruKey]
+      if (pendingBatch == null) {
+        pendingBatch = PendingBatch(booruSetting)
+        pendingBatches[booruKey] = pendingBatch
+      }
+
+      pendingBatch.imageHashes += imageHash
+
+      if (pendingBatch.imageHashes.size >= maxBatchSize) {
+        pendingBatches.remove(booruKey)
+        pendingBatch.flushJob?.cancel()
+        batchToFetch = pendingBatch.imageHashes
+      } else if (pendingBatch.flushJob == null) {
+        pendingBatch.flushJob = scope.launch(Dispatchers.IO) {
+          delay(batchDelayMs)
+
+          val imageHashes = synchronized(lock) {
+            if (pendingBatches[booruKey] !== pendingBatch) {
+              // Already flushed because it got full
+              return@launch
+            }
+
+            pendingBatches.remove(booruKey)
+            return@synchronized pendingBatch.imageHashes
+          }
+
+          fetch(booruSetting, imageHashes)
+        }
+      }
+
+      return@synchronized newLookup
+    }
+
+    batchToFetch?.let { imageHashes ->
+      scope.launch(Dispatchers.IO) { fetch(booruSetting, imageHashes) }
+    }
+
+    return deferred.await()
+  }
+
+  fun stats(): LookupStats {
+    return LookupStats(
+      cacheHits = cacheHits.get(),
+      coalescedLookups = coalescedLookups.get(),
+      requests = requests.get(),
+      requestedHashes = requestedHashes.get()
+    )
+  }
+
+  private suspend fun fetch(booruSetting: BooruSetting, imageHashes: List<String>) {
+    val booruKey = booruSetting.booruUniqueKey
+    var results: Map<String, ThirdEyeLookupResult>? = null
+
+    try {
+      requests.incrementAndGet()
+      requestedHashes.addAndGet(imageHashes.size.toLong())
+
+      val fetchedImages = booruFetcher.fetch(booruSetting, imageHashes)
+      if (fetchedImages != null) {
+        val now = DateTime.now()
+
+        val lookupResults = imageHashes.map { imageHash ->
+          ThirdEyeLookupResult(
+            booruKey = booruKey,
+            imageHash = imageHash,
+            image = fetchedImages[imageHash],
+            insertedAt = now
+          )
+        }
+
+        lookupStorage.storeLookupResults(lookupResults)
+        results = lookupResults.associateBy { lookupResult -> lookupResult.imageHash }
+      }
+    } catch (error: Throwable) {
+      if (error is CancellationException) {
+        throw error
+      }
+
+      Logger.e(TAG, "fetch(${booruKey}, ${imageHashes.size} hashes) error", error)
+    } finally {
+      synchronized(lock) {
+        imageHashes.forEach { imageHash ->
+          inFlightLookups.remove(LookupKey(booruKey, imageHash))?.complete(results?.get(imageHash))
+        }
+      }
+    }
+  }
+
+  interface LookupStorage {
+    suspend fun getLookupResults(booruKey: String, imageHashes: Collection<String>): Map<String, ThirdEyeLookupResult>
+    suspend fun storeLookupResults(lookupResults: List<ThirdEyeLookupResult>)
+  }
+
+  interface BooruFetcher {
+    /**
+     * Returns the found images keyed by image hash (hashes that the booru doesn't have must not be
+     * in the map) or null if the request failed.
+     * */
+    suspend fun fetch(booruSetting: BooruSetting, imageHashes: List<String>): Map<String, ThirdEyeLookupImage>?
+  }
+
+  data class LookupStats(
+    val cacheHits: Long,
+    val coalescedLookups: Long,
+    val requests: Long,
+    val requestedHashes: Long
+  )
+
+  private class PendingBatch(val booruSetting: BooruSetting) {
+    val imageHashes = mutableListOf<String>()
+    var flushJob: Job? = null
+  }
+
+  private data class LookupKey(
+    val booruKey: String,
+    val imageHash: String
+  )
+
+  companion object {
+    private const val TAG = "ThirdEyeLookupCoordinator"
+
+    // Posts of one page are bound within a couple of frames
+    private const val BATCH_DELAY_MS = 150L
+    private const val MAX_BATCH_SIZE = 20
+  }
+
+}
@@ -24,6 +24,12 @@ internal abstract class ExternalMediaServiceExtraInfoFetcher {
 
   abstract suspend fun isCached(videoId: GenericVideoId): Boolean
 
+  /**
+   * Loads whatever is already stored in the database for [videoIds] into the memory cache at once
+   * (used when a batch of posts is bound)
+   * */
+  abstract suspend fun preloadCache(videoIds: Collection<GenericVideoId>)
+
   abstract suspend fun fetch(requestUrl: String, linkInfoRequest: LinkInfoRequest): ModularResult<SpanUpdateBatch>
 
   /**
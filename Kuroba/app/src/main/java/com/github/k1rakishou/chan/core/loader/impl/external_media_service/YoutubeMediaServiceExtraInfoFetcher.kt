@@ -36,6 +36,13 @@ internal class YoutubeMediaServiceExtraInfoFetcher(
       .unwrap()
   }
 
+  override suspend fun preloadCache(videoIds: Collection<GenericVideoId>) {
+    BackgroundUtils.ensureBackgroundThread()
+
+    mediaServiceLinkExtraContentRepository.preloadIntoCache(mediaServiceType, videoIds)
+      .unwrap()
+  }
+
   override suspend fun fetch(
     requestUrl: String,
     linkInfoRequest: LinkInfoRequest
@@ -7,6 +7,7 @@ import com.github.k1rakishou.chan.core.site.SiteRegistry
 import com.github.k1rakishou.common.DoNotStrip
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.SuspendableInitializer
+import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
@@ -25,6 +26,8 @@ import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import okhttp3.HttpUrl
 import org.joda.time.DateTime
 import java.util.*
@@ -54,6 +57,16 @@ class BookmarksManager(
 
   @GuardedBy("lock")
   private val bookmarks = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadBookmark>(256)
+  // Bookmarks that were created or changed since the last persist
+  @GuardedBy("lock")
+  private val dirtyBookmarks = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(16)
+  // Bookmarks that were deleted since the last persist
+  @GuardedBy("lock")
+  private val deletedBookmarks = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(16)
+
+  private val persistMutex = Mutex()
+  @Volatile
+  private var persistStats = PersistStats()
 
   private val applicationVisibilityManager: ApplicationVisibilityManager
     get() = _applicationVisibilityManager.get()
@@ -267,6 +280,7 @@ class BookmarksManager(
 
         actuallyCreated += threadDescriptor
         bookmarks[threadDescriptor] = threadBookmark
+        markDirty(threadDescriptor)
       }
     }
 
@@ -293,6 +307,7 @@ class BookmarksManager(
         }
 
         bookmarks.remove(threadDescriptor)
+        markDeleted(threadDescriptor)
         actuallyDeleted += threadDescriptor
       }
 
@@ -355,6 +370,7 @@ class BookmarksManager(
 
         if (oldThreadBookmark != mutatedBookmark) {
           bookmarks[threadDescriptor] = mutatedBookmark
+          markDirty(threadDescriptor)
           updatedBookmarks += threadDescriptor
         }
       }
@@ -384,6 +400,7 @@ class BookmarksManager(
       if (toDelete.size > 0) {
         toDelete.forEach { threadDescriptor ->
           bookmarks.remove(threadDescriptor)
+          markDeleted(threadDescriptor)
         }
       }
     }
@@ -401,6 +418,9 @@ class BookmarksManager(
     lock.write {
       allBookmarksDescriptors.addAll(bookmarks.keys.toList())
       bookmarks.clear()
+      // Everything is deleted from the database below
+      dirtyBookmarks.clear()
+      deletedBookmarks.clear()
     }
 
     persistBookmarksExecutor.post {
@@ -429,6 +449,8 @@ class BookmarksManager(
         threadBookmark.updateLastViewedPostNo(lastPostInThreadNo)
       }
 
+      markDirty(threadDescriptor)
+
       bookmarksChanged(BookmarkChange.BookmarksUpdated(listOf(threadDescriptor)))
     }
   }
@@ -441,8 +463,9 @@ class BookmarksManager(
         return@write
       }
 
-      bookmarks.entries.forEach { (_, threadBookmark) ->
+      bookmarks.entries.forEach { (threadDescriptor, threadBookmark) ->
         threadBookmark.readAllPostsAndNotifications()
+        markDirty(threadDescriptor)
       }
 
       bookmarksChanged(BookmarkChange.BookmarksUpdated(bookmarks.keys))
@@ -701,16 +724,83 @@ class BookmarksManager(
     }
   }
 
+  fun getPersistStats(): PersistStats {
+    return persistStats
+  }
+
+  /**
+   * Only writes bookmarks that were changed since the last persist. Multiple persist calls queued up
+   * one after another are coalesced since every call takes all the accumulated changes and the
+   * following calls will find nothing to write.
+   * */
   private suspend fun persistBookmarksInternal() {
-    bookmarksRepository.persist(getAllBookmarks())
-      .safeUnwrap { error ->
-        Logger.e(TAG, "Failed to persist bookmarks", error)
-        return
+    persistMutex.withLock {
+      val (changedBookmarks, deleted) = takeDirtyBookmarks()
+      if (changedBookmarks.isEmpty() && deleted.isEmpty()) {
+        return@withLock
       }
+
+      val persistResult = bookmarksRepository.persist(changedBookmarks, deleted)
+        .safeUnwrap { error ->
+          Logger.e(TAG, "Failed to persist bookmarks", error)
+
+          // Try again next time
+          restoreDirtyBookmarks(changedBookmarks, deleted)
+          return@withLock
+        }
+
+      persistStats = persistStats.plus(persistResult.rowsWritten)
+
+      if (verboseLogsEnabled) {
+        Logger.d(TAG, "persistBookmarksInternal() changed=${changedBookmarks.size}, " +
+          "deleted=${deleted.size}, ${persistResult}, ${persistStats}")
+      }
+    }
   }
 
-  private fun getAllBookmarks(): List<ThreadBookmark> {
-    return lock.read { bookmarks.values.map { bookmark -> bookmark.deepCopy() } }
+  private fun takeDirtyBookmarks(): Pair<List<ThreadBookmark>, List<ChanDescriptor.ThreadDescriptor>> {
+    return lock.write {
+      val changedBookmarks = dirtyBookmarks.mapNotNull { threadDescriptor ->
+        bookmarks[threadDescriptor]?.deepCopy()
+      }
+      val deleted = deletedBookmarks.toList()
+
+      dirtyBookmarks.clear()
+      deletedBookmarks.clear()
+
+      return@write changedBookmarks to deleted
+    }
+  }
+
+  private fun restoreDirtyBookmarks(
+    changedBookmarks: List<ThreadBookmark>,
+    deleted: List<ChanDescriptor.ThreadDescriptor>
+  ) {
+    lock.write {
+      changedBookmarks.forEach { threadBookmark ->
+        if (bookmarks.containsKey(threadBookmark.threadDescriptor)) {
+          dirtyBookmarks.add(threadBookmark.threadDescriptor)
+        }
+      }
+
+      deleted.forEach { threadDescriptor ->
+        if (!bookmarks.containsKey(threadDescriptor)) {
+          deletedBookmarks.add(threadDescriptor)
+        }
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun markDirty(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    deletedBookmarks.remove(threadDescriptor)
+    dirtyBookmarks.add(threadDescriptor)
+  }
+
+  @GuardedBy("lock")
+  private fun markDeleted(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    dirtyBookmarks.remove(threadDescriptor)
+    deletedBookmarks.add(threadDescriptor)
   }
 
   private fun activeBookmarkPredicate(threadBookmark: ThreadBookmark): Boolean {
@@ -720,6 +810,28 @@ class BookmarksManager(
     return !isArchiveBookmark && threadBookmark.isActive()
   }
 
+  data class PersistStats(
+    val persistsCount: Long = 0L,
+    val lastPersistRowsWritten: Int = 0,
+    val totalRowsWritten: Long = 0L
+  ) {
+    val averageRowsWrittenPerPersist: Double
+      get() = if (persistsCount == 0L) 0.0 else totalRowsWritten.toDouble() / persistsCount.toDouble()
+
+    fun plus(rowsWritten: Int): PersistStats {
+      return PersistStats(
+        persistsCount = persistsCount + 1,
+        lastPersistRowsWritten = rowsWritten,
+        totalRowsWritten = totalRowsWritten + rowsWritten
+      )
+    }
+
+    override fun toString(): String {
+      return "PersistStats{persistsCount=$persistsCount, lastPersistRowsWritten=$lastPersistRowsWritten, " +
+        "totalRowsWritten=$totalRowsWritten, averageRowsWrittenPerPersist=${"%.2f".format(averageRowsWrittenPerPersist)}}"
+    }
+  }
+
   data class SimpleThreadBookmark(
     val threadDescriptor: ChanDescriptor.ThreadDescriptor,
     val title: String? = null,
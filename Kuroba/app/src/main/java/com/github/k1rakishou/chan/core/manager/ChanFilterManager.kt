@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.manager
 
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
+import com.github.k1rakishou.chan.core.helper.CompiledFilterSet
 import com.github.k1rakishou.chan.ui.compose.reorder.move
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.SuspendableInitializer
@@ -52,6 +53,11 @@ class ChanFilterManager(
   private val lock = ReentrantReadWriteLock()
   @GuardedBy("lock")
   private val filters = mutableListWithCap<ChanFilter>(32)
+  // Incremented every time the filters are modified so that we know when to recompile them
+  @GuardedBy("lock")
+  private var filtersVersion = 0L
+  @Volatile
+  private var compiledFilterSet: CompiledFilterSet? = null
 
   private val chanFilterRepository: ChanFilterRepository
     get() = _chanFilterRepository.get()
@@ -112,6 +118,7 @@ class ChanFilterManager(
 
         filters.clear()
         filters.addAll(loadFiltersResult.value)
+        ++filtersVersion
       }
 
       suspendableInitializer.initWithValue(Unit)
@@ -191,7 +198,12 @@ class ChanFilterManager(
           return@write false
         }
 
-        return@write filters.move(fromIdx = fromIndex, toIdx = toIndex)
+        val moved = filters.move(fromIdx = fromIndex, toIdx = toIndex)
+        if (moved) {
+          ++filtersVersion
+        }
+
+        return@write moved
       }
 
       onMoved(moved)
@@ -225,6 +237,7 @@ class ChanFilterManager(
           val index = filters.indexOf(chanFilter)
           if (index >= 0) {
             filters.remove(chanFilter)
+            ++filtersVersion
           }
 
           return@write index
@@ -247,7 +260,11 @@ class ChanFilterManager(
           .mapErrorToValue { false }
 
         if (!success) {
-          lock.write { filters.add(chanFilter) }
+          lock.write {
+            filters.add(chanFilter)
+            ++filtersVersion
+          }
+
           continue
         }
 
@@ -303,7 +320,10 @@ class ChanFilterManager(
       val allFilters = lock.read { filters.map { filter -> filter.copy() } }
       allFilters.forEach { chanFilter -> clearFilterWatchGroups(chanFilter) }
 
-      lock.read { filters.clear() }
+      lock.write {
+        filters.clear()
+        ++filtersVersion
+      }
       filterChangesFlow.emit(FilterEvent.Deleted(allFilters))
 
       onFinished(null)
@@ -334,6 +354,10 @@ class ChanFilterManager(
           }
         }
 
+        if (changed) {
+          ++filtersVersion
+        }
+
         return@write changed
       }
 
@@ -403,6 +427,27 @@ class ChanFilterManager(
     return lock.read { filters.size }
   }
 
+  /**
+   * Returns the enabled non-watch filters compiled for matching posts. The result is cached until
+   * the filters are modified.
+   * */
+  fun getCompiledFilterSet(): CompiledFilterSet {
+    return lock.read {
+      val cached = compiledFilterSet
+      if (cached != null && cached.version == filtersVersion) {
+        return@read cached
+      }
+
+      val newCompiledFilterSet = CompiledFilterSet.create(
+        version = filtersVersion,
+        filters = filters.map { filter -> filter.copy() }
+      )
+
+      compiledFilterSet = newCompiledFilterSet
+      return@read newCompiledFilterSet
+    }
+  }
+
   fun getEnabledFiltersSorted(): List<ChanFilter> {
     return lock.read {
       return@read filters.filter { filter -> filter.enabled }
@@ -442,6 +487,7 @@ class ChanFilterManager(
       val index = if (indexOfThisFilter < 0) {
         lock.write {
           filters.add(chanFilter)
+          ++filtersVersion
           filters.lastIndex
         }
       } else {
@@ -454,7 +500,10 @@ class ChanFilterManager(
 
       if (databaseId <= 0L) {
         Logger.e(TAG, "Failed to create filter ${chanFilter}, bad databaseId = $databaseId")
-        lock.write { filters.remove(chanFilter) }
+        lock.write {
+          filters.remove(chanFilter)
+          ++filtersVersion
+        }
 
         continue
       }
@@ -469,6 +518,7 @@ class ChanFilterManager(
         }
 
         filters.getOrNull(newIndexOfThisFilter)?.setDatabaseId(databaseId)
+        ++filtersVersion
         return@write true
       }
 
@@ -497,6 +547,7 @@ class ChanFilterManager(
 
         require(prevChanFilter.hasDatabaseId()) { "prevFilter has no database id!" }
         filters[indexOfThisFilter] = mergePrevAndNewFilters(prevChanFilter, chanFilter)
+        ++filtersVersion
 
         return@write true
       }
@@ -73,10 +73,6 @@ class ChanThreadManager(
     chanPostRepository.awaitUntilInitialized()
   }
 
-  fun isThreadLockCurrentlyLocked(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
-    return chanThreadsCache.isThreadLockCurrentlyLocked(threadDescriptor)
-  }
-
   fun bindChanDescriptor(chanDescriptor: ChanDescriptor) {
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
@@ -171,6 +167,9 @@ class ChanThreadManager(
           is ChanDescriptor.CompositeCatalogDescriptor -> error("Cannot use CompositeCatalogDescriptor here")
         }
       }
+      is ThreadLoadResult.NotModified -> {
+        // Nothing has changed since the last load so there is nothing to postload
+      }
       is ThreadLoadResult.Error -> {
         // no-op
       }
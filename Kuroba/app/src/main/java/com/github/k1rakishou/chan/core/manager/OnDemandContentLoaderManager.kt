@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.manager
 
 import androidx.annotation.GuardedBy
+import com.github.k1rakishou.chan.core.base.LatencyHistogram
 import com.github.k1rakishou.chan.core.base.QueueableConcurrentCoroutineExecutor
 import com.github.k1rakishou.chan.core.loader.LoaderBatchResult
 import com.github.k1rakishou.chan.core.loader.LoaderResult
@@ -9,28 +10,46 @@ import com.github.k1rakishou.chan.core.loader.PostLoaderData
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.isExceptionImportant
-import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.LoaderType
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
-import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeoutOrNull
 import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.collections.HashMap
 import kotlin.collections.set
 import kotlin.concurrent.read
 import kotlin.concurrent.write
 
+/**
+ * Runs [OnDemandContentLoader]s for bound posts. Posts bound within [BATCH_WINDOW_MS] of each other
+ * (usually a whole screen of posts gets bound within a couple of frames) are processed as one batch:
+ * every loader is called once per batch (loaders that support batching can then load the content
+ * for all posts with one request or query, see [OnDemandContentLoader.supportsBatching]) and all
+ * loaders run concurrently. Latencies of every loader are collected into a [LatencyHistogram] (see
+ * [loaderLatencies]).
+ * */
 class OnDemandContentLoaderManager(
   private val scope: CoroutineScope,
+  private val verboseLogsEnabled: Boolean,
   private val appConstants: AppConstants,
   private val dispatcher: CoroutineDispatcher,
   private val loadersLazy: Lazy<List<OnDemandContentLoader>>,
@@ -42,6 +61,15 @@ class OnDemandContentLoaderManager(
 
   @GuardedBy("rwLock")
   private val activeLoaders = HashMap<ChanDescriptor, HashMap<PostDescriptor, PostLoaderData>>()
+  @GuardedBy("rwLock")
+  private val pendingPosts = mutableListOf<PostLoaderData>()
+  @GuardedBy("rwLock")
+  private var batchFlushScheduled = false
+
+  private val latencyHistograms by lazy {
+    loaders.associate { loader -> loader.loaderType to LatencyHistogram() }
+  }
+  private val processedBatches = AtomicLong(0)
 
   private val _postUpdateFlow = MutableSharedFlow<LoaderBatchResult>(extraBufferCapacity = 128)
   val postUpdateFlow: SharedFlow<LoaderBatchResult>
@@ -57,6 +85,7 @@ class OnDemandContentLoaderManager(
     check(loaders.isNotEmpty()) { "No loaders!" }
 
     val chanDescriptor = postDescriptor.descriptor
+    var needScheduleFlush = false
 
     val postLoaderData = lock.write {
       if (!activeLoaders.containsKey(chanDescriptor)) {
@@ -69,6 +98,13 @@ class OnDemandContentLoaderManager(
 
       val postLoaderData = PostLoaderData(catalogMode, postDescriptor)
       activeLoaders[chanDescriptor]!![postDescriptor] = postLoaderData
+      pendingPosts += postLoaderData
+
+      if (!batchFlushScheduled) {
+        batchFlushScheduled = true
+        needScheduleFlush = true
+      }
+
       return@write postLoaderData
     }
 
@@ -77,23 +113,12 @@ class OnDemandContentLoaderManager(
       return
     }
 
-    val job = executor.post {
-      val loaderBatchResults = try {
-        onPostBindInternal(postLoaderData)
-      } catch (error: Throwable) {
-        if (error.isExceptionImportant()) {
-          Logger.e(TAG, "onPostBindInternal(${postLoaderData.postDescriptor}) error", error)
-        }
-
-        null
-      }
-
-      if (loaderBatchResults != null) {
-        _postUpdateFlow.emit(loaderBatchResults)
+    if (needScheduleFlush) {
+      scope.launch(dispatcher) {
+        delay(BATCH_WINDOW_MS)
+        flushPendingPosts()
       }
     }
-
-    postLoaderData.setJob(job)
   }
 
   fun onPostUnbind(postDescriptor: PostDescriptor, isActuallyRecycling: Boolean) {
@@ -129,31 +154,93 @@ class OnDemandContentLoaderManager(
     }
   }
 
-  private suspend fun CoroutineScope.onPostBindInternal(postLoaderData: PostLoaderData): LoaderBatchResult? {
+  fun loaderLatencies(): Map<LoaderType, LatencyHistogram.Snapshot> {
+    return latencyHistograms.mapValues { (_, latencyHistogram) -> latencyHistogram.snapshot() }
+  }
+
+  private fun flushPendingPosts() {
+    val batch = lock.write {
+      val batch = pendingPosts.toList()
+      pendingPosts.clear()
+      batchFlushScheduled = false
+
+      return@write batch
+    }
+
+    if (batch.isEmpty()) {
+      return
+    }
+
+    val job = executor.post {
+      try {
+        processBatch(batch)
+      } catch (error: Throwable) {
+        if (error.isExceptionImportant()) {
+          Logger.e(TAG, "processBatch(${batch.size}) error", error)
+        }
+      }
+    }
+
+    batch.forEach { postLoaderData ->
+      postLoaderData.addDisposeFunc { cancelIfAllDisposed(batch, job) }
+    }
+  }
+
+  private suspend fun processBatch(batch: List<PostLoaderData>) {
     BackgroundUtils.ensureBackgroundThread()
-    val postDescriptor = postLoaderData.postDescriptor
 
-    val post = chanThreadManager.getPost(postDescriptor)
-    if (post == null || post.allLoadersCompletedLoading()) {
-      // Everything is done
-      return null
+    val postsToLoad = batch.filter { postLoaderData ->
+      if (!isStillActive(postLoaderData)) {
+        return@filter false
+      }
+
+      val post = chanThreadManager.getPost(postLoaderData.postDescriptor)
+      // Otherwise everything is done
+      return@filter post != null && !post.allLoadersCompletedLoading()
+    }
+
+    if (postsToLoad.isEmpty()) {
+      return
     }
 
-    val allLoadersCached = loaders.all { loader -> loader.isCached(postLoaderData) }
+    val allLoadersCached = allLoadersCached(postsToLoad)
 
-    // Add some delay here to avoid visual glitches when quickly scrolling through posts
-    // (Especially when using the fast scroller). In case when the post loader results are not
-    // cached by the loaders we use the long delay, otherwise if everything is already cached,
-    // we use the short delay.
-    if (!allLoadersCached) {
-      delay(LONG_LOADING_DELAY_TIME_MS)
-    } else {
-      delay(SHORT_LOADING_DELAY_TIME_MS)
+    val cachedPosts = mutableListOf<PostLoaderData>()
+    val notCachedPosts = mutableListOf<PostLoaderData>()
+
+    postsToLoad.forEachIndexed { index, postLoaderData ->
+      if (allLoadersCached[index]) {
+        cachedPosts += postLoaderData
+      } else {
+        notCachedPosts += postLoaderData
+      }
     }
 
-    if (!isStillActive(postLoaderData)) {
-      removeFromActiveLoaders(postDescriptor)
-      return null
+    supervisorScope {
+      // Add some delay here to avoid visual glitches when quickly scrolling through posts
+      // (Especially when using the fast scroller). In case when the post loader results are not
+      // cached by the loaders we use the long delay, otherwise if everything is already cached,
+      // we use the short delay. The batching window is a part of the delay.
+      if (cachedPosts.isNotEmpty()) {
+        launch { delayAndLoad(cachedPosts, SHORT_LOADING_DELAY_TIME_MS) }
+      }
+
+      if (notCachedPosts.isNotEmpty()) {
+        launch { delayAndLoad(notCachedPosts, LONG_LOADING_DELAY_TIME_MS) }
+      }
+    }
+
+    if (verboseLogsEnabled && processedBatches.incrementAndGet() % LOG_LATENCIES_EVERY_N_BATCHES == 0L) {
+      Logger.d(TAG, "loaderLatencies: ${loaderLatencies()}")
+    }
+  }
+
+  private suspend fun delayAndLoad(posts: List<PostLoaderData>, delayMs: Long) {
+    delay((delayMs - BATCH_WINDOW_MS).coerceAtLeast(0L))
+
+    val stillActivePosts = posts.filter { postLoaderData -> isStillActive(postLoaderData) }
+    if (stillActivePosts.isEmpty()) {
+      return
     }
 
     val maxLoadingTime = if (appConstants.isDebuggerAttached) {
@@ -162,29 +249,131 @@ class OnDemandContentLoaderManager(
       MAX_LOADER_LOADING_TIME_NORMAL_MS
     }
 
-    // We want to process loaders in the same order they are in the list
-    val loaderResults = withContext(Dispatchers.Default) {
-      withTimeoutOrNull(maxLoadingTime) {
-        loaders.fold(mutableListWithCap<LoaderResult>(loaders.size)) { acc, loader ->
-          if (!isActive) {
-            acc += LoaderResult.Failed(loader.loaderType)
-          } else {
-            acc += loader.startLoading(postLoaderData)
-          }
+    // All loaders run concurrently, the results are reported in the same order as the loaders
+    val resultsPerLoader = withContext(Dispatchers.Default) {
+      loaders
+        .map { loader -> async { runLoader(loader, stillActivePosts, maxLoadingTime) } }
+        .awaitAll()
+    }
+
+    stillActivePosts.forEachIndexed { index, postLoaderData ->
+      if (!isStillActive(postLoaderData)) {
+        return@forEachIndexed
+      }
 
-          return@fold acc
+      val loaderResults = resultsPerLoader.map { loaderResults -> loaderResults.results[index] }
+      _postUpdateFlow.emit(LoaderBatchResult(postLoaderData.postDescriptor, loaderResults))
+
+      if (resultsPerLoader.any { loaderResults -> loaderResults.timedOut }) {
+        // Let the loaders try again next time the post is bound
+        removeFromActiveLoaders(postLoaderData.postDescriptor)
+      }
+    }
+  }
+
+  private suspend fun runLoader(
+    loader: OnDemandContentLoader,
+    posts: List<PostLoaderData>,
+    maxLoadingTime: Long
+  ): LoaderResults {
+    val latencyHistogram = latencyHistograms[loader.loaderType]!!
+
+    val results = withTimeoutOrNull(maxLoadingTime) {
+      if (loader.supportsBatching) {
+        return@withTimeoutOrNull measureLatency(latencyHistogram) {
+          loadOrFailed(loader, posts.size) { loader.startLoading(posts) }
         }
       }
+
+      return@withTimeoutOrNull supervisorScope {
+        posts
+          .map { postLoaderData ->
+            val deferred = async {
+              measureLatency(latencyHistogram) {
+                loadOrFailed(loader, 1) { listOf(loader.startLoading(postLoaderData)) }.first()
+              }
+            }
+
+            // Stop loading content for posts that got unbound in the meantime
+            postLoaderData.addDisposeFunc { deferred.cancel() }
+            return@map deferred
+          }
+          .map { deferred ->
+            try {
+              deferred.await()
+            } catch (error: CancellationException) {
+              currentCoroutineContext().ensureActive()
+              LoaderResult.Failed(loader.loaderType)
+            }
+          }
+      }
     }
 
-    if (loaderResults == null) {
-      val allFailed = loaders.map { loader -> LoaderResult.Failed(loader.loaderType) }
+    if (results == null) {
+      Logger.e(TAG, "${loader.loaderType} timed out (posts=${posts.size})")
+      return LoaderResults(posts.map { LoaderResult.Failed(loader.loaderType) }, timedOut = true)
+    }
 
-      removeFromActiveLoaders(postDescriptor)
-      return LoaderBatchResult(postDescriptor, allFailed)
+    return LoaderResults(results, timedOut = false)
+  }
+
+  private suspend fun loadOrFailed(
+    loader: OnDemandContentLoader,
+    postsCount: Int,
+    func: suspend () -> List<LoaderResult>
+  ): List<LoaderResult> {
+    try {
+      val results = func()
+      check(results.size == postsCount) {
+        "${loader.loaderType} returned ${results.size} results for ${postsCount} posts"
+      }
+
+      return results
+    } catch (error: Throwable) {
+      if (error is CancellationException) {
+        throw error
+      }
+
+      if (error.isExceptionImportant()) {
+        Logger.e(TAG, "${loader.loaderType} startLoading() error", error)
+      }
+
+      return List(postsCount) { LoaderResult.Failed(loader.loaderType) }
     }
+  }
 
-    return LoaderBatchResult(postLoaderData.postDescriptor, loaderResults)
+  private suspend fun allLoadersCached(posts: List<PostLoaderData>): List<Boolean> {
+    val cachedPerLoader = withContext(Dispatchers.Default) {
+      loaders
+        .map { loader ->
+          async {
+            try {
+              if (loader.supportsBatching) {
+                loader.isCached(posts)
+              } else {
+                posts.map { postLoaderData -> loader.isCached(postLoaderData) }
+              }
+            } catch (error: Throwable) {
+              if (error is CancellationException) {
+                throw error
+              }
+
+              Logger.e(TAG, "${loader.loaderType} isCached() error", error)
+              posts.map { false }
+            }
+          }
+        }
+        .awaitAll()
+    }
+
+    return posts.indices.map { index -> cachedPerLoader.all { cached -> cached[index] } }
+  }
+
+  private fun cancelIfAllDisposed(batch: List<PostLoaderData>, job: Job) {
+    // The batch job is shared by multiple posts so only cancel it when none of them is active anymore
+    if (batch.none { postLoaderData -> isStillActive(postLoaderData) }) {
+      job.cancel()
+    }
   }
 
   private fun removeFromActiveLoaders(postDescriptor: PostDescriptor) {
@@ -203,16 +392,33 @@ class OnDemandContentLoaderManager(
       val chanDescriptor = postLoaderData.postDescriptor.descriptor
       val postDescriptor = postLoaderData.postDescriptor
 
-      return@read activeLoaders[chanDescriptor]?.containsKey(postDescriptor)
-        ?: false
+      return@read activeLoaders[chanDescriptor]?.get(postDescriptor) === postLoaderData
+    }
+  }
+
+  private inline fun <T> measureLatency(latencyHistogram: LatencyHistogram, func: () -> T): T {
+    val start = System.nanoTime()
+
+    try {
+      return func()
+    } finally {
+      latencyHistogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
     }
   }
 
+  private class LoaderResults(
+    val results: List<LoaderResult>,
+    val timedOut: Boolean
+  )
+
   companion object {
     private const val TAG = "OnDemandContentLoaderManager"
+    // A couple of frames
+    const val BATCH_WINDOW_MS = 32L
     const val LONG_LOADING_DELAY_TIME_MS = 1500L
     const val SHORT_LOADING_DELAY_TIME_MS = 500L
     const val MAX_LOADER_LOADING_TIME_NORMAL_MS = 15_000L
     const val MAX_LOADER_LOADING_TIME_DEBUGGING_MS = 600_000L
+    private const val LOG_LATENCIES_EVERY_N_BATCHES = 50L
   }
-}
\ No newline at end of file
+}
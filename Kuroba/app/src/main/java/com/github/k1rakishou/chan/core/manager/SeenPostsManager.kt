@@ -6,14 +6,11 @@ import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.linkedMapWithCap
-import com.github.k1rakishou.common.mutableIteration
 import com.github.k1rakishou.common.mutableMapWithCap
-import com.github.k1rakishou.common.putIfNotContains
-import com.github.k1rakishou.common.toHashSetBy
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
-import com.github.k1rakishou.model.data.post.SeenPost
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
 import com.github.k1rakishou.model.repository.SeenPostRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
@@ -21,8 +18,6 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
-import org.joda.time.DateTime
-import java.util.*
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
@@ -39,9 +34,13 @@ class SeenPostsManager(
 ) {
   private val lock = ReentrantReadWriteLock()
   @GuardedBy("lock")
-  private val seenPostsMap = linkedMapWithCap<ChanDescriptor.ThreadDescriptor, MutableMap<PostDescriptor, SeenPost>>(256)
+  private val seenPostsMap = linkedMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadSeenPosts>(256)
+  // Threads that were already loaded from the database (or don't have anything in there)
   @GuardedBy("lock")
-  private val seenPostsToPersist = mutableMapOf<ChanDescriptor.ThreadDescriptor, MutableMap<PostDescriptor, SeenPost>>()
+  private val loadedThreads = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(32)
+  // Threads with posts that were marked as seen but not persisted yet
+  @GuardedBy("lock")
+  private val dirtyThreads = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(8)
   @GuardedBy("lock")
   private var lastLoadedCatalogDescriptor: ChanDescriptor.ICatalogDescriptor? = null
   @GuardedBy("lock")
@@ -70,11 +69,7 @@ class SeenPostsManager(
       return
     }
 
-    val alreadyPreloaded = lock.read {
-      // We consider data preloaded only if it contains more than one entry (for original post) per thread.
-      return@read (seenPostsMap[threadDescriptor]?.size ?: 0) > 1
-    }
-
+    val alreadyPreloaded = lock.read { loadedThreads.contains(threadDescriptor) }
     if (alreadyPreloaded) {
       return
     }
@@ -84,7 +79,7 @@ class SeenPostsManager(
     }
 
     val time = measureTime {
-      val seenPosts = seenPostsRepository.selectAllByThreadDescriptor(threadDescriptor)
+      val storedSeenPosts = seenPostsRepository.selectByThreadDescriptor(threadDescriptor)
         .safeUnwrap { error ->
           Logger.e(TAG, "Error while trying to select all seen posts by threadDescriptor " +
             "($threadDescriptor), error = ${error.errorMessageOrClassName()}")
@@ -93,13 +88,18 @@ class SeenPostsManager(
         }
 
       lock.write {
-        val resultMap = mutableMapWithCap<PostDescriptor, SeenPost>(seenPosts.size)
-
-        for (seenPost in seenPosts) {
-          resultMap[seenPost.postDescriptor] = seenPost
+        if (storedSeenPosts != null) {
+          val threadSeenPosts = seenPostsMap[threadDescriptor]
+
+          if (threadSeenPosts == null) {
+            seenPostsMap[threadDescriptor] = storedSeenPosts
+          } else {
+            // Posts that were marked as seen while we were loading the thread
+            threadSeenPosts.merge(storedSeenPosts)
+          }
         }
 
-        seenPostsMap.put(threadDescriptor, resultMap)
+        loadedThreads.add(threadDescriptor)
       }
     }
 
@@ -122,135 +122,140 @@ class SeenPostsManager(
       return
     }
 
-    val seenPostsGrouped = seenPostsRepository.selectAllByThreadDescriptors(
+    val seenThreads = seenPostsRepository.selectSeenThreads(
       boardDescriptor = catalogDescriptor.boardDescriptor,
       threadDescriptors = threadDescriptorsToLoad
     ).safeUnwrap { error ->
-      Logger.e(TAG, "Error while trying to select all seen posts by threadDescriptors " +
+      Logger.e(TAG, "Error while trying to select seen threads by threadDescriptors " +
         "(${catalogDescriptor}, ${threadDescriptorsToLoad.size}), " +
         "error = ${error.errorMessageOrClassName()}")
 
       return
-    }.groupBy { seenPost -> seenPost.postDescriptor.threadDescriptor() }
+    }
 
     lock.write {
       Logger.d(TAG, "loadForCatalog($catalogDescriptor) " +
         "threadDescriptorsToLoad=${threadDescriptorsToLoad.size}, " +
-        "seenPostsGrouped=${seenPostsGrouped.size}, " +
+        "seenThreads=${seenThreads.size}, " +
         "alreadyLoadedDescriptorsForUnlimitedCatalog=${alreadyLoadedDescriptorsForUnlimitedCatalog.size}")
 
-      seenPostsGrouped.entries.forEach { (threadDescriptor, seenPosts) ->
-        seenPostsMap.putIfNotContains(threadDescriptor, mutableMapWithCap(seenPosts.size))
+      seenThreads.forEach { threadDescriptor ->
+        if (seenPostsMap.containsKey(threadDescriptor)) {
+          return@forEach
+        }
+
+        // We only need to know that the thread was seen here, the rest of the posts will be loaded
+        // by preloadForThread() when the thread is opened.
+        val threadSeenPosts = ThreadSeenPosts()
+        threadSeenPosts.markSeenLongAgo(threadDescriptor.threadNo, 0L)
 
-        val innerMap = seenPostsMap[threadDescriptor]!!
-        seenPosts.forEach { seenPost -> innerMap[seenPost.postDescriptor] = seenPost }
+        seenPostsMap[threadDescriptor] = threadSeenPosts
       }
     }
   }
 
+  /**
+   * Called for every bound post while scrolling so it must not allocate anything for posts that
+   * were already seen.
+   * */
   fun onPostBind(threadMode: Boolean, postDescriptor: PostDescriptor) {
     if (!threadMode || !isEnabled()) {
       return
     }
 
-    val seenPost = SeenPost(
-      postDescriptor = postDescriptor,
-      insertedAt = DateTime.now()
-    )
+    val threadDescriptor = postDescriptor.threadDescriptor()
+    val postNo = postDescriptor.postNo
+    val postSubNo = postDescriptor.postSubNo
+
+    val alreadySeen = lock.read { seenPostsMap[threadDescriptor]?.isSeen(postNo, postSubNo) == true }
+    if (alreadySeen) {
+      return
+    }
 
-    createNewSeenPosts(listOf(seenPost))
+    val markedAsSeen = lock.write {
+      var threadSeenPosts = seenPostsMap[threadDescriptor]
+      if (threadSeenPosts == null) {
+        threadSeenPosts = ThreadSeenPosts()
+        seenPostsMap[threadDescriptor] = threadSeenPosts
+      }
+
+      if (!threadSeenPosts.markSeen(postNo, postSubNo, System.currentTimeMillis())) {
+        return@write false
+      }
+
+      dirtyThreads.add(threadDescriptor)
+      return@write true
+    }
+
+    if (!markedAsSeen) {
+      return
+    }
+
+    debouncingCoroutineExecutor.post(DEBOUNCE_TIMEOUT_MS) { persistDirtyThreads() }
   }
 
   fun onPostUnbind(threadMode: Boolean, postDescriptor: PostDescriptor) {
     // No-op (maybe something will be added here in the future)
   }
 
-  fun getSeenPostOrNull(postDescriptor: PostDescriptor): SeenPost? {
-    return lock.read { seenPostsMap[postDescriptor.threadDescriptor()]?.get(postDescriptor) }
-  }
+  /**
+   * Returns the time (in millis) when the post was marked as seen,
+   * [ThreadSeenPosts.SEEN_LONG_AGO] if it was seen some time ago or [ThreadSeenPosts.NOT_SEEN].
+   * */
+  fun getPostSeenAt(postDescriptor: PostDescriptor): Long {
+    val threadDescriptor = postDescriptor.threadDescriptor()
 
-  fun isThreadAlreadySeen(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
-    return lock.read { (seenPostsMap[threadDescriptor]?.size ?: 0) > 0 }
-  }
+    return lock.read {
+      val threadSeenPosts = seenPostsMap[threadDescriptor]
+        ?: return@read ThreadSeenPosts.NOT_SEEN
 
-  private fun createNewSeenPosts(seenPosts: Collection<SeenPost>) {
-    if (seenPosts.isEmpty()) {
-      return
+      return@read threadSeenPosts.seenAt(postDescriptor.postNo, postDescriptor.postSubNo)
     }
+  }
 
-    val needPersist = lock.write {
-      var needPersist = false
-
-      for (seenPost in seenPosts) {
-        val postDescriptor = seenPost.postDescriptor
-        val threadDescriptor = postDescriptor.threadDescriptor()
+  fun isThreadAlreadySeen(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return lock.read { seenPostsMap[threadDescriptor]?.isEmpty() == false }
+  }
 
-        seenPostsToPersist.putIfNotContains(threadDescriptor, mutableMapWithCap(32))
+  private suspend fun persistDirtyThreads() {
+    val toPersist = lock.write {
+      if (dirtyThreads.isEmpty()) {
+        return@write emptyMap()
+      }
 
-        if (seenPostsMap[threadDescriptor]?.contains(postDescriptor) == true) {
-          continue
-        }
+      val toPersist = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, ThreadSeenPosts>(dirtyThreads.size)
 
-        if (seenPostsToPersist[threadDescriptor]?.contains(postDescriptor) == true) {
-          continue
-        }
+      dirtyThreads.forEach { threadDescriptor ->
+        val threadSeenPosts = seenPostsMap[threadDescriptor]
+          ?: return@forEach
 
-        seenPostsToPersist[threadDescriptor]!!.put(postDescriptor, seenPost)
-        needPersist = true
+        toPersist[threadDescriptor] = threadSeenPosts.copy()
       }
 
-      return@write needPersist
+      dirtyThreads.clear()
+      return@write toPersist
     }
 
-    if (!needPersist) {
+    if (toPersist.isEmpty()) {
       return
     }
 
-    debouncingCoroutineExecutor.post(DEBOUNCE_TIMEOUT_MS) {
-      val threadDescriptors = seenPosts.toHashSetBy { seenPost -> seenPost.postDescriptor.threadDescriptor() }
-
-      val toPersistMap = lock.write {
-        val toPersistMap = mutableMapOf<ChanDescriptor.ThreadDescriptor, Set<SeenPost>>()
-
-        for (threadDescriptor in threadDescriptors) {
-          val seenPostsMap = seenPostsToPersist.remove(threadDescriptor)
-            ?.toMutableMap()
-
-          if (seenPostsMap == null || seenPostsMap.values.isEmpty()) {
-            continue
-          }
-
-          toPersistMap[threadDescriptor] = seenPostsMap.values.toSet()
-        }
-
-        return@write toPersistMap
-      }
-
-      if (toPersistMap.isEmpty()) {
-        return@post
+    toPersist.forEach { (threadDescriptor, threadSeenPosts) ->
+      if (verboseLogsEnabled) {
+        Logger.d(TAG, "persistDirtyThreads() persisting ${threadSeenPosts.size} posts of ${threadDescriptor}")
       }
 
-      toPersistMap.forEach { (threadDescriptor, seenPostSet) ->
-        if (verboseLogsEnabled) {
-          Logger.d(TAG, "onPostBind() persisting ${seenPostSet.size} posts")
-        }
-
-        seenPostsRepository.insertMany(threadDescriptor, seenPostSet)
-          .safeUnwrap { error ->
-            Logger.e(TAG, "Error while trying to store new seen post with threadDescriptor " +
-                "($threadDescriptor), error = ${error.errorMessageOrClassName()}")
-            return@post
-          }
-
-        lock.write {
-          seenPostsMap.putIfNotContains(threadDescriptor, mutableMapWithCap(32))
+      seenPostsRepository.insertOrMerge(threadDescriptor, threadSeenPosts)
+        .safeUnwrap { error ->
+          Logger.e(TAG, "Error while trying to store seen posts with threadDescriptor " +
+              "($threadDescriptor), error = ${error.errorMessageOrClassName()}")
 
-          val innerMap = seenPostsMap[threadDescriptor]!!
-          seenPostSet.forEach { seenPost -> innerMap[seenPost.postDescriptor] = seenPost }
+          // Try again the next time
+          lock.write { dirtyThreads.add(threadDescriptor) }
+          return@forEach
         }
 
-        _seenThreadUpdatesFlow.emit(threadDescriptor)
-      }
+      _seenThreadUpdatesFlow.emit(threadDescriptor)
     }
   }
 
@@ -263,8 +268,14 @@ class SeenPostsManager(
           var removedThreads = 0
 
           threadDeleteEvent.threadDescriptors.forEach { threadDescriptor ->
+            if (dirtyThreads.contains(threadDescriptor)) {
+              // Not persisted yet
+              return@forEach
+            }
+
             ++removedThreads
             seenPostsMap.remove(threadDescriptor)
+            loadedThreads.remove(threadDescriptor)
           }
 
           Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreads() removed ${removedThreads} threads")
@@ -273,14 +284,20 @@ class SeenPostsManager(
           var removedPosts = 0
 
           threadDeleteEvent.entries.forEach { (threadDescriptor, originalPostDescriptor) ->
-            seenPostsMap[threadDescriptor]?.keys?.mutableIteration { mutableIterator, postDescriptor ->
-              if (postDescriptor != originalPostDescriptor) {
-                ++removedPosts
-                mutableIterator.remove()
-              }
-
-              return@mutableIteration true
+            if (dirtyThreads.contains(threadDescriptor)) {
+              // Not persisted yet
+              return@forEach
             }
+
+            val threadSeenPosts = seenPostsMap[threadDescriptor]
+              ?: return@forEach
+
+            val sizeBefore = threadSeenPosts.size
+            threadSeenPosts.retainOnly(originalPostDescriptor.postNo)
+            removedPosts += sizeBefore - threadSeenPosts.size
+
+            // Everything will be loaded again by preloadForThread()
+            loadedThreads.remove(threadDescriptor)
           }
 
           Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreadPostsExceptOP() removed ${removedPosts} posts")
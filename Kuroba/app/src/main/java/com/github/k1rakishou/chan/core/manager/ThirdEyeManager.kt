@@ -16,6 +16,7 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.squareup.moshi.Moshi
 import kotlinx.coroutines.Dispatchers
@@ -37,7 +38,8 @@ class ThirdEyeManager(
   private val appConstants: AppConstants,
   private val moshi: Moshi,
   private val chanThreadsCache: ChanThreadsCache,
-  private val fileManager: FileManager
+  private val fileManager: FileManager,
+  private val thirdEyeLookupRepository: ThirdEyeLookupRepository
 ) {
   private val mutex = Mutex()
 
@@ -214,6 +216,8 @@ class ThirdEyeManager(
   suspend fun importSettingsFile(uri: Uri): ModularResult<Unit> {
     return withContext(Dispatchers.IO) {
       return@withContext ModularResult.Try {
+        val prevSettings = thirdEyeSettingsLazy.value()
+
         val settingsFile = fileManager.fromUri(uri)
         if (settingsFile == null) {
           throw IOException("Failed to open file by uri \'$uri\'")
@@ -252,6 +256,7 @@ class ThirdEyeManager(
           ?: return@Try
 
         thirdEyeSettingsLazy.update(settings)
+        deleteStaleLookupResults(prevSettings, settings)
 
         return@Try
       }.logError(tag = TAG)
@@ -293,7 +298,10 @@ class ThirdEyeManager(
         val settingsJson = moshi.adapter(ThirdEyeSettings::class.java).toJson(newSettings)
         thirdEyeSettingsFile.writeText(settingsJson)
 
+        val prevSettings = thirdEyeSettingsLazy.value()
         thirdEyeSettingsLazy.update(newSettings)
+        deleteStaleLookupResults(prevSettings, newSettings)
+
         return@withContext true
       } catch (error: Throwable) {
         Logger.e(TAG, "updateSettings() newSettings=${newSettings} error", error)
@@ -302,6 +310,32 @@ class ThirdEyeManager(
     }
   }
 
+  /**
+   * Stored lookup results of boorus that were removed or whose settings were changed (other than
+   * the banned tags, those are checked every time a stored result is used) may not be valid anymore.
+   * */
+  private suspend fun deleteStaleLookupResults(prevSettings: ThirdEyeSettings, newSettings: ThirdEyeSettings) {
+    val newBoorus = newSettings.addedBoorus
+      .associateBy { booruSetting -> booruSetting.booruUniqueKey }
+
+    val staleBooruKeys = prevSettings.addedBoorus
+      .filter { prevBooruSetting ->
+        val newBooruSetting = newBoorus[prevBooruSetting.booruUniqueKey]
+          ?: return@filter true
+
+        return@filter prevBooruSetting.copy(bannedTags = emptyList()) != newBooruSetting.copy(bannedTags = emptyList())
+      }
+      .map { booruSetting -> booruSetting.booruUniqueKey }
+
+    if (staleBooruKeys.isEmpty()) {
+      return
+    }
+
+    thirdEyeLookupRepository.deleteForBoorus(staleBooruKeys)
+      .peekError { error -> Logger.e(TAG, "deleteForBoorus(${staleBooruKeys}) error", error) }
+      .ignore()
+  }
+
   private suspend fun loadThirdEyeSettings(): ThirdEyeSettings? {
     return withContext(Dispatchers.IO) {
       if (!thirdEyeSettingsFile.exists()) {
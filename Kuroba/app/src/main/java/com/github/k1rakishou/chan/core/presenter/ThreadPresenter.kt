@@ -721,7 +721,8 @@ class ThreadPresenter @Inject constructor(
         )
 
         when (lastThreadLoadResult) {
-          is ThreadLoadResult.Loaded -> {
+          is ThreadLoadResult.Loaded,
+          is ThreadLoadResult.NotModified -> {
             Logger.d(TAG, "loadWholeCompositeCatalog() ${nextDescriptorToLoad} success")
           }
           is ThreadLoadResult.Error -> {
@@ -738,7 +739,8 @@ class ThreadPresenter @Inject constructor(
         is ThreadLoadResult.Error -> {
           onChanLoaderError(lastThreadLoadResult.chanDescriptor, lastThreadLoadResult.exception)
         }
-        is ThreadLoadResult.Loaded -> {
+        is ThreadLoadResult.Loaded,
+        is ThreadLoadResult.NotModified -> {
           val successfullyProcessedNewPosts = onChanLoaderData(
             loadedChanDescriptor = lastThreadLoadResult.chanDescriptor,
             refreshPostPopupHelperPosts = false
@@ -871,7 +873,9 @@ class ThreadPresenter @Inject constructor(
         is ThreadLoadResult.Error -> {
           onChanLoaderError(threadLoadResult.chanDescriptor, threadLoadResult.exception)
         }
-        is ThreadLoadResult.Loaded -> {
+        is ThreadLoadResult.Loaded,
+        is ThreadLoadResult.NotModified -> {
+          // NotModified means that the posts in the cache are up to date so we just redisplay them
           val (successfullyProcessedNewPosts, time) = measureTimedValue {
             onChanLoaderData(
               loadedChanDescriptor = threadLoadResult.chanDescriptor,
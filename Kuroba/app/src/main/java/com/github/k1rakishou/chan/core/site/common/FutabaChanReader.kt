@@ -62,6 +62,10 @@ class FutabaChanReader(
     }
   }
 
+  // 4chan API supports If-Modified-Since for thread and catalog endpoints and they even recommend
+  // using it (https://github.com/4chan/4chan-API)
+  override fun supportsConditionalRequests(): Boolean = true
+
   @Throws(Exception::class)
   override suspend fun loadThreadFresh(
     requestUrl: String,
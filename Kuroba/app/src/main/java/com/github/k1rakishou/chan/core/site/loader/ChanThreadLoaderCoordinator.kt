@@ -20,6 +20,8 @@ import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.ConditionalRequestHelper
+import com.github.k1rakishou.chan.core.helper.WatcherThreadResponseCache
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
 import com.github.k1rakishou.chan.core.site.Site
@@ -49,9 +51,11 @@ import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.options.ChanCacheOptions
 import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import com.github.k1rakishou.model.data.options.ChanLoadOption
 import com.github.k1rakishou.model.data.options.ChanLoadOptions
 import com.github.k1rakishou.model.data.options.ChanReadOptions
 import com.github.k1rakishou.model.data.options.PostsToReloadOptions
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
 import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
@@ -63,6 +67,7 @@ import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.withContext
 import okhttp3.HttpUrl
 import okhttp3.Request
+import okhttp3.Response
 import java.io.InputStream
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
@@ -90,7 +95,9 @@ class ChanThreadLoaderCoordinator(
   private val chanThreadsCache: ChanThreadsCache,
   private val chanCatalogSnapshotCache: ChanCatalogSnapshotCache,
   private val threadDownloadManager: ThreadDownloadManager,
-  private val parsePostsV1UseCase: ParsePostsV1UseCase
+  private val parsePostsV1UseCase: ParsePostsV1UseCase,
+  private val conditionalRequestHelper: ConditionalRequestHelper,
+  private val watcherThreadResponseCache: WatcherThreadResponseCache
 ) : CoroutineScope {
   private val job = SupervisorJob()
 
@@ -187,6 +194,22 @@ class ChanThreadLoaderCoordinator(
           )
         }
 
+        val canStoreValidators = canUseConditionalRequests(
+          chanReader = chanReader,
+          compositeCatalogDescriptor = compositeCatalogDescriptor,
+          chanLoadUrl = chanLoadUrl,
+          postProcessFlags = postProcessFlags
+        )
+
+        val isConditionalRequest = canStoreValidators
+          && canSendConditionalRequest(chanDescriptor, chanLoadOptions)
+          && conditionalRequestHelper.addConditionalHeaders(
+            consumer = ConditionalRequestConsumer.ThreadLoader,
+            chanDescriptor = chanDescriptor,
+            requestUrl = chanLoadUrl.url,
+            requestBuilder = requestBuilder
+          )
+
         chanLoadProgressNotifier.sendProgressEvent(ChanLoadProgressEvent.Loading(chanDescriptor))
 
         val reloadFunc: suspend (error: Throwable) -> ThreadLoadResult = func@ { error: Throwable ->
@@ -206,27 +229,65 @@ class ChanThreadLoaderCoordinator(
           )
         }
 
-        val (response, requestDuration) = try {
-          measureTimedValue { proxiedOkHttpClient.okHttpClient().suspendCall(requestBuilder.build()) }
-        } catch (error: Throwable) {
-          if (error is FirewallDetectedException) {
-            throw error
+        val watcherResponse = takeWatcherResponse(
+          compositeCatalogDescriptor = compositeCatalogDescriptor,
+          chanDescriptor = chanDescriptor,
+          chanLoadOptions = chanLoadOptions,
+          chanLoadUrl = chanLoadUrl,
+          postProcessFlags = postProcessFlags
+        )
+
+        val response: Response?
+        val requestDuration: Duration
+
+        if (watcherResponse != null) {
+          Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') reusing the response " +
+            "downloaded by the bookmark watcher, stats=${watcherThreadResponseCache.stats()}")
+
+          response = null
+          requestDuration = Duration.ZERO
+        } else {
+          if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+            // Whatever the watcher has downloaded is going to be older than what we are about to load
+            watcherThreadResponseCache.remove(chanDescriptor)
           }
 
-          return@Try reloadFunc(error)
-        }
+          val (networkResponse, networkRequestDuration) = try {
+            measureTimedValue { proxiedOkHttpClient.okHttpClient().suspendCall(requestBuilder.build()) }
+          } catch (error: Throwable) {
+            if (error is FirewallDetectedException) {
+              throw error
+            }
+
+            return@Try reloadFunc(error)
+          }
+
+          if (isConditionalRequest && conditionalRequestHelper.isNotModified(networkResponse)) {
+            networkResponse.close()
+            return@Try onNotModified(chanDescriptor, chanCacheUpdateOptions, networkRequestDuration)
+          }
+
+          if (!networkResponse.isSuccessful) {
+            return@Try reloadFunc(BadStatusResponseException(networkResponse.code))
+          }
 
-        if (!response.isSuccessful) {
-          return@Try reloadFunc(BadStatusResponseException(response.code))
+          response = networkResponse
+          requestDuration = networkRequestDuration
         }
 
         chanLoadProgressNotifier.sendProgressEvent(ChanLoadProgressEvent.Reading(chanDescriptor))
 
         val (chanReaderProcessor, readPostsDuration) = measureTimedValue {
-          val body = response.body
-            ?: throw EmptyBodyResponseException()
+          val responseBodyStream = if (watcherResponse != null) {
+            watcherResponse.body.inputStream()
+          } else {
+            val body = response?.body
+              ?: throw EmptyBodyResponseException()
 
-          return@measureTimedValue body.byteStream().use { inputStream ->
+            body.byteStream()
+          }
+
+          return@measureTimedValue responseBodyStream.use { inputStream ->
             return@use readPostsFromResponse(
               page = page,
               chanLoadUrl = chanLoadUrl,
@@ -277,6 +338,27 @@ class ChanThreadLoaderCoordinator(
           )
         }
 
+        if (canStoreValidators) {
+          // Only store the validators once the posts were successfully persisted, otherwise we may
+          // end up with the server telling us that nothing has changed while we have never
+          // actually processed the changes.
+          val validator = if (threadLoadResult is ThreadLoadResult.Loaded) {
+            if (watcherResponse != null) {
+              watcherResponse.validator
+            } else {
+              response?.let { conditionalRequestHelper.extractValidator(chanLoadUrl.url, it) }
+            }
+          } else {
+            null
+          }
+
+          conditionalRequestHelper.storeValidator(
+            consumer = ConditionalRequestConsumer.ThreadLoader,
+            chanDescriptor = chanDescriptor,
+            validator = validator
+          )
+        }
+
         loadRequestStatistics(
           url = chanLoadUrl.url,
           chanDescriptor = chanDescriptor,
@@ -289,6 +371,80 @@ class ChanThreadLoaderCoordinator(
     }
   }
 
+  private fun onNotModified(
+    chanDescriptor: ChanDescriptor,
+    chanCacheUpdateOptions: ChanCacheUpdateOptions,
+    requestDuration: Duration
+  ): ThreadLoadResult {
+    Logger.d(TAG, "onNotModified($chanDescriptor) server returned 304, " +
+      "request took $requestDuration, skipping reading/parsing/persisting posts")
+
+    if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+      chanThreadsCache.updateLastUpdateTime(chanDescriptor, chanCacheUpdateOptions)
+    }
+
+    return ThreadLoadResult.NotModified(chanDescriptor)
+  }
+
+  private suspend fun takeWatcherResponse(
+    compositeCatalogDescriptor: ChanDescriptor.CompositeCatalogDescriptor?,
+    chanDescriptor: ChanDescriptor,
+    chanLoadOptions: ChanLoadOptions,
+    chanLoadUrl: ChanLoadUrl,
+    postProcessFlags: PostProcessFlags?
+  ): WatcherThreadResponseCache.CachedResponse? {
+    if (chanDescriptor !is ChanDescriptor.ThreadDescriptor) {
+      return null
+    }
+
+    // Only normal full thread loads can use the json downloaded by the bookmark watcher. When the
+    // user explicitly reloads the thread we must always go to the network.
+    if (compositeCatalogDescriptor != null
+      || chanLoadUrl.isIncremental
+      || postProcessFlags != null
+      || chanLoadOptions.chanLoadOption !is ChanLoadOption.RetainAll
+    ) {
+      return null
+    }
+
+    // The bookmark watcher may be fetching this very thread right now, use it's response instead of
+    // sending the same request twice
+    watcherThreadResponseCache.awaitFetch(chanDescriptor)
+
+    return watcherThreadResponseCache.take(chanDescriptor, chanLoadUrl.url)
+  }
+
+  private fun canUseConditionalRequests(
+    chanReader: ChanReader,
+    compositeCatalogDescriptor: ChanDescriptor.CompositeCatalogDescriptor?,
+    chanLoadUrl: ChanLoadUrl,
+    postProcessFlags: PostProcessFlags?
+  ): Boolean {
+    return chanReader.supportsConditionalRequests()
+      && compositeCatalogDescriptor == null
+      && !chanLoadUrl.isIncremental
+      && postProcessFlags == null
+  }
+
+  /**
+   * 304 response means that we need to show the posts that we already have in the memory cache so
+   * we can only send a conditional request when the cache has them and we are not going to clear
+   * or force update them.
+   * */
+  private fun canSendConditionalRequest(
+    chanDescriptor: ChanDescriptor,
+    chanLoadOptions: ChanLoadOptions
+  ): Boolean {
+    if (chanLoadOptions.chanLoadOption !is ChanLoadOption.RetainAll) {
+      return false
+    }
+
+    return when (chanDescriptor) {
+      is ChanDescriptor.ThreadDescriptor -> chanThreadsCache.getThreadPostsCount(chanDescriptor) > 1
+      is ChanDescriptor.ICatalogDescriptor -> chanThreadsCache.contains(chanDescriptor)
+    }
+  }
+
   @OptIn(ExperimentalTime::class)
   private suspend fun loadRequestStatistics(
     url: HttpUrl,
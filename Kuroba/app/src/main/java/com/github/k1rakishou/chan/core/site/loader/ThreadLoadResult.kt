@@ -5,17 +5,27 @@ import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 
 sealed class ThreadLoadResult {
+  abstract val chanDescriptor: ChanDescriptor
+
   data class Error(
-    val chanDescriptor: ChanDescriptor,
+    override val chanDescriptor: ChanDescriptor,
     val exception: ChanLoaderException
   ) : ThreadLoadResult() {
     override fun toString(): String = "ThreadLoadResult.Error{exception=${exception.errorMessageOrClassName()}}"
   }
 
-  data class Loaded(val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
+  data class Loaded(override val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
     override fun toString(): String = "ThreadLoadResult.Loaded{chanDescriptor=${chanDescriptor}}"
   }
 
+  /**
+   * The server responded with 304 to a conditional request so nothing has changed since the last
+   * load and the posts that are already in the memory cache are up to date.
+   * */
+  data class NotModified(override val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
+    override fun toString(): String = "ThreadLoadResult.NotModified{chanDescriptor=${chanDescriptor}}"
+  }
+
   companion object {
     fun fromModularResult(chanDescriptor: ChanDescriptor, modularResult: ModularResult<*>): ThreadLoadResult {
       return when (modularResult) {
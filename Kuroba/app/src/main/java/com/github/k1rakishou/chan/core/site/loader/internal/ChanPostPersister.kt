@@ -82,7 +82,8 @@ internal class ChanPostPersister(
       val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
         chanDescriptor = chanDescriptor,
         postParser = postParser,
-        postBuildersToParse = chanReaderProcessor.getToParse()
+        postBuildersToParse = chanReaderProcessor.getToParse(),
+        postBuildersToFilter = chanReaderProcessor.getToFilter()
       )
 
       chanLoadProgressNotifier.sendProgressEvent(
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.site.loader.internal.usecase
 
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.CompiledFilterSet
 import com.github.k1rakishou.chan.core.helper.FilterEngine
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.PostFilterManager
@@ -8,6 +9,7 @@ import com.github.k1rakishou.chan.core.manager.PostHideManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.ConcurrencyType
 import com.github.k1rakishou.common.processDataCollectionConcurrently
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
@@ -17,7 +19,6 @@ import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.data.post.PostFilter
 import com.github.k1rakishou.model.repository.ChanPostRepository
-import kotlinx.coroutines.Dispatchers
 import java.util.*
 import kotlin.time.Duration
 import kotlin.time.ExperimentalTime
@@ -33,10 +34,15 @@ abstract class AbstractParsePostsUseCase(
   protected val chanLoadProgressNotifier: ChanLoadProgressNotifier
 ) {
 
+  /**
+   * [postBuildersToFilter] are posts that are already parsed (they haven't changed since the last
+   * time they were parsed) but the filters still need to be applied to them.
+   * */
   abstract suspend fun parseNewPostsPosts(
     chanDescriptor: ChanDescriptor,
     postParser: PostParser,
-    postBuildersToParse: List<ChanPostBuilder>
+    postBuildersToParse: List<ChanPostBuilder>,
+    postBuildersToFilter: List<ChanPostBuilder> = emptyList()
   ): ParsingResult
 
   protected suspend fun processSavedReplies(postBuildersToParse: List<ChanPostBuilder>) {
@@ -44,7 +50,7 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    processDataCollectionConcurrently(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { postToParse ->
+    processDataCollectionConcurrently(postBuildersToParse, ConcurrencyType.CpuBound) { postToParse ->
       // needed for "Apply to own posts" to work correctly
       postToParse.isSavedReply(savedReplyManager.isSaved(postToParse.postDescriptor))
     }
@@ -52,55 +58,40 @@ abstract class AbstractParsePostsUseCase(
 
   protected suspend fun processFilters(
     postBuildersToParse: List<ChanPostBuilder>,
-    filters: List<ChanFilter>
+    filters: CompiledFilterSet.BoardFilters
   ) {
     if (postBuildersToParse.isEmpty() || filters.isEmpty()) {
       return
     }
 
-    processDataCollectionConcurrently(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { postToParse ->
-      if (filters.isNotEmpty()) {
-        processFilters(postToParse, filters)
-      }
-
+    processDataCollectionConcurrently(postBuildersToParse, ConcurrencyType.CpuBound) { postToParse ->
+      processFilters(postToParse, filters)
       return@processDataCollectionConcurrently
     }
 
-    Logger.d(TAG, "postParsingProcessFiltersStage() " +
-      "cacheHits=${filterEngine.currentCacheHits()}, " +
-      "cacheMisses=${filterEngine.currentCacheMisses()}")
+    Logger.d(TAG, "postParsingProcessFiltersStage() filters=${filters}")
   }
 
-  private fun processFilters(postToParse: ChanPostBuilder, filters: List<ChanFilter>) {
+  private fun processFilters(postToParse: ChanPostBuilder, filters: CompiledFilterSet.BoardFilters) {
     // Process the filters before finish, because parsing the html is dependent on filter matches
     val postDescriptor = postToParse.postDescriptor
 
-    if (postFilterManager.contains(postDescriptor)) {
-      // Fast path. We have already processed this post so we don't want to do that again. This
-      // should make filter processing way faster after the initial processing but it's kinda
-      // dangerous in case a post is updated on the server which "shouldn't" happen normally. It
-      // can happen when a poster is getting banned with a message and we can't handle that for now,
-      // because 4chan as well as other sites do not provide "last_modified" parameter for posts.
-      // There is a workaround for that - to compare post that we got from the server with the one
-      // in the database and if they differ update the "last_modified" but it will make everything
-      // slower. Maybe it's doable by calculating a post hash and store it in the memory cache and
-      // in the database too.
+    if (postFilterManager.contains(postDescriptor) && !postToParse.postHashChanged) {
+      // Fast path. We have already processed this post so we don't want to do that again. Posts
+      // that were changed on the server (e.g. when a poster is getting banned with a message) have
+      // a different raw post hash (see ChanReaderProcessor) so they are processed again.
       return
     }
 
-    for (filter in filters) {
-      if (filter.isWatchFilter()) {
-        // Do not auto create watch filters, this may end up pretty bad
-        continue
-      }
-
-      if (filterEngine.matches(filter, postToParse)) {
-        postFilterManager.insert(postDescriptor, createPostFilter(filter))
-        return
-      }
-
-      postFilterManager.remove(postDescriptor)
+    // Watch filters are not included into the CompiledFilterSet because we do not want to auto
+    // create them, this may end up pretty bad
+    val matchedFilter = filters.findFirstMatchingFilter(postToParse)
+    if (matchedFilter != null) {
+      postFilterManager.insert(postDescriptor, createPostFilter(matchedFilter))
+      return
     }
+
+    postFilterManager.remove(postDescriptor)
   }
 
   @Suppress("WHEN_ENUM_CAN_BE_NULL_IN_JAVA")
@@ -154,14 +145,15 @@ abstract class AbstractParsePostsUseCase(
     return postsToParseNoSet + chanPostRepository.getCachedThreadPostsNos(chanDescriptor)
   }
 
-  protected fun loadFilters(chanDescriptor: ChanDescriptor): List<ChanFilter> {
+  protected fun loadFilters(chanDescriptor: ChanDescriptor): CompiledFilterSet.BoardFilters {
     BackgroundUtils.ensureBackgroundThread()
 
-    val board = boardManager.byBoardDescriptor(chanDescriptor.boardDescriptor())
-      ?: return emptyList()
+    val boardDescriptor = chanDescriptor.boardDescriptor()
+    if (boardManager.byBoardDescriptor(boardDescriptor) == null) {
+      return CompiledFilterSet.BoardFilters.EMPTY
+    }
 
-    return filterEngine.enabledFilters
-      .filter { filter -> filterEngine.matchesBoard(filter, board) }
+    return filterEngine.compiledFilterSet.forBoard(boardDescriptor)
   }
 
   class ParsingResult @OptIn(ExperimentalTime::class) constructor(
@@ -173,6 +165,5 @@ abstract class AbstractParsePostsUseCase(
 
   companion object {
     private const val TAG = "AbstractParsePostsUseCase"
-    val THREAD_COUNT = Runtime.getRuntime().availableProcessors()
   }
 }
\ No newline at end of file
@@ -10,13 +10,13 @@ import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParseWorker
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.ConcurrencyType
 import com.github.k1rakishou.common.processDataCollectionConcurrently
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.repository.ChanPostRepository
-import kotlinx.coroutines.Dispatchers
 import kotlin.time.Duration
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
@@ -46,7 +46,8 @@ class ParsePostsV1UseCase(
   override suspend fun parseNewPostsPosts(
     chanDescriptor: ChanDescriptor,
     postParser: PostParser,
-    postBuildersToParse: List<ChanPostBuilder>
+    postBuildersToParse: List<ChanPostBuilder>,
+    postBuildersToFilter: List<ChanPostBuilder>
   ): ParsingResult {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -54,11 +55,22 @@ class ParsePostsV1UseCase(
     boardManager.awaitUntilInitialized()
 
     if (postBuildersToParse.isEmpty()) {
-      return ParsingResult(emptyList(), Duration.ZERO, 0, Duration.ZERO)
+      if (postBuildersToFilter.isEmpty()) {
+        return ParsingResult(emptyList(), Duration.ZERO, 0, Duration.ZERO)
+      }
+
+      // The saved reply flag of these builders is not taken from the cached posts so it must be set
+      // here too, otherwise filters with "Apply to own posts" won't match them
+      processSavedReplies(postBuildersToFilter)
+
+      val filters = loadFilters(chanDescriptor)
+      val filterProcessingDuration = measureTime { processFilters(postBuildersToFilter, filters) }
+
+      return ParsingResult(emptyList(), filterProcessingDuration, filters.filtersCount, Duration.ZERO)
     }
 
     val internalIds = getInternalIds(chanDescriptor, postBuildersToParse)
-    processSavedReplies(postBuildersToParse)
+    processSavedReplies(postBuildersToParse + postBuildersToFilter)
 
     chanLoadProgressNotifier.sendProgressEvent(
       ChanLoadProgressEvent.ParsingPosts(chanDescriptor, postBuildersToParse.size)
@@ -102,8 +114,7 @@ class ParsePostsV1UseCase(
     val (parsedPosts, parsingDuration) = measureTimedValue {
       return@measureTimedValue processDataCollectionConcurrently(
         dataList = postBuildersToParse,
-        batchCount = THREAD_COUNT * 2,
-        dispatcher = Dispatchers.IO
+        concurrencyType = ConcurrencyType.CpuBound
       ) { postToParse ->
         return@processDataCollectionConcurrently PostParseWorker(
           postBuilder = postToParse,
@@ -121,22 +132,22 @@ class ParsePostsV1UseCase(
     val filters = loadFilters(chanDescriptor)
 
     chanLoadProgressNotifier.sendProgressEvent(
-      ChanLoadProgressEvent.ProcessingFilters(chanDescriptor, filters.size)
+      ChanLoadProgressEvent.ProcessingFilters(chanDescriptor, filters.filtersCount)
     )
 
     val filterProcessingDuration = measureTime {
-      processFilters(postBuildersToParse, filters)
+      processFilters(postBuildersToParse + postBuildersToFilter, filters)
     }
 
     Logger.d(TAG, "parseNewPostsPosts(chanDescriptor=$chanDescriptor, " +
-      "postsToParseSize=${postBuildersToParse.size}), " +
+      "postsToParseSize=${postBuildersToParse.size}, postsToFilterSize=${postBuildersToFilter.size}), " +
       "internalIds=${internalIds.size}, " +
-      "filters=${filters.size}")
+      "filters=${filters.filtersCount}")
 
     return ParsingResult(
       parsedPosts = parsedPosts,
       filterProcessionTime = filterProcessingDuration,
-      filtersCount = filters.size,
+      filtersCount = filters.filtersCount,
       parsingTime = parsingDuration
     )
   }
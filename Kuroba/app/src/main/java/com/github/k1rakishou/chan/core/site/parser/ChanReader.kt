@@ -33,6 +33,14 @@ import java.nio.charset.StandardCharsets
 abstract class ChanReader {
   abstract suspend fun getParser(): PostParser?
 
+  /**
+   * Whether thread/catalog endpoints of this site properly handle If-Modified-Since/If-None-Match
+   * headers and respond with 304 when nothing has changed since the last request. When true, the
+   * thread loader and the bookmark watcher will send conditional requests and skip reading,
+   * parsing and persisting of the response body if the server says nothing has changed.
+   * */
+  open fun supportsConditionalRequests(): Boolean = false
+
   @Throws(Exception::class)
   abstract suspend fun loadThreadFresh(
     requestUrl: String,
@@ -16,6 +16,7 @@
  */
 package com.github.k1rakishou.chan.core.site.parser.processor
 
+import android.text.SpannableString
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.removeIfKt
 import com.github.k1rakishou.core_logger.Logger
@@ -38,6 +39,10 @@ class ChanReaderProcessor(
   override val chanDescriptor: ChanDescriptor
 ) : AbstractChanReaderProcessor() {
   private val toParse = mutableListWithCap<ChanPostBuilder>(64)
+  // Posts that haven't changed since they were parsed and stored in the database (the app was
+  // restarted or the thread was evicted from the cache) so they do not need to be parsed again, but
+  // the filters haven't been applied to them yet.
+  private val toFilter = mutableListWithCap<ChanPostBuilder>(64)
   private val postOrderedList = mutableListWithCap<PostDescriptor>(64)
 
   override val canUseEmptyBoardIfBoardDoesNotExist: Boolean
@@ -121,6 +126,7 @@ class ChanReaderProcessor(
 
       postOrderedList.removeAll(postDescriptorsToDelete)
       toParse.removeIfKt { postToParse -> postToParse.postDescriptor in postDescriptorsToDelete }
+      toFilter.removeIfKt { postToFilter -> postToFilter.postDescriptor in postDescriptorsToDelete }
     }
   }
 
@@ -128,6 +134,10 @@ class ChanReaderProcessor(
     return lock.withLock { toParse }
   }
 
+  suspend fun getToFilter(): List<ChanPostBuilder> {
+    return lock.withLock { toFilter }
+  }
+
   override suspend fun getThreadDescriptors(): List<ChanDescriptor.ThreadDescriptor> {
     return lock.withLock {
       return@withLock toParse
@@ -145,6 +155,10 @@ class ChanReaderProcessor(
       return true
     }
 
+    // Calculate the hash right away (it can only be calculated before the post is parsed) so that it
+    // ends up in the database for every thread post.
+    val postHash = builder.getPostHash
+
     if (builder.op) {
       // Always update original post
       return true
@@ -160,18 +174,33 @@ class ChanReaderProcessor(
 
     val chanPost = chanPostRepository.getCachedPost(builder.postDescriptor)
     if (chanPost == null) {
-      chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
+      chanPostRepository.putPostHash(builder.postDescriptor, postHash)
       return true
     }
 
+    var needsFiltering = false
     val cachedPostHash = chanPostRepository.getPostHash(builder.postDescriptor)
+
     if (cachedPostHash == null) {
-      chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
-      return true
-    }
+      chanPostRepository.putPostHash(builder.postDescriptor, postHash)
+
+      // No hash in memory means we haven't processed this post since the app start (or filters
+      // were changed) but the post may have been loaded from the database together with the hash
+      // of the data it was parsed from.
+      val persistedPostHash = chanPost.rawPostHash
+      if (persistedPostHash == null) {
+        return true
+      }
+
+      if (persistedPostHash != postHash) {
+        builder.postHashChanged = true
+        return true
+      }
 
-    if (builder.getPostHash != cachedPostHash) {
-      chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
+      needsFiltering = true
+    } else if (postHash != cachedPostHash) {
+      chanPostRepository.putPostHash(builder.postDescriptor, postHash)
+      builder.postHashChanged = true
       return true
     }
 
@@ -185,6 +214,16 @@ class ChanReaderProcessor(
       return true
     }
 
+    if (needsFiltering) {
+      // Filters are matched against the parsed post data so use the parsed data of the post we
+      // already have instead of parsing it again.
+      builder.postCommentBuilder.setParsedComment(SpannableString(chanPost.postComment.originalComment()))
+      builder.subject = chanPost.subject
+      builder.tripcode = chanPost.tripcode
+
+      toFilter.add(builder)
+    }
+
     return false
   }
 
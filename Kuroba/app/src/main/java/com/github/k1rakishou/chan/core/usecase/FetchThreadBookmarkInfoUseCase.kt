@@ -1,6 +1,11 @@
 package com.github.k1rakishou.chan.core.usecase
 
+import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.base.AdaptiveConcurrencyLimiter
+import com.github.k1rakishou.chan.core.base.RequestCoalescer
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.helper.ConditionalRequestHelper
+import com.github.k1rakishou.chan.core.helper.WatcherThreadResponseCache
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.parser.ChanReader
@@ -14,12 +19,21 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import okhttp3.HttpUrl
 import okhttp3.Request
 import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.max
 
 @Suppress("FoldInitializerAndIfToElvis")
@@ -30,35 +44,127 @@ class FetchThreadBookmarkInfoUseCase(
   private val proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>,
   private val siteManager: SiteManager,
   private val bookmarksManager: BookmarksManager,
+  private val conditionalRequestHelper: ConditionalRequestHelper,
+  private val watcherThreadResponseCache: WatcherThreadResponseCache,
+  private val chanThreadsCache: ChanThreadsCache,
   private val appConstants: AppConstants
 ) : ISuspendUseCase<List<ChanDescriptor.ThreadDescriptor>, ModularResult<List<ThreadBookmarkFetchResult>>> {
+  // Every site has it's own concurrency limit so that a slow or a rate limiting site doesn't slow
+  // down bookmark fetching for all the other sites. The limits are kept between the watcher runs.
+  private val siteFetchLimiters = ConcurrentHashMap<SiteDescriptor, AdaptiveConcurrencyLimiter>()
+  private val lastSiteFetchTimings = ConcurrentHashMap<SiteDescriptor, SiteFetchTiming>()
+
+  // The foreground and the background watchers may both want to fetch the same thread at the same
+  // time. The thread loader awaits our fetches via WatcherThreadResponseCache instead.
+  private val fetchCoalescer = RequestCoalescer<ChanDescriptor.ThreadDescriptor, ThreadBookmarkFetchResult>()
 
   override suspend fun execute(parameter: List<ChanDescriptor.ThreadDescriptor>): ModularResult<List<ThreadBookmarkFetchResult>> {
     Logger.d(TAG, "FetchThreadBookmarkInfoUseCase.execute(${parameter.size})")
     return Try { fetchThreadBookmarkInfoBatched(parameter) }
   }
 
+  /**
+   * Must be called after the [successFetchResults] were processed and the bookmarks were updated,
+   * otherwise we may end up with a stored validator for a response that we have never processed
+   * and the server will keep responding with 304 to it.
+   * */
+  suspend fun storeConditionalRequestValidators(successFetchResults: List<ThreadBookmarkFetchResult.Success>) {
+    successFetchResults.forEach { successFetchResult ->
+      conditionalRequestHelper.storeValidator(
+        consumer = ConditionalRequestConsumer.BookmarkWatcher,
+        chanDescriptor = successFetchResult.threadDescriptor,
+        validator = successFetchResult.conditionalRequestValidator
+      )
+    }
+  }
+
+  /**
+   * For diagnostics. Per site concurrency limits, latencies and how long it took to fetch all
+   * bookmarks of a site the last time.
+   * */
+  fun getSiteFetchStats(): List<SiteFetchStats> {
+    return siteFetchLimiters.map { (siteDescriptor, limiter) ->
+      SiteFetchStats(
+        siteDescriptor = siteDescriptor,
+        lastFetchTiming = lastSiteFetchTimings[siteDescriptor],
+        limiterStats = limiter.stats()
+      )
+    }
+  }
+
+  fun getCoalescedFetchesCount(): Long = fetchCoalescer.coalescedRequestsCount()
+
   private suspend fun fetchThreadBookmarkInfoBatched(
     watchingBookmarkDescriptors: List<ChanDescriptor.ThreadDescriptor>
   ): List<ThreadBookmarkFetchResult> {
-    val batchSize = (appConstants.processorsCount * BATCH_PER_CORE)
-      .coerceAtLeast(MIN_BATCHES_COUNT)
-
-    return processDataCollectionConcurrently(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
-      val site = siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())
-      if (site == null) {
-        Logger.e(TAG, "Site with descriptor ${threadDescriptor.siteDescriptor()} " +
-          "not found in siteRepository!")
-        return@processDataCollectionConcurrently null
+    val descriptorsBySite = watchingBookmarkDescriptors.groupBy { threadDescriptor ->
+      threadDescriptor.siteDescriptor()
+    }
+
+    return coroutineScope {
+      return@coroutineScope descriptorsBySite
+        .map { (siteDescriptor, threadDescriptors) ->
+          async(Dispatchers.IO) { fetchSiteThreadBookmarkInfo(siteDescriptor, threadDescriptors) }
+        }
+        .awaitAll()
+        .flatten()
+    }
+  }
+
+  private suspend fun fetchSiteThreadBookmarkInfo(
+    siteDescriptor: SiteDescriptor,
+    threadDescriptors: List<ChanDescriptor.ThreadDescriptor>
+  ): List<ThreadBookmarkFetchResult> {
+    val site = siteManager.bySiteDescriptor(siteDescriptor)
+    if (site == null) {
+      Logger.e(TAG, "Site with descriptor ${siteDescriptor} not found in siteRepository!")
+      return emptyList()
+    }
+
+    val limiter = siteFetchLimiters.getOrPut(siteDescriptor) { AdaptiveConcurrencyLimiter() }
+    val start = System.currentTimeMillis()
+
+    // The actual amount of concurrent requests is controlled by the limiter
+    val fetchResults = processDataCollectionConcurrently(
+      dataList = threadDescriptors,
+      batchCount = MAX_CONCURRENT_FETCHES_PER_SITE,
+      dispatcher = Dispatchers.IO
+    ) { threadDescriptor ->
+      return@processDataCollectionConcurrently fetchCoalescer.coalesce(threadDescriptor) {
+        limiter.withPermit(isSlowDownResponse = { fetchResult -> isSlowDownResponse(fetchResult) }) {
+          fetchThreadBookmarkInfo(
+            threadDescriptor,
+            site.endpoints().thread(threadDescriptor),
+            site.chanReader()
+          )
+        }
       }
+    }
 
-      val threadJsonEndpoint = site.endpoints().thread(threadDescriptor)
+    val siteFetchTiming = SiteFetchTiming(
+      bookmarksCount = threadDescriptors.size,
+      durationMs = System.currentTimeMillis() - start
+    )
 
-      return@processDataCollectionConcurrently fetchThreadBookmarkInfo(
-        threadDescriptor,
-        threadJsonEndpoint,
-        site.chanReader()
-      )
+    lastSiteFetchTimings[siteDescriptor] = siteFetchTiming
+
+    if (verboseLogsEnabled) {
+      Logger.d(TAG, "fetchSiteThreadBookmarkInfo(${siteDescriptor}) ${siteFetchTiming}, " +
+        "limiterStats=${limiter.stats()}")
+    }
+
+    return fetchResults
+  }
+
+  private fun isSlowDownResponse(fetchResult: ThreadBookmarkFetchResult): Boolean {
+    return when (fetchResult) {
+      is ThreadBookmarkFetchResult.BadStatusCode -> {
+        fetchResult.statusCode == TOO_MANY_REQUESTS_STATUS
+          || fetchResult.statusCode == SERVICE_UNAVAILABLE_STATUS
+      }
+      // Timeouts
+      is ThreadBookmarkFetchResult.Error -> fetchResult.error is InterruptedIOException
+      else -> false
     }
   }
 
@@ -66,6 +172,27 @@ class FetchThreadBookmarkInfoUseCase(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
     threadJsonEndpoint: HttpUrl,
     chanReader: ChanReader
+  ): ThreadBookmarkFetchResult {
+    if (!canReuseResponse(threadDescriptor)) {
+      return fetchThreadBookmarkInfoInternal(threadDescriptor, threadJsonEndpoint, chanReader, reuseResponse = false)
+    }
+
+    // The thread was viewed recently so it may be opened (or updated) while we are fetching it, let
+    // the thread loader wait for our response instead of sending the same request.
+    val watcherFetch = watcherThreadResponseCache.onFetchStarted(threadDescriptor)
+
+    try {
+      return fetchThreadBookmarkInfoInternal(threadDescriptor, threadJsonEndpoint, chanReader, reuseResponse = true)
+    } finally {
+      watcherThreadResponseCache.onFetchFinished(threadDescriptor, watcherFetch)
+    }
+  }
+
+  private suspend fun fetchThreadBookmarkInfoInternal(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    threadJsonEndpoint: HttpUrl,
+    chanReader: ChanReader,
+    reuseResponse: Boolean
   ): ThreadBookmarkFetchResult {
     val requestBuilder = Request.Builder()
       .url(threadJsonEndpoint)
@@ -79,6 +206,14 @@ class FetchThreadBookmarkInfoUseCase(
       )
     }
 
+    val isConditionalRequest = canSendConditionalRequest(threadDescriptor, chanReader)
+      && conditionalRequestHelper.addConditionalHeaders(
+        consumer = ConditionalRequestConsumer.BookmarkWatcher,
+        chanDescriptor = threadDescriptor,
+        requestUrl = threadJsonEndpoint,
+        requestBuilder = requestBuilder
+      )
+
     val request = requestBuilder.build()
 
     val response = try {
@@ -87,6 +222,11 @@ class FetchThreadBookmarkInfoUseCase(
       return ThreadBookmarkFetchResult.Error(error, threadDescriptor)
     }
 
+    if (isConditionalRequest && conditionalRequestHelper.isNotModified(response)) {
+      response.close()
+      return ThreadBookmarkFetchResult.NotModified(threadDescriptor)
+    }
+
     if (!response.isSuccessful) {
       if (response.code == NOT_FOUND_STATUS) {
         return ThreadBookmarkFetchResult.NotFoundOnServer(threadDescriptor)
@@ -98,7 +238,21 @@ class FetchThreadBookmarkInfoUseCase(
     val body = response.body
       ?: return ThreadBookmarkFetchResult.Error(EmptyBodyResponseException(), threadDescriptor)
 
-    return body.byteStream().use { inputStream ->
+    // The whole response is only kept in memory for the threads that were recently viewed,
+    // everything else is read as a stream as usual.
+    val responseBytes = if (reuseResponse) {
+      try {
+        body.bytes()
+      } catch (error: IOException) {
+        return ThreadBookmarkFetchResult.Error(error, threadDescriptor)
+      }
+    } else {
+      null
+    }
+
+    val responseStream = responseBytes?.inputStream() ?: body.byteStream()
+
+    return responseStream.use { inputStream ->
       val postsCount = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
         threadBookmarkView.postsCount()
       }
@@ -118,10 +272,54 @@ class FetchThreadBookmarkInfoUseCase(
         ensureCorrectPostOrder(threadBookmarkInfoObject.simplePostObjects)
       }
 
-      return@use ThreadBookmarkFetchResult.Success(threadBookmarkInfoObject, threadDescriptor)
+      val conditionalRequestValidator = if (chanReader.supportsConditionalRequests()) {
+        conditionalRequestHelper.extractValidator(threadJsonEndpoint, response)
+      } else {
+        null
+      }
+
+      if (responseBytes != null) {
+        watcherThreadResponseCache.put(
+          threadDescriptor = threadDescriptor,
+          requestUrl = threadJsonEndpoint,
+          body = responseBytes,
+          validator = conditionalRequestValidator
+        )
+      }
+
+      return@use ThreadBookmarkFetchResult.Success(
+        threadBookmarkInfoObject = threadBookmarkInfoObject,
+        conditionalRequestValidator = conditionalRequestValidator,
+        threadDescriptor = threadDescriptor
+      )
     }
   }
 
+  private fun canReuseResponse(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    if (!ChanSettings.reuseWatcherThreadResponses.get()) {
+      return false
+    }
+
+    // Only the threads that are still in the memory cache were viewed recently enough
+    return chanThreadsCache.contains(threadDescriptor)
+  }
+
+  private fun canSendConditionalRequest(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    chanReader: ChanReader
+  ): Boolean {
+    if (!chanReader.supportsConditionalRequests()) {
+      return false
+    }
+
+    // The bookmark info is not stored anywhere yet so we need the full response
+    val isFirstFetch = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
+      threadBookmarkView.isFirstFetch()
+    } ?: return false
+
+    return !isFirstFetch
+  }
+
   private fun ensureCorrectPostOrder(simplePostObjects: List<ThreadBookmarkInfoPostObject>) {
     if (simplePostObjects.isEmpty()) {
       return
@@ -142,12 +340,24 @@ class FetchThreadBookmarkInfoUseCase(
 
   companion object {
     private const val TAG = "FetchThreadBookmarkInfoUseCase"
-    private const val BATCH_PER_CORE = 4
-    private const val MIN_BATCHES_COUNT = 8
+    private const val MAX_CONCURRENT_FETCHES_PER_SITE = 16
     private const val NOT_FOUND_STATUS = 404
+    private const val TOO_MANY_REQUESTS_STATUS = 429
+    private const val SERVICE_UNAVAILABLE_STATUS = 503
   }
 }
 
+data class SiteFetchTiming(
+  val bookmarksCount: Int,
+  val durationMs: Long
+)
+
+data class SiteFetchStats(
+  val siteDescriptor: SiteDescriptor,
+  val lastFetchTiming: SiteFetchTiming?,
+  val limiterStats: AdaptiveConcurrencyLimiter.Stats
+)
+
 sealed class ThreadBookmarkFetchResult(val threadDescriptor: ChanDescriptor.ThreadDescriptor) {
   class Error(
     val error: Throwable,
@@ -167,8 +377,17 @@ sealed class ThreadBookmarkFetchResult(val threadDescriptor: ChanDescriptor.Thre
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) : ThreadBookmarkFetchResult(threadDescriptor)
 
+  /**
+   * The server responded with 304 to a conditional request meaning that the thread hasn't changed
+   * since the last successful fetch.
+   * */
+  class NotModified(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ) : ThreadBookmarkFetchResult(threadDescriptor)
+
   class Success(
     val threadBookmarkInfoObject: ThreadBookmarkInfoObject,
+    val conditionalRequestValidator: ConditionalRequestValidator?,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) : ThreadBookmarkFetchResult(threadDescriptor)
 }
\ No newline at end of file
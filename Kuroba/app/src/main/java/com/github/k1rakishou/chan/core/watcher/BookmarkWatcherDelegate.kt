@@ -147,6 +147,7 @@ class BookmarkWatcherDelegate(
       val successFetchResults = fetchResults.filterIsInstance<ThreadBookmarkFetchResult.Success>()
       if (successFetchResults.isNotEmpty()) {
         processSuccessFetchResults(successFetchResults)
+        fetchThreadBookmarkInfoUseCase.get().storeConditionalRequestValidators(successFetchResults)
       }
 
       val unsuccessFetchResults = fetchResults.filter { result -> result !is ThreadBookmarkFetchResult.Success }
@@ -171,6 +172,7 @@ class BookmarkWatcherDelegate(
     }
 
     Logger.d(TAG, "BookmarkWatcherDelegate.doWork() took $duration")
+    printSiteFetchStats()
   }
 
   private fun getWatchingBookmarkDescriptors(
@@ -225,6 +227,11 @@ class BookmarkWatcherDelegate(
             // No-op. This just means that the user has deleted this bookmark while it was fetching
             // info so we have nothing to do.
           }
+          is ThreadBookmarkFetchResult.NotModified -> {
+            // Nothing has changed since the last fetch, just clear the error flag in case the
+            // previous fetch has failed.
+            threadBookmark.updateState(error = false)
+          }
           is ThreadBookmarkFetchResult.Success -> {
             throw IllegalStateException("Shouldn't be handled here")
           }
@@ -407,6 +414,7 @@ class BookmarkWatcherDelegate(
     var alreadyDeletedCount = 0
     var notFoundOnServerCount = 0
     var badStatusCount = 0
+    var notModifiedCount = 0
     var successCount = 0
 
     threadBookmarkFetchResults.forEach { fetchResult ->
@@ -439,6 +447,13 @@ class BookmarkWatcherDelegate(
 
           ++badStatusCount
         }
+        is ThreadBookmarkFetchResult.NotModified -> {
+          if (verboseLogsEnabled) {
+            Logger.d(TAG, "FetchResult.NotModified: descriptor=${fetchResult.threadDescriptor}")
+          }
+
+          ++notModifiedCount
+        }
         is ThreadBookmarkFetchResult.Success -> {
           if (verboseLogsEnabled) {
             val originalPost = fetchResult.threadBookmarkInfoObject.simplePostObjects.firstOrNull { post ->
@@ -456,7 +471,28 @@ class BookmarkWatcherDelegate(
     Logger.d(TAG, "fetchThreadBookmarkInfo stats: total results=${threadBookmarkFetchResults.size}, " +
       "errorsCount=$errorsCount, alreadyDeletedCount=$alreadyDeletedCount, " +
       "notFoundOnServerCount=$notFoundOnServerCount, badStatusCount=$badStatusCount, " +
-      "successCount=$successCount")
+      "notModifiedCount=$notModifiedCount, successCount=$successCount")
+  }
+
+  private fun printSiteFetchStats() {
+    val fetchThreadBookmarkInfoUseCase = fetchThreadBookmarkInfoUseCase.get()
+
+    // Slowest sites first so that it's easy to see which site makes the watcher slow
+    val siteFetchStatsList = fetchThreadBookmarkInfoUseCase.getSiteFetchStats()
+      .sortedByDescending { siteFetchStats -> siteFetchStats.lastFetchTiming?.durationMs ?: 0L }
+
+    siteFetchStatsList.forEach { siteFetchStats ->
+      val lastFetchTiming = siteFetchStats.lastFetchTiming
+      val limiterStats = siteFetchStats.limiterStats
+
+      Logger.d(TAG, "Site fetch stats: site=${siteFetchStats.siteDescriptor.siteName}, " +
+        "bookmarks=${lastFetchTiming?.bookmarksCount}, took=${lastFetchTiming?.durationMs}ms, " +
+        "concurrencyLimit=${limiterStats.currentLimit}, avgLatency=${limiterStats.averageLatencyMs}ms, " +
+        "maxLatency=${limiterStats.maxLatencyMs}ms, requests=${limiterStats.requestsCount}, " +
+        "slowDownResponses=${limiterStats.slowDownResponsesCount}")
+    }
+
+    Logger.d(TAG, "Coalesced fetches count: ${fetchThreadBookmarkInfoUseCase.getCoalescedFetchesCount()}")
   }
 
   companion object {
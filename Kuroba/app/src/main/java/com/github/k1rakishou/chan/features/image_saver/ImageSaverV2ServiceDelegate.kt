@@ -32,9 +32,11 @@ import com.github.k1rakishou.fsaf.file.Segment
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.download.ImageDownloadRequest
+import com.github.k1rakishou.model.data.download.SavedImage
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.repository.ChanPostImageRepository
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository
+import com.github.k1rakishou.model.repository.SavedImageRepository
 import com.github.k1rakishou.persist_state.ImageSaverV2Options
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
@@ -81,6 +83,7 @@ class ImageSaverV2ServiceDelegate(
   private val siteResolver: SiteResolver,
   private val chanPostImageRepository: ChanPostImageRepository,
   private val imageDownloadRequestRepository: ImageDownloadRequestRepository,
+  private val savedImageRepository: SavedImageRepository,
   private val chanThreadManager: ChanThreadManager,
   private val threadDownloadManager: ThreadDownloadManager
 ) {
@@ -611,17 +614,20 @@ class ImageSaverV2ServiceDelegate(
     return "$fileName.$extension"
   }
 
-  private fun getFullFileUri(
+  /**
+   * Only figures out where the image should be saved. Nothing is deleted here, duplicates are
+   * resolved by [getFullFileUri].
+   * */
+  private fun getResultFileLocation(
     chanPostImage: ChanPostImage,
     imageSaverV2Options: ImageSaverV2Options,
-    imageDownloadRequest: ImageDownloadRequest,
     postDescriptor: PostDescriptor,
     fileName: String
-  ): ResultFile {
+  ): ResultFileLocation {
     val rootDirectoryUri = Uri.parse(checkNotNull(imageSaverV2Options.rootDirectoryUri))
 
     val rootDirectory = fileManager.fromUri(rootDirectoryUri)
-      ?: return ResultFile.FailedToOpenResultDir(rootDirectoryUri.toString())
+      ?: return ResultFileLocation.FailedToOpenResultDir(rootDirectoryUri.toString())
 
     val segments = mutableListOf<Segment>()
 
@@ -653,31 +659,54 @@ class ImageSaverV2ServiceDelegate(
 
     val resultDir = fileManager.create(rootDirectory, segments)
     if (resultDir == null) {
-      return ResultFile.FailedToOpenResultDir(rootDirectory.clone(segments).getFullPath())
+      return ResultFileLocation.FailedToOpenResultDir(rootDirectory.clone(segments).getFullPath())
     }
 
     val resultFileName = StringUtils.fileNameRemoveBadCharacters(fileName)!!
     segments += FileSegment(resultFileName)
 
     val resultFile = rootDirectory.clone(segments)
-    val resultFileUri = Uri.parse(resultFile.getFullPath())
-    val resultDirUri = Uri.parse(resultDir.getFullPath())
 
-    if (!fileManager.exists(resultFile)) {
-      return ResultFile.File(
-        resultDirUri,
-        resultFileUri,
-        resultFile
-      )
-    }
+    return ResultFileLocation.Location(
+      resultDir = resultDir,
+      resultDirUri = Uri.parse(resultDir.getFullPath()),
+      resultFile = resultFile,
+      resultFileUri = Uri.parse(resultFile.getFullPath())
+    )
+  }
 
-    var duplicatesResolution =
+  private fun getDuplicatesResolution(
+    imageSaverV2Options: ImageSaverV2Options,
+    imageDownloadRequest: ImageDownloadRequest
+  ): ImageSaverV2Options.DuplicatesResolution {
+    val duplicatesResolution =
       ImageSaverV2Options.DuplicatesResolution.fromRawValue(imageSaverV2Options.duplicatesResolution)
 
     // If the setting is set to DuplicatesResolution.AskWhatToDo then check the duplicatesResolution
     // of imageDownloadRequest
     if (duplicatesResolution == ImageSaverV2Options.DuplicatesResolution.AskWhatToDo) {
-      duplicatesResolution = imageDownloadRequest.duplicatesResolution
+      return imageDownloadRequest.duplicatesResolution
+    }
+
+    return duplicatesResolution
+  }
+
+  private fun getFullFileUri(
+    resultFileLocation: ResultFileLocation.Location,
+    duplicatesResolution: ImageSaverV2Options.DuplicatesResolution,
+    fileName: String
+  ): ResultFile {
+    val resultDir = resultFileLocation.resultDir
+    val resultDirUri = resultFileLocation.resultDirUri
+    val resultFile = resultFileLocation.resultFile
+    val resultFileUri = resultFileLocation.resultFileUri
+
+    if (!fileManager.exists(resultFile)) {
+      return ResultFile.File(
+        resultDirUri,
+        resultFileUri,
+        resultFile
+      )
     }
 
     when (duplicatesResolution) {
@@ -760,6 +789,22 @@ class ImageSaverV2ServiceDelegate(
     return segments
   }
 
+  private class SavedDuplicate(
+    val savedImage: SavedImage,
+    val file: AbstractFile
+  )
+
+  private sealed class ResultFileLocation {
+    class Location(
+      val resultDir: AbstractFile,
+      val resultDirUri: Uri,
+      val resultFile: AbstractFile,
+      val resultFileUri: Uri
+    ) : ResultFileLocation()
+
+    class FailedToOpenResultDir(val dirPath: String) : ResultFileLocation()
+  }
+
   sealed class ResultFile {
     data class File(
       val outputDirUri: Uri,
@@ -834,14 +879,50 @@ class ImageSaverV2ServiceDelegate(
         imageDownloadRequest
       )
 
-      val outputFileResult = getFullFileUri(
+      val resultFileLocation = getResultFileLocation(
         chanPostImage = chanPostImage!!,
         imageSaverV2Options = imageSaverV2Options,
-        imageDownloadRequest = imageDownloadRequest,
         postDescriptor = postDescriptor,
         fileName = fileName
       )
 
+      when (resultFileLocation) {
+        is ResultFileLocation.FailedToOpenResultDir -> {
+          return@Try DownloadImageResult.ResultDirectoryError(
+            resultFileLocation.dirPath,
+            imageDownloadRequest
+          )
+        }
+        is ResultFileLocation.Location -> {
+          // no-op
+        }
+      }
+
+      val duplicatesResolution = getDuplicatesResolution(imageSaverV2Options, imageDownloadRequest)
+      val fileHash = chanPostImage!!.fileHash
+
+      // Must be checked before the duplicates are resolved since DuplicatesResolution.Overwrite
+      // deletes the existing result file.
+      val savedDuplicate = findSavedDuplicate(fileHash)
+      if (savedDuplicate != null
+        && canSkipSavedDuplicate(savedDuplicate, resultFileLocation, duplicatesResolution)
+        && imageDownloadRequest.newFileName.isNullOrBlank()
+      ) {
+        // The same image (probably under a different name) was already saved into this directory
+        if (verboseLogs) {
+          Logger.d(TAG, "downloadSingleImageInternal() '${imageDownloadRequest.imageFullUrl}' is already " +
+            "saved as '${savedDuplicate.savedImage.outputFileUri}', skipping")
+        }
+
+        return@Try DownloadImageResult.Success(resultFileLocation.resultDirUri, imageDownloadRequest)
+      }
+
+      val outputFileResult = getFullFileUri(
+        resultFileLocation = resultFileLocation,
+        duplicatesResolution = duplicatesResolution,
+        fileName = fileName
+      )
+
       when (outputFileResult) {
         is ResultFile.DuplicateFound -> {
           val duplicateImage = DuplicateImage(
@@ -890,7 +971,9 @@ class ImageSaverV2ServiceDelegate(
       try {
         doIoTaskWithAttempts(MAX_IO_ERROR_RETRIES_COUNT) {
           try {
-            downloadFileIntoFile(imageUrl, actualOutputFile, threadDescriptor)
+            if (savedDuplicate == null || !copySavedDuplicateIntoFile(savedDuplicate, actualOutputFile)) {
+              downloadFileIntoFile(imageUrl, actualOutputFile, threadDescriptor)
+            }
           } catch (error: IOException) {
             if (error.isOutOfDiskSpaceError()) {
               throw OutOfDiskSpaceException()
@@ -915,10 +998,121 @@ class ImageSaverV2ServiceDelegate(
         }
       }
 
+      if (fileHash.isNotNullNorBlank()) {
+        val savedImage = SavedImage(
+          fileHash = fileHash,
+          fileSize = fileManager.getLength(actualOutputFile),
+          outputFileUri = actualOutputFile.getFullPath(),
+          outputDirUri = outputDirUri.toString()
+        )
+
+        savedImageRepository.insertOrReplace(savedImage)
+          .peekError { error -> Logger.e(TAG, "savedImageRepository.insertOrReplace() error", error) }
+          .ignore()
+      }
+
       return@Try DownloadImageResult.Success(outputDirUri, imageDownloadRequest)
     }.mapErrorToValue { error -> DownloadImageResult.Failure(error, true) }
   }
 
+  /**
+   * A saved duplicate in the result directory makes saving the image again pointless, unless the
+   * user wants the (different) file that currently occupies the result file name to be overwritten.
+   * */
+  private fun canSkipSavedDuplicate(
+    savedDuplicate: SavedDuplicate,
+    resultFileLocation: ResultFileLocation.Location,
+    duplicatesResolution: ImageSaverV2Options.DuplicatesResolution
+  ): Boolean {
+    if (savedDuplicate.savedImage.outputDirUri != resultFileLocation.resultDirUri.toString()) {
+      return false
+    }
+
+    if (duplicatesResolution != ImageSaverV2Options.DuplicatesResolution.Overwrite) {
+      return true
+    }
+
+    if (savedDuplicate.savedImage.outputFileUri == resultFileLocation.resultFileUri.toString()) {
+      return true
+    }
+
+    return !fileManager.exists(resultFileLocation.resultFile)
+  }
+
+  /**
+   * Finds a previously saved file with the same server-side hash that still exists and wasn't
+   * modified since it was saved. Entries of files that were deleted/modified are removed from the
+   * index.
+   * */
+  private suspend fun findSavedDuplicate(fileHash: String?): SavedDuplicate? {
+    if (fileHash.isNullOrBlank()) {
+      return null
+    }
+
+    val savedImages = savedImageRepository.selectByFileHash(fileHash)
+      .peekError { error -> Logger.e(TAG, "savedImageRepository.selectByFileHash() error", error) }
+      .valueOrNull()
+
+    if (savedImages.isNullOrEmpty()) {
+      return null
+    }
+
+    val staleOutputFileUris = mutableListOf<String>()
+    var savedDuplicate: SavedDuplicate? = null
+
+    for (savedImage in savedImages) {
+      val savedFile = fileManager.fromUri(Uri.parse(savedImage.outputFileUri))
+
+      if (savedFile == null
+        || !fileManager.exists(savedFile)
+        || fileManager.getLength(savedFile) != savedImage.fileSize
+      ) {
+        staleOutputFileUris += savedImage.outputFileUri
+        continue
+      }
+
+      savedDuplicate = SavedDuplicate(savedImage, savedFile)
+      break
+    }
+
+    if (staleOutputFileUris.isNotEmpty()) {
+      savedImageRepository.deleteStale(staleOutputFileUris)
+        .peekError { error -> Logger.e(TAG, "savedImageRepository.deleteStale() error", error) }
+        .ignore()
+    }
+
+    return savedDuplicate
+  }
+
+  /**
+   * SAF has no hard links so the best we can do is to copy the already saved file which is still way
+   * cheaper than downloading it again. Returns false if the saved file couldn't be read in which case
+   * the image should be downloaded as usual.
+   * */
+  private suspend fun copySavedDuplicateIntoFile(
+    savedDuplicate: SavedDuplicate,
+    outputFile: AbstractFile
+  ): Boolean {
+    val inputStream = fileManager.getInputStream(savedDuplicate.file)
+      ?: return false
+
+    val outputFileStream = fileManager.getOutputStream(outputFile)
+    if (outputFileStream == null) {
+      inputStream.closeQuietly()
+      throw ResultFileAccessError(outputFile.getFullPath())
+    }
+
+    runInterruptible {
+      inputStream.use { input ->
+        outputFileStream.use { output ->
+          input.copyTo(output)
+        }
+      }
+    }
+
+    return true
+  }
+
   @Throws(ResultFileAccessError::class, IOException::class, NotFoundException::class)
   suspend fun downloadFileIntoFile(
     imageUrl: HttpUrl,
@@ -0,0 +1,401 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import android.net.Uri
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.cache.downloader.Chunk
+import com.github.k1rakishou.chan.core.cache.downloader.ChunkRangeBitmap
+import com.github.k1rakishou.chan.core.cache.downloader.ChunkedOutputFile
+import com.github.k1rakishou.chan.core.cache.downloader.StreamingWrite
+import com.github.k1rakishou.core_logger.Logger
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.BaseDataSource
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Plays remote media out of the [CacheFileType.PostMediaFull] disk cache so that there is only one
+ * media cache (with one size limit and one eviction policy) shared by the image/video downloader
+ * and the players.
+ *
+ * - Fully downloaded cache files are read directly from the disk.
+ * - Partially downloaded cache files (see [ChunkedOutputFile]) are read from the disk up to the
+ * first missing byte and then from the network.
+ * - Bytes read from the network are written into the cache file (at their offset) so the next
+ * playback (or the next download of the same file) does not need to download them again. This is
+ * only done while we hold the [StreamingWrite] claim of the file, which can only be taken when
+ * [FileCacheV2] is not downloading the same file and is revoked as soon as it starts downloading it.
+ * The cache file is only created once the claim is taken.
+ * */
+internal class MediaCacheDataSource(
+  private val cacheHandler: CacheHandler,
+  private val fileCacheV2: FileCacheV2,
+  private val upstreamDataSource: DataSource
+) : BaseDataSource(/* isNetwork= */ true) {
+  private var dataSpec: DataSpec? = null
+  private var cacheFile: File? = null
+  private var persistedRanges: ChunkRangeBitmap? = null
+  private var fullyCached = false
+
+  private var position = 0L
+  private var bytesRemaining = C.LENGTH_UNSET.toLong()
+  private var fileLength = C.LENGTH_UNSET.toLong()
+
+  // Disk segment, [position] until [diskSegmentEnd]
+  private var diskFile: RandomAccessFile? = null
+  private var diskSegmentEnd = 0L
+
+  // Network segment, [position] until the end of the requested data
+  private var upstreamOpened = false
+  private var streamingWrite: StreamingWrite? = null
+  private var chunkedOutputFile: ChunkedOutputFile? = null
+  private var rangeWriter: ChunkedOutputFile.RangeWriter? = null
+
+  private var opened = false
+
+  override fun open(dataSpec: DataSpec): Long {
+    transferInitializing(dataSpec)
+
+    this.dataSpec = dataSpec
+    this.position = dataSpec.position
+    this.bytesRemaining = dataSpec.length
+
+    val url = dataSpec.uri.toString()
+    // Only look up what's already there, the cache file is created once we know that we can write
+    // into it (see openCacheFileForWriting)
+    val cacheFile = cacheHandler.getExistingCacheFileOrNull(CACHE_FILE_TYPE, url)
+    this.cacheFile = cacheFile
+
+    if (cacheFile != null) {
+      if (cacheHandler.isAlreadyDownloaded(CACHE_FILE_TYPE, cacheFile)) {
+        fullyCached = true
+        fileLength = cacheFile.length()
+      } else if (cacheHandler.hasResumableDownload(CACHE_FILE_TYPE, cacheFile)) {
+        persistedRanges = cacheHandler.getCacheFileRanges(CACHE_FILE_TYPE, cacheFile)
+          ?.let { rangesFile -> ChunkRangeBitmap.readOrNull(rangesFile, cacheFile.length()) }
+
+        fileLength = persistedRanges?.fileLength ?: C.LENGTH_UNSET.toLong()
+      }
+    }
+
+    if (fileLength != C.LENGTH_UNSET.toLong() && position > fileLength) {
+      throw IOException("Position ($position) is out of bounds, fileLength = $fileLength")
+    }
+
+    openNextSegment()
+    opened = true
+    transferStarted(dataSpec)
+
+    if (bytesRemaining != C.LENGTH_UNSET.toLong()) {
+      return bytesRemaining
+    }
+
+    if (fileLength != C.LENGTH_UNSET.toLong()) {
+      bytesRemaining = fileLength - position
+    }
+
+    return bytesRemaining
+  }
+
+  override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+    if (length == 0) {
+      return 0
+    }
+
+    if (bytesRemaining == 0L) {
+      return C.RESULT_END_OF_INPUT
+    }
+
+    val toRead = if (bytesRemaining == C.LENGTH_UNSET.toLong()) {
+      length
+    } else {
+      minOf(bytesRemaining, length.toLong()).toInt()
+    }
+
+    val read = readFromCurrentSegment(buffer, offset, toRead)
+    if (read == C.RESULT_END_OF_INPUT) {
+      if (diskFile != null && (fileLength == C.LENGTH_UNSET.toLong() || position < fileLength)) {
+        // The end of the downloaded range, continue from the network
+        openNextSegment()
+        return read(buffer, offset, length)
+      }
+
+      return C.RESULT_END_OF_INPUT
+    }
+
+    position += read
+    if (bytesRemaining != C.LENGTH_UNSET.toLong()) {
+      bytesRemaining -= read
+    }
+
+    bytesTransferred(read)
+    return read
+  }
+
+  override fun getUri(): Uri? {
+    return dataSpec?.uri
+  }
+
+  override fun getResponseHeaders(): Map<String, List<String>> {
+    if (!upstreamOpened) {
+      return emptyMap()
+    }
+
+    return upstreamDataSource.responseHeaders
+  }
+
+  override fun close() {
+    dataSpec = null
+    persistedRanges = null
+    fullyCached = false
+    fileLength = C.LENGTH_UNSET.toLong()
+
+    try {
+      closeDiskSegment()
+      closeUpstream()
+    } finally {
+      closeCacheFile()
+      cacheFile = null
+
+      if (opened) {
+        opened = false
+        transferEnded()
+      }
+    }
+  }
+
+  private fun openNextSegment() {
+    closeDiskSegment()
+
+    val cacheFile = cacheFile
+    val completedUntil = when {
+      cacheFile == null -> position
+      fullyCached -> fileLength
+      else -> chunkedOutputFile?.completedUntil(position)
+        ?: persistedRanges?.completedUntil(position)
+        ?: position
+    }
+
+    if (cacheFile != null && (fullyCached || completedUntil > position)) {
+      diskFile = RandomAccessFile(cacheFile, "r").apply { seek(position) }
+      diskSegmentEnd = completedUntil
+      return
+    }
+
+    openUpstream()
+  }
+
+  private fun openUpstream() {
+    val dataSpec = checkNotNull(dataSpec) { "dataSpec is null" }
+    val offset = position - dataSpec.position
+
+    val opened = upstreamDataSource.open(dataSpec.subrange(offset, bytesRemaining))
+    upstreamOpened = true
+
+    if (fileLength == C.LENGTH_UNSET.toLong()) {
+      fileLength = extractFileLength(opened)
+    }
+
+    openCacheFileForWriting()
+  }
+
+  private fun openCacheFileForWriting() {
+    if (fileLength <= 0) {
+      // We don't know how many bytes to preallocate, just stream it from the network
+      return
+    }
+
+    val url = dataSpec?.uri?.toString()
+      ?: return
+
+    // Null when the file is being downloaded by FileCacheV2 right now, just stream it from the
+    // network then
+    val streamingWrite = this.streamingWrite
+      ?: fileCacheV2.tryClaimStreamingWrite(url)?.also { claim -> this.streamingWrite = claim }
+      ?: return
+
+    try {
+      val claimed = streamingWrite.runIfClaimed {
+        val cacheFile = cacheHandler.getOrCreateCacheFile(CACHE_FILE_TYPE, url)
+          ?: return@runIfClaimed
+
+        if (cacheHandler.isAlreadyDownloaded(CACHE_FILE_TYPE, cacheFile)) {
+          // Was downloaded by somebody else since we opened it
+          return@runIfClaimed
+        }
+
+        val rangesFile = cacheHandler.getCacheFileRanges(CACHE_FILE_TYPE, cacheFile)
+          ?: return@runIfClaimed
+
+        this.cacheFile = cacheFile
+
+        val outputFile = chunkedOutputFile
+          ?: ChunkedOutputFile.openRanged(cacheFile, rangesFile, fileLength).also { chunkedOutputFile = it }
+
+        rangeWriter = outputFile.rangeWriter(Chunk(position, fileLength))
+      }
+
+      if (!claimed || rangeWriter == null) {
+        closeCacheFile()
+      }
+    } catch (error: IOException) {
+      Logger.e(TAG, "openCacheFileForWriting($url) error", error)
+      closeCacheFile()
+    }
+  }
+
+  private fun readFromCurrentSegment(buffer: ByteArray, offset: Int, length: Int): Int {
+    val diskFile = diskFile
+    if (diskFile != null) {
+      val available = diskSegmentEnd - position
+      if (available <= 0) {
+        return C.RESULT_END_OF_INPUT
+      }
+
+      val read = diskFile.read(buffer, offset, minOf(available, length.toLong()).toInt())
+      if (read < 0) {
+        return C.RESULT_END_OF_INPUT
+      }
+
+      return read
+    }
+
+    val read = upstreamDataSource.read(buffer, offset, length)
+    if (read == C.RESULT_END_OF_INPUT) {
+      return read
+    }
+
+    val writer = rangeWriter
+    val streamingWrite = streamingWrite
+
+    if (writer != null && streamingWrite != null) {
+      try {
+        val claimed = streamingWrite.runIfClaimed { writer.write(buffer, offset, read) }
+        if (!claimed) {
+          // FileCacheV2 has started downloading this file, leave the cache file to it
+          closeCacheFile()
+        }
+      } catch (error: IOException) {
+        // Not being able to cache the file must not break the playback
+        Logger.e(TAG, "Failed to write into the cache file, url = ${dataSpec?.uri}", error)
+        closeCacheFile()
+      }
+    }
+
+    return read
+  }
+
+  private fun extractFileLength(openedLength: Long): Long {
+    val contentRange = upstreamDataSource.responseHeaders.entries
+      .firstOrNull { (name, _) -> name.equals(CONTENT_RANGE_HEADER, ignoreCase = true) }
+      ?.value
+      ?.firstOrNull()
+
+    // "bytes 100-999/1000"
+    val totalFromContentRange = contentRange
+      ?.substringAfterLast('/', missingDelimiterValue = "")
+      ?.trim()
+      ?.toLongOrNull()
+
+    if (totalFromContentRange != null && totalFromContentRange > 0) {
+      return totalFromContentRange
+    }
+
+    val dataSpec = dataSpec
+    if (dataSpec != null && position == 0L && dataSpec.length == C.LENGTH_UNSET.toLong() && openedLength > 0) {
+      return openedLength
+    }
+
+    return C.LENGTH_UNSET.toLong()
+  }
+
+  private fun closeDiskSegment() {
+    try {
+      diskFile?.close()
+    } finally {
+      diskFile = null
+      diskSegmentEnd = 0L
+    }
+  }
+
+  private fun closeUpstream() {
+    if (!upstreamOpened) {
+      return
+    }
+
+    upstreamOpened = false
+    upstreamDataSource.close()
+  }
+
+  private fun closeCacheFile() {
+    val streamingWrite = streamingWrite
+      ?: return
+    val outputFile = chunkedOutputFile
+
+    this.streamingWrite = null
+    chunkedOutputFile = null
+    rangeWriter = null
+
+    try {
+      val claimed = streamingWrite.runIfClaimed {
+        if (outputFile != null) {
+          finishCacheFile(outputFile)
+        }
+      }
+
+      if (!claimed) {
+        // The file belongs to FileCacheV2 now, our ranges (and the bytes we wrote) are of no use
+        // and the persisted ranges we've read in open() can't be trusted anymore either
+        outputFile?.discard()
+        persistedRanges = null
+      }
+    } finally {
+      fileCacheV2.releaseStreamingWrite(streamingWrite)
+    }
+  }
+
+  private fun finishCacheFile(outputFile: ChunkedOutputFile) {
+    if (!outputFile.isComplete()) {
+      // Persists the downloaded ranges so that the next playback/download can continue from them
+      outputFile.close()
+      return
+    }
+
+    try {
+      outputFile.complete()
+    } catch (error: IOException) {
+      Logger.e(TAG, "Failed to complete cache file ${outputFile.output.absolutePath}", error)
+      return
+    }
+
+    if (cacheHandler.markFileDownloaded(CACHE_FILE_TYPE, outputFile.output)) {
+      cacheHandler.fileWasAdded(CACHE_FILE_TYPE, outputFile.output.length())
+    }
+  }
+
+  class Factory(
+    private val cacheHandler: CacheHandler,
+    private val fileCacheV2: FileCacheV2,
+    private val upstreamDataSourceFactory: DataSource.Factory
+  ) : DataSource.Factory {
+
+    override fun createDataSource(): DataSource {
+      return MediaCacheDataSource(
+        cacheHandler = cacheHandler,
+        fileCacheV2 = fileCacheV2,
+        upstreamDataSource = upstreamDataSourceFactory.createDataSource()
+      )
+    }
+
+  }
+
+  companion object {
+    private const val TAG = "MediaCacheDataSource"
+    private const val CONTENT_RANGE_HEADER = "Content-Range"
+    private val CACHE_FILE_TYPE = CacheFileType.PostMediaFull
+  }
+}
@@ -0,0 +1,269 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileInputStream
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * Decodes intermediate frames of a full image while it's still being downloaded into the cache file
+ * (see FileCacheListener.onPartialContentAvailable) so that the user sees something better than the
+ * thumbnail long before the whole file is downloaded.
+ *
+ * Only the beginning of the file that is already downloaded without any gaps is decoded. The platform
+ * decoder handles incomplete input by itself: progressive JPEGs and interlaced PNGs produce a blurry
+ * version of the whole image, baseline JPEGs and non-interlaced PNGs produce the already downloaded
+ * rows of the image. Other formats are ignored.
+ *
+ * Decodes are conflated (there is at most one decode running, the newest readable length wins) and
+ * throttled (see [shouldDecode]). Must be used from the main thread, [onFrameDecoded] is called on
+ * the main thread too.
+ * */
+class ProgressiveImageDecoder(
+  private val scope: CoroutineScope,
+  private val onFrameDecoded: (Bitmap) -> Unit
+) {
+  private var decodeJob: Job? = null
+  private var pendingContent: PartialContent? = null
+  private var scheduledReadableBytes = 0L
+  private var unsupportedFormat = false
+
+  fun onPartialContentAvailable(
+    file: File,
+    readableBytes: Long,
+    totalBytes: Long,
+    maxWidth: Int,
+    maxHeight: Int
+  ) {
+    BackgroundUtils.ensureMainThread()
+
+    if (unsupportedFormat || !shouldDecode(scheduledReadableBytes, readableBytes, totalBytes)) {
+      return
+    }
+
+    scheduledReadableBytes = readableBytes
+    pendingContent = PartialContent(file, readableBytes, maxWidth, maxHeight)
+
+    if (decodeJob?.isActive == true) {
+      // The running decode will pick up the newest content once it's done
+      return
+    }
+
+    decodeJob = scope.launch { decodeLoop() }
+  }
+
+  fun cancel() {
+    BackgroundUtils.ensureMainThread()
+
+    decodeJob?.cancel()
+    decodeJob = null
+    pendingContent = null
+    scheduledReadableBytes = 0L
+    unsupportedFormat = false
+  }
+
+  private suspend fun decodeLoop() {
+    while (true) {
+      val partialContent = pendingContent
+        ?: break
+
+      pendingContent = null
+
+      val decodeResult = withContext(Dispatchers.IO) { decodeFrame(partialContent) }
+      when (decodeResult) {
+        DecodeResult.UnsupportedFormat -> {
+          unsupportedFormat = true
+          pendingContent = null
+          break
+        }
+        DecodeResult.NotEnoughData -> {
+          // Try again with more data
+        }
+        is DecodeResult.Frame -> onFrameDecoded(decodeResult.bitmap)
+      }
+    }
+  }
+
+  private fun decodeFrame(partialContent: PartialContent): DecodeResult {
+    try {
+      val header = ByteArray(MAGIC_BYTES_TO_READ)
+      val headerRead = FileInputStream(partialContent.file).use { stream -> stream.read(header) }
+
+      if (headerRead < MAGIC_BYTES_TO_READ) {
+        return DecodeResult.NotEnoughData
+      }
+
+      if (!isJpeg(header) && !isPng(header)) {
+        return DecodeResult.UnsupportedFormat
+      }
+
+      val boundsOptions = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+      openLimitedStream(partialContent).use { stream -> BitmapFactory.decodeStream(stream, null, boundsOptions) }
+
+      if (boundsOptions.outWidth <= 0 || boundsOptions.outHeight <= 0) {
+        // The header with the image size is not downloaded yet
+        return DecodeResult.NotEnoughData
+      }
+
+      val decodeOptions = BitmapFactory.Options().apply {
+        inSampleSize = calculateInSampleSize(
+          width = boundsOptions.outWidth,
+          height = boundsOptions.outHeight,
+          maxWidth = partialContent.maxWidth,
+          maxHeight = partialContent.maxHeight
+        )
+      }
+
+      val bitmap = openLimitedStream(partialContent).use { stream ->
+        BitmapFactory.decodeStream(stream, null, decodeOptions)
+      }
+
+      if (bitmap == null) {
+        return DecodeResult.NotEnoughData
+      }
+
+      return DecodeResult.Frame(bitmap)
+    } catch (error: Throwable) {
+      // OutOfMemoryError included, an intermediate frame is not worth crashing over
+      Logger.e(TAG, "decodeFrame(${partialContent.file.absolutePath}, " +
+        "readableBytes=${partialContent.readableBytes}) error: ${error.javaClass.simpleName}")
+
+      return DecodeResult.NotEnoughData
+    }
+  }
+
+  private fun openLimitedStream(partialContent: PartialContent): InputStream {
+    // The cache file may be preallocated to its full length so we must not read past the bytes
+    // that were actually downloaded
+    return LimitedInputStream(FileInputStream(partialContent.file), partialContent.readableBytes)
+  }
+
+  private class LimitedInputStream(
+    inputStream: InputStream,
+    private var remaining: Long
+  ) : FilterInputStream(inputStream) {
+
+    override fun read(): Int {
+      if (remaining <= 0) {
+        return -1
+      }
+
+      val result = super.read()
+      if (result >= 0) {
+        --remaining
+      }
+
+      return result
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      if (remaining <= 0) {
+        return -1
+      }
+
+      val read = super.read(b, off, minOf(len.toLong(), remaining).toInt())
+      if (read > 0) {
+        remaining -= read
+      }
+
+      return read
+    }
+
+    override fun skip(n: Long): Long {
+      val skipped = super.skip(minOf(n, remaining))
+      if (skipped > 0) {
+        remaining -= skipped
+      }
+
+      return skipped
+    }
+
+    override fun available(): Int {
+      return minOf(super.available().toLong(), remaining).toInt()
+    }
+
+    override fun markSupported(): Boolean = false
+
+  }
+
+  private data class PartialContent(
+    val file: File,
+    val readableBytes: Long,
+    val maxWidth: Int,
+    val maxHeight: Int
+  )
+
+  private sealed class DecodeResult {
+    object UnsupportedFormat : DecodeResult()
+    object NotEnoughData : DecodeResult()
+    class Frame(val bitmap: Bitmap) : DecodeResult()
+  }
+
+  companion object {
+    private const val TAG = "ProgressiveImageDecoder"
+    private const val MAGIC_BYTES_TO_READ = 4
+    private const val MIN_DECODE_STEP_BYTES = 64L * 1024L
+    private const val MAX_DECODES_PER_FILE = 16L
+    private const val FALLBACK_MAX_SIZE = 1024
+
+    /**
+     * Decoding is not free (the whole readable part of the file is decoded every time) so only do
+     * it when at least 1/[MAX_DECODES_PER_FILE] of the file (but no less than [MIN_DECODE_STEP_BYTES])
+     * was downloaded since the previous decode. Files of unknown size are decoded every
+     * [MIN_DECODE_STEP_BYTES].
+     * */
+    internal fun shouldDecode(decodedBytes: Long, readableBytes: Long, totalBytes: Long): Boolean {
+      if (readableBytes <= decodedBytes) {
+        return false
+      }
+
+      if (totalBytes > 0 && readableBytes >= totalBytes) {
+        // The full image is going to be shown soon anyway
+        return false
+      }
+
+      val step = if (totalBytes > 0) {
+        maxOf(MIN_DECODE_STEP_BYTES, totalBytes / MAX_DECODES_PER_FILE)
+      } else {
+        MIN_DECODE_STEP_BYTES
+      }
+
+      return readableBytes - decodedBytes >= step
+    }
+
+    internal fun calculateInSampleSize(width: Int, height: Int, maxWidth: Int, maxHeight: Int): Int {
+      val actualMaxWidth = if (maxWidth > 0) maxWidth else FALLBACK_MAX_SIZE
+      val actualMaxHeight = if (maxHeight > 0) maxHeight else FALLBACK_MAX_SIZE
+
+      var inSampleSize = 1
+
+      while (width / (inSampleSize * 2) >= actualMaxWidth || height / (inSampleSize * 2) >= actualMaxHeight) {
+        inSampleSize *= 2
+      }
+
+      return inSampleSize
+    }
+
+    private fun isJpeg(header: ByteArray): Boolean {
+      return header[0] == 0xFF.toByte()
+        && header[1] == 0xD8.toByte()
+        && header[2] == 0xFF.toByte()
+    }
+
+    private fun isPng(header: ByteArray): Boolean {
+      return header[0] == 0x89.toByte()
+        && header[1] == 'P'.code.toByte()
+        && header[2] == 'N'.code.toByte()
+        && header[3] == 'G'.code.toByte()
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.features.media_viewer.media_view
 
 import android.annotation.SuppressLint
 import android.content.Context
+import android.graphics.Bitmap
 import android.graphics.Canvas
 import android.graphics.Color
 import android.net.Uri
@@ -18,6 +19,7 @@ import com.github.k1rakishou.chan.features.media_viewer.MediaLocation
 import com.github.k1rakishou.chan.features.media_viewer.ViewableMedia
 import com.github.k1rakishou.chan.features.media_viewer.helper.CloseMediaActionHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.FullMediaAppearAnimationHelper
+import com.github.k1rakishou.chan.features.media_viewer.helper.ProgressiveImageDecoder
 import com.github.k1rakishou.chan.features.media_viewer.strip.MediaViewerActionStrip
 import com.github.k1rakishou.chan.features.media_viewer.strip.MediaViewerBottomActionStrip
 import com.github.k1rakishou.chan.ui.view.CircularChunkedLoadingBar
@@ -37,6 +39,7 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import java.io.File
 
 @SuppressLint("ViewConstructor", "ClickableViewAccessibility")
 class FullImageMediaView(
@@ -73,6 +76,11 @@ class FullImageMediaView(
   private var fullImageDeferred = CompletableDeferred<MediaPreloadResult>()
   private var preloadCancelableDownload: CancelableDownload? = null
 
+  private val progressiveImageDecoder = ProgressiveImageDecoder(
+    scope = scope,
+    onFrameDecoded = { bitmap -> onPartialImageDecoded(bitmap) }
+  )
+
   override val hasContent: Boolean
     get() = actualImageView.hasImage()
   override val mediaViewerActionStrip: MediaViewerActionStrip
@@ -124,7 +132,8 @@ class FullImageMediaView(
               loadingBar = loadingBar,
               mediaLocationRemote = viewableMedia.mediaLocation,
               fullMediaDeferred = fullImageDeferred,
-              onEndFunc = { preloadCancelableDownload = null }
+              onEndFunc = { preloadCancelableDownload = null },
+              onPartialContentAvailable = partialContentHandlerOrNull()
             )
           }
 
@@ -220,7 +229,8 @@ class FullImageMediaView(
           loadingBar = loadingBar,
           mediaLocationRemote = viewableMedia.mediaLocation,
           fullMediaDeferred = fullImageDeferred,
-          onEndFunc = { preloadCancelableDownload = null }
+          onEndFunc = { preloadCancelableDownload = null },
+          onPartialContentAvailable = partialContentHandlerOrNull()
         )
       }
     } else if (viewableMedia.mediaLocation is MediaLocation.Local) {
@@ -312,6 +322,7 @@ class FullImageMediaView(
 
     preloadCancelableDownload?.cancel()
     preloadCancelableDownload = null
+    progressiveImageDecoder.cancel()
 
     actualImageView.setCallback(null)
     actualImageView.recycle()
@@ -336,6 +347,7 @@ class FullImageMediaView(
 
     fullImageDeferred.cancel()
     fullImageDeferred = CompletableDeferred<MediaPreloadResult>()
+    progressiveImageDecoder.cancel()
 
     audioPlayerView?.pauseUnpause(isNowPaused = true)
 
@@ -349,7 +361,8 @@ class FullImageMediaView(
       loadingBar = loadingBar,
       mediaLocationRemote = mediaLocation,
       fullMediaDeferred = fullImageDeferred,
-      onEndFunc = { preloadCancelableDownload = null }
+      onEndFunc = { preloadCancelableDownload = null },
+      onPartialContentAvailable = partialContentHandlerOrNull()
     )
 
     show(isLifecycleChange = false)
@@ -440,6 +453,32 @@ class FullImageMediaView(
     }
   }
 
+  private fun partialContentHandlerOrNull(): ((File, Long, Long) -> Unit)? {
+    if (viewableMedia.viewableMediaMeta.isGif) {
+      // Only the first frame of a gif would be shown
+      return null
+    }
+
+    return { file, readableBytes, totalBytes ->
+      progressiveImageDecoder.onPartialContentAvailable(
+        file = file,
+        readableBytes = readableBytes,
+        totalBytes = totalBytes,
+        maxWidth = width,
+        maxHeight = height
+      )
+    }
+  }
+
+  private fun onPartialImageDecoded(bitmap: Bitmap) {
+    if (fullImageDeferred.isCompleted || hasContent) {
+      // The full image is already (being) shown
+      return
+    }
+
+    thumbnailMediaView.setPartialImage(bitmap)
+  }
+
   private fun canPreload(forced: Boolean): Boolean {
     if (forced) {
       return !fullImageDeferred.isCompleted
@@ -364,6 +364,7 @@ abstract class MediaView<T : ViewableMedia, S : MediaViewState> constructor(
     mediaLocationRemote: MediaLocation.Remote,
     fullMediaDeferred: CompletableDeferred<MediaPreloadResult>,
     onEndFunc: () -> Unit,
+    onPartialContentAvailable: ((File, Long, Long) -> Unit)? = null
   ): CancelableDownload? {
     val threadDescriptor = viewableMedia.viewableMediaMeta.ownerPostDescriptor?.threadDescriptor()
     if (threadDescriptor != null) {
@@ -407,6 +408,13 @@ abstract class MediaView<T : ViewableMedia, S : MediaViewState> constructor(
           loadingBar.setChunkProgress(chunkIndex, downloaded.toFloat() / total.toFloat())
         }
 
+        override fun onPartialContentAvailable(file: File, readableBytes: Long, totalBytes: Long) {
+          super.onPartialContentAvailable(file, readableBytes, totalBytes)
+          BackgroundUtils.ensureMainThread()
+
+          onPartialContentAvailable?.invoke(file, readableBytes, totalBytes)
+        }
+
         override fun onSuccess(file: File) {
           BackgroundUtils.ensureMainThread()
           fullMediaDeferred.complete(MediaPreloadResult(FilePath.JavaPath(file.absolutePath), forced))
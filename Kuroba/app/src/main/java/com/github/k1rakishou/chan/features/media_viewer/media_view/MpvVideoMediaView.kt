@@ -46,9 +46,11 @@ import com.github.k1rakishou.fsaf.file.RawFile
 import com.google.android.exoplayer2.ui.DefaultTimeBar
 import com.google.android.exoplayer2.ui.TimeBar
 import com.google.android.exoplayer2.upstream.DataSource
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 @SuppressLint("ViewConstructor", "ClickableViewAccessibility")
 class MpvVideoMediaView(
@@ -677,6 +679,16 @@ class MpvVideoMediaView(
           }
         }
 
+        // mpv can't read partially downloaded files from our cache but it can play a fully downloaded
+        // one (for example a prefetched video) without downloading it again
+        val cacheFile = withContext(Dispatchers.IO) {
+          cacheHandler.get().getCacheFileOrNull(CacheFileType.PostMediaFull, mediaLocation.url.toString())
+        }
+
+        if (cacheFile != null) {
+          return cacheFile.absolutePath
+        }
+
         return mediaLocation.urlRaw
       }
     }
@@ -44,6 +44,8 @@ class ThumbnailMediaView @JvmOverloads constructor(
   protected val cancellableToast by lazy { CancellableToast() }
 
   private var currentlyVisible = false
+  // Set when an intermediate frame of the full image is shown instead of the thumbnail
+  private var hasPartialImage = false
   private var requestDisposable: Disposable? = null
 
   @Inject
@@ -100,6 +102,18 @@ class ThumbnailMediaView @JvmOverloads constructor(
     }
   }
 
+  /**
+   * Shows an intermediate frame of the full image (that is still being downloaded) instead of the
+   * thumbnail. The thumbnail won't replace it once it's loaded.
+   * */
+  fun setPartialImage(bitmap: Bitmap) {
+    hasPartialImage = true
+
+    thumbnailView.setVisibilityFast(View.VISIBLE)
+    errorViewContainer.setVisibilityFast(View.GONE)
+    thumbnailView.setImageBitmap(bitmap)
+  }
+
   fun show() {
     currentlyVisible = true
   }
@@ -111,6 +125,7 @@ class ThumbnailMediaView @JvmOverloads constructor(
   fun unbind() {
     requestDisposable?.dispose()
     requestDisposable = null
+    hasPartialImage = false
 
     thumbnailView.setImageDrawable(null)
     cancellableToast.cancel()
@@ -133,7 +148,10 @@ class ThumbnailMediaView @JvmOverloads constructor(
         requestDisposable = null
 
         thumbnailView.setOriginalMediaPlayable(parameters.isOriginalMediaPlayable)
-        thumbnailView.setImageDrawable(drawable)
+
+        if (!hasPartialImage) {
+          thumbnailView.setImageDrawable(drawable)
+        }
 
         onThumbnailFullyLoaded()
       }
@@ -251,6 +251,7 @@ sealed class WatcherScreen(
     object UseSoundForReplyNotifications : ThreadWatcherGroup("use_sound_for_reply_notifications")
     object WatchLastPageNotify : ThreadWatcherGroup("watch_last_page_notify")
     object UseSoundForLastPageNotifications : ThreadWatcherGroup("use_sound_for_last_page_notifications")
+    object ReuseWatcherThreadResponses : ThreadWatcherGroup("reuse_watcher_thread_responses")
 
     companion object : IGroupIdentifier() {
       override fun screenIdentifier(): ScreenIdentifier = WatcherScreen.screenIdentifier()
@@ -685,8 +686,8 @@ sealed class CachingScreen(
     CachingScreen(groupIdentifier, SettingIdentifier(settingsId)) {
 
     data class ClearFileCache(val cacheFileTypeName: String) : CacheGroup("clear_file_cache_${cacheFileTypeName}")
-    object ClearExoPlayerCache : CacheGroup("clear_exo_player_cache")
     object ThreadDownloadCacheSize : CacheGroup("thread_download_cache_size")
+    object CompressStoredPostComments : CacheGroup("compress_stored_post_comments")
 
     companion object : IGroupIdentifier() {
       override fun screenIdentifier(): ScreenIdentifier = CachingScreen.screenIdentifier()
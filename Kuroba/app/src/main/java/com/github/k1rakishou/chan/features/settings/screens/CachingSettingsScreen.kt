@@ -9,6 +9,7 @@ import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.helper.DialogFactory
 import com.github.k1rakishou.chan.features.settings.CachingScreen
 import com.github.k1rakishou.chan.features.settings.SettingsGroup
+import com.github.k1rakishou.chan.features.settings.setting.BooleanSettingV2
 import com.github.k1rakishou.chan.features.settings.setting.LinkSettingV2
 import com.github.k1rakishou.chan.features.settings.setting.RangeSettingV2
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
@@ -16,7 +17,6 @@ import com.github.k1rakishou.chan.utils.IOUtils
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.util.ChanPostUtils
-import com.google.android.exoplayer2.upstream.cache.SimpleCache
 import dagger.Lazy
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -74,26 +74,6 @@ class CachingSettingsScreen(
           )
         }
 
-        group += LinkSettingV2.createBuilder(
-          context = context,
-          identifier = CachingScreen.CacheGroup.ClearExoPlayerCache,
-          topDescriptionStringFunc = { context.getString(R.string.settings_clear_exo_player_file_cache) },
-          bottomDescriptionStringFunc = {
-            val exoPlayerCacheSizeBytes = withContext(Dispatchers.Default) {
-              IOUtils.calculateDirectoryFilesFullSize(appConstants.exoPlayerCacheDir)
-            }
-
-            context.getString(
-              R.string.settings_clear_exo_player_cache_bottom_description,
-              ChanPostUtils.getReadableFileSize(exoPlayerCacheSizeBytes)
-            )
-          },
-          callback = {
-            SimpleCache.delete(appConstants.exoPlayerCacheDir, null)
-            AppModuleAndroidUtils.showToast(context, "Cleared exoplayer cache")
-          }
-        )
-
         group += LinkSettingV2.createBuilder(
           context = context,
           identifier = CachingScreen.CacheGroup.ThreadDownloadCacheSize,
@@ -128,6 +108,15 @@ class CachingSettingsScreen(
           }
         )
 
+        group += BooleanSettingV2.createBuilder(
+          context = context,
+          identifier = CachingScreen.CacheGroup.CompressStoredPostComments,
+          topDescriptionIdFunc = { R.string.settings_compress_stored_post_comments },
+          bottomDescriptionIdFunc = { R.string.settings_compress_stored_post_comments_description },
+          requiresRestart = true,
+          setting = ChanSettings.compressStoredPostComments
+        )
+
         group
       })
   }
@@ -323,6 +323,15 @@ class WatcherSettingsScreen(
           dependsOnSetting = ChanSettings.watchLastPageNotify
         )
 
+        group += BooleanSettingV2.createBuilder(
+          context = context,
+          identifier = WatcherScreen.ThreadWatcherGroup.ReuseWatcherThreadResponses,
+          topDescriptionIdFunc = { R.string.setting_reuse_watcher_thread_responses },
+          bottomDescriptionIdFunc = { R.string.setting_reuse_watcher_thread_responses_description },
+          setting = ChanSettings.reuseWatcherThreadResponses,
+          dependsOnSetting = ChanSettings.watchEnabled
+        )
+
         group
       }
     )
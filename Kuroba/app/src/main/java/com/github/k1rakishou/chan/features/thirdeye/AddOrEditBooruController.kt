@@ -131,6 +131,16 @@ class AddOrEditBooruController(
             settingState = booruSettingState.bannedTagsStringState,
             labelText = stringResource(id = R.string.third_eye_add_site_controller_image_banned_tags)
           )
+          Spacer(modifier = Modifier.height(8.dp))
+          BuildSettingItem(
+            settingState = booruSettingState.batchApiEndpointState,
+            labelText = stringResource(id = R.string.third_eye_add_site_controller_batch_api_endpoint_url)
+          )
+          Spacer(modifier = Modifier.height(8.dp))
+          BuildSettingItem(
+            settingState = booruSettingState.md5JsonKeyState,
+            labelText = stringResource(id = R.string.third_eye_add_site_controller_image_md5_key)
+          )
         }
 
         BuildFooter(
@@ -285,6 +295,24 @@ class AddOrEditBooruController(
         }
       }
 
+      val batchApiEndpoint = booruSettingState.batchApiEndpointState.value.trim()
+      val md5JsonKey = booruSettingState.md5JsonKeyState.value.trim()
+      if (batchApiEndpoint.isNotEmpty()) {
+        if (!batchApiEndpoint.contains(BooruSetting.KEYS_MARKER)) {
+          throw BooruSettingValidationException(
+            settingName = "batchApiEndpoint",
+            message = "it doesn't contain the ${BooruSetting.KEYS_MARKER} marker"
+          )
+        }
+
+        if (md5JsonKey.isEmpty()) {
+          throw BooruSettingValidationException(
+            settingName = "md5JsonKey",
+            message = "it's empty while batchApiEndpoint is not empty"
+          )
+        }
+      }
+
       val fileSizeJsonKey = booruSettingState.fileSizeJsonKeyState.value.trim()
       val widthJsonKey = booruSettingState.widthJsonKeyState.value.trim()
       val heightJsonKey = booruSettingState.heightJsonKeyState.value.trim()
@@ -295,6 +323,7 @@ class AddOrEditBooruController(
       validateNestedJsonKey(widthJsonKey)
       validateNestedJsonKey(heightJsonKey)
       validateNestedJsonKey(tagsJsonKey)
+      validateNestedJsonKey(md5JsonKey)
     }
   }
 
@@ -330,7 +359,9 @@ class AddOrEditBooruController(
     heightJsonKey: String? = null,
     tagsJsonKey: String? = null,
     fileSizeJsonKey: String? = null,
-    bannedTagsString: String? = null
+    bannedTagsString: String? = null,
+    batchApiEndpoint: String? = null,
+    md5JsonKey: String? = null
   ) {
     val imageFileNameRegexState = mutableStateOf<String>(imageFileNameRegex)
     val apiEndpointState = mutableStateOf<String>(apiEndpoint)
@@ -341,6 +372,8 @@ class AddOrEditBooruController(
     val heightJsonKeyState = mutableStateOf<String>(heightJsonKey ?: "")
     val tagsJsonKeyState = mutableStateOf<String>(tagsJsonKey ?: "")
     val bannedTagsStringState = mutableStateOf<String>(bannedTagsString ?: "")
+    val batchApiEndpointState = mutableStateOf<String>(batchApiEndpoint ?: "")
+    val md5JsonKeyState = mutableStateOf<String>(md5JsonKey ?: "")
 
     val booruUniqueKey: String
       get() = apiEndpointState.value
@@ -356,6 +389,8 @@ class AddOrEditBooruController(
         heightJsonKey = heightJsonKeyState.value.trim(),
         tagsJsonKey = tagsJsonKeyState.value.trim(),
         bannedTags = bannedTagsStringState.value.trim().split(" "),
+        batchApiEndpoint = batchApiEndpointState.value.trim(),
+        md5JsonKey = md5JsonKeyState.value.trim(),
       )
     }
 
@@ -371,6 +406,8 @@ class AddOrEditBooruController(
           tagsJsonKey = booruSetting.tagsJsonKey,
           fileSizeJsonKey = booruSetting.fileSizeJsonKey,
           bannedTagsString = booruSetting.bannedTags.joinToString(separator = " "),
+          batchApiEndpoint = booruSetting.batchApiEndpoint,
+          md5JsonKey = booruSetting.md5JsonKey,
         )
       }
     }
@@ -23,7 +23,9 @@ data class BooruSetting(
   @Json(name = "width_json_key") val widthJsonKey: String = "",
   @Json(name = "height_json_key") val heightJsonKey: String = "",
   @Json(name = "tags_json_key") val tagsJsonKey: String = "",
-  @Json(name = "banned_tags") val bannedTags: List<String> = emptyList()
+  @Json(name = "banned_tags") val bannedTags: List<String> = emptyList(),
+  @Json(name = "batch_api_endpoint") val batchApiEndpoint: String = "",
+  @Json(name = "md5_json_key") val md5JsonKey: String = ""
 ) {
   // This is used to differentiate two boorus apart from each other.
   // It's impossible to have to separate boorus with the same key.
@@ -58,6 +60,26 @@ data class BooruSetting(
     }
   }
 
+  /**
+   * Some boorus allow searching for multiple hashes with one request (e.g. "md5:hash1,hash2"). For
+   * that the [batchApiEndpoint] must have the [KEYS_MARKER] and the response must be a json array of
+   * posts each of which has the image hash under the [md5JsonKey] so that we can tell which post
+   * belongs to which image.
+   * */
+  fun supportsBatchLookup(): Boolean {
+    return batchApiEndpoint.contains(KEYS_MARKER) && md5JsonKey.isNotBlank()
+  }
+
+  fun formatBatchImagesByMd5EndpointUrl(imageHashes: Collection<String>): HttpUrl? {
+    if (!supportsBatchLookup()) {
+      return null
+    }
+
+    return batchApiEndpoint
+      .replace(KEYS_MARKER, imageHashes.joinToString(separator = BATCH_KEYS_SEPARATOR))
+      .toHttpUrlOrNull()
+  }
+
   fun formatFullImageByMd5EndpointUrl(imageHash: String): HttpUrl? {
     val index = apiEndpoint.indexOf(string = KEY_MARKER)
     if (index < 0) {
@@ -71,6 +93,8 @@ data class BooruSetting(
 
   companion object {
     const val KEY_MARKER = "{key}"
+    const val KEYS_MARKER = "{keys}"
+    const val BATCH_KEYS_SEPARATOR = ","
     const val defaultImageFileNameRegex = "^([a-f0-9]{32})\$"
   }
 
@@ -86,13 +86,13 @@ import com.github.k1rakishou.core_themes.ChanThemeColorId
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
 import dagger.Lazy
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
-import org.joda.time.DateTime
 import java.lang.ref.WeakReference
 import javax.inject.Inject
 
@@ -131,6 +131,7 @@ class PostCell @JvmOverloads constructor(
   private var postCellHighlight: PostHighlightManager.PostHighlight? = null
   private var postTimeUpdaterJob: Job? = null
   private var blinkExecuted = false
+  private var commentTextWasPrecomputed = false
 
   private val linkClickSpan: BackgroundColorIdSpan
   private val quoteClickSpan: BackgroundColorIdSpan
@@ -402,6 +403,7 @@ class PostCell @JvmOverloads constructor(
     postTimeUpdaterJob = null
 
     this.blinkExecuted = false
+    this.commentTextWasPrecomputed = false
     this.postCellCallback = null
     this.postCellData = null
     this.postCellHighlight = null
@@ -411,6 +413,10 @@ class PostCell @JvmOverloads constructor(
     return postCellData?.post
   }
 
+  fun isCommentTextPrecomputed(): Boolean {
+    return commentTextWasPrecomputed
+  }
+
   override fun getThumbnailView(postImage: ChanPostImage): ThumbnailView? {
     if (postCellData == null || postCellData?.textOnly == true) {
       return null
@@ -664,22 +670,17 @@ class PostCell @JvmOverloads constructor(
       return -1
     }
 
-    val now = DateTime.now()
-
-    val insertedAtMillis = seenPostsManager.get().getSeenPostOrNull(postCellData.postDescriptor)
-      ?.insertedAt
-      ?.millis
-
-    if (insertedAtMillis == null) {
+    val seenAt = seenPostsManager.get().getPostSeenAt(postCellData.postDescriptor)
+    if (seenAt == ThreadSeenPosts.NOT_SEEN) {
       return PostUnseenIndicatorFadeAnimator.ANIMATION_DURATION.toInt()
     }
 
-    val deltaTime = now.minus(insertedAtMillis).millis.toInt()
+    val deltaTime = System.currentTimeMillis() - seenAt
     if (deltaTime >= PostUnseenIndicatorFadeAnimator.ANIMATION_DURATION) {
       return -1
     }
 
-    return deltaTime
+    return deltaTime.toInt()
   }
 
   private fun bindBackgroundResources(postCellData: PostCellData) {
@@ -921,7 +922,19 @@ class PostCell @JvmOverloads constructor(
   @SuppressLint("ClickableViewAccessibility")
   private fun bindPostContent(postCellData: PostCellData) {
     val theme = postCellData.theme
-    comment.setText(postCellData.commentText, TextView.BufferType.SPANNABLE)
+    val commentTextMetricsParams = PostCommentTextMetrics.update(comment, postCellData.textSizeSp)
+
+    // Interactive comments (selection, touch highlights) get their own instance that is not shared
+    // with other views, see PostCellData.precomputedCommentTextOrNull()
+    val precomputedCommentText = postCellData.precomputedCommentTextOrNull(commentTextMetricsParams)
+
+    if (precomputedCommentText != null) {
+      TextViewCompat.setPrecomputedText(comment, precomputedCommentText)
+      commentTextWasPrecomputed = true
+    } else {
+      comment.setText(postCellData.commentText, TextView.BufferType.SPANNABLE)
+      commentTextWasPrecomputed = false
+    }
 
     if (postCellData.isSelectionMode) {
       comment.customSelectionActionModeCallback = null
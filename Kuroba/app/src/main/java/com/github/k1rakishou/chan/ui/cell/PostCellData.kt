@@ -5,6 +5,7 @@ import android.text.SpannableStringBuilder
 import android.text.TextUtils
 import android.text.format.DateUtils
 import android.text.style.UnderlineSpan
+import androidx.core.text.PrecomputedTextCompat
 import androidx.core.text.buildSpannedString
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.R
@@ -14,6 +15,7 @@ import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getQuantityString
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getString
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.sp
+import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.chan.utils.SpannableHelper
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.StringUtils
@@ -88,6 +90,7 @@ data class PostCellData(
   private var postFileInfoHashPrecalculated: MurmurHashUtils.Murmur3Hash? = null
   private var commentTextPrecalculated: CharSequence? = null
   private var repliesToThisPostTextPrecalculated: CharSequence? = null
+  private var commentTextPrecomputed: PrecomputedTextCompat? = null
 
   val iconSizePx = sp(textSizeSp - 2.toFloat())
 
@@ -145,6 +148,13 @@ data class PostCellData(
     get() = postViewMode == PostViewMode.MediaViewerPostsPopup
   val searchMode: Boolean
     get() = postViewMode == PostViewMode.Search
+  /**
+   * The comment is selectable and its link spans are highlighted on touch (which mutates the text),
+   * so the precomputed comment text can't be shared and is handed out to only one view (see
+   * [precomputedCommentTextOrNull]).
+   * */
+  val commentTextIsInteractive: Boolean
+    get() = !isSelectionMode && (isViewingThread || searchMode)
   val markedNo: Long
     get() = markedPostNo ?: -1
   val showImageFileName: Boolean
@@ -218,6 +228,7 @@ data class PostCellData(
     postFileInfoHashPrecalculated = null
     commentTextPrecalculated = null
     repliesToThisPostTextPrecalculated = null
+    commentTextPrecomputed = null
 
     _detailsSizePx.resetValue()
     _postTitle.resetValue()
@@ -231,6 +242,7 @@ data class PostCellData(
 
   fun resetCommentTextCache() {
     commentTextPrecalculated = null
+    commentTextPrecomputed = null
     _commentText.resetValue()
   }
 
@@ -266,6 +278,56 @@ data class PostCellData(
     _postFileInfoMapHash.value()
     _commentText.value()
     _repliesToThisPostText.value()
+
+    precomputeCommentText()
+  }
+
+  /**
+   * Returns [commentText] with its text measurements already done on the preloading coroutine so
+   * that PostCell only needs to break it into lines. The precomputed text only depends on the text
+   * metrics [params] (which include the text size), the width is already a part of this
+   * PostCellData ([postCellDataWidthNoPaddings]), so if the params of the comment view differ from
+   * the ones the text was precomputed with null is returned and the comment has to be laid out the
+   * usual way.
+   * Interactive comments ([commentTextIsInteractive]) add spans to the text of the view so the
+   * precomputed text is given away to the first view that asks for it, the next bind either gets the
+   * one precomputed by the next [preload] or falls back to setText().
+   * */
+  fun precomputedCommentTextOrNull(params: PrecomputedTextCompat.Params): PrecomputedTextCompat? {
+    val precomputed = commentTextPrecomputed
+      ?: return null
+
+    if (precomputed.params != params) {
+      return null
+    }
+
+    if (commentTextIsInteractive) {
+      commentTextPrecomputed = null
+    }
+
+    return precomputed
+  }
+
+  private fun precomputeCommentText() {
+    // There is no point in doing this on the main thread since TextView will do the same work anyway
+    if (boardPostViewMode != ChanSettings.BoardPostViewMode.LIST || BackgroundUtils.isMainThread()) {
+      return
+    }
+
+    val params = PostCommentTextMetrics.getParamsOrNull(textSizeSp)
+      ?: return
+
+    if (commentTextIsInteractive && commentTextPrecomputed?.params == params) {
+      // Not handed out to a view yet so it's still untouched
+      return
+    }
+
+    val comment = commentText
+    if (comment.isEmpty()) {
+      return
+    }
+
+    commentTextPrecomputed = PrecomputedTextCompat.create(comment, params)
   }
 
   fun fullCopy(): PostCellData {
@@ -311,6 +373,10 @@ data class PostCellData(
       newPostCellData.postTitleStubPrecalculated = postTitleStubPrecalculated
       newPostCellData.commentTextPrecalculated = commentTextPrecalculated
       newPostCellData.repliesToThisPostTextPrecalculated = repliesToThisPostTextPrecalculated
+
+      if (!commentTextIsInteractive) {
+        newPostCellData.commentTextPrecomputed = commentTextPrecomputed
+      }
     }
   }
 
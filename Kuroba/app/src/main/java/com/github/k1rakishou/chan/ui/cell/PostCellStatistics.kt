@@ -27,6 +27,11 @@ object PostCellStatistics {
   private var totalBoundPostsCount = 0
   private var longBoundPostsCount = 0
 
+  // Bind + measure time per post split by whether PostCell got a precomputed comment text or had to
+  // lay it out from scratch
+  private val precomputedCommentStats = CommentBindStats()
+  private val regularCommentStats = CommentBindStats()
+
   @OptIn(ExperimentalTime::class)
   fun onPostBound(postCellInterface: PostCellInterface?, time: Duration) {
     if (!AppModuleAndroidUtils.isDevBuild() || !LOG_ENABLED) {
@@ -69,6 +74,11 @@ object PostCellStatistics {
       "${timeMs}ms"
     }
 
+    commentBindStats(postCellInterface)?.let { stats ->
+      stats.bindTimeMs += timeMs
+      ++stats.boundPostsCount
+    }
+
     Logger.d(TAG, "onPostBound() postNo: ${postNo}, " +
       "imgs: $imagesCount, took ${timeFormatted} (medianBindTime: ${medianBindTimeFormatted}ms, " +
       "maxBindTime=${maxBindTime}ms, minBindTime=${minBindTime}ms, longBoundPostsCount=${longBoundPostsCount})")
@@ -120,6 +130,47 @@ object PostCellStatistics {
       "imgs: $imagesCount, took ${timeFormatted} (medianMeasureTime: ${medianMeasureTimeFormatted}ms, " +
       "maxMeasureTime=${maxMeasureTime}ms, minMeasureTime=${minMeasureTime}ms, " +
       "longMeasuredPostsCount=${longMeasuredPostsCount})")
+
+    val stats = commentBindStats(postCellInterface)
+    if (stats != null) {
+      stats.measureTimeMs += timeMs
+      ++stats.measuredPostsCount
+
+      Logger.d(TAG, "onPostMeasured() bind+measure time per post, " +
+        "precomputed comment: ${precomputedCommentStats}, regular comment: ${regularCommentStats}")
+    }
+  }
+
+  private fun commentBindStats(postCellInterface: PostCellInterface?): CommentBindStats? {
+    val postCell = postCellInterface as? PostCell
+      ?: return null
+
+    if (postCell.isCommentTextPrecomputed()) {
+      return precomputedCommentStats
+    }
+
+    return regularCommentStats
+  }
+
+  private class CommentBindStats {
+    var bindTimeMs = 0.0
+    var boundPostsCount = 0
+    var measureTimeMs = 0.0
+    var measuredPostsCount = 0
+
+    override fun toString(): String {
+      val avgBindTimeMs = if (boundPostsCount > 0) bindTimeMs / boundPostsCount else 0.0
+      val avgMeasureTimeMs = if (measuredPostsCount > 0) measureTimeMs / measuredPostsCount else 0.0
+
+      return String.format(
+        "%.3fms (bind %.3fms over %d posts, measure %.3fms over %d posts)",
+        avgBindTimeMs + avgMeasureTimeMs,
+        avgBindTimeMs,
+        boundPostsCount,
+        avgMeasureTimeMs,
+        measuredPostsCount
+      )
+    }
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import android.widget.TextView
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+
+/**
+ * Text metrics params (paint, break strategy, hyphenation, text direction) of the PostCell comment
+ * view. They can only be taken from an actual view so they are remembered every time PostCell binds a
+ * post and then used by [PostCellData.preload] to precompute post comments on the preloading
+ * coroutine. Until the first post is bound (or after the text size changes) nothing is precomputed
+ * and PostCell falls back to the regular setText().
+ * */
+object PostCommentTextMetrics {
+  // Set to false to compare post bind times without precomputed comments (see PostCellStatistics)
+  const val PRECOMPUTE_COMMENT_TEXT = true
+
+  @Volatile
+  private var cachedParams: CachedParams? = null
+
+  fun update(commentView: TextView, textSizeSp: Int): PrecomputedTextCompat.Params {
+    val params = TextViewCompat.getTextMetricsParams(commentView)
+
+    val prev = cachedParams
+    if (prev == null || prev.textSizeSp != textSizeSp || prev.params != params) {
+      cachedParams = CachedParams(textSizeSp, params)
+    }
+
+    return params
+  }
+
+  fun getParamsOrNull(textSizeSp: Int): PrecomputedTextCompat.Params? {
+    if (!PRECOMPUTE_COMMENT_TEXT) {
+      return null
+    }
+
+    val cached = cachedParams
+      ?: return null
+
+    if (cached.textSizeSp != textSizeSp) {
+      return null
+    }
+
+    return cached.params
+  }
+
+  private class CachedParams(
+    val textSizeSp: Int,
+    val params: PrecomputedTextCompat.Params
+  )
+
+}
@@ -43,6 +43,7 @@ import com.github.k1rakishou.chan.core.base.Debouncer
 import com.github.k1rakishou.chan.core.base.KurobaCoroutineScope
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.image.ImageLoadPriority
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.GlobalViewStateManager
 import com.github.k1rakishou.chan.core.manager.GlobalWindowInsetsManager
@@ -122,12 +123,20 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
     super.onAttachedToWindow()
 
     themeEngine.addListener(this)
+    updateRequestPriority(ImageLoadPriority.Visible)
   }
 
   override fun onDetachedFromWindow() {
     super.onDetachedFromWindow()
 
     themeEngine.removeListener(this)
+    // The view may still be bound (e.g. cached by the RecyclerView) so don't cancel the request, just
+    // let the thumbnails that are on the screen go first.
+    updateRequestPriority(ImageLoadPriority.NearVisible)
+  }
+
+  private fun updateRequestPriority(priority: ImageLoadPriority) {
+    (requestDisposable as? ImageLoaderV2.ImageLoaderRequestDisposable)?.updatePriority(priority)
   }
 
   override fun onThemeChanged() {
@@ -400,7 +409,8 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
         imageSize = imageSize,
         transformations = emptyList(),
         listener = listener,
-        postDescriptor = postDescriptor
+        postDescriptor = postDescriptor,
+        priority = if (isAttachedToWindow) ImageLoadPriority.Visible else ImageLoadPriority.NearVisible
       )
     }
 
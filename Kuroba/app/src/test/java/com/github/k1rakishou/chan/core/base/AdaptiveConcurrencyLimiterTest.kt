@@ -0,0 +1,106 @@
+package com.github.k1rakishou.chan.core.base
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class AdaptiveConcurrencyLimiterTest {
+
+  @Test
+  fun `test limit is never exceeded and grows while responses are fast`() = runBlocking {
+    val limiter = AdaptiveConcurrencyLimiter(initialLimit = 2, minLimit = 1, maxLimit = 8)
+    val inFlight = AtomicInteger(0)
+    val maxInFlight = AtomicInteger(0)
+
+    (0 until 200).map {
+      async(Dispatchers.Default) {
+        limiter.withPermit(isSlowDownResponse = { false }) {
+          val current = inFlight.incrementAndGet()
+          maxInFlight.accumulateAndGet(current) { prev, new -> maxOf(prev, new) }
+
+          delay(1)
+          inFlight.decrementAndGet()
+        }
+      }
+    }.awaitAll()
+
+    assertEquals(8, limiter.currentLimit)
+    assertTrue(maxInFlight.get() <= 8)
+    assertEquals(200L, limiter.stats().requestsCount)
+    assertEquals(0, limiter.stats().inFlight)
+  }
+
+  @Test
+  fun `test limit is halved once per cooldown when the server asks to slow down`() = runBlocking {
+    var time = 10_000L
+    val limiter = AdaptiveConcurrencyLimiter(initialLimit = 8, minLimit = 1, maxLimit = 16, timeProvider = { time })
+
+    limiter.withPermit(isSlowDownResponse = { result: Int -> result == 429 }) { 429 }
+    assertEquals(4, limiter.currentLimit)
+
+    // Other requests that were in flight at the same time must not decrease the limit further
+    limiter.withPermit(isSlowDownResponse = { result: Int -> result == 429 }) { 429 }
+    assertEquals(4, limiter.currentLimit)
+
+    time += 5_000L
+    limiter.withPermit(isSlowDownResponse = { result: Int -> result == 429 }) { 429 }
+    assertEquals(2, limiter.currentLimit)
+    assertEquals(3L, limiter.stats().slowDownResponsesCount)
+  }
+
+  @Test
+  fun `test slow responses decrease the limit`() = runBlocking {
+    var time = 10_000L
+    val limiter = AdaptiveConcurrencyLimiter(
+      initialLimit = 4,
+      slowRequestThresholdMs = 1000L,
+      timeProvider = { time }
+    )
+
+    limiter.withPermit(isSlowDownResponse = { false }) { time += 2000L }
+    assertEquals(2, limiter.currentLimit)
+    assertEquals(2000L, limiter.stats().maxLatencyMs)
+  }
+
+  @Test
+  fun `test canceled waiters do not leak slots`() = runBlocking {
+    val limiter = AdaptiveConcurrencyLimiter(initialLimit = 1, minLimit = 1, maxLimit = 1)
+    val release = CompletableDeferred<Unit>()
+
+    val holder = launch(Dispatchers.Default) {
+      limiter.withPermit(isSlowDownResponse = { false }) { release.await() }
+    }
+
+    while (limiter.stats().inFlight != 1) {
+      yield()
+    }
+
+    val waiters = (0 until 10).map {
+      launch(Dispatchers.Default) { limiter.withPermit(isSlowDownResponse = { false }) { } }
+    }
+
+    while (limiter.stats().waiting != 10) {
+      yield()
+    }
+
+    waiters.forEach { waiter -> waiter.cancel() }
+    release.complete(Unit)
+    holder.join()
+    waiters.forEach { waiter -> waiter.join() }
+
+    assertEquals(0, limiter.stats().inFlight)
+    assertEquals(0, limiter.stats().waiting)
+
+    withTimeout(1000L) { limiter.withPermit(isSlowDownResponse = { false }) { } }
+  }
+}
@@ -0,0 +1,53 @@
+package com.github.k1rakishou.chan.core.base
+
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+  @Test
+  fun `test percentiles are estimated by bucket upper bounds`() {
+    val histogram = LatencyHistogram(longArrayOf(10, 100, 1_000))
+
+    repeat(90) { histogram.record(5) }
+    repeat(9) { histogram.record(50) }
+    histogram.record(700)
+
+    val snapshot = histogram.snapshot()
+    assertEquals(100L, snapshot.count)
+    assertEquals(10L, snapshot.p50Ms)
+    assertEquals(10L, snapshot.p90Ms)
+    assertEquals(100L, snapshot.p99Ms)
+    assertEquals(700L, snapshot.maxMs)
+    assertEquals((90 * 5 + 9 * 50 + 700) / 100L, snapshot.averageMs)
+  }
+
+  @Test
+  fun `test latencies above the last bucket are reported as the max latency`() {
+    val histogram = LatencyHistogram(longArrayOf(10, 100))
+
+    histogram.record(1)
+    histogram.record(5_000)
+
+    val snapshot = histogram.snapshot()
+    assertEquals(10L, snapshot.p50Ms)
+    assertEquals(5_000L, snapshot.p99Ms)
+    assertEquals(0L, LatencyHistogram().snapshot().p99Ms)
+  }
+
+  @Test
+  fun `test concurrent records are not lost`() = runBlocking {
+    val histogram = LatencyHistogram()
+
+    (0 until 8).map {
+      async(Dispatchers.Default) { repeat(1_000) { index -> histogram.record(index.toLong()) } }
+    }.awaitAll()
+
+    assertEquals(8_000L, histogram.snapshot().count)
+    assertEquals(999L, histogram.snapshot().maxMs)
+  }
+}
@@ -0,0 +1,80 @@
+package com.github.k1rakishou.chan.core.base
+
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class RequestCoalescerTest {
+
+  @Test
+  fun `test concurrent requests with the same key are executed once`() = runBlocking {
+    val coalescer = RequestCoalescer<Int, Int>()
+    val executions = AtomicInteger(0)
+    val release = CompletableDeferred<Unit>()
+
+    val requests = (0 until 10).map {
+      async(Dispatchers.Default) {
+        coalescer.coalesce(1) {
+          executions.incrementAndGet()
+          release.await()
+          return@coalesce 42
+        }
+      }
+    }
+
+    withTimeout(5000) {
+      while (coalescer.coalescedRequestsCount() < 9) {
+        yield()
+      }
+    }
+
+    release.complete(Unit)
+
+    assertEquals(List(10) { 42 }, requests.map { request -> request.await() })
+    assertEquals(1, executions.get())
+  }
+
+  @Test
+  fun `test waiter takes over the request when the executing caller is canceled`() = runBlocking {
+    val coalescer = RequestCoalescer<Int, Int>()
+    val ownerStarted = CompletableDeferred<Unit>()
+    val executions = AtomicInteger(0)
+
+    val owner = launch(Dispatchers.Default) {
+      coalescer.coalesce(1) {
+        executions.incrementAndGet()
+        ownerStarted.complete(Unit)
+        CompletableDeferred<Unit>().await()
+        return@coalesce 1
+      }
+    }
+
+    ownerStarted.await()
+
+    val waiter = async(Dispatchers.Default) {
+      coalescer.coalesce(1) {
+        executions.incrementAndGet()
+        return@coalesce 2
+      }
+    }
+
+    withTimeout(5000) {
+      while (coalescer.coalescedRequestsCount() < 1) {
+        yield()
+      }
+    }
+
+    owner.cancelAndJoin()
+
+    assertEquals(2, withTimeout(5000) { waiter.await() })
+    assertEquals(2, executions.get())
+  }
+}
@@ -0,0 +1,135 @@
+package com.github.k1rakishou.chan.core.cache
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class CacheHandlerSynchronizerTest {
+
+  @Test
+  fun `test cache file, it's meta and chunks share the same stripe`() {
+    val synchronizer = CacheHandlerSynchronizer()
+    val hash = "0cc175b9c0f1b6a831c399e269772661"
+
+    val stripeIndex = synchronizer.stripeIndex("${hash}.cache")
+    assertEquals(stripeIndex, synchronizer.stripeIndex("${hash}.cache_meta"))
+    assertEquals(stripeIndex, synchronizer.stripeIndex("${hash}_0_1024.chunk"))
+  }
+
+  @Test
+  fun `test readers do not block each other`() {
+    val synchronizer = CacheHandlerSynchronizer()
+    val executor = Executors.newFixedThreadPool(READERS_COUNT)
+    val allReadersInside = CountDownLatch(READERS_COUNT)
+
+    try {
+      val futures = (0 until READERS_COUNT).map {
+        executor.submit<Boolean> {
+          synchronizer.withLocalReadLock("test.cache") {
+            allReadersInside.countDown()
+            // Will time out if readers are executed one by one
+            allReadersInside.await(5, TimeUnit.SECONDS)
+          }
+        }
+      }
+
+      futures.forEach { future -> assertTrue(future.get()) }
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  @Test
+  fun `test write lock is reentrant and allows reading`() {
+    val synchronizer = CacheHandlerSynchronizer(checkLockNesting = true)
+
+    val result = synchronizer.withLocalWriteLock("test.cache") {
+      synchronizer.withLocalWriteLock("test.cache_meta") {
+        synchronizer.withLocalReadLock("test.cache_meta") { 1 }
+      }
+    }
+
+    assertEquals(1, result)
+  }
+
+  @Test
+  fun `test nesting locks of different stripes throws when lock nesting is checked`() {
+    val synchronizer = CacheHandlerSynchronizer(checkLockNesting = true)
+    val otherKey = (0 until 1000)
+      .map { index -> "other${index}.cache" }
+      .first { key -> synchronizer.stripeIndex(key) != synchronizer.stripeIndex("test.cache") }
+
+    var error: Throwable? = null
+
+    synchronizer.withLocalReadLock("test.cache") {
+      try {
+        synchronizer.withLocalReadLock(otherKey) { }
+      } catch (e: IllegalStateException) {
+        error = e
+      }
+    }
+
+    assertTrue(error != null)
+
+    // Locks are released correctly after the failed attempt so taking them one by one still works
+    synchronizer.withLocalWriteLock("test.cache") { }
+    synchronizer.withLocalWriteLock(otherKey) { }
+    synchronizer.withGlobalLock { synchronizer.withLocalWriteLock(otherKey) { } }
+  }
+
+  @Test
+  fun `test upgrading a read lock throws when lock nesting is checked`() {
+    val synchronizer = CacheHandlerSynchronizer(checkLockNesting = true)
+    var error: Throwable? = null
+
+    synchronizer.withLocalReadLock("test.cache") {
+      try {
+        synchronizer.withLocalWriteLock("test.cache_meta") { }
+      } catch (e: IllegalStateException) {
+        error = e
+      }
+    }
+
+    assertTrue(error != null)
+  }
+
+  @Test
+  fun `test writer waiting for a reader is counted as contention`() {
+    val synchronizer = CacheHandlerSynchronizer()
+    val executor = Executors.newSingleThreadExecutor()
+    val readerInside = CountDownLatch(1)
+    val releaseReader = CountDownLatch(1)
+
+    try {
+      val readerFuture = executor.submit {
+        synchronizer.withLocalReadLock("test.cache") {
+          readerInside.countDown()
+          releaseReader.await(5, TimeUnit.SECONDS)
+        }
+      }
+
+      readerInside.await(5, TimeUnit.SECONDS)
+      Thread { Thread.sleep(50); releaseReader.countDown() }.start()
+
+      synchronizer.withLocalWriteLock("test.cache") { }
+      readerFuture.get()
+
+      val stats = synchronizer.contentionStats()
+      assertEquals(2L, stats.lockAcquisitions)
+      assertEquals(1L, stats.contendedLockAcquisitions)
+      assertTrue(stats.contendedWaitTimeNanos > 0L)
+
+      synchronizer.withGlobalLock { }
+      assertEquals(2L + stats.stripesCount, synchronizer.contentionStats().lockAcquisitions)
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  companion object {
+    private const val READERS_COUNT = 4
+  }
+}
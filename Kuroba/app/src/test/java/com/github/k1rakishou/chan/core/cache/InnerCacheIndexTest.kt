@@ -0,0 +1,144 @@
+package com.github.k1rakishou.chan.core.cache
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.Executor
+
+class InnerCacheIndexTest {
+  private val directExecutor = Executor { runnable -> runnable.run() }
+  private lateinit var tempDir: File
+  private lateinit var journalFile: File
+
+  @Before
+  fun setUp() {
+    tempDir = Files.createTempDirectory("inner_cache_index_test").toFile()
+    journalFile = File(tempDir, "journal")
+  }
+
+  @After
+  fun tearDown() {
+    tempDir.deleteRecursively()
+  }
+
+  @Test
+  fun `test index is restored from the journal in LRU order`() {
+    val index = createIndex()
+    assertFalse(index.load())
+    index.rebuild(emptyList())
+
+    index.onCreated("1.cache", 100L)
+    index.onDownloaded("1.cache", 10L, 110L)
+    index.onCreated("2.cache", 200L)
+    index.onDownloaded("2.cache", 20L, 210L)
+    index.onCreated("3.cache", 300L)
+    index.onAccessed("1.cache", 400L)
+    index.onCreated("4.cache", 500L)
+    index.onDownloaded("4.cache", 40L, 510L)
+    index.onRemoved("4.cache")
+    index.flush()
+
+    val restoredIndex = createIndex()
+    assertTrue(restoredIndex.load())
+
+    assertEquals(listOf("2.cache", "3.cache", "1.cache"), restoredIndex.snapshot().map { entry -> entry.fileName })
+    assertEquals(30L, restoredIndex.totalSize())
+    assertTrue(restoredIndex.isDownloaded("1.cache"))
+    assertFalse(restoredIndex.isDownloaded("3.cache"))
+    assertFalse(restoredIndex.contains("4.cache"))
+    assertEquals(400L, restoredIndex.snapshot().last().lastAccessTime)
+  }
+
+  @Test
+  fun `test eviction candidates are taken from the LRU head`() {
+    val index = createIndex()
+    index.rebuild(emptyList())
+
+    for (fileNo in 1..10) {
+      index.onCreated("$fileNo.cache", fileNo * 100L)
+      index.onDownloaded("$fileNo.cache", 10L, fileNo * 100L)
+    }
+
+    index.onAccessed("1.cache", 2000L)
+    index.onAccessed("2.cache", 2000L)
+
+    val candidates = index.evictionCandidates(bytesToFree = 25L, accessedBefore = 1000L)
+    assertEquals(listOf("3.cache", "4.cache", "5.cache"), candidates.map { entry -> entry.fileName })
+
+    // Recently accessed files must never be evicted
+    val allCandidates = index.evictionCandidates(bytesToFree = Long.MAX_VALUE, accessedBefore = 1000L)
+    assertEquals((3..10).map { fileNo -> "$fileNo.cache" }, allCandidates.map { entry -> entry.fileName })
+  }
+
+  @Test
+  fun `test operations before load are applied on top of the journal`() {
+    val index = createIndex()
+    index.rebuild(emptyList())
+    index.onCreated("1.cache", 100L)
+    index.onDownloaded("1.cache", 10L, 110L)
+    index.onCreated("2.cache", 200L)
+    index.flush()
+
+    val restoredIndex = createIndex()
+    restoredIndex.onCreated("3.cache", 300L)
+    restoredIndex.onAccessed("3.cache", 310L)
+    assertTrue(restoredIndex.load())
+    restoredIndex.onRemoved("2.cache")
+    restoredIndex.flush()
+
+    assertEquals(listOf("1.cache", "3.cache"), restoredIndex.snapshot().map { entry -> entry.fileName })
+
+    val restoredAgainIndex = createIndex()
+    assertTrue(restoredAgainIndex.load())
+    assertEquals(restoredIndex.snapshot(), restoredAgainIndex.snapshot())
+  }
+
+  @Test
+  fun `test truncated last line is ignored`() {
+    val index = createIndex()
+    index.rebuild(emptyList())
+    index.onCreated("1.cache", 100L)
+    index.onDownloaded("1.cache", 10L, 110L)
+    index.flush()
+
+    journalFile.appendText("CLEAN 2.ca")
+
+    val restoredIndex = createIndex()
+    assertTrue(restoredIndex.load())
+    assertEquals(listOf("1.cache"), restoredIndex.snapshot().map { entry -> entry.fileName })
+    assertFalse(journalFile.readText().contains("2.ca"))
+  }
+
+  @Test
+  fun `test bad header requires rebuild`() {
+    journalFile.writeText("garbage\n")
+    assertFalse(createIndex().load())
+  }
+
+  @Test
+  fun `test journal is compacted`() {
+    val index = createIndex()
+    index.rebuild(emptyList())
+    index.onCreated("1.cache", 100L)
+    index.onDownloaded("1.cache", 10L, 110L)
+
+    repeat(5000) { iteration -> index.onAccessed("1.cache", 200L + iteration) }
+    index.flush()
+
+    // Compacted every 2000 redundant operations
+    assertTrue(journalFile.readLines().size < 2010)
+
+    val restoredIndex = createIndex()
+    assertTrue(restoredIndex.load())
+    assertEquals(200L + 4999, restoredIndex.snapshot().single().lastAccessTime)
+  }
+
+  private fun createIndex(): InnerCacheIndex {
+    return InnerCacheIndex(journalFile, directExecutor, "InnerCacheIndexTest")
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+class ActiveDownloadsTest {
+  private val url = "https://i.4cdn.org/g/1234567890.webm"
+  private val requestCancellationThread = Executors.newSingleThreadExecutor()
+  private val activeDownloads = ActiveDownloads()
+
+  @After
+  fun tearDown() {
+    requestCancellationThread.shutdownNow()
+  }
+
+  @Test
+  fun `test only one streaming write can be claimed`() {
+    val streamingWrite = activeDownloads.tryClaimStreamingWrite(url)
+    assertNotNull(streamingWrite)
+    assertNull(activeDownloads.tryClaimStreamingWrite(url))
+
+    activeDownloads.releaseStreamingWrite(streamingWrite!!)
+    assertNotNull(activeDownloads.tryClaimStreamingWrite(url))
+  }
+
+  @Test
+  fun `test streaming write can't be claimed while the file is being downloaded`() {
+    activeDownloads.put(url, createRequest())
+    assertNull(activeDownloads.tryClaimStreamingWrite(url))
+
+    activeDownloads.remove(url)
+    assertNotNull(activeDownloads.tryClaimStreamingWrite(url))
+  }
+
+  @Test
+  fun `test download revokes the streaming write`() {
+    val streamingWrite = activeDownloads.tryClaimStreamingWrite(url)!!
+    assertTrue(streamingWrite.runIfClaimed { })
+
+    activeDownloads.put(url, createRequest())
+    activeDownloads.revokeStreamingWrite(url)
+
+    var written = false
+    assertFalse(streamingWrite.runIfClaimed { written = true })
+    assertFalse(written)
+
+    // Releasing a revoked claim must not affect anything
+    activeDownloads.releaseStreamingWrite(streamingWrite)
+    assertNull(activeDownloads.tryClaimStreamingWrite(url))
+  }
+
+  private fun createRequest(): FileDownloadRequest {
+    val cancelableDownload = CancelableDownload(
+      url = url,
+      downloadType = CancelableDownload.DownloadType(
+        isPrefetchDownload = false,
+        isGalleryBatchDownload = false
+      ),
+      requestCancellationThread = requestCancellationThread
+    )
+
+    return FileDownloadRequest(
+      url = url,
+      downloaded = AtomicLong(0L),
+      total = AtomicLong(0L),
+      readableBytes = AtomicLong(0L),
+      cancelableDownload = cancelableDownload,
+      extraInfo = DownloadRequestExtraInfo(),
+      cacheFileType = CacheFileType.PostMediaFull
+    )
+  }
+}
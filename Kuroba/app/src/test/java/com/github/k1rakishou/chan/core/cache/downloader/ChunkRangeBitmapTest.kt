@@ -0,0 +1,97 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+class ChunkRangeBitmapTest {
+  private val blockSize = 10L
+
+  @Test
+  fun `test only fully written blocks are marked as completed`() {
+    val bitmap = ChunkRangeBitmap(fileLength = 95L, blockSize = blockSize)
+
+    assertEquals(10, bitmap.blocksCount)
+    assertEquals(0, bitmap.markWritten(0L, 9L))
+    assertEquals(1, bitmap.markWritten(0L, 10L))
+    assertEquals(0, bitmap.markWritten(0L, 10L))
+    assertEquals(2, bitmap.markWritten(15L, 40L))
+    assertEquals(30L, bitmap.completedBytes())
+
+    // The last block is shorter than the block size
+    assertEquals(1, bitmap.markWritten(90L, 95L))
+    assertEquals(35L, bitmap.completedBytes())
+    assertFalse(bitmap.isComplete())
+
+    bitmap.markWritten(0L, 95L)
+    assertTrue(bitmap.isComplete())
+    assertEquals(95L, bitmap.completedBytes())
+    assertTrue(bitmap.missingChunks(4).isEmpty())
+  }
+
+  @Test
+  fun `test missing chunks of a new file are split evenly`() {
+    val bitmap = ChunkRangeBitmap(fileLength = 100L, blockSize = blockSize)
+
+    assertEquals(listOf(Chunk(0L, 100L)), bitmap.missingChunks(1))
+    assertEquals(
+      listOf(Chunk(0L, 20L), Chunk(20L, 50L), Chunk(50L, 70L), Chunk(70L, 100L)),
+      bitmap.missingChunks(4)
+    )
+  }
+
+  @Test
+  fun `test missing ranges separated by the smallest gaps are joined`() {
+    val bitmap = ChunkRangeBitmap(fileLength = 100L, blockSize = blockSize)
+
+    // Missing: [0, 10), [20, 30), [60, 100)
+    bitmap.markWritten(10L, 20L)
+    bitmap.markWritten(30L, 60L)
+
+    assertEquals(listOf(Chunk(0L, 10L), Chunk(20L, 30L), Chunk(60L, 100L)), bitmap.missingChunks(3))
+    assertEquals(listOf(Chunk(0L, 30L), Chunk(60L, 100L)), bitmap.missingChunks(2))
+    assertEquals(listOf(Chunk(0L, 100L)), bitmap.missingChunks(1))
+  }
+
+  @Test
+  fun `test completed until returns the end of the downloaded range`() {
+    val bitmap = ChunkRangeBitmap(fileLength = 95L, blockSize = blockSize)
+    bitmap.markWritten(10L, 40L)
+    bitmap.markWritten(90L, 95L)
+
+    assertEquals(5L, bitmap.completedUntil(5L))
+    assertEquals(40L, bitmap.completedUntil(10L))
+    assertEquals(40L, bitmap.completedUntil(35L))
+    assertEquals(40L, bitmap.completedUntil(40L))
+    assertEquals(95L, bitmap.completedUntil(92L))
+  }
+
+  @Test
+  fun `test persisted bitmap is restored only for the same file length`() {
+    val file = File.createTempFile("chunk_range_bitmap", ".cache_ranges")
+
+    try {
+      val bitmap = ChunkRangeBitmap(fileLength = 95L, blockSize = blockSize)
+      bitmap.markWritten(0L, 30L)
+      bitmap.markWritten(90L, 95L)
+      bitmap.writeTo(file)
+
+      val restored = ChunkRangeBitmap.readOrNull(file, 95L)
+      assertNotNull(restored)
+      assertEquals(bitmap.completedBytes(), restored!!.completedBytes())
+      assertEquals(bitmap.missingChunks(2), restored.missingChunks(2))
+
+      assertNull(ChunkRangeBitmap.readOrNull(file, 96L))
+
+      file.writeText("garbage")
+      assertNull(ChunkRangeBitmap.readOrNull(file, 95L))
+    } finally {
+      file.delete()
+    }
+  }
+
+}
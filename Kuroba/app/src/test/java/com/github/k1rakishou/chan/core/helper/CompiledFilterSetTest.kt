@@ -0,0 +1,141 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterAction
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import org.junit.Test
+
+class CompiledFilterSetTest {
+  private val boardDescriptor = BoardDescriptor.create("test", "g")
+  private val otherBoardDescriptor = BoardDescriptor.create("test", "a")
+
+  @Test
+  fun `test whole word keyword filter`() {
+    val filters = compile(filter(id = 1, pattern = "kuroba"))
+
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "I like Kuroba a lot"))?.getDatabaseId())
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "KUROBA!"))?.getDatabaseId())
+    assertNull(filters.findFirstMatchingFilter(post(comment = "kurobaex")))
+    assertNull(filters.findFirstMatchingFilter(post(comment = "kuro ba")))
+  }
+
+  @Test
+  fun `test exact sentence filter matches substrings`() {
+    val filters = compile(filter(id = 1, pattern = "\"roba e\""))
+
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "kuroba experimental"))?.getDatabaseId())
+    assertNull(filters.findFirstMatchingFilter(post(comment = "kurobaexperimental")))
+  }
+
+  @Test
+  fun `test regex and wildcard filters`() {
+    val filters = compile(
+      filter(id = 1, pattern = "/\\d{3}-\\d{4}/"),
+      filter(id = 2, pattern = "kuro*")
+    )
+
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "call 555-1234"))?.getDatabaseId())
+    assertEquals(2L, filters.findFirstMatchingFilter(post(comment = "kurobaex"))?.getDatabaseId())
+    assertNull(filters.findFirstMatchingFilter(post(comment = "nothing here")))
+  }
+
+  @Test
+  fun `test the first filter in order wins`() {
+    val filters = compile(
+      filter(id = 1, pattern = "/never matches \\d+ times/"),
+      filter(id = 2, pattern = "second"),
+      filter(id = 3, pattern = "/first/"),
+      filter(id = 4, pattern = "\"first\"")
+    )
+
+    assertEquals(2L, filters.findFirstMatchingFilter(post(comment = "first second"))?.getDatabaseId())
+    assertEquals(3L, filters.findFirstMatchingFilter(post(comment = "first"))?.getDatabaseId())
+  }
+
+  @Test
+  fun `test filter types are respected`() {
+    val filters = compile(
+      filter(id = 1, pattern = "anon", type = FilterType.NAME.flag),
+      filter(id = 2, pattern = "anon", type = FilterType.SUBJECT.flag)
+    )
+
+    assertEquals(2L, filters.findFirstMatchingFilter(post(comment = "anon", subject = "anon"))?.getDatabaseId())
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "", name = "Anon"))?.getDatabaseId())
+    assertNull(filters.findFirstMatchingFilter(post(comment = "anon")))
+  }
+
+  @Test
+  fun `test post specific filter flags`() {
+    val filters = compile(
+      filter(id = 1, pattern = "test", onlyOnOP = true),
+      filter(id = 2, pattern = "/test/", applyToSaved = true),
+      filter(id = 3, pattern = "nothing", applyToEmptyComments = true)
+    )
+
+    assertEquals(1L, filters.findFirstMatchingFilter(post(comment = "test", op = true))?.getDatabaseId())
+    assertEquals(2L, filters.findFirstMatchingFilter(post(comment = "test", saved = true))?.getDatabaseId())
+    assertNull(filters.findFirstMatchingFilter(post(comment = "test")))
+    assertEquals(3L, filters.findFirstMatchingFilter(post(comment = ""))?.getDatabaseId())
+  }
+
+  @Test
+  fun `test watch filters and filters of other boards are ignored`() {
+    val compiledFilterSet = CompiledFilterSet.create(
+      version = 0L,
+      filters = listOf(
+        filter(id = 1, pattern = "test", action = FilterAction.WATCH.id),
+        filter(id = 2, pattern = "test", boards = setOf(otherBoardDescriptor)),
+        filter(id = 3, pattern = "test", boards = setOf(boardDescriptor))
+      )
+    )
+
+    val filters = compiledFilterSet.forBoard(boardDescriptor)
+    assertEquals(1, filters.filtersCount)
+    assertEquals(3L, filters.findFirstMatchingFilter(post(comment = "test"))?.getDatabaseId())
+  }
+
+  private fun compile(vararg filters: ChanFilter): CompiledFilterSet.BoardFilters {
+    return CompiledFilterSet.create(0L, filters.toList()).forBoard(boardDescriptor)
+  }
+
+  private fun filter(
+    id: Long,
+    pattern: String,
+    type: Int = FilterType.COMMENT.flag or FilterType.SUBJECT.flag,
+    action: Int = FilterAction.HIDE.id,
+    boards: Set<BoardDescriptor> = emptySet(),
+    onlyOnOP: Boolean = false,
+    applyToSaved: Boolean = false,
+    applyToEmptyComments: Boolean = false
+  ): ChanFilter {
+    return ChanFilter(
+      filterDatabaseId = id,
+      type = type,
+      pattern = pattern,
+      boards = boards,
+      action = action,
+      onlyOnOP = onlyOnOP,
+      applyToSaved = applyToSaved,
+      applyToEmptyComments = applyToEmptyComments
+    )
+  }
+
+  private fun post(
+    comment: String,
+    subject: String? = null,
+    name: String = "",
+    op: Boolean = false,
+    saved: Boolean = false
+  ): ChanPostBuilder {
+    return ChanPostBuilder()
+      .comment(comment)
+      .subject(subject)
+      .name(name)
+      .op(op)
+      .also { postBuilder -> postBuilder.isSavedReply = saved }
+  }
+}
@@ -0,0 +1,95 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Test
+
+class WatcherThreadResponseCacheTest {
+  private val threadDescriptor1 = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  private val threadDescriptor2 = ChanDescriptor.ThreadDescriptor.create("test", "g", 2L)
+  private val threadDescriptor3 = ChanDescriptor.ThreadDescriptor.create("test", "g", 3L)
+
+  @Test
+  fun `test response can only be taken once and only for the same url`() {
+    val cache = WatcherThreadResponseCache()
+
+    cache.put(threadDescriptor1, url(1), ByteArray(10), null)
+    assertNull(cache.take(threadDescriptor1, url(2)))
+
+    cache.put(threadDescriptor1, url(1), ByteArray(10), null)
+    assertNotNull(cache.take(threadDescriptor1, url(1)))
+    assertNull(cache.take(threadDescriptor1, url(1)))
+
+    assertEquals(1L, cache.stats().reusedResponsesCount)
+    assertEquals(0L, cache.stats().totalSize)
+  }
+
+  @Test
+  fun `test stale responses are not returned`() {
+    var time = 1000L
+    val cache = WatcherThreadResponseCache(maxAgeMs = 100L, timeProvider = { time })
+
+    cache.put(threadDescriptor1, url(1), ByteArray(10), null)
+    time += 101L
+
+    assertNull(cache.take(threadDescriptor1, url(1)))
+  }
+
+  @Test
+  fun `test oldest responses are evicted when over limits`() {
+    val cache = WatcherThreadResponseCache(maxEntries = 2, maxTotalSize = 25L)
+
+    cache.put(threadDescriptor1, url(1), ByteArray(10), null)
+    cache.put(threadDescriptor2, url(2), ByteArray(10), null)
+    cache.put(threadDescriptor3, url(3), ByteArray(10), null)
+
+    assertEquals(2, cache.stats().entriesCount)
+    assertNull(cache.take(threadDescriptor1, url(1)))
+
+    cache.put(threadDescriptor1, url(1), ByteArray(20), null)
+
+    assertEquals(1, cache.stats().entriesCount)
+    assertEquals(20L, cache.stats().totalSize)
+    assertNotNull(cache.take(threadDescriptor1, url(1)))
+  }
+
+  @Test
+  fun `test thread loader waits for the running watcher fetch`() = runBlocking {
+    val cache = WatcherThreadResponseCache()
+    val fetch = cache.onFetchStarted(threadDescriptor1)
+
+    val loader = async(Dispatchers.Default) {
+      cache.awaitFetch(threadDescriptor1)
+      return@async cache.take(threadDescriptor1, url(1))
+    }
+
+    delay(50)
+    cache.put(threadDescriptor1, url(1), ByteArray(10), null)
+    cache.onFetchFinished(threadDescriptor1, fetch)
+
+    assertNotNull(loader.await())
+    assertEquals(1L, cache.stats().awaitedFetchesCount)
+  }
+
+  @Test
+  fun `test waiting for a fetch is limited`() = runBlocking {
+    val cache = WatcherThreadResponseCache()
+    cache.onFetchStarted(threadDescriptor1)
+
+    cache.awaitFetch(threadDescriptor1, maxWaitMs = 10L)
+    assertNull(cache.take(threadDescriptor1, url(1)))
+
+    // Nothing is running for this thread
+    cache.awaitFetch(threadDescriptor2)
+    assertEquals(1L, cache.stats().awaitedFetchesCount)
+  }
+
+  private fun url(threadNo: Long) = "https://test.com/g/thread/$threadNo.json".toHttpUrl()
+}
@@ -0,0 +1,114 @@
+package com.github.k1rakishou.chan.core.image
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Test
+
+class ImageLoadSchedulerTest {
+
+  @Test
+  fun `test loads are limited per host`() {
+    val scheduler = ImageLoadScheduler(maxLoadsPerHost = 2, maxBackgroundLoadsPerHost = 1)
+    val started = mutableListOf<String>()
+
+    val tickets = (0 until 3).map { index ->
+      scheduler.enqueue("https://a.com/$index.jpg", { ImageLoadPriority.Visible }) { started += "a$index" }
+    }
+    scheduler.enqueue("https://b.com/0.jpg", { ImageLoadPriority.Visible }) { started += "b0" }
+
+    assertEquals(listOf("a0", "a1", "b0"), started)
+    assertEquals(mapOf("a.com" to 2, "b.com" to 1), scheduler.stats().runningByHost)
+
+    tickets[0].release()
+    // Releasing twice must not free up an extra permit
+    tickets[0].release()
+
+    assertEquals(listOf("a0", "a1", "b0", "a2"), started)
+    assertEquals(2, scheduler.stats().runningByHost["a.com"])
+  }
+
+  @Test
+  fun `test waiting loads are started by their current priority`() {
+    val scheduler = ImageLoadScheduler(maxLoadsPerHost = 1, maxBackgroundLoadsPerHost = 1)
+    val started = mutableListOf<String>()
+
+    val first = scheduler.enqueue("https://a.com/0.jpg", { ImageLoadPriority.Visible }) { started += "first" }
+
+    var demotedPriority = ImageLoadPriority.Visible
+    scheduler.enqueue("https://a.com/1.jpg", { demotedPriority }) { started += "demoted" }
+    val visible = scheduler.enqueue("https://a.com/2.jpg", { ImageLoadPriority.Visible }) { started += "visible" }
+    val canceled = scheduler.enqueue("https://a.com/3.jpg", { ImageLoadPriority.Visible }) { started += "canceled" }
+
+    // The view of the second load got scrolled off the screen and the last one got unbound
+    demotedPriority = ImageLoadPriority.NearVisible
+    canceled.release()
+
+    first.release()
+    visible.release()
+
+    assertEquals(listOf("first", "visible", "demoted"), started)
+    assertEquals(1L, scheduler.stats().canceledWhileQueued)
+  }
+
+  @Test
+  fun `test background loads never take all permits of a host`() {
+    val scheduler = ImageLoadScheduler(maxLoadsPerHost = 3, maxBackgroundLoadsPerHost = 1)
+    val started = mutableListOf<String>()
+
+    val background = scheduler.enqueue("https://a.com/0.jpg", { ImageLoadPriority.Background }) { started += "background0" }
+    scheduler.enqueue("https://a.com/1.jpg", { ImageLoadPriority.Background }) { started += "background1" }
+    scheduler.enqueue("https://a.com/2.jpg", { ImageLoadPriority.Visible }) { started += "visible0" }
+    scheduler.enqueue("https://a.com/3.jpg", { ImageLoadPriority.Visible }) { started += "visible1" }
+
+    assertEquals(listOf("background0", "visible0", "visible1"), started)
+
+    background.release()
+    assertEquals(listOf("background0", "visible0", "visible1", "background1"), started)
+
+    val stats = scheduler.stats()
+    assertEquals(2L, stats.grantedByPriority[ImageLoadPriority.Background])
+    assertEquals(2L, stats.grantedByPriority[ImageLoadPriority.Visible])
+  }
+
+  @Test
+  fun `test prefetches don't take any permits of the thumbnails`() {
+    val scheduler = ImageLoadScheduler(maxLoadsPerHost = 2, maxBackgroundLoadsPerHost = 1, maxPrefetchLoadsPerHost = 2)
+    val started = mutableListOf<String>()
+
+    val prefetch = scheduler.enqueue("https://a.com/0.webm", { ImageLoadPriority.Prefetch }) { started += "prefetch0" }
+    scheduler.enqueue("https://a.com/1.webm", { ImageLoadPriority.Prefetch }) { started += "prefetch1" }
+    scheduler.enqueue("https://a.com/2.webm", { ImageLoadPriority.Prefetch }) { started += "prefetch2" }
+    scheduler.enqueue("https://a.com/3.jpg", { ImageLoadPriority.Visible }) { started += "visible0" }
+    scheduler.enqueue("https://a.com/4.jpg", { ImageLoadPriority.Visible }) { started += "visible1" }
+    scheduler.enqueue("https://a.com/5.jpg", { ImageLoadPriority.Visible }) { started += "visible2" }
+
+    // Both running prefetches hold their permits but the thumbnails still get all of theirs
+    assertEquals(listOf("prefetch0", "prefetch1", "visible0", "visible1"), started)
+    assertEquals(mapOf("a.com" to 2), scheduler.stats().runningByHost)
+    assertEquals(mapOf("a.com" to 2), scheduler.stats().runningPrefetchesByHost)
+
+    // A finished prefetch frees up a prefetch permit only
+    prefetch.release()
+    assertEquals(listOf("prefetch0", "prefetch1", "visible0", "visible1", "prefetch2"), started)
+  }
+
+  @Test
+  fun `test canceled waiter releases its permit`() = runBlocking {
+    val scheduler = ImageLoadScheduler(maxLoadsPerHost = 1, maxBackgroundLoadsPerHost = 1)
+    val blocker = scheduler.enqueue("https://a.com/0.jpg", { ImageLoadPriority.Visible })
+
+    val waiter = async { scheduler.withPermit("https://a.com/1.jpg", { ImageLoadPriority.Visible }) { 1 } }
+    yield()
+
+    waiter.cancel()
+    blocker.release()
+
+    val result = scheduler.withPermit("https://a.com/2.jpg", { ImageLoadPriority.Visible }) { 2 }
+    assertEquals(2, result)
+    assertTrue(scheduler.stats().runningByHost.isEmpty())
+  }
+
+}
@@ -0,0 +1,140 @@
+package com.github.k1rakishou.chan.core.loader.impl
+
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruSetting
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupImage
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+class ThirdEyeLookupCoordinatorTest {
+  private val singleBooru = BooruSetting(apiEndpoint = "https://booru.test/posts.json?md5=")
+  private val batchBooru = BooruSetting(
+    apiEndpoint = "https://booru2.test/posts.json?md5=",
+    batchApiEndpoint = "https://booru2.test/posts.json?tags=md5:{keys}",
+    md5JsonKey = "md5"
+  )
+
+  @Test
+  fun `test concurrent lookups of the same hash are coalesced and results are stored`() = runBlocking {
+    val storage = TestLookupStorage()
+    val fetcher = TestBooruFetcher(foundHashes = setOf("aaaa"))
+    val coordinator = ThirdEyeLookupCoordinator(this, storage, fetcher)
+
+    val results = (0 until 10).map {
+      async(Dispatchers.Default) { coordinator.lookup(singleBooru, "aaaa") }
+    }
+
+    fetcher.release.complete(Unit)
+    results.awaitAll().forEach { result -> assertNotNull(result!!.image) }
+
+    assertEquals(1, fetcher.requests.size)
+    assertNotNull(storage.results[singleBooru.booruUniqueKey to "aaaa"])
+
+    // Stored results are not requested again
+    assertNotNull(coordinator.lookup(singleBooru, "aaaa")!!.image)
+    assertEquals(1, fetcher.requests.size)
+    assertTrue(coordinator.stats().cacheHits >= 1L)
+  }
+
+  @Test
+  fun `test negative results are stored and failed lookups are not`() = runBlocking {
+    val storage = TestLookupStorage()
+    val fetcher = TestBooruFetcher(foundHashes = emptySet())
+    fetcher.release.complete(Unit)
+    val coordinator = ThirdEyeLookupCoordinator(this, storage, fetcher)
+
+    assertNull(coordinator.lookup(singleBooru, "bbbb")!!.image)
+    assertNull(coordinator.lookup(singleBooru, "bbbb")!!.image)
+    assertEquals(1, fetcher.requests.size)
+
+    fetcher.fail = true
+    assertNull(coordinator.lookup(singleBooru, "cccc"))
+    assertNull(storage.results[singleBooru.booruUniqueKey to "cccc"])
+
+    fetcher.fail = false
+    assertNull(coordinator.lookup(singleBooru, "cccc")!!.image)
+    assertEquals(3, fetcher.requests.size)
+  }
+
+  @Test
+  fun `test lookups of different hashes are batched for boorus that support it`() = runBlocking {
+    val storage = TestLookupStorage()
+    val fetcher = TestBooruFetcher(foundHashes = setOf("h1", "h3"))
+    fetcher.release.complete(Unit)
+    val coordinator = ThirdEyeLookupCoordinator(this, storage, fetcher, batchDelayMs = 200L, maxBatchSize = 3)
+
+    val hashes = (1..5).map { index -> "h$index" }
+    val results = hashes.map { imageHash ->
+      async(Dispatchers.Default) { coordinator.lookup(batchBooru, imageHash) }
+    }.awaitAll()
+
+    assertEquals(listOf(true, false, true, false, false), results.map { result -> result!!.image != null })
+    // 5 hashes with max batch size of 3 -> one full batch and one flushed after the delay
+    assertEquals(2, fetcher.requests.size)
+    assertEquals(hashes.toSet(), fetcher.requests.flatten().toSet())
+    assertTrue(fetcher.requests.all { request -> request.size <= 3 })
+  }
+
+  private class TestLookupStorage : ThirdEyeLookupCoordinator.LookupStorage {
+    val results = ConcurrentHashMap<Pair<String, String>, ThirdEyeLookupResult>()
+
+    override suspend fun getLookupResults(
+      booruKey: String,
+      imageHashes: Collection<String>
+    ): Map<String, ThirdEyeLookupResult> {
+      return imageHashes
+        .mapNotNull { imageHash -> results[booruKey to imageHash] }
+        .associateBy { result -> result.imageHash }
+    }
+
+    override suspend fun storeLookupResults(lookupResults: List<ThirdEyeLookupResult>) {
+      lookupResults.forEach { result -> results[result.booruKey to result.imageHash] = result }
+    }
+  }
+
+  private class TestBooruFetcher(
+    private val foundHashes: Set<String>
+  ) : ThirdEyeLookupCoordinator.BooruFetcher {
+    val requests = CopyOnWriteArrayList<List<String>>()
+    val release = CompletableDeferred<Unit>()
+
+    @Volatile
+    var fail = false
+
+    override suspend fun fetch(
+      booruSetting: BooruSetting,
+      imageHashes: List<String>
+    ): Map<String, ThirdEyeLookupImage>? {
+      requests += imageHashes.toList()
+      release.await()
+
+      if (fail) {
+        return null
+      }
+
+      return imageHashes
+        .filter { imageHash -> imageHash in foundHashes }
+        .associateWith { imageHash ->
+          ThirdEyeLookupImage(
+            imageUrl = "https://booru.test/${imageHash}.png",
+            thumbnailUrl = "https://booru.test/${imageHash}_thumb.png",
+            imageWidth = null,
+            imageHeight = null,
+            imageSize = null,
+            tags = emptyList()
+          )
+        }
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ProgressiveImageDecoderTest {
+
+  @Test
+  fun `test decodes are throttled relative to the file size`() {
+    val kb = 1024L
+    val total = 4L * 1024L * kb
+
+    // Step is total / 16 = 256KB
+    assertFalse(ProgressiveImageDecoder.shouldDecode(0L, 255L * kb, total))
+    assertTrue(ProgressiveImageDecoder.shouldDecode(0L, 256L * kb, total))
+    assertFalse(ProgressiveImageDecoder.shouldDecode(256L * kb, 500L * kb, total))
+
+    // Small files are decoded every 64KB
+    assertFalse(ProgressiveImageDecoder.shouldDecode(0L, 63L * kb, 200L * kb))
+    assertTrue(ProgressiveImageDecoder.shouldDecode(0L, 64L * kb, 200L * kb))
+
+    // Unknown size
+    assertTrue(ProgressiveImageDecoder.shouldDecode(0L, 64L * kb, -1L))
+
+    // Nothing new or the file is fully downloaded
+    assertFalse(ProgressiveImageDecoder.shouldDecode(total, total, -1L))
+    assertFalse(ProgressiveImageDecoder.shouldDecode(0L, total, total))
+  }
+
+  @Test
+  fun `test frames are sampled down to the view size`() {
+    assertEquals(1, ProgressiveImageDecoder.calculateInSampleSize(1000, 800, 1080, 1920))
+    assertEquals(2, ProgressiveImageDecoder.calculateInSampleSize(2500, 1500, 1080, 1920))
+    assertEquals(4, ProgressiveImageDecoder.calculateInSampleSize(1000, 8000, 1080, 1920))
+    // View is not measured yet
+    assertEquals(4, ProgressiveImageDecoder.calculateInSampleSize(4096, 4096, 0, 0))
+  }
+
+}
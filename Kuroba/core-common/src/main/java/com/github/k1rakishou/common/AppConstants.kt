@@ -51,8 +51,6 @@ open class AppConstants(
   val isDebuggerAttached: Boolean
     get() = Debug.isDebuggerConnected()
 
-  // 128MB
-  val exoPlayerDiskCacheMaxSize = 128L * 1024 * 1024
   val mpvDemuxerCacheMaxSize: Long
 
   val replyDraftsDir: File
@@ -95,15 +93,8 @@ open class AppConstants(
       return field
     }
 
-  val exoPlayerCacheDir: File
-    get() {
-      if (field.exists()) {
-        return field
-      }
-
-      check(field.mkdir()) { "Failed to create ExoPlayer cache directory! exoPlayerCacheDir=${field.absolutePath}" }
-      return field
-    }
+  // ExoPlayer used to have it's own disk cache, now videos are played from the file cache
+  val legacyExoPlayerCacheDir: File
 
   val threadDownloaderCacheDir: File
     get() {
@@ -165,7 +156,7 @@ open class AppConstants(
     mpvCertDir = File(context.filesDir, MPV_CERT_DIR_NAME)
 
     diskCacheDir = File(context.filesDir, DISK_CACHE_DIR_NAME)
-    exoPlayerCacheDir = File(context.cacheDir, EXO_PLAYER_CACHE_DIR_NAME)
+    legacyExoPlayerCacheDir = File(context.cacheDir, EXO_PLAYER_CACHE_DIR_NAME)
   }
 
   private fun calculateMpvDemuxerCacheSize(activityManager: ActivityManager?): Long {
@@ -0,0 +1,121 @@
+package com.github.k1rakishou.common
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.supervisorScope
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Determines how many workers are used to process a collection and on which dispatcher.
+ * CpuBound is for things like post parsing or filter matching where having more workers than cores
+ * is pointless. IoBound is for things that mostly wait for the network or the disk.
+ * */
+enum class ConcurrencyType {
+  CpuBound,
+  IoBound;
+
+  val parallelism: Int
+    get() = when (this) {
+      CpuBound -> availableProcessors
+      IoBound -> (availableProcessors * IO_WORKERS_PER_CORE).coerceAtLeast(MIN_IO_WORKERS)
+    }
+
+  val dispatcher: CoroutineDispatcher
+    get() = when (this) {
+      CpuBound -> Dispatchers.Default
+      IoBound -> Dispatchers.IO
+    }
+
+  companion object {
+    private const val IO_WORKERS_PER_CORE = 4
+    private const val MIN_IO_WORKERS = 8
+
+    private val availableProcessors = Runtime.getRuntime().availableProcessors()
+  }
+}
+
+suspend fun <T, R> processDataCollectionConcurrently(
+  dataList: Collection<T>,
+  concurrencyType: ConcurrencyType,
+  processFunc: suspend (T) -> R?
+): List<R> {
+  return processDataCollectionConcurrently(
+    dataList = dataList,
+    batchCount = concurrencyType.parallelism,
+    dispatcher = concurrencyType.dispatcher,
+    processFunc = processFunc
+  )
+}
+
+/**
+ * Processes [dataList] using [batchCount] workers. Every worker takes the next unprocessed element
+ * as soon as it's done with the previous one, so one slow element only occupies one worker instead
+ * of making everybody wait for it. Results are returned in the same order as [dataList], nulls and
+ * elements that threw an exception are skipped.
+ * */
+suspend fun <T, R> processDataCollectionConcurrently(
+  dataList: Collection<T>,
+  batchCount: Int = Runtime.getRuntime().availableProcessors(),
+  dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  processFunc: suspend (T) -> R?
+): List<R> {
+  return processDataCollectionConcurrentlyIndexed(dataList, batchCount, dispatcher) { _, data ->
+    processFunc(data)
+  }
+}
+
+/**
+ * Same as [processDataCollectionConcurrently] but also passes the index of the element in [dataList]
+ * into [processFunc].
+ * */
+suspend fun <T, R> processDataCollectionConcurrentlyIndexed(
+  dataList: Collection<T>,
+  batchCount: Int = Runtime.getRuntime().availableProcessors(),
+  dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  processFunc: suspend (Int, T) -> R?
+): List<R> {
+  if (dataList.isEmpty()) {
+    return emptyList()
+  }
+
+  val inputList = dataList as? List<T> ?: dataList.toList()
+  val results = arrayOfNulls<Any?>(inputList.size)
+  val nextIndex = AtomicInteger(0)
+  val workersCount = batchCount.coerceIn(1, inputList.size)
+
+  supervisorScope {
+    repeat(workersCount) {
+      launch(dispatcher) {
+        while (true) {
+          ensureActive()
+
+          val index = nextIndex.getAndIncrement()
+          if (index >= inputList.size) {
+            break
+          }
+
+          // Cancellation of the whole scope is handled by ensureActive() above, a
+          // CancellationException thrown here (a timeout for example) only fails this element.
+          results[index] = try {
+            processFunc(index, inputList[index])
+          } catch (error: Throwable) {
+            null
+          }
+        }
+      }
+    }
+  }
+
+  val resultList = mutableListWithCap<R>(inputList.size)
+
+  for (result in results) {
+    if (result != null) {
+      @Suppress("UNCHECKED_CAST")
+      resultList += result as R
+    }
+  }
+
+  return resultList
+}
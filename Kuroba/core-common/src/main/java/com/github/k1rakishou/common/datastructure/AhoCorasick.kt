@@ -0,0 +1,195 @@
+package com.github.k1rakishou.common.datastructure
+
+import java.util.*
+
+/**
+ * Aho-Corasick automaton. Finds all occurrences of all keywords in a text in a single pass over
+ * the text (ASCII case-insensitive, see [foldCase]). Every keyword has an integer payload which is reported back to the
+ * caller together with the match boundaries so that the caller can map a match to whatever the
+ * keyword belongs to.
+ *
+ * The automaton is immutable once built so it can be used from multiple threads concurrently.
+ * */
+class AhoCorasick private constructor(
+  // Outgoing edges of every node, sorted by char so that we can use binary search
+  private val edgeChars: Array<CharArray>,
+  private val edgeTargets: Array<IntArray>,
+  private val failureLinks: IntArray,
+  // Indexes of keywords that end at every node (including the ones reachable via failure links)
+  private val outputs: Array<IntArray>,
+  private val keywordLengths: IntArray,
+  private val keywordPayloads: IntArray
+) {
+
+  val keywordsCount: Int
+    get() = keywordLengths.size
+
+  fun isEmpty(): Boolean = keywordLengths.isEmpty()
+
+  /**
+   * Calls [listener] for every keyword occurrence in [text] in the order of their end positions.
+   * Stops as soon as [listener] returns false.
+   * */
+  fun search(text: CharSequence, listener: MatchListener) {
+    if (isEmpty() || text.isEmpty()) {
+      return
+    }
+
+    var state = ROOT
+
+    for (index in 0 until text.length) {
+      state = nextState(state, foldCase(text[index]))
+
+      val nodeOutputs = outputs[state]
+      if (nodeOutputs.isEmpty()) {
+        continue
+      }
+
+      val end = index + 1
+
+      for (keywordIndex in nodeOutputs) {
+        val start = end - keywordLengths[keywordIndex]
+
+        if (!listener.onMatch(start, end, keywordPayloads[keywordIndex])) {
+          return
+        }
+      }
+    }
+  }
+
+  private fun nextState(currentState: Int, ch: Char): Int {
+    var state = currentState
+
+    while (true) {
+      val next = findEdge(state, ch)
+      if (next >= 0) {
+        return next
+      }
+
+      if (state == ROOT) {
+        return ROOT
+      }
+
+      state = failureLinks[state]
+    }
+  }
+
+  private fun findEdge(state: Int, ch: Char): Int {
+    val chars = edgeChars[state]
+    if (chars.isEmpty()) {
+      return -1
+    }
+
+    val index = Arrays.binarySearch(chars, ch)
+    if (index < 0) {
+      return -1
+    }
+
+    return edgeTargets[state][index]
+  }
+
+  fun interface MatchListener {
+    /**
+     * [start] is inclusive, [end] is exclusive.
+     * Return false to stop the search.
+     * */
+    fun onMatch(start: Int, end: Int, payload: Int): Boolean
+  }
+
+  class Builder {
+    private val keywords = mutableListOf<String>()
+    private val payloads = mutableListOf<Int>()
+
+    fun addKeyword(keyword: String, payload: Int): Builder {
+      require(keyword.isNotEmpty()) { "keyword must not be empty" }
+
+      keywords += keyword
+      payloads += payload
+
+      return this
+    }
+
+    fun build(): AhoCorasick {
+      val children = mutableListOf<TreeMap<Char, Int>>(TreeMap())
+      val nodeKeywords = mutableListOf<MutableList<Int>>(mutableListOf())
+
+      keywords.forEachIndexed { keywordIndex, keyword ->
+        var state = ROOT
+
+        for (ch in keyword) {
+          val folded = foldCase(ch)
+          val existing = children[state][folded]
+
+          if (existing != null) {
+            state = existing
+            continue
+          }
+
+          children += TreeMap()
+          nodeKeywords += mutableListOf<Int>()
+
+          val newState = children.lastIndex
+          children[state][folded] = newState
+          state = newState
+        }
+
+        nodeKeywords[state] += keywordIndex
+      }
+
+      val nodesCount = children.size
+      val failureLinks = IntArray(nodesCount)
+      val queue = ArrayDeque<Int>()
+
+      for (child in children[ROOT].values) {
+        failureLinks[child] = ROOT
+        queue.add(child)
+      }
+
+      // BFS guarantees that the failure link of a node's parent is already calculated when we
+      // get to that node, so we can merge the outputs of the failure link node right away.
+      while (queue.isNotEmpty()) {
+        val state = queue.poll()!!
+
+        for ((ch, child) in children[state]) {
+          var failure = failureLinks[state]
+
+          while (failure != ROOT && children[failure][ch] == null) {
+            failure = failureLinks[failure]
+          }
+
+          val failureTarget = children[failure][ch]
+          failureLinks[child] = if (failureTarget != null && failureTarget != child) failureTarget else ROOT
+          nodeKeywords[child].addAll(nodeKeywords[failureLinks[child]])
+
+          queue.add(child)
+        }
+      }
+
+      return AhoCorasick(
+        edgeChars = Array(nodesCount) { state -> children[state].keys.toCharArray() },
+        edgeTargets = Array(nodesCount) { state -> children[state].values.toIntArray() },
+        failureLinks = failureLinks,
+        outputs = Array(nodesCount) { state -> nodeKeywords[state].toIntArray() },
+        keywordLengths = IntArray(keywords.size) { index -> keywords[index].length },
+        keywordPayloads = payloads.toIntArray()
+      )
+    }
+  }
+
+  companion object {
+    private const val ROOT = 0
+
+    /**
+     * Only ASCII letters are folded, same as [java.util.regex.Pattern.CASE_INSENSITIVE] without
+     * [java.util.regex.Pattern.UNICODE_CASE], so that keywords match exactly the same text as
+     * the regex patterns they replace.
+     * */
+    fun foldCase(ch: Char): Char {
+      if (ch in 'A'..'Z') {
+        return ch + ('a' - 'A')
+      }
+
+      return ch
+    }
+  }
+}
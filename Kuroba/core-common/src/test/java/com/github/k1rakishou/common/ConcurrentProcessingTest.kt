@@ -0,0 +1,143 @@
+package com.github.k1rakishou.common
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.supervisorScope
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.system.measureNanoTime
+
+class ConcurrentProcessingTest {
+
+  @Test
+  fun `test results are in the input order`() = runBlocking {
+    val input = (0 until 1000).toList()
+
+    val results = processDataCollectionConcurrently(input, batchCount = 8, dispatcher = Dispatchers.Default) { value ->
+      // Make the first elements the slowest ones so that they finish last
+      if (value < 10) {
+        delay(10L - value)
+      }
+
+      return@processDataCollectionConcurrently value * 2
+    }
+
+    assertEquals(input.map { value -> value * 2 }, results)
+  }
+
+  @Test
+  fun `test nulls and errors are skipped`() = runBlocking {
+    val results = processDataCollectionConcurrently((0 until 100).toList(), ConcurrencyType.CpuBound) { value ->
+      if (value % 10 == 0) {
+        throw IllegalStateException("test")
+      }
+
+      if (value % 2 == 0) {
+        return@processDataCollectionConcurrently null
+      }
+
+      return@processDataCollectionConcurrently value
+    }
+
+    assertEquals((0 until 100).filter { value -> value % 2 != 0 }, results)
+  }
+
+  @Test
+  fun `test every element is processed exactly once with its own index`() = runBlocking {
+    val input = (0 until 500).map { value -> "value_$value" }
+    val processed = ConcurrentHashMap<Int, String>()
+
+    processDataCollectionConcurrentlyIndexed(input, batchCount = 16, dispatcher = Dispatchers.IO) { index, value ->
+      assertTrue(processed.put(index, value) == null)
+      return@processDataCollectionConcurrentlyIndexed index
+    }
+
+    assertEquals(input.size, processed.size)
+    input.forEachIndexed { index, value -> assertEquals(value, processed[index]) }
+  }
+
+  /**
+   * Not a real benchmark (there is no JMH in this project). Compares the old chunk-and-await
+   * processing with the worker based one on 3000 synthetic posts where a few posts are a lot more
+   * expensive to parse than the rest of them (huge comments with lots of links etc). Only executed
+   * when the RUN_BENCHMARKS environment variable is set to true.
+   * */
+  @Test
+  fun `benchmark 3000 posts with skewed parse cost`() = runBlocking {
+    assumeTrue(System.getenv("RUN_BENCHMARKS") == "true")
+
+    val posts = (0 until 3000).map { postIndex ->
+      val cost = if (postIndex % 97 == 0) 2_000_000 else 20_000
+      SyntheticPost(postIndex, cost)
+    }
+
+    val batchCount = Runtime.getRuntime().availableProcessors()
+
+    val chunkedTimings = mutableListOf<Long>()
+    val workersTimings = mutableListOf<Long>()
+
+    repeat(BENCHMARK_ITERATIONS + 1) { iteration ->
+      val chunkedTime = measureNanoTime {
+        val results = processChunked(posts, batchCount, Dispatchers.Default) { post -> post.parse() }
+        assertEquals(posts.size, results.size)
+      }
+
+      val workersTime = measureNanoTime {
+        val results = processDataCollectionConcurrently(posts, batchCount, Dispatchers.Default) { post -> post.parse() }
+        assertEquals(posts.size, results.size)
+      }
+
+      // First iteration is a warmup
+      if (iteration > 0) {
+        chunkedTimings += chunkedTime
+        workersTimings += workersTime
+      }
+    }
+
+    println("Processing ${posts.size} posts with ${batchCount} workers took: " +
+      "chunked avg=${chunkedTimings.average() / 1_000_000.0}ms, " +
+      "workers avg=${workersTimings.average() / 1_000_000.0}ms")
+  }
+
+  private class SyntheticPost(val postIndex: Int, private val cost: Int) {
+    fun parse(): Long {
+      var hash = postIndex.toLong()
+
+      for (i in 0 until cost) {
+        hash = hash * 31 + i
+      }
+
+      return hash
+    }
+  }
+
+  // The way processDataCollectionConcurrently used to work
+  private suspend fun <T, R> processChunked(
+    dataList: List<T>,
+    batchCount: Int,
+    dispatcher: CoroutineDispatcher,
+    processFunc: suspend (T) -> R?
+  ): List<R> {
+    return supervisorScope {
+      return@supervisorScope dataList
+        .chunked(batchCount)
+        .flatMap { dataChunk ->
+          return@flatMap dataChunk
+            .map { data -> async(dispatcher) { processFunc(data) } }
+            .awaitAll()
+            .filterNotNull()
+        }
+    }
+  }
+
+  companion object {
+    private const val BENCHMARK_ITERATIONS = 5
+  }
+}
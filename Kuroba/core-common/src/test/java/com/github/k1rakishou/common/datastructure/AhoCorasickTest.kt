@@ -0,0 +1,126 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class AhoCorasickTest {
+
+  private fun AhoCorasick.findAll(text: String): List<Triple<Int, Int, Int>> {
+    val matches = mutableListOf<Triple<Int, Int, Int>>()
+
+    search(text) { start, end, payload ->
+      matches += Triple(start, end, payload)
+      return@search true
+    }
+
+    return matches
+  }
+
+  @Test
+  fun `test empty automaton finds nothing`() {
+    val automaton = AhoCorasick.Builder().build()
+
+    assertTrue(automaton.isEmpty())
+    assertTrue(automaton.findAll("test").isEmpty())
+  }
+
+  @Test
+  fun `test classic he she his hers`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("he", 0)
+      .addKeyword("she", 1)
+      .addKeyword("his", 2)
+      .addKeyword("hers", 3)
+      .build()
+
+    val matches = automaton.findAll("ushers")
+
+    assertEquals(3, matches.size)
+    assertTrue(matches.contains(Triple(1, 4, 1)))
+    assertTrue(matches.contains(Triple(2, 4, 0)))
+    assertTrue(matches.contains(Triple(2, 6, 3)))
+  }
+
+  @Test
+  fun `test matching is case insensitive`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("KuRoBa", 42)
+      .build()
+
+    assertEquals(listOf(Triple(4, 10, 42)), automaton.findAll("abc kurobA def"))
+    assertEquals(listOf(Triple(0, 6, 42)), automaton.findAll("KUROBA"))
+  }
+
+  @Test
+  fun `test only ascii letters are case folded`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("привет", 1)
+      .build()
+
+    assertEquals(listOf(Triple(0, 6, 1)), automaton.findAll("привет"))
+    assertTrue(automaton.findAll("ПРИВЕТ").isEmpty())
+  }
+
+  @Test
+  fun `test overlapping and repeated matches`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("aa", 0)
+      .build()
+
+    assertEquals(
+      listOf(Triple(0, 2, 0), Triple(1, 3, 0), Triple(2, 4, 0)),
+      automaton.findAll("aaaa")
+    )
+  }
+
+  @Test
+  fun `test same keyword with different payloads`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("test", 1)
+      .addKeyword("test", 2)
+      .build()
+
+    val payloads = automaton.findAll("a test").map { it.third }.toSet()
+    assertEquals(setOf(1, 2), payloads)
+  }
+
+  @Test
+  fun `test search stops when listener returns false`() {
+    val automaton = AhoCorasick.Builder()
+      .addKeyword("a", 0)
+      .build()
+
+    var count = 0
+    automaton.search("aaaa") { _, _, _ ->
+      ++count
+      return@search false
+    }
+
+    assertEquals(1, count)
+  }
+
+  @Test
+  fun `test results are the same as naive search`() {
+    val keywords = listOf("abc", "bc", "c", "abcd", "bcd", "xyz", "zz", "cab")
+    val builder = AhoCorasick.Builder()
+    keywords.forEachIndexed { index, keyword -> builder.addKeyword(keyword, index) }
+    val automaton = builder.build()
+
+    val text = "abcdzzzcabcabxyzzabcd"
+    val expected = mutableSetOf<Triple<Int, Int, Int>>()
+
+    keywords.forEachIndexed { keywordIndex, keyword ->
+      var index = text.indexOf(keyword)
+      while (index >= 0) {
+        expected += Triple(index, index + keyword.length, keywordIndex)
+        index = text.indexOf(keyword, index + 1)
+      }
+    }
+
+    val actual = automaton.findAll(text)
+
+    assertEquals(expected.size, actual.size)
+    assertEquals(expected, actual.toSet())
+  }
+}
@@ -5,6 +5,7 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.github.k1rakishou.common.DoNotStrip
 import com.github.k1rakishou.model.converter.BitSetTypeConverter
 import com.github.k1rakishou.model.converter.ChanPostImageTypeTypeConverter
@@ -25,23 +26,30 @@ import com.github.k1rakishou.model.dao.ChanPostHideDao
 import com.github.k1rakishou.model.dao.ChanPostHttpIconDao
 import com.github.k1rakishou.model.dao.ChanPostImageDao
 import com.github.k1rakishou.model.dao.ChanPostReplyDao
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
 import com.github.k1rakishou.model.dao.ChanSavedReplyDao
 import com.github.k1rakishou.model.dao.ChanSiteDao
 import com.github.k1rakishou.model.dao.ChanTextSpanDao
 import com.github.k1rakishou.model.dao.ChanThreadDao
 import com.github.k1rakishou.model.dao.ChanThreadViewableInfoDao
 import com.github.k1rakishou.model.dao.CompositeCatalogDao
+import com.github.k1rakishou.model.dao.ConditionalRequestValidatorDao
 import com.github.k1rakishou.model.dao.DatabaseMetaDao
 import com.github.k1rakishou.model.dao.ImageDownloadRequestDao
 import com.github.k1rakishou.model.dao.MediaServiceLinkExtraContentDao
 import com.github.k1rakishou.model.dao.NavHistoryDao
+import com.github.k1rakishou.model.dao.SavedImageDao
 import com.github.k1rakishou.model.dao.SeenPostDao
+import com.github.k1rakishou.model.dao.ThirdEyeLookupDao
 import com.github.k1rakishou.model.dao.ThreadBookmarkDao
 import com.github.k1rakishou.model.dao.ThreadBookmarkGroupDao
 import com.github.k1rakishou.model.dao.ThreadBookmarkReplyDao
 import com.github.k1rakishou.model.dao.ThreadDownloadDao
+import com.github.k1rakishou.model.entity.ConditionalRequestValidatorEntity
 import com.github.k1rakishou.model.entity.MediaServiceLinkExtraContentEntity
-import com.github.k1rakishou.model.entity.SeenPostEntity
+import com.github.k1rakishou.model.entity.SavedImageEntity
+import com.github.k1rakishou.model.entity.ThirdEyeLookupEntity
+import com.github.k1rakishou.model.entity.ThreadSeenPostsEntity
 import com.github.k1rakishou.model.entity.bookmark.ThreadBookmarkEntity
 import com.github.k1rakishou.model.entity.bookmark.ThreadBookmarkGroupEntity
 import com.github.k1rakishou.model.entity.bookmark.ThreadBookmarkGroupEntryEntity
@@ -59,6 +67,7 @@ import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanSavedReplyEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.site.ChanSiteEntity
@@ -105,6 +114,13 @@ import com.github.k1rakishou.model.migrations.Migration_v38_to_v39
 import com.github.k1rakishou.model.migrations.Migration_v39_to_v40
 import com.github.k1rakishou.model.migrations.Migration_v3_to_v4
 import com.github.k1rakishou.model.migrations.Migration_v40_to_v41
+import com.github.k1rakishou.model.migrations.Migration_v41_to_v42
+import com.github.k1rakishou.model.migrations.Migration_v42_to_v43
+import com.github.k1rakishou.model.migrations.Migration_v43_to_v44
+import com.github.k1rakishou.model.migrations.Migration_v44_to_v45
+import com.github.k1rakishou.model.migrations.Migration_v45_to_v46
+import com.github.k1rakishou.model.migrations.Migration_v46_to_v47
+import com.github.k1rakishou.model.migrations.Migration_v47_to_v48
 import com.github.k1rakishou.model.migrations.Migration_v4_to_v5
 import com.github.k1rakishou.model.migrations.Migration_v5_to_v6
 import com.github.k1rakishou.model.migrations.Migration_v6_to_v7
@@ -137,7 +153,7 @@ import java.util.concurrent.atomic.AtomicInteger
     ChanFilterWatchGroupEntity::class,
     ChanCatalogSnapshotEntity::class,
     MediaServiceLinkExtraContentEntity::class,
-    SeenPostEntity::class,
+    ThreadSeenPostsEntity::class,
     NavHistoryElementIdEntity::class,
     NavHistoryElementInfoEntity::class,
     ThreadBookmarkEntity::class,
@@ -146,13 +162,17 @@ import java.util.concurrent.atomic.AtomicInteger
     ThreadBookmarkGroupEntryEntity::class,
     ImageDownloadRequestEntity::class,
     ThreadDownloadEntity::class,
-    CompositeCatalogEntity::class
+    CompositeCatalogEntity::class,
+    ConditionalRequestValidatorEntity::class,
+    ChanPostSearchEntity::class,
+    ThirdEyeLookupEntity::class,
+    SavedImageEntity::class
   ],
   views = [
     ChanThreadsWithPosts::class,
     OldChanPostThread::class
   ],
-  version = 41,
+  version = 48,
   exportSchema = true
 )
 @TypeConverters(
@@ -194,6 +214,10 @@ abstract class KurobaDatabase : RoomDatabase() {
   abstract fun imageDownloadRequestDao(): ImageDownloadRequestDao
   abstract fun threadDownloadDao(): ThreadDownloadDao
   abstract fun compositeCatalogDao(): CompositeCatalogDao
+  abstract fun conditionalRequestValidatorDao(): ConditionalRequestValidatorDao
+  abstract fun chanPostSearchDao(): ChanPostSearchDao
+  abstract fun thirdEyeLookupDao(): ThirdEyeLookupDao
+  abstract fun savedImageDao(): SavedImageDao
 
   suspend fun ensureInTransaction() {
     require(inTransaction()) { "Must be executed in a transaction!" }
@@ -214,6 +238,14 @@ abstract class KurobaDatabase : RoomDatabase() {
     const val SQLITE_TRUE = 1
     const val SQLITE_FALSE = 0
 
+    // Triggers are not created by Room, they have to be created manually for new databases (the
+    // existing ones get them in migrations)
+    val DATABASE_CALLBACK = object : Callback() {
+      override fun onCreate(db: SupportSQLiteDatabase) {
+        ChanPostSearchEntity.createTriggers(db)
+      }
+    }
+
     private val CUSTOM_QUERY_EXECUTOR = Executors.newFixedThreadPool(4, object : ThreadFactory {
       private val THREAD_NAME_STEM = "database_query_%d"
       private val mThreadId = AtomicInteger(0)
@@ -285,7 +317,15 @@ abstract class KurobaDatabase : RoomDatabase() {
           Migration_v38_to_v39(),
           Migration_v39_to_v40(),
           Migration_v40_to_v41(),
+          Migration_v41_to_v42(),
+          Migration_v42_to_v43(),
+          Migration_v43_to_v44(),
+          Migration_v44_to_v45(),
+          Migration_v45_to_v46(),
+          Migration_v46_to_v47(),
+          Migration_v47_to_v48(),
         )
+        .addCallback(DATABASE_CALLBACK)
         .fallbackToDestructiveMigrationOnDowngrade()
         .build()
     }
@@ -23,7 +23,8 @@ object ModelModuleInjector {
     isDevFlavor: Boolean,
     isLowRamDevice: Boolean,
     okHttpUseDnsOverHttps: Boolean,
-    appConstants: AppConstants
+    appConstants: AppConstants,
+    compressStoredPostComments: Boolean
   ): ModelComponent {
     val dependencies = ModelComponent.Dependencies(
       application = application,
@@ -35,7 +36,8 @@ object ModelModuleInjector {
       normalDnsSelectorFactory = normalDnsSelectorFactory,
       dnsOverHttpsSelectorFactory = dnsOverHttpsSelectorFactory,
       okHttpProtocols = protocols,
-      appConstants = appConstants
+      appConstants = appConstants,
+      compressStoredPostComments = compressStoredPostComments
     )
 
     val mainComponent = DaggerModelComponent.builder()
@@ -0,0 +1,45 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+
+@Dao
+abstract class ChanPostSearchDao {
+
+  /**
+   * [query] must already be in the FTS query syntax. Returns the newest [limit] matches, they are
+   * ranked by the caller using the matchinfo() blob.
+   * */
+  @Query("""
+    SELECT
+        ${ChanPostSearchEntity.ROWID_COLUMN_NAME} AS ${ChanPostSearchEntity.ROWID_COLUMN_NAME},
+        snippet(${ChanPostSearchEntity.TABLE_NAME}, :snippetStart, :snippetEnd, '…', -1, :snippetTokens) AS snippet,
+        matchinfo(${ChanPostSearchEntity.TABLE_NAME}, 'pcx') AS match_info
+    FROM ${ChanPostSearchEntity.TABLE_NAME}
+    WHERE ${ChanPostSearchEntity.TABLE_NAME} MATCH :query
+    ORDER BY ${ChanPostSearchEntity.ROWID_COLUMN_NAME} DESC
+    LIMIT :limit
+  """)
+  abstract suspend fun search(
+    query: String,
+    snippetStart: String,
+    snippetEnd: String,
+    snippetTokens: Int,
+    limit: Int
+  ): List<SearchMatch>
+
+  @Query("SELECT COUNT(*) FROM ${ChanPostSearchEntity.TABLE_NAME}")
+  abstract suspend fun count(): Int
+
+  class SearchMatch(
+    @ColumnInfo(name = ChanPostSearchEntity.ROWID_COLUMN_NAME)
+    val postId: Long,
+    @ColumnInfo(name = "snippet")
+    val snippet: String,
+    @ColumnInfo(name = "match_info")
+    val matchInfo: ByteArray
+  )
+
+}
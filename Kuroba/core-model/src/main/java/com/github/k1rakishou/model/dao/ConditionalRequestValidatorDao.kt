@@ -0,0 +1,46 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.ConditionalRequestValidatorEntity
+import org.joda.time.DateTime
+
+@Dao
+abstract class ConditionalRequestValidatorDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun insertOrReplace(conditionalRequestValidatorEntity: ConditionalRequestValidatorEntity)
+
+  @Query("""
+        SELECT *
+        FROM ${ConditionalRequestValidatorEntity.TABLE_NAME}
+        WHERE 
+            ${ConditionalRequestValidatorEntity.DESCRIPTOR_KEY_COLUMN_NAME} = :descriptorKey
+        AND
+            ${ConditionalRequestValidatorEntity.CONSUMER_COLUMN_NAME} = :consumer
+    """)
+  abstract suspend fun select(descriptorKey: String, consumer: Int): ConditionalRequestValidatorEntity?
+
+  @Query("""
+        DELETE 
+        FROM ${ConditionalRequestValidatorEntity.TABLE_NAME}
+        WHERE 
+            ${ConditionalRequestValidatorEntity.DESCRIPTOR_KEY_COLUMN_NAME} = :descriptorKey
+        AND
+            ${ConditionalRequestValidatorEntity.CONSUMER_COLUMN_NAME} = :consumer
+    """)
+  abstract suspend fun delete(descriptorKey: String, consumer: Int)
+
+  @Query("""
+        DELETE 
+        FROM ${ConditionalRequestValidatorEntity.TABLE_NAME}
+        WHERE ${ConditionalRequestValidatorEntity.UPDATED_AT_COLUMN_NAME} < :dateTime
+    """)
+  abstract suspend fun deleteOlderThan(dateTime: DateTime): Int
+
+  @Query("DELETE FROM ${ConditionalRequestValidatorEntity.TABLE_NAME}")
+  abstract suspend fun deleteAll(): Int
+
+}
@@ -27,6 +27,19 @@ abstract class MediaServiceLinkExtraContentDao {
     mediaServiceType: MediaServiceType
   ): MediaServiceLinkExtraContentEntity?
 
+  @Query("""
+        SELECT * 
+        FROM ${MediaServiceLinkExtraContentEntity.TABLE_NAME} 
+        WHERE 
+            ${MediaServiceLinkExtraContentEntity.VIDEO_ID_COLUMN_NAME} IN (:videoIds)
+        AND
+            ${MediaServiceLinkExtraContentEntity.MEDIA_SERVICE_TYPE} = :mediaServiceType
+    """)
+  abstract suspend fun selectMany(
+    videoIds: Collection<String>,
+    mediaServiceType: MediaServiceType
+  ): List<MediaServiceLinkExtraContentEntity>
+
   @Query("""
         DELETE 
         FROM ${MediaServiceLinkExtraContentEntity.TABLE_NAME}
@@ -0,0 +1,30 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.SavedImageEntity
+
+@Dao
+abstract class SavedImageDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun insertOrReplace(savedImageEntity: SavedImageEntity)
+
+  @Query("""
+        SELECT *
+        FROM ${SavedImageEntity.TABLE_NAME}
+        WHERE ${SavedImageEntity.FILE_HASH_COLUMN_NAME} = :fileHash
+        ORDER BY ${SavedImageEntity.SAVED_AT_COLUMN_NAME} DESC
+    """)
+  abstract suspend fun selectByFileHash(fileHash: String): List<SavedImageEntity>
+
+  @Query("""
+        DELETE 
+        FROM ${SavedImageEntity.TABLE_NAME}
+        WHERE ${SavedImageEntity.OUTPUT_FILE_URI_COLUMN_NAME} IN (:outputFileUris)
+    """)
+  abstract suspend fun deleteByOutputFileUris(outputFileUris: Collection<String>): Int
+
+}
@@ -4,8 +4,7 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
-import androidx.room.RewriteQueriesToDropUnusedColumns
-import com.github.k1rakishou.model.entity.SeenPostEntity
+import com.github.k1rakishou.model.entity.ThreadSeenPostsEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
 import org.joda.time.DateTime
 
@@ -13,39 +12,40 @@ import org.joda.time.DateTime
 abstract class SeenPostDao {
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
-  abstract suspend fun insertMany(seenPostEntities: Collection<SeenPostEntity>)
+  abstract suspend fun insertOrReplace(threadSeenPostsEntity: ThreadSeenPostsEntity)
 
   @Query("""
-        SELECT *
-        FROM ${SeenPostEntity.TABLE_NAME}
-        WHERE ${SeenPostEntity.OWNER_THREAD_ID_COLUMN_NAME} = :threadId
-    """)
-  abstract suspend fun selectAllByThreadId(threadId: Long): List<SeenPostEntity>
+    SELECT *
+    FROM ${ThreadSeenPostsEntity.TABLE_NAME}
+    WHERE ${ThreadSeenPostsEntity.OWNER_THREAD_ID_COLUMN_NAME} = :threadId
+  """)
+  abstract suspend fun selectByThreadId(threadId: Long): ThreadSeenPostsEntity?
 
-  @RewriteQueriesToDropUnusedColumns
+  /**
+   * We only need to know whether a thread was seen or not here so the blobs are not loaded.
+   * */
   @Query("""
-    SELECT * 
-    FROM ${SeenPostEntity.TABLE_NAME} spe
+    SELECT cte.${ChanThreadEntity.THREAD_NO_COLUMN_NAME}
+    FROM ${ThreadSeenPostsEntity.TABLE_NAME} tspe
     INNER JOIN ${ChanThreadEntity.TABLE_NAME} cte 
-        ON spe.${SeenPostEntity.OWNER_THREAD_ID_COLUMN_NAME} = cte.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
+        ON tspe.${ThreadSeenPostsEntity.OWNER_THREAD_ID_COLUMN_NAME} = cte.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
     WHERE
-        spe.${SeenPostEntity.POST_NO_COLUMN_NAME} = cte.${ChanThreadEntity.THREAD_NO_COLUMN_NAME}
+        cte.${ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME} = :ownerBoardId
     AND
-        cte.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} IN (:threadIds)
-    GROUP BY spe.${SeenPostEntity.OWNER_THREAD_ID_COLUMN_NAME}
+        cte.${ChanThreadEntity.THREAD_NO_COLUMN_NAME} IN (:threadNos)
   """)
-  abstract suspend fun selectManyOriginalPostsByThreadId(threadIds: Collection<Long>): List<SeenPostEntity>
+  abstract suspend fun selectSeenThreadNos(ownerBoardId: Long, threadNos: Collection<Long>): List<Long>
 
-  @Query("SELECT COUNT(*) FROM ${SeenPostEntity.TABLE_NAME}")
+  @Query("SELECT IFNULL(SUM(${ThreadSeenPostsEntity.SEEN_POSTS_COUNT_COLUMN_NAME}), 0) FROM ${ThreadSeenPostsEntity.TABLE_NAME}")
   abstract suspend fun count(): Int
 
   @Query("""
-        DELETE 
-        FROM ${SeenPostEntity.TABLE_NAME}
-        WHERE ${SeenPostEntity.INSERTED_AT_COLUMN_NAME} < :dateTime
-    """)
+    DELETE 
+    FROM ${ThreadSeenPostsEntity.TABLE_NAME}
+    WHERE ${ThreadSeenPostsEntity.LAST_SEEN_AT_COLUMN_NAME} < :dateTime
+  """)
   abstract suspend fun deleteOlderThan(dateTime: DateTime): Int
 
-  @Query("DELETE FROM ${SeenPostEntity.TABLE_NAME}")
+  @Query("DELETE FROM ${ThreadSeenPostsEntity.TABLE_NAME}")
   abstract suspend fun deleteAll(): Int
-}
\ No newline at end of file
+}
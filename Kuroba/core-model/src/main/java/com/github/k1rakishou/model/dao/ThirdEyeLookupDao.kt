@@ -0,0 +1,49 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.ThirdEyeLookupEntity
+import org.joda.time.DateTime
+
+@Dao
+abstract class ThirdEyeLookupDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun insertOrReplaceMany(thirdEyeLookupEntities: Collection<ThirdEyeLookupEntity>)
+
+  @Query("""
+        SELECT *
+        FROM ${ThirdEyeLookupEntity.TABLE_NAME}
+        WHERE 
+            ${ThirdEyeLookupEntity.BOORU_KEY_COLUMN_NAME} = :booruKey
+        AND
+            ${ThirdEyeLookupEntity.IMAGE_HASH_COLUMN_NAME} IN (:imageHashes)
+    """)
+  abstract suspend fun selectMany(booruKey: String, imageHashes: Collection<String>): List<ThirdEyeLookupEntity>
+
+  @Query("""
+        DELETE 
+        FROM ${ThirdEyeLookupEntity.TABLE_NAME}
+        WHERE ${ThirdEyeLookupEntity.BOORU_KEY_COLUMN_NAME} IN (:booruKeys)
+    """)
+  abstract suspend fun deleteByBooruKeys(booruKeys: Collection<String>): Int
+
+  @Query("""
+        DELETE 
+        FROM ${ThirdEyeLookupEntity.TABLE_NAME}
+        WHERE 
+            (${ThirdEyeLookupEntity.IMAGE_URL_COLUMN_NAME} IS NOT NULL AND ${ThirdEyeLookupEntity.INSERTED_AT_COLUMN_NAME} < :foundOlderThan)
+        OR
+            (${ThirdEyeLookupEntity.IMAGE_URL_COLUMN_NAME} IS NULL AND ${ThirdEyeLookupEntity.INSERTED_AT_COLUMN_NAME} < :notFoundOlderThan)
+    """)
+  abstract suspend fun deleteExpired(foundOlderThan: DateTime, notFoundOlderThan: DateTime): Int
+
+  @Query("DELETE FROM ${ThirdEyeLookupEntity.TABLE_NAME}")
+  abstract suspend fun deleteAll(): Int
+
+  @Query("SELECT COUNT(*) FROM ${ThirdEyeLookupEntity.TABLE_NAME}")
+  abstract suspend fun count(): Int
+
+}
@@ -0,0 +1,16 @@
+package com.github.k1rakishou.model.data.download
+
+import org.joda.time.DateTime
+
+/**
+ * A file that was saved by the image saver into [outputDirUri]. [fileHash] is the server-side hash of
+ * the post image (ChanPostImage.fileHash) and [fileSize] is the size of the file on disk right after it
+ * was saved so that we can tell whether the file was modified (or deleted) since then.
+ * */
+data class SavedImage(
+  val fileHash: String,
+  val fileSize: Long,
+  val outputFileUri: String,
+  val outputDirUri: String,
+  val savedAt: DateTime = DateTime.now()
+)
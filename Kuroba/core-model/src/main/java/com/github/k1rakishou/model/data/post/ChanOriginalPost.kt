@@ -84,6 +84,7 @@ class ChanOriginalPost(
       deleted = overrideDeleted ?: isDeleted
     ).also { newPost ->
       newPost.replaceOnDemandContentLoadedArray(this.copyOnDemandContentLoadedArray())
+      newPost.rawPostHash = rawPostHash
     }
   }
 
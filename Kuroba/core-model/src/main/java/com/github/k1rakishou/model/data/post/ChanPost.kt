@@ -1,5 +1,6 @@
 package com.github.k1rakishou.model.data.post
 
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.copy
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
@@ -38,6 +39,16 @@ open class ChanPost(
   @set:Synchronized
   var posterIdColor: Int = 0
 
+  /**
+   * Hash of the raw post data (see [ChanPostBuilder.getGetPostHash]). Stored in the database so
+   * that we can tell whether a post has changed on the server without parsing it again even after
+   * the app was restarted. Null for posts for which the hash has never been calculated (catalog
+   * posts, posts that were stored before we started storing the hashes).
+   * */
+  @get:Synchronized
+  @set:Synchronized
+  var rawPostHash: MurmurHashUtils.Murmur3Hash? = null
+
   @get:Synchronized
   val repliesFrom = mutableSetOf<PostDescriptor>()
 
@@ -111,6 +122,7 @@ open class ChanPost(
       deleted = overrideDeleted ?: isDeleted
     ).also { newPost ->
       newPost.replaceOnDemandContentLoadedArray(this.copyOnDemandContentLoadedArray())
+      newPost.rawPostHash = rawPostHash
     }
   }
 
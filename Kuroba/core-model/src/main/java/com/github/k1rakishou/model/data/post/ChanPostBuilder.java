@@ -54,6 +54,12 @@ public class ChanPostBuilder {
     @Nullable
     public CharSequence subject;
     private PostDescriptor postDescriptor;
+    /**
+     * Set when we already had this post but with a different hash, meaning that the post was
+     * changed on the server (ban message added etc). Everything that was calculated out of the old
+     * post content (like filter matches) must be recalculated.
+     */
+    public boolean postHashChanged;
 
     private final Lazy<MurmurHashUtils.Murmur3Hash> postHash = LazyKt.lazy(
             this,
@@ -87,6 +93,7 @@ public class ChanPostBuilder {
         this.tripcode = other.tripcode;
         this.subject = other.subject;
         this.postDescriptor = other.postDescriptor;
+        this.postHashChanged = other.postHashChanged;
 
         this.postImages.addAll(other.postImages);
         this.httpIcons.addAll(other.httpIcons);
@@ -107,6 +114,19 @@ public class ChanPostBuilder {
         return postHash.getValue();
     }
 
+    /**
+     * Same as {@link #getGetPostHash()} but does not calculate the hash if it hasn't been
+     * calculated yet (because it's only possible to calculate it before the comment is parsed).
+     */
+    @Nullable
+    public synchronized MurmurHashUtils.Murmur3Hash getPostHashOrNull() {
+        if (!postHash.isInitialized()) {
+            return null;
+        }
+
+        return postHash.getValue();
+    }
+
     public synchronized boolean hasPostDescriptor() {
         if (boardDescriptor == null) {
             return false;
@@ -0,0 +1,292 @@
+package com.github.k1rakishou.model.data.post
+
+/**
+ * A compact set of post numbers. Post numbers are split into buckets by their upper bits (roaring
+ * bitmap style) and every bucket stores the lower 16 bits of its post numbers either in a sorted
+ * ShortArray (when there are not many of them) or in a 65536 bit bitmap. Since post numbers of one
+ * thread are usually close to each other a whole thread ends up in one or two buckets and takes
+ * ~2 bytes per post.
+ *
+ * [contains] never allocates, [add] only allocates when a bucket needs to grow. Adding post numbers
+ * in ascending order (which is what happens when scrolling a thread) is amortized O(1).
+ *
+ * Not thread safe!
+ * */
+class PostNoBitmap {
+  private var keys = LongArray(INITIAL_BUCKETS_CAPACITY)
+  private var buckets = arrayOfNulls<Bucket>(INITIAL_BUCKETS_CAPACITY)
+  private var bucketsCount = 0
+
+  var size: Int = 0
+    private set
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun contains(postNo: Long): Boolean {
+    if (postNo < 0) {
+      return false
+    }
+
+    val index = findBucket(postNo ushr BUCKET_BITS)
+    if (index < 0) {
+      return false
+    }
+
+    return buckets[index]!!.contains(lowBits(postNo))
+  }
+
+  /**
+   * Returns true if [postNo] was not in this set before.
+   * */
+  fun add(postNo: Long): Boolean {
+    require(postNo >= 0) { "Bad postNo: $postNo" }
+
+    val key = postNo ushr BUCKET_BITS
+    var index = findBucket(key)
+
+    if (index < 0) {
+      index = -(index + 1)
+      insertBucket(index, key)
+    }
+
+    var bucket = buckets[index]!!
+    val low = lowBits(postNo)
+
+    if (bucket is ArrayBucket && bucket.isFull()) {
+      if (bucket.contains(low)) {
+        return false
+      }
+
+      bucket = bucket.toBitmapBucket()
+      buckets[index] = bucket
+    }
+
+    if (!bucket.add(low)) {
+      return false
+    }
+
+    ++size
+    return true
+  }
+
+  fun remove(postNo: Long): Boolean {
+    if (postNo < 0) {
+      return false
+    }
+
+    val index = findBucket(postNo ushr BUCKET_BITS)
+    if (index < 0) {
+      return false
+    }
+
+    if (!buckets[index]!!.remove(lowBits(postNo))) {
+      return false
+    }
+
+    --size
+    return true
+  }
+
+  fun clear() {
+    buckets.fill(null)
+    bucketsCount = 0
+    size = 0
+  }
+
+  /**
+   * Iterates post numbers in ascending order.
+   * */
+  fun forEach(func: (Long) -> Unit) {
+    for (index in 0 until bucketsCount) {
+      val high = keys[index] shl BUCKET_BITS
+      buckets[index]!!.forEachLow { low -> func(high or low.toLong()) }
+    }
+  }
+
+  private fun findBucket(key: Long): Int {
+    if (bucketsCount == 0) {
+      return -1
+    }
+
+    // Fast path, most of the time all posts are in the last bucket
+    val lastKey = keys[bucketsCount - 1]
+    if (lastKey == key) {
+      return bucketsCount - 1
+    }
+
+    if (lastKey < key) {
+      return -(bucketsCount + 1)
+    }
+
+    return keys.binarySearch(key, 0, bucketsCount)
+  }
+
+  private fun insertBucket(index: Int, key: Long) {
+    if (bucketsCount == keys.size) {
+      keys = keys.copyOf(keys.size * 2)
+      buckets = buckets.copyOf(buckets.size * 2)
+    }
+
+    if (index < bucketsCount) {
+      System.arraycopy(keys, index, keys, index + 1, bucketsCount - index)
+      System.arraycopy(buckets, index, buckets, index + 1, bucketsCount - index)
+    }
+
+    keys[index] = key
+    buckets[index] = ArrayBucket()
+    ++bucketsCount
+  }
+
+  private fun lowBits(postNo: Long): Int = (postNo and LOW_BITS_MASK).toInt()
+
+  private abstract class Bucket {
+    abstract fun contains(low: Int): Boolean
+    abstract fun add(low: Int): Boolean
+    abstract fun remove(low: Int): Boolean
+    abstract fun forEachLow(func: (Int) -> Unit)
+  }
+
+  private class ArrayBucket : Bucket() {
+    private var values = ShortArray(INITIAL_ARRAY_BUCKET_CAPACITY)
+    private var count = 0
+
+    fun isFull(): Boolean = count >= MAX_ARRAY_BUCKET_SIZE
+
+    override fun contains(low: Int): Boolean {
+      return indexOf(low) >= 0
+    }
+
+    override fun add(low: Int): Boolean {
+      // Fast path for post numbers coming in ascending order
+      if (count == 0 || valueAt(count - 1) < low) {
+        ensureCapacity()
+        values[count++] = low.toShort()
+        return true
+      }
+
+      val index = indexOf(low)
+      if (index >= 0) {
+        return false
+      }
+
+      val insertIndex = -(index + 1)
+      ensureCapacity()
+
+      System.arraycopy(values, insertIndex, values, insertIndex + 1, count - insertIndex)
+      values[insertIndex] = low.toShort()
+      ++count
+
+      return true
+    }
+
+    override fun remove(low: Int): Boolean {
+      val index = indexOf(low)
+      if (index < 0) {
+        return false
+      }
+
+      System.arraycopy(values, index + 1, values, index, count - index - 1)
+      --count
+
+      return true
+    }
+
+    override fun forEachLow(func: (Int) -> Unit) {
+      for (index in 0 until count) {
+        func(valueAt(index))
+      }
+    }
+
+    fun toBitmapBucket(): BitmapBucket {
+      val bitmapBucket = BitmapBucket()
+      forEachLow { low -> bitmapBucket.add(low) }
+      return bitmapBucket
+    }
+
+    private fun valueAt(index: Int): Int = values[index].toInt() and 0xFFFF
+
+    // Values are stored as unsigned shorts so we can't use ShortArray.binarySearch()
+    private fun indexOf(low: Int): Int {
+      var start = 0
+      var end = count - 1
+
+      while (start <= end) {
+        val mid = (start + end) ushr 1
+        val midValue = valueAt(mid)
+
+        when {
+          midValue < low -> start = mid + 1
+          midValue > low -> end = mid - 1
+          else -> return mid
+        }
+      }
+
+      return -(start + 1)
+    }
+
+    private fun ensureCapacity() {
+      if (count < values.size) {
+        return
+      }
+
+      values = values.copyOf(minOf(values.size * 2, MAX_ARRAY_BUCKET_SIZE))
+    }
+  }
+
+  private class BitmapBucket : Bucket() {
+    private val words = LongArray(BITMAP_WORDS)
+
+    override fun contains(low: Int): Boolean {
+      return (words[low ushr 6] and (1L shl low)) != 0L
+    }
+
+    override fun add(low: Int): Boolean {
+      val wordIndex = low ushr 6
+      val word = words[wordIndex]
+      val mask = 1L shl low
+
+      if ((word and mask) != 0L) {
+        return false
+      }
+
+      words[wordIndex] = word or mask
+      return true
+    }
+
+    override fun remove(low: Int): Boolean {
+      val wordIndex = low ushr 6
+      val word = words[wordIndex]
+      val mask = 1L shl low
+
+      if ((word and mask) == 0L) {
+        return false
+      }
+
+      words[wordIndex] = word and mask.inv()
+      return true
+    }
+
+    override fun forEachLow(func: (Int) -> Unit) {
+      for (wordIndex in words.indices) {
+        var word = words[wordIndex]
+
+        while (word != 0L) {
+          val bit = java.lang.Long.numberOfTrailingZeros(word)
+          func((wordIndex shl 6) + bit)
+          word = word and (word - 1)
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val BUCKET_BITS = 16
+    private const val LOW_BITS_MASK = (1L shl BUCKET_BITS) - 1
+
+    private const val INITIAL_BUCKETS_CAPACITY = 2
+    private const val INITIAL_ARRAY_BUCKET_CAPACITY = 32
+    // After this many values a bitmap (8KB) takes less memory than an array of shorts
+    private const val MAX_ARRAY_BUCKET_SIZE = 4096
+    private const val BITMAP_WORDS = (1 shl BUCKET_BITS) / 64
+  }
+}
@@ -0,0 +1,286 @@
+package com.github.k1rakishou.model.data.post
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+/**
+ * Posts of one thread that the user has already seen. Post numbers are stored in a [PostNoBitmap]
+ * and there is only one timestamp per thread ([lastSeenAt]). To be able to animate the "unseen post"
+ * indicator we also remember when the most recently seen posts were marked as seen in a small ring
+ * buffer which only lives in memory.
+ *
+ * Posts with postSubNo > 0 are very rare so they are kept in a separate (unsorted) array of pairs.
+ *
+ * Not thread safe!
+ * */
+class ThreadSeenPosts(lastSeenAt: Long = 0L) {
+  private val postNos = PostNoBitmap()
+  // postNo, postSubNo pairs
+  private var subPosts: LongArray? = null
+  private var subPostsCount = 0
+
+  private var recentPostNos: LongArray? = null
+  private var recentPostSubNos: LongArray? = null
+  private var recentSeenAt: LongArray? = null
+  private var recentIndex = 0
+
+  var lastSeenAt: Long = lastSeenAt
+    private set
+
+  val size: Int
+    get() = postNos.size + subPostsCount
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun isSeen(postNo: Long, postSubNo: Long): Boolean {
+    if (postSubNo == 0L) {
+      return postNos.contains(postNo)
+    }
+
+    return indexOfSubPost(postNo, postSubNo) >= 0
+  }
+
+  /**
+   * Returns the time when the post was marked as seen, [SEEN_LONG_AGO] if it was seen but not
+   * recently (we don't know when exactly) or [NOT_SEEN].
+   * */
+  fun seenAt(postNo: Long, postSubNo: Long): Long {
+    if (!isSeen(postNo, postSubNo)) {
+      return NOT_SEEN
+    }
+
+    val recentPostNos = recentPostNos
+      ?: return SEEN_LONG_AGO
+    val recentPostSubNos = recentPostSubNos!!
+    val recentSeenAt = recentSeenAt!!
+
+    var seenAt = SEEN_LONG_AGO
+
+    // The same post may be in the buffer more than once if it was removed by retainOnly() and then
+    // marked as seen again so we need the latest one.
+    for (index in recentPostNos.indices) {
+      if (recentPostNos[index] == postNo && recentPostSubNos[index] == postSubNo) {
+        seenAt = maxOf(seenAt, recentSeenAt[index])
+      }
+    }
+
+    return seenAt
+  }
+
+  /**
+   * Returns true if the post wasn't seen before.
+   * */
+  fun markSeen(postNo: Long, postSubNo: Long, now: Long): Boolean {
+    val added = if (postSubNo == 0L) {
+      postNos.add(postNo)
+    } else {
+      addSubPost(postNo, postSubNo)
+    }
+
+    if (!added) {
+      return false
+    }
+
+    rememberRecent(postNo, postSubNo, now)
+
+    if (now > lastSeenAt) {
+      lastSeenAt = now
+    }
+
+    return true
+  }
+
+  /**
+   * Marks the post as seen without updating any timestamps (we only know that it was seen some
+   * time ago).
+   * */
+  fun markSeenLongAgo(postNo: Long, postSubNo: Long): Boolean {
+    if (postSubNo == 0L) {
+      return postNos.add(postNo)
+    }
+
+    return addSubPost(postNo, postSubNo)
+  }
+
+  /**
+   * Adds everything from [other] into this object. Used when merging posts that were marked as seen
+   * before the thread was loaded from the database with what's in the database.
+   * */
+  fun merge(other: ThreadSeenPosts) {
+    other.forEachPost { postNo, postSubNo -> markSeenLongAgo(postNo, postSubNo) }
+
+    if (other.lastSeenAt > lastSeenAt) {
+      lastSeenAt = other.lastSeenAt
+    }
+  }
+
+  fun copy(): ThreadSeenPosts {
+    val copy = ThreadSeenPosts(lastSeenAt)
+    copy.merge(this)
+
+    return copy
+  }
+
+  fun retainOnly(postNo: Long) {
+    val hadPost = postNos.contains(postNo)
+
+    postNos.clear()
+    subPostsCount = 0
+
+    if (hadPost) {
+      postNos.add(postNo)
+    }
+  }
+
+  fun forEachPost(func: (Long, Long) -> Unit) {
+    postNos.forEach { postNo -> func(postNo, 0L) }
+
+    val subPosts = subPosts
+      ?: return
+
+    for (index in 0 until subPostsCount) {
+      func(subPosts[index * 2], subPosts[index * 2 + 1])
+    }
+  }
+
+  /**
+   * Format: [FORMAT_VERSION], amount of posts, post numbers as deltas from the previous post number
+   * (varints), amount of sub posts and then postNo/postSubNo pairs (varints).
+   * */
+  fun serialize(): ByteArray {
+    val outputStream = ByteArrayOutputStream(16 + postNos.size * 2 + subPostsCount * 8)
+    outputStream.write(FORMAT_VERSION)
+    writeVarLong(outputStream, postNos.size.toLong())
+
+    var prevPostNo = 0L
+    postNos.forEach { postNo ->
+      writeVarLong(outputStream, postNo - prevPostNo)
+      prevPostNo = postNo
+    }
+
+    writeVarLong(outputStream, subPostsCount.toLong())
+
+    val subPosts = subPosts
+    if (subPosts != null) {
+      for (index in 0 until subPostsCount) {
+        writeVarLong(outputStream, subPosts[index * 2])
+        writeVarLong(outputStream, subPosts[index * 2 + 1])
+      }
+    }
+
+    return outputStream.toByteArray()
+  }
+
+  private fun addSubPost(postNo: Long, postSubNo: Long): Boolean {
+    if (indexOfSubPost(postNo, postSubNo) >= 0) {
+      return false
+    }
+
+    var subPosts = subPosts
+    if (subPosts == null || subPostsCount * 2 >= subPosts.size) {
+      subPosts = (subPosts ?: LongArray(0)).copyOf(maxOf(8, subPostsCount * 4))
+      this.subPosts = subPosts
+    }
+
+    subPosts[subPostsCount * 2] = postNo
+    subPosts[subPostsCount * 2 + 1] = postSubNo
+    ++subPostsCount
+
+    return true
+  }
+
+  private fun indexOfSubPost(postNo: Long, postSubNo: Long): Int {
+    val subPosts = subPosts
+      ?: return -1
+
+    for (index in 0 until subPostsCount) {
+      if (subPosts[index * 2] == postNo && subPosts[index * 2 + 1] == postSubNo) {
+        return index
+      }
+    }
+
+    return -1
+  }
+
+  private fun rememberRecent(postNo: Long, postSubNo: Long, now: Long) {
+    if (recentPostNos == null) {
+      recentPostNos = LongArray(RECENT_POSTS_CAPACITY)
+      recentPostSubNos = LongArray(RECENT_POSTS_CAPACITY)
+      recentSeenAt = LongArray(RECENT_POSTS_CAPACITY)
+    }
+
+    recentPostNos!![recentIndex] = postNo
+    recentPostSubNos!![recentIndex] = postSubNo
+    recentSeenAt!![recentIndex] = now
+
+    recentIndex = (recentIndex + 1) % RECENT_POSTS_CAPACITY
+  }
+
+  companion object {
+    const val NOT_SEEN = -1L
+    const val SEEN_LONG_AGO = 0L
+
+    // The "unseen post" indicator animation only lasts a couple of seconds so this is more than enough
+    private const val RECENT_POSTS_CAPACITY = 64
+    private const val FORMAT_VERSION = 1
+
+    fun deserialize(bytes: ByteArray, lastSeenAt: Long): ThreadSeenPosts {
+      val threadSeenPosts = ThreadSeenPosts(lastSeenAt)
+      val inputStream = ByteArrayInputStream(bytes)
+
+      val version = inputStream.read()
+      if (version != FORMAT_VERSION) {
+        throw IOException("Unsupported format version: $version")
+      }
+
+      val postsCount = readVarLong(inputStream)
+      var postNo = 0L
+
+      for (index in 0 until postsCount) {
+        postNo += readVarLong(inputStream)
+        threadSeenPosts.postNos.add(postNo)
+      }
+
+      val subPostsCount = readVarLong(inputStream)
+      for (index in 0 until subPostsCount) {
+        threadSeenPosts.addSubPost(readVarLong(inputStream), readVarLong(inputStream))
+      }
+
+      return threadSeenPosts
+    }
+
+    private fun writeVarLong(outputStream: ByteArrayOutputStream, value: Long) {
+      require(value >= 0L) { "Bad value: $value" }
+
+      var remaining = value
+      while (remaining and 0x7FL.inv() != 0L) {
+        outputStream.write(((remaining and 0x7FL) or 0x80L).toInt())
+        remaining = remaining ushr 7
+      }
+
+      outputStream.write(remaining.toInt())
+    }
+
+    private fun readVarLong(inputStream: ByteArrayInputStream): Long {
+      var result = 0L
+      var shift = 0
+
+      while (shift < 64) {
+        val byte = inputStream.read()
+        if (byte < 0) {
+          throw IOException("Unexpected end of data")
+        }
+
+        result = result or ((byte and 0x7F).toLong() shl shift)
+        if (byte and 0x80 == 0) {
+          return result
+        }
+
+        shift += 7
+      }
+
+      throw IOException("Malformed varint")
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package com.github.k1rakishou.model.data.search
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+
+/**
+ * A post found in the database by [com.github.k1rakishou.model.repository.ChanPostRepository.searchLocalPosts].
+ * [snippet] is a part of the matched text where every match is wrapped into [MATCH_START] and
+ * [MATCH_END] characters.
+ * */
+data class LocalPostSearchResult(
+  val postDescriptor: PostDescriptor,
+  val snippet: String,
+  val rank: Double
+) {
+
+  fun snippetWithoutMarkers(): String {
+    return snippet.filterNot { ch -> ch == MATCH_START || ch == MATCH_END }
+  }
+
+  companion object {
+    const val MATCH_START = '\u0002'
+    const val MATCH_END = '\u0003'
+  }
+}
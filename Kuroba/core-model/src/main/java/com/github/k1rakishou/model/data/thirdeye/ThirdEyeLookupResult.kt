@@ -0,0 +1,39 @@
+package com.github.k1rakishou.model.data.thirdeye
+
+import org.joda.time.DateTime
+import org.joda.time.Duration
+
+/**
+ * Result of looking up an image (by its hash extracted from the original file name) on a booru.
+ * [image] is null when the booru has no such image. Negative results expire much faster than
+ * positive ones because the image may get uploaded to the booru later.
+ *
+ * [ThirdEyeLookupImage.tags] are stored as is so that banned tags can be changed without
+ * invalidating the results.
+ * */
+data class ThirdEyeLookupResult(
+  val booruKey: String,
+  val imageHash: String,
+  val image: ThirdEyeLookupImage?,
+  val insertedAt: DateTime = DateTime.now()
+) {
+
+  fun isExpired(now: DateTime = DateTime.now()): Boolean {
+    val ttl = if (image != null) FOUND_TTL else NOT_FOUND_TTL
+    return insertedAt.plus(ttl).isBefore(now)
+  }
+
+  companion object {
+    val FOUND_TTL: Duration = Duration.standardDays(14)
+    val NOT_FOUND_TTL: Duration = Duration.standardDays(1)
+  }
+}
+
+data class ThirdEyeLookupImage(
+  val imageUrl: String,
+  val thumbnailUrl: String,
+  val imageWidth: Int?,
+  val imageHeight: Int?,
+  val imageSize: Long?,
+  val tags: List<String>
+)
@@ -41,6 +41,11 @@ class ChanThread(
   @GuardedBy("lock")
   private val postsByPostDescriptors = mutableMapOf<PostDescriptor, ChanPost>()
   @GuardedBy("lock")
+  // Position of every post in threadPosts so that we don't need to do a linear search to find where
+  // a post is located (which makes updating huge threads quadratic). Must be rebuilt every time
+  // posts are sorted or removed.
+  private val postIndexes = mutableMapOf<PostDescriptor, Int>()
+  @GuardedBy("lock")
   // Stores hashes of unparsed post comments, the way we got the from the server, without any spans added yet.
   private val rawPostHashesMap = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
   @GuardedBy("lock")
@@ -61,21 +66,29 @@ class ChanThread(
   @GuardedBy("lock")
   private var isNowArchivedForUi: Boolean? = null
 
+  // Copy of threadPosts that is republished (under the write lock) every time threadPosts change.
+  // All the read-only accessors use it without taking the lock so that the UI never has to wait
+  // for a background thread update to finish.
+  @Volatile
+  private var snapshot: ThreadSnapshot = ThreadSnapshot.EMPTY
+
   val postsCount: Int
-    get() = lock.read { threadPosts.size }
+    get() = snapshot.postsCount
 
   val repliesCount: Int
-    get() = lock.read {
+    get() {
       val postsTotal = postsCount
       if (postsTotal <= 0) {
-        return@read 0
+        return 0
       }
 
-      return@read postsTotal - 1
+      return postsTotal - 1
     }
 
   val imagesCount: Int
-    get() = lock.read { threadPosts.sumBy { post -> post.postImages.size } }
+    get() = snapshot.imagesCount
+
+  fun snapshot(): ThreadSnapshot = snapshot
 
   fun getAndConsumeDeletedPostsForUi(): Int {
     return lock.write {
@@ -122,9 +135,9 @@ class ChanThread(
     }
   }
 
-  fun isClosed(): Boolean = lock.read { getOriginalPost()?.closed ?: false }
-  fun isArchived(): Boolean = lock.read { getOriginalPost()?.archived ?: false }
-  fun isDeleted(): Boolean = lock.read { getOriginalPost()?.isDeleted ?: false }
+  fun isClosed(): Boolean = getOriginalPost()?.closed ?: false
+  fun isArchived(): Boolean = getOriginalPost()?.archived ?: false
+  fun isDeleted(): Boolean = getOriginalPost()?.isDeleted ?: false
 
   fun putPostHash(postDescriptor: PostDescriptor, hash: MurmurHashUtils.Murmur3Hash) {
     lock.write { rawPostHashesMap[postDescriptor] = hash }
@@ -139,27 +152,24 @@ class ChanThread(
   }
 
   fun getPostImage(postDescriptor: PostDescriptor, imageUrl: HttpUrl): ChanPostImage? {
-    return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]
-        ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
-    }
+    return snapshot.getPost(postDescriptor)
+      ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
   }
 
   fun getPosts(postDescriptors: Collection<PostDescriptor>): List<ChanPost> {
-    return lock.read {
-      val posts = mutableListWithCap<ChanPost>(postDescriptors.size)
-
-      postDescriptors.forEach { postDescriptor ->
-        posts += postsByPostDescriptors[postDescriptor]
-          ?: return@forEach
-      }
+    val currentSnapshot = snapshot
+    val posts = mutableListWithCap<ChanPost>(postDescriptors.size)
 
-      return@read posts
+    postDescriptors.forEach { postDescriptor ->
+      posts += currentSnapshot.getPost(postDescriptor)
+        ?: return@forEach
     }
+
+    return posts
   }
 
   fun getAll(): List<ChanPost> {
-    return lock.read { threadPosts.toList() }
+    return snapshot.posts
   }
 
   @OptIn(ExperimentalTime::class)
@@ -191,6 +201,7 @@ class ChanThread(
 
         // We don't have this post, just add it at the end
         if (!postsByPostDescriptors.containsKey(newChanPost.postDescriptor)) {
+          postIndexes[newChanPost.postDescriptor] = threadPosts.size
           threadPosts.add(newChanPost)
           postsByPostDescriptors[newChanPost.postDescriptor] = newChanPost
 
@@ -200,8 +211,7 @@ class ChanThread(
           return@forEach
         }
 
-        val oldChanPostIndex = threadPosts
-          .indexOfFirst { post -> post.postDescriptor == newChanPost.postDescriptor }
+        val oldChanPostIndex = postIndexes[newChanPost.postDescriptor] ?: -1
         check(oldChanPostIndex >= 0) { "Bad oldChanPostIndex: $oldChanPostIndex" }
 
         val oldChanPost = threadPosts[oldChanPostIndex]
@@ -223,12 +233,8 @@ class ChanThread(
 
       if (deletedPostsSet != null && deletedPostsSet.isNotEmpty()) {
         deletedPostsSet.forEach { deletedPostDescriptor ->
-          val oldChanPostIndex = threadPosts
-            .indexOfFirst { post -> post.postDescriptor == deletedPostDescriptor }
-
-          if (oldChanPostIndex < 0) {
-            return@forEach
-          }
+          val oldChanPostIndex = postIndexes[deletedPostDescriptor]
+            ?: return@forEach
 
           val oldPost = threadPosts.getOrNull(oldChanPostIndex)
             ?: return@forEach
@@ -252,6 +258,7 @@ class ChanThread(
           if (!postsAreSorted()) {
             Logger.d(TAG, "addOrUpdatePosts() posts need to be sorted")
             threadPosts.sortWith(POSTS_COMPARATOR)
+            rebuildPostIndexes()
           }
 
           recalculatePostReplies(newChanPosts)
@@ -259,6 +266,11 @@ class ChanThread(
       }
 
       deletedPostsForUi += deletedPostsCount
+
+      if (addedOrUpdatedOrDeletedPosts) {
+        publishSnapshot()
+      }
+
       checkPostsConsistency()
 
       Logger.d(TAG, "Thread cache (${threadDescriptor}) Added ${addedPostsCount} new posts, " +
@@ -306,61 +318,50 @@ class ChanThread(
         threadPosts[0] = mergedChanOriginalPost
         postsByPostDescriptors[newChanOriginalPost.postDescriptor] = mergedChanOriginalPost
       } else {
+        postIndexes[newChanOriginalPost.postDescriptor] = threadPosts.size
         threadPosts.add(newChanOriginalPost)
         postsByPostDescriptors[newChanOriginalPost.postDescriptor] = newChanOriginalPost
 
         if (!postsAreSorted()) {
           Logger.d(TAG, "setOrUpdateOriginalPost() posts need to be sorted")
           threadPosts.sortWith(POSTS_COMPARATOR)
+          rebuildPostIndexes()
         }
       }
 
+      publishSnapshot()
       checkPostsConsistency()
     }
   }
 
   fun getOriginalPostSafe(): ChanOriginalPost? {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read null
-      }
-
-      val firstPost = threadPosts.first()
-      if (firstPost is ChanOriginalPost) {
-        return@read firstPost
-      }
-
-      return null
-    }
+    return snapshot.originalPost()
   }
 
   fun getOriginalPost(): ChanOriginalPost? {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read null
-      }
-
-      val firstPost = threadPosts.first()
-      if (firstPost is ChanOriginalPost) {
-        return@read firstPost
-      }
+    val posts = snapshot.posts
+    if (posts.isEmpty()) {
+      return null
+    }
 
-      val errorMessage = buildString {
-        appendLine("First post is not an original post! firstPost=${threadPosts.first()}")
-        appendLine("Total posts count: ${threadPosts.size}")
+    val firstPost = posts.first()
+    if (firstPost is ChanOriginalPost) {
+      return firstPost
+    }
 
-        val indexOfOriginalPost = threadPosts.indexOfFirst { it is ChanOriginalPost }
-        appendLine("Actual index of the original post: $indexOfOriginalPost")
-      }
+    val errorMessage = buildString {
+      appendLine("First post is not an original post! firstPost=${firstPost}")
+      appendLine("Total posts count: ${posts.size}")
 
-      error(errorMessage)
+      val indexOfOriginalPost = posts.indexOfFirst { it is ChanOriginalPost }
+      appendLine("Actual index of the original post: $indexOfOriginalPost")
     }
+
+    error(errorMessage)
   }
 
   fun getPostDescriptors(): List<PostDescriptor> {
-    return lock.read {
-      return@read threadPosts.map { chanPost -> chanPost.postDescriptor }
-    }
+    return snapshot.posts.map { chanPost -> chanPost.postDescriptor }
   }
 
   fun updateLastAccessTime() {
@@ -425,25 +426,23 @@ class ChanThread(
   }
 
   fun canUpdateThread(): Boolean {
-    return lock.read {
-      val originalPost = getOriginalPostSafe()
-      if (originalPost == null) {
-        // I guess we should update the thread if we have no posts?
-        return@read true
-      }
-
-      return@read !originalPost.closed
-        && !originalPost.isDeleted
-        && !originalPost.archived
+    val originalPost = getOriginalPostSafe()
+    if (originalPost == null) {
+      // I guess we should update the thread if we have no posts?
+      return true
     }
+
+    return !originalPost.closed
+      && !originalPost.isDeleted
+      && !originalPost.archived
   }
 
   fun lastPost(): ChanPost? {
-    return lock.read { threadPosts.lastOrNull() }
+    return snapshot.lastPost()
   }
 
   fun getPost(postDescriptor: PostDescriptor): ChanPost? {
-    return lock.read { postsByPostDescriptors[postDescriptor] }
+    return snapshot.getPost(postDescriptor)
   }
 
   fun <T> iteratePostIndexes(
@@ -452,32 +451,30 @@ class ChanThread(
     postDescriptorSelector: (T) -> PostDescriptor,
     iterator: (ChanPost, Int) -> Unit
   ) {
-    lock.read {
-      input.forEach { inputValue ->
-        val postDescriptor = postDescriptorSelector(inputValue)
+    val currentSnapshot = snapshot
 
-        check(postDescriptor.threadDescriptor() == threadDescriptor) {
-          "All posts must belong to the same thread! threadDescriptor=$threadDescriptor, " +
-            "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
-        }
+    input.forEach { inputValue ->
+      val postDescriptor = postDescriptorSelector(inputValue)
 
-        val postIndex = threadPosts
-          .indexOfFirst { chanPost -> chanPost.postDescriptor == postDescriptor }
+      check(postDescriptor.threadDescriptor() == threadDescriptor) {
+        "All posts must belong to the same thread! threadDescriptor=$threadDescriptor, " +
+          "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
+      }
 
-        if (postIndex < 0) {
-          return@forEach
-        }
+      val postIndex = currentSnapshot.indexOf(postDescriptor)
+      if (postIndex < 0) {
+        return@forEach
+      }
 
-        val chanPost = threadPosts.getOrNull(postIndex)
-          ?: return@forEach
+      val chanPost = currentSnapshot.posts.getOrNull(postIndex)
+        ?: return@forEach
 
-        iterator(chanPost, postIndex)
-      }
+      iterator(chanPost, postIndex)
     }
   }
 
   fun getNewPostsCount(lastPostNo: Long): Int {
-    return lock.read { threadPosts.count { chanPost -> chanPost.postNo() > lastPostNo } }
+    return snapshot.posts.count { chanPost -> chanPost.postNo() > lastPostNo }
   }
 
   fun findPostWithRepliesRecursive(
@@ -497,14 +494,9 @@ class ChanThread(
 
     val postsToCheck = mutableListOf<ChanPost>()
 
-    lock.read {
-      for (post in threadPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        postsToCheck.add(post)
-      }
+    val post = snapshot.getPost(postDescriptor)
+    if (post != null && !postsSet.contains(post)) {
+      postsToCheck.add(post)
     }
 
     for (post in postsToCheck) {
@@ -549,21 +541,25 @@ class ChanThread(
         "First post is not an original post! post=${threadPosts.first()}"
       }
 
+      var removedAnyPosts = false
+
       postDescriptors.forEach { postDescriptor ->
         if (postDescriptor.isOP()) {
           Logger.e(TAG, "Deleting original post ${postDescriptor}!!! This may end up very badly!")
         }
 
-        val postIndex = threadPosts.indexOfFirst { chanPost ->
-          chanPost.postDescriptor == postDescriptor
-        }
+        rawPostHashesMap.remove(postDescriptor)
 
-        if (postIndex >= 0) {
-          threadPosts.removeAt(postIndex)
+        if (postsByPostDescriptors.remove(postDescriptor) != null) {
+          removedAnyPosts = true
         }
+      }
 
-        rawPostHashesMap.remove(postDescriptor)
-        postsByPostDescriptors.remove(postDescriptor)
+      if (removedAnyPosts) {
+        // Remove all of them in one pass instead of shifting the list once per every removed post
+        threadPosts.removeAll { chanPost -> !postsByPostDescriptors.containsKey(chanPost.postDescriptor) }
+        rebuildPostIndexes()
+        publishSnapshot()
       }
 
       checkPostsConsistency()
@@ -578,39 +574,28 @@ class ChanThread(
   }
 
   fun iteratePostsOrderedWhile(iterator: (ChanPost) -> Boolean) {
-    lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read
-      }
-
-      for (index in threadPosts.indices) {
-        val chanPost = threadPosts.getOrNull(index)
-          ?: return@read
+    val posts = snapshot.posts
 
-        if (!iterator(chanPost)) {
-          return@read
-        }
+    for (chanPost in posts) {
+      if (!iterator(chanPost)) {
+        return
       }
     }
   }
 
   fun <T> mapPostsOrdered(mapper: (ChanPost) -> T): List<T> {
-    return lock.read {
-      if (threadPosts.isEmpty()) {
-        return@read emptyList()
-      }
-
-      val resultList = mutableListOf<T>()
-
-      for (index in threadPosts.indices) {
-        val chanPost = threadPosts.getOrNull(index)
-          ?: return@read emptyList()
+    val posts = snapshot.posts
+    if (posts.isEmpty()) {
+      return emptyList()
+    }
 
-        resultList += mapper(chanPost)
-      }
+    val resultList = mutableListWithCap<T>(posts.size)
 
-      return@read resultList
+    for (chanPost in posts) {
+      resultList += mapper(chanPost)
     }
+
+    return resultList
   }
 
   fun mapPostsWithImagesAround(
@@ -625,105 +610,101 @@ class ChanThread(
     check(leftCount >= 0) { "Bad left count: $leftCount" }
     check(rightCount >= 0) { "Bad right count: $rightCount" }
 
-    return lock.read {
-      val indexOfPost = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
-      if (indexOfPost < 0) {
-        return@read emptyList()
-      }
+    val currentSnapshot = snapshot
+    val threadPosts = currentSnapshot.posts
+
+    val indexOfPost = currentSnapshot.indexOf(postDescriptor)
+    if (indexOfPost < 0) {
+      return emptyList()
+    }
 
-      val totalCount = leftCount + rightCount
-      val postDescriptors = mutableListWithCap<PostDescriptor>(totalCount)
+    val totalCount = leftCount + rightCount
+    val postDescriptors = mutableListWithCap<PostDescriptor>(totalCount)
 
-      // Check current post and add it to the list if it has images
-      threadPosts.getOrNull(indexOfPost)?.let { currentPost ->
-        if (currentPost.postImages.isNotEmpty()) {
-          postDescriptors += currentPost.postDescriptor
-        }
+    // Check current post and add it to the list if it has images
+    threadPosts.getOrNull(indexOfPost)?.let { currentPost ->
+      if (currentPost.postImages.isNotEmpty()) {
+        postDescriptors += currentPost.postDescriptor
       }
+    }
 
-      var currentPostIndex = indexOfPost - 1
-      var takeFromLeft = leftCount
-
-      // Check posts to the left of the current post and add to the list those that have images
-      while (takeFromLeft > 0 && currentPostIndex in threadPosts.indices) {
-        val post = threadPosts.getOrNull(currentPostIndex--)
-          ?: break
+    var currentPostIndex = indexOfPost - 1
+    var takeFromLeft = leftCount
 
-        if (post.postImages.isEmpty()) {
-          continue
-        }
+    // Check posts to the left of the current post and add to the list those that have images
+    while (takeFromLeft > 0 && currentPostIndex in threadPosts.indices) {
+      val post = threadPosts.getOrNull(currentPostIndex--)
+        ?: break
 
-        --takeFromLeft
-        postDescriptors += post.postDescriptor
+      if (post.postImages.isEmpty()) {
+        continue
       }
 
-      currentPostIndex = indexOfPost + 1
-      var takeFromRight = rightCount
+      --takeFromLeft
+      postDescriptors += post.postDescriptor
+    }
 
-      // Check posts to the right of the current post and add to the list those that have images
-      while (takeFromRight > 0 && currentPostIndex in threadPosts.indices) {
-        val post = threadPosts.getOrNull(currentPostIndex++)
-          ?: break
+    currentPostIndex = indexOfPost + 1
+    var takeFromRight = rightCount
 
-        if (post.postImages.isEmpty()) {
-          continue
-        }
+    // Check posts to the right of the current post and add to the list those that have images
+    while (takeFromRight > 0 && currentPostIndex in threadPosts.indices) {
+      val post = threadPosts.getOrNull(currentPostIndex++)
+        ?: break
 
-        --takeFromRight
-        postDescriptors += post.postDescriptor
+      if (post.postImages.isEmpty()) {
+        continue
       }
 
-      return@read postDescriptors
+      --takeFromRight
+      postDescriptors += post.postDescriptor
     }
+
+    return postDescriptors
   }
 
   fun getPostDescriptorRelativeTo(postDescriptor: PostDescriptor, offset: Int): PostDescriptor? {
-    return lock.read {
-      val currentPostIndex = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
-      if (currentPostIndex < 0) {
-        return@read null
-      }
+    val currentSnapshot = snapshot
 
-      val postIndex = (currentPostIndex + offset).coerceIn(0, threadPosts.size)
-      return@read threadPosts.getOrNull(postIndex)?.postDescriptor
+    val currentPostIndex = currentSnapshot.indexOf(postDescriptor)
+    if (currentPostIndex < 0) {
+      return null
     }
+
+    val postIndex = (currentPostIndex + offset).coerceIn(0, currentSnapshot.postsCount)
+    return currentSnapshot.posts.getOrNull(postIndex)?.postDescriptor
   }
 
   fun iteratePostImages(
     postDescriptor: PostDescriptor,
     iterator: (ChanPostImage) -> Unit
   ): Boolean {
-    return lock.read {
-      val post = postsByPostDescriptors[postDescriptor]
-        ?: return@read false
+    val post = snapshot.getPost(postDescriptor)
+      ?: return false
 
-      post.iteratePostImages { postImage -> iterator(postImage) }
-      return@read true
-    }
+    post.iteratePostImages { postImage -> iterator(postImage) }
+    return true
   }
 
 
   fun getThreadPostImages(): List<ChanPostImage> {
-    return lock.read {
-      val resultList = mutableListWithCap<ChanPostImage>(threadPosts.size)
-
-      threadPosts.forEach { chanPost ->
-        resultList.addAll(chanPost.postImages)
-      }
+    val posts = snapshot.posts
+    val resultList = mutableListWithCap<ChanPostImage>(posts.size)
 
-      return@read resultList
+    posts.forEach { chanPost ->
+      resultList.addAll(chanPost.postImages)
     }
+
+    return resultList
   }
 
   fun postHasImages(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]?.postImages?.isNotEmpty()
-        ?: false
-    }
+    return snapshot.getPost(postDescriptor)?.postImages?.isNotEmpty()
+      ?: false
   }
 
   fun hasAtLeastOnePost(): Boolean {
-    return lock.read { threadPosts.isNotEmpty() }
+    return !snapshot.isEmpty()
   }
 
   fun cleanup() {
@@ -732,7 +713,9 @@ class ChanThread(
       if (chanOriginalPost == null) {
         threadPosts.clear()
         postsByPostDescriptors.clear()
+        postIndexes.clear()
         rawPostHashesMap.clear()
+        publishSnapshot()
 
         return@write
       }
@@ -759,6 +742,9 @@ class ChanThread(
         return@mutableIteration true
       }
 
+      rebuildPostIndexes()
+      publishSnapshot()
+
       rawPostHashesMap.mutableIteration { mutableIterator, entry ->
         val postDescriptor = entry.key
         if (postDescriptor != chanOriginalPost.postDescriptor) {
@@ -849,6 +835,8 @@ class ChanThread(
     )
 
     handlePostContentLoadedMap(mergedPost, oldChanPost, postCommentsDiffer)
+    mergedPost.rawPostHash = newChanPost.rawPostHash ?: oldChanPost.rawPostHash
+
     return mergedPost
   }
 
@@ -899,6 +887,8 @@ class ChanThread(
     )
 
     handlePostContentLoadedMap(mergedOriginalPost, oldChanOriginalPost, postCommentsDiffer)
+    mergedOriginalPost.rawPostHash = newChanOriginalPost.rawPostHash ?: oldChanOriginalPost.rawPostHash
+
     return mergedOriginalPost
   }
 
@@ -993,8 +983,10 @@ class ChanThread(
 
     for ((postNo, replyList) in replies) {
       val subject = postsByPostDescriptors[postNo]
+        ?: continue
 
-      subject?.repliesFrom?.addAll(replyList)
+      // Posts that are already published in the snapshot may be read concurrently
+      synchronized(subject) { subject.repliesFrom.addAll(replyList) }
     }
   }
 
@@ -1009,9 +1001,18 @@ class ChanThread(
           "postsByPostDescriptors.size=${postsByPostDescriptors.size}"
       }
 
-      threadPosts.forEach { chanPost1 ->
+      check(threadPosts.size == postIndexes.size) {
+        "Sizes do not match (threadPosts.size=${threadPosts.size}, " +
+          "postIndexes.size=${postIndexes.size}"
+      }
+
+      threadPosts.forEachIndexed { index, chanPost1 ->
         val chanPost2 = postsByPostDescriptors[chanPost1.postDescriptor]
 
+        check(postIndexes[chanPost1.postDescriptor] == index) {
+          "Bad post index (expected=$index, actual=${postIndexes[chanPost1.postDescriptor]})"
+        }
+
         if (chanPost1 is ChanOriginalPost) {
           check(chanPost1.lastModified >= 0L) { "Bad lastModified" }
         }
@@ -1036,12 +1037,32 @@ class ChanThread(
     }
   }
 
+  private fun rebuildPostIndexes() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    postIndexes.clear()
+
+    threadPosts.forEachIndexed { index, chanPost ->
+      postIndexes[chanPost.postDescriptor] = index
+    }
+  }
+
+  private fun publishSnapshot() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    snapshot = ThreadSnapshot(
+      version = snapshot.version + 1,
+      posts = Collections.unmodifiableList(ArrayList(threadPosts)),
+      postIndexes = HashMap(postIndexes)
+    )
+  }
+
   private fun postsAreSorted(): Boolean {
     require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    for (threadPostWindow in threadPosts.windowed(size = 2, step = 1)) {
-      val prevPost = threadPostWindow.getOrNull(0) ?: break
-      val currPost = threadPostWindow.getOrNull(1) ?: break
+    for (index in 1 until threadPosts.size) {
+      val prevPost = threadPosts[index - 1]
+      val currPost = threadPosts[index]
 
       if (currPost.postNo() < prevPost.postNo()) {
         return false
@@ -1068,18 +1089,18 @@ class ChanThread(
     val duplicatesSet = hashSetWithCap<PostDescriptor>(totalCount)
     val resultList = mutableListWithCap<ChanPost>(totalCount)
 
-    lock.read {
-      ranges.forEach { range ->
-        range.forEach { index ->
-          val post = threadPosts.getOrNull(index)
-            ?: return@forEach
+    val threadPosts = snapshot.posts
 
-          if (!duplicatesSet.add(post.postDescriptor)) {
-            return@forEach
-          }
+    ranges.forEach { range ->
+      range.forEach { index ->
+        val post = threadPosts.getOrNull(index)
+          ?: return@forEach
 
-          resultList += post
+        if (!duplicatesSet.add(post.postDescriptor)) {
+          return@forEach
         }
+
+        resultList += post
       }
     }
 
@@ -1087,19 +1108,13 @@ class ChanThread(
   }
 
   fun getPostWithRepliesToThisPost(postDescriptor: PostDescriptor): List<PostDescriptor> {
-    return lock.read {
-      val chanPost = postsByPostDescriptors[postDescriptor]
-        ?: return@read emptyList()
-
-      val resultPosts = mutableListOf<PostDescriptor>()
-      resultPosts += chanPost.postDescriptor
-      resultPosts.addAll(chanPost.repliesFrom)
-      return@read resultPosts
-    }
-  }
+    val chanPost = snapshot.getPost(postDescriptor)
+      ?: return emptyList()
 
-  fun isThreadLockCurrentlyLocked(): Boolean {
-    return lock.isWriteLocked && !lock.isWriteLockedByCurrentThread
+    val resultPosts = mutableListOf<PostDescriptor>()
+    resultPosts += chanPost.postDescriptor
+    resultPosts.addAll(chanPost.repliesFromCopy)
+    return resultPosts
   }
 
   fun addImage(chanPostImage: ChanPostImage) {
@@ -0,0 +1,46 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+
+/**
+ * Immutable copy of the posts of a [ChanThread]. A new snapshot is published by [ChanThread] every
+ * time posts are added, updated or deleted so that readers (mostly the UI) can access the posts
+ * without taking the thread's lock and waiting for a background merge of a huge thread to finish.
+ *
+ * Only the list of posts is immutable, the posts themselves may still have some of their state
+ * (images, replies, thread status) updated in-place.
+ * */
+class ThreadSnapshot internal constructor(
+  // Incremented every time a new snapshot is published
+  val version: Long,
+  val posts: List<ChanPost>,
+  private val postIndexes: Map<PostDescriptor, Int>
+) {
+
+  val postsCount: Int
+    get() = posts.size
+
+  val imagesCount: Int
+    get() = posts.sumOf { post -> post.postImagesCount }
+
+  fun isEmpty(): Boolean = posts.isEmpty()
+
+  fun originalPost(): ChanOriginalPost? = posts.firstOrNull() as? ChanOriginalPost
+
+  fun lastPost(): ChanPost? = posts.lastOrNull()
+
+  fun indexOf(postDescriptor: PostDescriptor): Int = postIndexes[postDescriptor] ?: -1
+
+  fun getPost(postDescriptor: PostDescriptor): ChanPost? {
+    val index = postIndexes[postDescriptor]
+      ?: return null
+
+    return posts.getOrNull(index)
+  }
+
+  companion object {
+    val EMPTY = ThreadSnapshot(0L, emptyList(), emptyMap())
+  }
+}
@@ -0,0 +1,41 @@
+package com.github.k1rakishou.model.data.validator
+
+import org.joda.time.DateTime
+
+/**
+ * HTTP cache validators (Last-Modified/ETag) of the last successfully processed response for a
+ * [requestUrl]. Used to send conditional GET requests (If-Modified-Since/If-None-Match) so that the
+ * server can respond with 304 when the content hasn't changed since the last time we loaded it.
+ * */
+data class ConditionalRequestValidator(
+  val requestUrl: String,
+  val lastModified: String?,
+  val etag: String?,
+  val updatedAt: DateTime = DateTime.now()
+) {
+
+  fun isEmpty(): Boolean = lastModified.isNullOrEmpty() && etag.isNullOrEmpty()
+
+  fun sameValidators(other: ConditionalRequestValidator): Boolean {
+    return requestUrl == other.requestUrl
+      && lastModified == other.lastModified
+      && etag == other.etag
+  }
+
+}
+
+/**
+ * Validators are stored separately for every consumer because every consumer has it's own view of
+ * the data. If the bookmark watcher gets a 200 response and stores new validators, then the thread
+ * loader must not use them because it hasn't seen the new posts yet.
+ * */
+enum class ConditionalRequestConsumer(val value: Int) {
+  ThreadLoader(0),
+  BookmarkWatcher(1);
+
+  companion object {
+    fun fromValue(value: Int): ConditionalRequestConsumer? {
+      return values().firstOrNull { consumer -> consumer.value == value }
+    }
+  }
+}
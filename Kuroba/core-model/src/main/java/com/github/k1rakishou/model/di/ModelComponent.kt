@@ -15,12 +15,15 @@ import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
 import com.github.k1rakishou.model.repository.ChanThreadViewableInfoRepository
 import com.github.k1rakishou.model.repository.CompositeCatalogRepository
+import com.github.k1rakishou.model.repository.ConditionalRequestValidatorRepository
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository
 import com.github.k1rakishou.model.repository.HistoryNavigationRepository
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository
+import com.github.k1rakishou.model.repository.SavedImageRepository
 import com.github.k1rakishou.model.repository.SeenPostRepository
 import com.github.k1rakishou.model.repository.SiteRepository
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
@@ -61,6 +64,9 @@ interface ModelComponent {
   fun getThreadDownloadRepository(): ThreadDownloadRepository
   fun getChanCatalogSnapshotCache(): ChanCatalogSnapshotCache
   fun getCompositeCatalogRepository(): CompositeCatalogRepository
+  fun getConditionalRequestValidatorRepository(): ConditionalRequestValidatorRepository
+  fun getThirdEyeLookupRepository(): ThirdEyeLookupRepository
+  fun getSavedImageRepository(): SavedImageRepository
 
   @Component.Builder
   interface Builder {
@@ -79,7 +85,8 @@ interface ModelComponent {
     val normalDnsSelectorFactory: NormalDnsSelectorFactory,
     val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
     val okHttpProtocols: NetworkModule.OkHttpProtocolList,
-    val appConstants: AppConstants
+    val appConstants: AppConstants,
+    val compressStoredPostComments: Boolean
   )
 
 }
\ No newline at end of file
@@ -18,12 +18,15 @@ import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
 import com.github.k1rakishou.model.repository.ChanThreadViewableInfoRepository
 import com.github.k1rakishou.model.repository.CompositeCatalogRepository
+import com.github.k1rakishou.model.repository.ConditionalRequestValidatorRepository
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository
 import com.github.k1rakishou.model.repository.HistoryNavigationRepository
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository
+import com.github.k1rakishou.model.repository.SavedImageRepository
 import com.github.k1rakishou.model.repository.SeenPostRepository
 import com.github.k1rakishou.model.repository.SiteRepository
+import com.github.k1rakishou.model.repository.ThirdEyeLookupRepository
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
@@ -41,12 +44,15 @@ import com.github.k1rakishou.model.source.local.ChanPostLocalSource
 import com.github.k1rakishou.model.source.local.ChanSavedReplyLocalSource
 import com.github.k1rakishou.model.source.local.ChanThreadViewableInfoLocalSource
 import com.github.k1rakishou.model.source.local.CompositeCatalogLocalSource
+import com.github.k1rakishou.model.source.local.ConditionalRequestValidatorLocalSource
 import com.github.k1rakishou.model.source.local.DatabaseMetaLocalSource
 import com.github.k1rakishou.model.source.local.ImageDownloadRequestLocalSource
 import com.github.k1rakishou.model.source.local.MediaServiceLinkExtraContentLocalSource
 import com.github.k1rakishou.model.source.local.NavHistoryLocalSource
+import com.github.k1rakishou.model.source.local.SavedImageLocalSource
 import com.github.k1rakishou.model.source.local.SeenPostLocalSource
 import com.github.k1rakishou.model.source.local.SiteLocalSource
+import com.github.k1rakishou.model.source.local.ThirdEyeLookupLocalSource
 import com.github.k1rakishou.model.source.local.ThreadBookmarkGroupLocalSource
 import com.github.k1rakishou.model.source.local.ThreadBookmarkLocalSource
 import com.github.k1rakishou.model.source.local.ThreadDownloadLocalSource
@@ -153,10 +159,12 @@ class ModelModule {
   @Singleton
   @Provides
   fun provideChanPostLocalSource(
+    dependencies: ModelComponent.Dependencies,
     database: KurobaDatabase
   ): ChanPostLocalSource {
     return ChanPostLocalSource(
-      database
+      database,
+      dependencies.compressStoredPostComments
     )
   }
 
@@ -350,6 +358,30 @@ class ModelModule {
     return CompositeCatalogLocalSource(database)
   }
 
+  @Singleton
+  @Provides
+  fun provideConditionalRequestValidatorLocalSource(
+    database: KurobaDatabase
+  ): ConditionalRequestValidatorLocalSource {
+    return ConditionalRequestValidatorLocalSource(database)
+  }
+
+  @Singleton
+  @Provides
+  fun provideThirdEyeLookupLocalSource(
+    database: KurobaDatabase
+  ): ThirdEyeLookupLocalSource {
+    return ThirdEyeLookupLocalSource(database)
+  }
+
+  @Singleton
+  @Provides
+  fun provideSavedImageLocalSource(
+    database: KurobaDatabase
+  ): SavedImageLocalSource {
+    return SavedImageLocalSource(database)
+  }
+
   /**
    * Remote sources
    * */
@@ -643,4 +675,47 @@ class ModelModule {
     )
   }
 
-}
\ No newline at end of file
+  @Singleton
+  @Provides
+  fun provideConditionalRequestValidatorRepository(
+    database: KurobaDatabase,
+    dependencies: ModelComponent.Dependencies,
+    localSource: ConditionalRequestValidatorLocalSource
+  ): ConditionalRequestValidatorRepository {
+    return ConditionalRequestValidatorRepository(
+      database,
+      dependencies.coroutineScope,
+      localSource
+    )
+  }
+
+  @Singleton
+  @Provides
+  fun provideThirdEyeLookupRepository(
+    database: KurobaDatabase,
+    dependencies: ModelComponent.Dependencies,
+    localSource: ThirdEyeLookupLocalSource
+  ): ThirdEyeLookupRepository {
+    return ThirdEyeLookupRepository(
+      database,
+      dependencies.coroutineScope,
+      GenericSuspendableCacheSource(),
+      localSource
+    )
+  }
+
+  @Singleton
+  @Provides
+  fun provideSavedImageRepository(
+    database: KurobaDatabase,
+    dependencies: ModelComponent.Dependencies,
+    localSource: SavedImageLocalSource
+  ): SavedImageRepository {
+    return SavedImageRepository(
+      database,
+      dependencies.coroutineScope,
+      localSource
+    )
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.github.k1rakishou.model.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import org.joda.time.DateTime
+
+@Entity(
+  tableName = ConditionalRequestValidatorEntity.TABLE_NAME,
+  primaryKeys = [
+    ConditionalRequestValidatorEntity.DESCRIPTOR_KEY_COLUMN_NAME,
+    ConditionalRequestValidatorEntity.CONSUMER_COLUMN_NAME
+  ],
+  indices = [
+    Index(
+      name = ConditionalRequestValidatorEntity.UPDATED_AT_INDEX_NAME,
+      value = [
+        ConditionalRequestValidatorEntity.UPDATED_AT_COLUMN_NAME
+      ]
+    )
+  ]
+)
+data class ConditionalRequestValidatorEntity(
+  @ColumnInfo(name = DESCRIPTOR_KEY_COLUMN_NAME)
+  val descriptorKey: String,
+  @ColumnInfo(name = CONSUMER_COLUMN_NAME)
+  val consumer: Int,
+  @ColumnInfo(name = REQUEST_URL_COLUMN_NAME)
+  val requestUrl: String,
+  @ColumnInfo(name = LAST_MODIFIED_COLUMN_NAME)
+  val lastModified: String?,
+  @ColumnInfo(name = ETAG_COLUMN_NAME)
+  val etag: String?,
+  @ColumnInfo(name = UPDATED_AT_COLUMN_NAME)
+  val updatedAt: DateTime
+) {
+
+  companion object {
+    const val TABLE_NAME = "conditional_request_validator"
+
+    const val DESCRIPTOR_KEY_COLUMN_NAME = "descriptor_key"
+    const val CONSUMER_COLUMN_NAME = "consumer"
+    const val REQUEST_URL_COLUMN_NAME = "request_url"
+    const val LAST_MODIFIED_COLUMN_NAME = "last_modified"
+    const val ETAG_COLUMN_NAME = "etag"
+    const val UPDATED_AT_COLUMN_NAME = "updated_at"
+
+    const val UPDATED_AT_INDEX_NAME = "${TABLE_NAME}_updated_at_idx"
+  }
+}
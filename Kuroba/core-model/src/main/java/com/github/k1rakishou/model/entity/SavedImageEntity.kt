@@ -0,0 +1,45 @@
+package com.github.k1rakishou.model.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import org.joda.time.DateTime
+
+@Entity(
+  tableName = SavedImageEntity.TABLE_NAME,
+  indices = [
+    Index(
+      name = SavedImageEntity.FILE_HASH_INDEX_NAME,
+      value = [
+        SavedImageEntity.FILE_HASH_COLUMN_NAME
+      ]
+    )
+  ]
+)
+data class SavedImageEntity(
+  @PrimaryKey
+  @ColumnInfo(name = OUTPUT_FILE_URI_COLUMN_NAME)
+  val outputFileUri: String,
+  @ColumnInfo(name = OUTPUT_DIR_URI_COLUMN_NAME)
+  val outputDirUri: String,
+  @ColumnInfo(name = FILE_HASH_COLUMN_NAME)
+  val fileHash: String,
+  @ColumnInfo(name = FILE_SIZE_COLUMN_NAME)
+  val fileSize: Long,
+  @ColumnInfo(name = SAVED_AT_COLUMN_NAME)
+  val savedAt: DateTime
+) {
+
+  companion object {
+    const val TABLE_NAME = "saved_image"
+
+    const val OUTPUT_FILE_URI_COLUMN_NAME = "output_file_uri"
+    const val OUTPUT_DIR_URI_COLUMN_NAME = "output_dir_uri"
+    const val FILE_HASH_COLUMN_NAME = "file_hash"
+    const val FILE_SIZE_COLUMN_NAME = "file_size"
+    const val SAVED_AT_COLUMN_NAME = "saved_at"
+
+    const val FILE_HASH_INDEX_NAME = "${TABLE_NAME}_file_hash_idx"
+  }
+}
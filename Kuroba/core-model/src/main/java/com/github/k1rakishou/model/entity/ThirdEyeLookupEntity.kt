@@ -0,0 +1,63 @@
+package com.github.k1rakishou.model.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import org.joda.time.DateTime
+
+/**
+ * Result of looking up an image hash on a booru. A row with null [imageUrl] is a negative result
+ * (the booru responded but has no such image).
+ * */
+@Entity(
+  tableName = ThirdEyeLookupEntity.TABLE_NAME,
+  primaryKeys = [
+    ThirdEyeLookupEntity.BOORU_KEY_COLUMN_NAME,
+    ThirdEyeLookupEntity.IMAGE_HASH_COLUMN_NAME
+  ],
+  indices = [
+    Index(
+      name = ThirdEyeLookupEntity.INSERTED_AT_INDEX_NAME,
+      value = [
+        ThirdEyeLookupEntity.INSERTED_AT_COLUMN_NAME
+      ]
+    )
+  ]
+)
+data class ThirdEyeLookupEntity(
+  @ColumnInfo(name = BOORU_KEY_COLUMN_NAME)
+  val booruKey: String,
+  @ColumnInfo(name = IMAGE_HASH_COLUMN_NAME)
+  val imageHash: String,
+  @ColumnInfo(name = IMAGE_URL_COLUMN_NAME)
+  val imageUrl: String?,
+  @ColumnInfo(name = THUMBNAIL_URL_COLUMN_NAME)
+  val thumbnailUrl: String?,
+  @ColumnInfo(name = IMAGE_WIDTH_COLUMN_NAME)
+  val imageWidth: Int?,
+  @ColumnInfo(name = IMAGE_HEIGHT_COLUMN_NAME)
+  val imageHeight: Int?,
+  @ColumnInfo(name = IMAGE_SIZE_COLUMN_NAME)
+  val imageSize: Long?,
+  @ColumnInfo(name = TAGS_COLUMN_NAME)
+  val tags: String?,
+  @ColumnInfo(name = INSERTED_AT_COLUMN_NAME)
+  val insertedAt: DateTime
+) {
+
+  companion object {
+    const val TABLE_NAME = "third_eye_lookup"
+
+    const val BOORU_KEY_COLUMN_NAME = "booru_key"
+    const val IMAGE_HASH_COLUMN_NAME = "image_hash"
+    const val IMAGE_URL_COLUMN_NAME = "image_url"
+    const val THUMBNAIL_URL_COLUMN_NAME = "thumbnail_url"
+    const val IMAGE_WIDTH_COLUMN_NAME = "image_width"
+    const val IMAGE_HEIGHT_COLUMN_NAME = "image_height"
+    const val IMAGE_SIZE_COLUMN_NAME = "image_size"
+    const val TAGS_COLUMN_NAME = "tags"
+    const val INSERTED_AT_COLUMN_NAME = "inserted_at"
+
+    const val INSERTED_AT_INDEX_NAME = "${TABLE_NAME}_inserted_at_idx"
+  }
+}
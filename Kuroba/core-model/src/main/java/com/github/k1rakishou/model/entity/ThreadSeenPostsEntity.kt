@@ -0,0 +1,55 @@
+package com.github.k1rakishou.model.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
+import org.joda.time.DateTime
+
+/**
+ * All seen posts of a thread in one row. [seenPosts] is a serialized
+ * [com.github.k1rakishou.model.data.post.ThreadSeenPosts].
+ * */
+@Entity(
+  tableName = ThreadSeenPostsEntity.TABLE_NAME,
+  foreignKeys = [
+    ForeignKey(
+      entity = ChanThreadEntity::class,
+      parentColumns = [ChanThreadEntity.THREAD_ID_COLUMN_NAME],
+      childColumns = [ThreadSeenPostsEntity.OWNER_THREAD_ID_COLUMN_NAME],
+      onDelete = ForeignKey.CASCADE,
+      onUpdate = ForeignKey.CASCADE
+    )
+  ],
+  indices = [
+    Index(
+      name = ThreadSeenPostsEntity.LAST_SEEN_AT_INDEX_NAME,
+      value = [ThreadSeenPostsEntity.LAST_SEEN_AT_COLUMN_NAME]
+    )
+  ]
+)
+class ThreadSeenPostsEntity(
+  @PrimaryKey
+  @ColumnInfo(name = OWNER_THREAD_ID_COLUMN_NAME)
+  val ownerThreadId: Long,
+  @ColumnInfo(name = SEEN_POSTS_COLUMN_NAME, typeAffinity = ColumnInfo.BLOB)
+  val seenPosts: ByteArray,
+  @ColumnInfo(name = SEEN_POSTS_COUNT_COLUMN_NAME)
+  val seenPostsCount: Int,
+  @ColumnInfo(name = LAST_SEEN_AT_COLUMN_NAME)
+  val lastSeenAt: DateTime
+) {
+
+  companion object {
+    const val TABLE_NAME = "thread_seen_posts"
+
+    const val OWNER_THREAD_ID_COLUMN_NAME = "owner_thread_id"
+    const val SEEN_POSTS_COLUMN_NAME = "seen_posts"
+    const val SEEN_POSTS_COUNT_COLUMN_NAME = "seen_posts_count"
+    const val LAST_SEEN_AT_COLUMN_NAME = "last_seen_at"
+
+    const val LAST_SEEN_AT_INDEX_NAME = "${TABLE_NAME}_last_seen_at_idx"
+  }
+}
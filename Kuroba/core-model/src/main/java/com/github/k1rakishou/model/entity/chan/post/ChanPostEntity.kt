@@ -38,7 +38,13 @@ data class ChanPostEntity(
   @ColumnInfo(name = IS_SAVED_REPLY_COLUMN_NAME)
   val isSavedReply: Boolean = false,
   @ColumnInfo(name = IS_SAGE_COLUMN_NAME)
-  val isSage: Boolean = false
+  val isSage: Boolean = false,
+  // Murmur3 hash (128 bits split into two longs) of the raw post data the way we got it from the
+  // server. Used to skip parsing of posts that have not changed since the last time.
+  @ColumnInfo(name = RAW_POST_HASH_HIGH_COLUMN_NAME)
+  val rawPostHashHigh: Long? = null,
+  @ColumnInfo(name = RAW_POST_HASH_LOW_COLUMN_NAME)
+  val rawPostHashLow: Long? = null
 ) {
   companion object {
     const val TABLE_NAME = "chan_post"
@@ -53,5 +59,7 @@ data class ChanPostEntity(
     const val IS_OP_COLUMN_NAME = "is_op"
     const val IS_SAVED_REPLY_COLUMN_NAME = "is_saved_reply"
     const val IS_SAGE_COLUMN_NAME = "is_sage"
+    const val RAW_POST_HASH_HIGH_COLUMN_NAME = "raw_post_hash_high"
+    const val RAW_POST_HASH_LOW_COLUMN_NAME = "raw_post_hash_low"
   }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.github.k1rakishou.model.entity.chan.post
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Full-text search index over the posts stored in the database. The rowid is the id of the post in
+ * the [ChanPostIdEntity] table. FTS tables can't have foreign keys so the rows are removed by the
+ * triggers created in [createTriggers].
+ * */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = ChanPostSearchEntity.TABLE_NAME)
+data class ChanPostSearchEntity(
+  @PrimaryKey
+  @ColumnInfo(name = ROWID_COLUMN_NAME)
+  val postId: Long,
+  @ColumnInfo(name = COMMENT_COLUMN_NAME)
+  val comment: String?,
+  @ColumnInfo(name = SUBJECT_COLUMN_NAME)
+  val subject: String?,
+  @ColumnInfo(name = NAME_COLUMN_NAME)
+  val name: String?,
+  @ColumnInfo(name = FILENAMES_COLUMN_NAME)
+  val filenames: String?
+) {
+
+  companion object {
+    const val TABLE_NAME = "chan_post_search"
+
+    const val ROWID_COLUMN_NAME = "rowid"
+    const val COMMENT_COLUMN_NAME = "comment"
+    const val SUBJECT_COLUMN_NAME = "subject"
+    const val NAME_COLUMN_NAME = "name"
+    const val FILENAMES_COLUMN_NAME = "filenames"
+
+    // Amount of columns (without the rowid), needed to read the results of matchinfo()
+    const val COLUMNS_COUNT = 4
+
+    const val CREATE_TABLE_QUERY = "CREATE VIRTUAL TABLE IF NOT EXISTS `${TABLE_NAME}` USING FTS4(" +
+      "`${COMMENT_COLUMN_NAME}` TEXT, " +
+      "`${SUBJECT_COLUMN_NAME}` TEXT, " +
+      "`${NAME_COLUMN_NAME}` TEXT, " +
+      "`${FILENAMES_COLUMN_NAME}` TEXT, " +
+      "tokenize=unicode61)"
+
+    private const val DELETE_TRIGGER_NAME = "${TABLE_NAME}_post_deleted_trigger"
+    private const val REPLACE_TRIGGER_NAME = "${TABLE_NAME}_post_replaced_trigger"
+
+    /**
+     * Posts are inserted with "INSERT OR REPLACE" which doesn't fire delete triggers for the replaced
+     * rows (unless recursive triggers are enabled) so we also need to remove the old rows before
+     * a post id is inserted.
+     * */
+    @JvmStatic
+    fun createTriggers(database: SupportSQLiteDatabase) {
+      database.execSQL("""
+        CREATE TRIGGER IF NOT EXISTS `${DELETE_TRIGGER_NAME}`
+        AFTER DELETE ON `${ChanPostIdEntity.TABLE_NAME}`
+        BEGIN
+          DELETE FROM `${TABLE_NAME}` WHERE `${ROWID_COLUMN_NAME}` = OLD.`${ChanPostIdEntity.POST_ID_COLUMN_NAME}`;
+        END
+      """.trimIndent())
+
+      database.execSQL("""
+        CREATE TRIGGER IF NOT EXISTS `${REPLACE_TRIGGER_NAME}`
+        BEFORE INSERT ON `${ChanPostIdEntity.TABLE_NAME}`
+        BEGIN
+          DELETE FROM `${TABLE_NAME}` WHERE `${ROWID_COLUMN_NAME}` IN (
+            SELECT `${ChanPostIdEntity.POST_ID_COLUMN_NAME}`
+            FROM `${ChanPostIdEntity.TABLE_NAME}`
+            WHERE `${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}` = NEW.`${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}`
+            AND `${ChanPostIdEntity.POST_NO_COLUMN_NAME}` = NEW.`${ChanPostIdEntity.POST_NO_COLUMN_NAME}`
+            AND `${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME}` = NEW.`${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME}`
+          );
+        END
+      """.trimIndent())
+    }
+  }
+
+}
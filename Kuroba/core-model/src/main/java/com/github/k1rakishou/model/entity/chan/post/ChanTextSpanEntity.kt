@@ -40,6 +40,8 @@ data class ChanTextSpanEntity(
   val parsedText: String,
   @ColumnInfo(name = UNPARSED_TEXT_COLUMN_NAME, defaultValue = "NULL")
   val unparsedText: String?,
+  @ColumnInfo(name = UNPARSED_TEXT_COMPRESSED_COLUMN_NAME, typeAffinity = ColumnInfo.BLOB, defaultValue = "NULL")
+  val unparsedTextCompressed: ByteArray? = null,
   @ColumnInfo(name = SPAN_INFO_BYTES_COLUMN_NAME, typeAffinity = ColumnInfo.BLOB)
   val spanInfoBytes: ByteArray,
   @ColumnInfo(name = TEXT_TYPE_COLUMN_NAME)
@@ -56,6 +58,10 @@ data class ChanTextSpanEntity(
     if (ownerPostId != other.ownerPostId) return false
     if (parsedText != other.parsedText) return false
     if (unparsedText != other.unparsedText) return false
+    if (unparsedTextCompressed != null) {
+      if (other.unparsedTextCompressed == null) return false
+      if (!unparsedTextCompressed.contentEquals(other.unparsedTextCompressed)) return false
+    } else if (other.unparsedTextCompressed != null) return false
     if (!spanInfoBytes.contentEquals(other.spanInfoBytes)) return false
     if (textType != other.textType) return false
 
@@ -67,6 +73,7 @@ data class ChanTextSpanEntity(
     result = 31 * result + ownerPostId.hashCode()
     result = 31 * result + parsedText.hashCode()
     result = 31 * result + (unparsedText?.hashCode() ?: 0)
+    result = 31 * result + (unparsedTextCompressed?.contentHashCode() ?: 0)
     result = 31 * result + spanInfoBytes.contentHashCode()
     result = 31 * result + textType.hashCode()
     return result
@@ -93,6 +100,7 @@ data class ChanTextSpanEntity(
     const val OWNER_POST_ID_COLUMN_NAME = "owner_post_id"
     const val PARSED_TEXT_COLUMN_NAME = "parsed_text"
     const val UNPARSED_TEXT_COLUMN_NAME = "unparsed_text"
+    const val UNPARSED_TEXT_COMPRESSED_COLUMN_NAME = "unparsed_text_compressed"
     const val SPAN_INFO_BYTES_COLUMN_NAME = "span_info_bytes"
     const val TEXT_TYPE_COLUMN_NAME = "text_type"
   }
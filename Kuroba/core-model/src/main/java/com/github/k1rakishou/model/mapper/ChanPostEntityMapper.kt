@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.mapper
 
 import android.text.SpannableString
 import androidx.core.text.toSpanned
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.PostLinkable
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
@@ -32,7 +33,9 @@ object ChanPostEntityMapper {
       moderatorCapcode = chanPost.moderatorCapcode,
       isOp = chanPost is ChanOriginalPost,
       isSavedReply = chanPost.isSavedReply,
-      isSage = chanPost.isSage
+      isSage = chanPost.isSage,
+      rawPostHashHigh = chanPost.rawPostHash?.val1,
+      rawPostHashLow = chanPost.rawPostHash?.val2
     )
   }
 
@@ -96,7 +99,7 @@ object ChanPostEntityMapper {
       chanThreadEntity.lastModified
     }
 
-    return if (chanPostEntity.isOp) {
+    val chanPost = if (chanPostEntity.isOp) {
       ChanOriginalPost(
         chanPostId = chanPostEntity.chanPostId,
         postDescriptor = postDescriptor,
@@ -144,6 +147,20 @@ object ChanPostEntityMapper {
         isSage = chanPostEntity.isSage
       )
     }
+
+    chanPost.rawPostHash = mapRawPostHash(chanPostEntity)
+    return chanPost
+  }
+
+  private fun mapRawPostHash(chanPostEntity: ChanPostEntity): MurmurHashUtils.Murmur3Hash? {
+    val high = chanPostEntity.rawPostHashHigh
+    val low = chanPostEntity.rawPostHashLow
+
+    if (high == null || low == null) {
+      return null
+    }
+
+    return MurmurHashUtils.Murmur3Hash(high, low)
   }
 
   fun mapTripcode(
@@ -187,7 +204,7 @@ object ChanPostEntityMapper {
     val unparsedPostComment = chanTextSpanEntityList
       ?.filter { textSpanEntity -> textSpanEntity.textType == ChanTextSpanEntity.TextType.PostComment }
       ?.firstOrNull()
-      ?.unparsedText
+      ?.let { textSpanEntity -> TextSpanMapper.unparsedText(textSpanEntity) }
 
     return PostComment(
       originalComment = SpannableString(comment),
@@ -72,8 +72,8 @@ object ChanPostMapper {
       linkables = chanPostBuilder.postCommentBuilder.getAllLinkables()
     )
 
-    if (chanPostBuilder.op) {
-      return ChanOriginalPost(
+    val chanPost = if (chanPostBuilder.op) {
+      ChanOriginalPost(
         chanPostId = 0L,
         postDescriptor = postDescriptor,
         postImages = chanPostBuilder.postImages,
@@ -100,7 +100,7 @@ object ChanPostMapper {
         isSavedReply = chanPostBuilder.isSavedReply
       )
     } else {
-      return ChanPost(
+      ChanPost(
         chanPostId = 0L,
         postDescriptor = postDescriptor,
         _postImages = chanPostBuilder.postImages.toMutableList(),
@@ -119,6 +119,9 @@ object ChanPostMapper {
         isSage = chanPostBuilder.sage,
       )
     }
+
+    chanPost.rawPostHash = chanPostBuilder.postHashOrNull
+    return chanPost
   }
 
 }
\ No newline at end of file
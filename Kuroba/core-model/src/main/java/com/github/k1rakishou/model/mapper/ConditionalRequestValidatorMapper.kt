@@ -0,0 +1,39 @@
+package com.github.k1rakishou.model.mapper
+
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import com.github.k1rakishou.model.entity.ConditionalRequestValidatorEntity
+
+object ConditionalRequestValidatorMapper {
+
+  fun toEntity(
+    descriptorKey: String,
+    consumer: ConditionalRequestConsumer,
+    conditionalRequestValidator: ConditionalRequestValidator
+  ): ConditionalRequestValidatorEntity {
+    return ConditionalRequestValidatorEntity(
+      descriptorKey = descriptorKey,
+      consumer = consumer.value,
+      requestUrl = conditionalRequestValidator.requestUrl,
+      lastModified = conditionalRequestValidator.lastModified,
+      etag = conditionalRequestValidator.etag,
+      updatedAt = conditionalRequestValidator.updatedAt
+    )
+  }
+
+  fun fromEntity(
+    conditionalRequestValidatorEntity: ConditionalRequestValidatorEntity?
+  ): ConditionalRequestValidator? {
+    if (conditionalRequestValidatorEntity == null) {
+      return null
+    }
+
+    return ConditionalRequestValidator(
+      requestUrl = conditionalRequestValidatorEntity.requestUrl,
+      lastModified = conditionalRequestValidatorEntity.lastModified,
+      etag = conditionalRequestValidatorEntity.etag,
+      updatedAt = conditionalRequestValidatorEntity.updatedAt
+    )
+  }
+
+}
@@ -0,0 +1,28 @@
+package com.github.k1rakishou.model.mapper
+
+import com.github.k1rakishou.model.data.download.SavedImage
+import com.github.k1rakishou.model.entity.SavedImageEntity
+
+object SavedImageMapper {
+
+  fun toEntity(savedImage: SavedImage): SavedImageEntity {
+    return SavedImageEntity(
+      outputFileUri = savedImage.outputFileUri,
+      outputDirUri = savedImage.outputDirUri,
+      fileHash = savedImage.fileHash,
+      fileSize = savedImage.fileSize,
+      savedAt = savedImage.savedAt
+    )
+  }
+
+  fun fromEntity(savedImageEntity: SavedImageEntity): SavedImage {
+    return SavedImage(
+      fileHash = savedImageEntity.fileHash,
+      fileSize = savedImageEntity.fileSize,
+      outputFileUri = savedImageEntity.outputFileUri,
+      outputDirUri = savedImageEntity.outputDirUri,
+      savedAt = savedImageEntity.savedAt
+    )
+  }
+
+}
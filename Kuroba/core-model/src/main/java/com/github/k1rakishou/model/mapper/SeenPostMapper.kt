@@ -1,42 +1,29 @@
 package com.github.k1rakishou.model.mapper
 
-import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
-import com.github.k1rakishou.model.data.descriptor.PostDescriptor
-import com.github.k1rakishou.model.data.post.SeenPost
-import com.github.k1rakishou.model.entity.SeenPostEntity
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
+import com.github.k1rakishou.model.entity.ThreadSeenPostsEntity
+import org.joda.time.DateTime
 
 object SeenPostMapper {
 
-  fun toEntity(ownerThreadId: Long, seenPost: SeenPost): SeenPostEntity {
-    return SeenPostEntity(
+  fun toEntity(ownerThreadId: Long, threadSeenPosts: ThreadSeenPosts): ThreadSeenPostsEntity {
+    return ThreadSeenPostsEntity(
       ownerThreadId = ownerThreadId,
-      postNo = seenPost.postDescriptor.postNo,
-      postSubNo = seenPost.postDescriptor.postSubNo,
-      insertedAt = seenPost.insertedAt
+      seenPosts = threadSeenPosts.serialize(),
+      seenPostsCount = threadSeenPosts.size,
+      lastSeenAt = DateTime(threadSeenPosts.lastSeenAt)
     )
   }
 
-  fun fromEntity(
-    threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    seenPostEntity: SeenPostEntity?
-  ): SeenPost? {
-    if (seenPostEntity == null) {
+  fun fromEntity(threadSeenPostsEntity: ThreadSeenPostsEntity?): ThreadSeenPosts? {
+    if (threadSeenPostsEntity == null) {
       return null
     }
 
-    if (seenPostEntity.postNo <= 0 || threadDescriptor.threadNo <= 0) {
-      return null
-    }
-
-    return SeenPost(
-      postDescriptor = PostDescriptor.create(
-        chanDescriptor = threadDescriptor,
-        threadNo = threadDescriptor.threadNo,
-        postNo = seenPostEntity.postNo,
-        postSubNo = seenPostEntity.postSubNo
-      ),
-      insertedAt = seenPostEntity.insertedAt
+    return ThreadSeenPosts.deserialize(
+      bytes = threadSeenPostsEntity.seenPosts,
+      lastSeenAt = threadSeenPostsEntity.lastSeenAt.millis
     )
   }
 
-}
\ No newline at end of file
+}
@@ -1,32 +1,54 @@
 package com.github.k1rakishou.model.mapper
 
 import com.github.k1rakishou.common.errorMessageOrClassName
-import com.github.k1rakishou.common.marshall
 import com.github.k1rakishou.common.unmarshall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.CompactSpansCodec
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
+import java.io.ByteArrayOutputStream
+import java.util.zip.Deflater
+import java.util.zip.Inflater
 
 object TextSpanMapper {
   private const val TAG = "TextSpanMapper"
 
+  // Shorter comments barely get any smaller after compression
+  private const val MIN_COMPRESSIBLE_TEXT_LENGTH = 256
+
   fun toEntity(
     ownerPostId: Long,
     parcelableSpannableString: ParcelableSpannableString,
     originalUnparsedComment: String?,
-    chanTextType: ChanTextSpanEntity.TextType
+    chanTextType: ChanTextSpanEntity.TextType,
+    compressUnparsedComment: Boolean = false
   ): ChanTextSpanEntity? {
     if (parcelableSpannableString.isEmpty()) {
       return null
     }
 
+    var unparsedText = originalUnparsedComment
+    var unparsedTextCompressed: ByteArray? = null
+
+    if (compressUnparsedComment
+      && originalUnparsedComment != null
+      && originalUnparsedComment.length >= MIN_COMPRESSIBLE_TEXT_LENGTH
+    ) {
+      val compressed = deflate(originalUnparsedComment)
+      if (compressed.size < originalUnparsedComment.length) {
+        unparsedText = null
+        unparsedTextCompressed = compressed
+      }
+    }
+
     return ChanTextSpanEntity(
       textSpanId = 0L,
       ownerPostId = ownerPostId,
       parsedText = parcelableSpannableString.text,
-      unparsedText = originalUnparsedComment,
-      spanInfoBytes = parcelableSpannableString.parcelableSpans.marshall(),
+      unparsedText = unparsedText,
+      unparsedTextCompressed = unparsedTextCompressed,
+      spanInfoBytes = CompactSpansCodec.encode(parcelableSpannableString.parcelableSpans),
       textType = chanTextType
     )
   }
@@ -54,15 +76,89 @@ object TextSpanMapper {
 
     val textSpanEntity = filteredTextSpanEntityList.first()
 
-    val parcelableSpans = textSpanEntity.spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
-      .peekError { error -> Logger.e(TAG, "fromEntity() error: ${error.errorMessageOrClassName()}") }
-      .valueOrNull()
-      ?: ParcelableSpans()
-
     return ParcelableSpannableString(
-      parcelableSpans,
+      decodeSpans(textSpanEntity.spanInfoBytes),
       textSpanEntity.parsedText
     )
   }
 
-}
\ No newline at end of file
+  fun unparsedText(textSpanEntity: ChanTextSpanEntity): String? {
+    if (textSpanEntity.unparsedText != null) {
+      return textSpanEntity.unparsedText
+    }
+
+    val unparsedTextCompressed = textSpanEntity.unparsedTextCompressed
+      ?: return null
+
+    try {
+      return inflate(unparsedTextCompressed)
+    } catch (error: Throwable) {
+      Logger.e(TAG, "unparsedText() error: ${error.errorMessageOrClassName()}")
+      return null
+    }
+  }
+
+  private fun decodeSpans(spanInfoBytes: ByteArray): ParcelableSpans {
+    if (CompactSpansCodec.isCompactFormat(spanInfoBytes)) {
+      try {
+        return CompactSpansCodec.decode(spanInfoBytes)
+      } catch (error: Throwable) {
+        Logger.e(TAG, "decodeSpans() error: ${error.errorMessageOrClassName()}")
+        return ParcelableSpans()
+      }
+    }
+
+    // Posts stored before the compact format was introduced
+    return spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
+      .peekError { error -> Logger.e(TAG, "decodeSpans() error: ${error.errorMessageOrClassName()}") }
+      .valueOrNull()
+      ?: ParcelableSpans()
+  }
+
+  private fun deflate(text: String): ByteArray {
+    val input = text.toByteArray(Charsets.UTF_8)
+    val deflater = Deflater(Deflater.BEST_SPEED)
+
+    try {
+      deflater.setInput(input)
+      deflater.finish()
+
+      val outputStream = ByteArrayOutputStream(input.size / 2)
+      val buffer = ByteArray(4096)
+
+      while (!deflater.finished()) {
+        val count = deflater.deflate(buffer)
+        outputStream.write(buffer, 0, count)
+      }
+
+      return outputStream.toByteArray()
+    } finally {
+      deflater.end()
+    }
+  }
+
+  private fun inflate(compressed: ByteArray): String {
+    val inflater = Inflater()
+
+    try {
+      inflater.setInput(compressed)
+
+      val outputStream = ByteArrayOutputStream(compressed.size * 3)
+      val buffer = ByteArray(4096)
+
+      while (!inflater.finished()) {
+        val count = inflater.inflate(buffer)
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw IllegalStateException("Truncated compressed text")
+        }
+
+        outputStream.write(buffer, 0, count)
+      }
+
+      return String(outputStream.toByteArray(), Charsets.UTF_8)
+    } finally {
+      inflater.end()
+    }
+  }
+
+}
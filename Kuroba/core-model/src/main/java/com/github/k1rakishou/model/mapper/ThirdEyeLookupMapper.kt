@@ -0,0 +1,52 @@
+package com.github.k1rakishou.model.mapper
+
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupImage
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import com.github.k1rakishou.model.entity.ThirdEyeLookupEntity
+
+object ThirdEyeLookupMapper {
+  // Tag values may contain whitespaces (some boorus return all tags as one string)
+  private const val TAGS_SEPARATOR = "\n"
+
+  fun toEntity(thirdEyeLookupResult: ThirdEyeLookupResult): ThirdEyeLookupEntity {
+    val image = thirdEyeLookupResult.image
+
+    return ThirdEyeLookupEntity(
+      booruKey = thirdEyeLookupResult.booruKey,
+      imageHash = thirdEyeLookupResult.imageHash,
+      imageUrl = image?.imageUrl,
+      thumbnailUrl = image?.thumbnailUrl,
+      imageWidth = image?.imageWidth,
+      imageHeight = image?.imageHeight,
+      imageSize = image?.imageSize,
+      tags = image?.tags?.takeIf { tags -> tags.isNotEmpty() }?.joinToString(separator = TAGS_SEPARATOR),
+      insertedAt = thirdEyeLookupResult.insertedAt
+    )
+  }
+
+  fun fromEntity(thirdEyeLookupEntity: ThirdEyeLookupEntity): ThirdEyeLookupResult {
+    val imageUrl = thirdEyeLookupEntity.imageUrl
+    val thumbnailUrl = thirdEyeLookupEntity.thumbnailUrl
+
+    val image = if (imageUrl != null && thumbnailUrl != null) {
+      ThirdEyeLookupImage(
+        imageUrl = imageUrl,
+        thumbnailUrl = thumbnailUrl,
+        imageWidth = thirdEyeLookupEntity.imageWidth,
+        imageHeight = thirdEyeLookupEntity.imageHeight,
+        imageSize = thirdEyeLookupEntity.imageSize,
+        tags = thirdEyeLookupEntity.tags?.split(TAGS_SEPARATOR) ?: emptyList()
+      )
+    } else {
+      null
+    }
+
+    return ThirdEyeLookupResult(
+      booruKey = thirdEyeLookupEntity.booruKey,
+      imageHash = thirdEyeLookupEntity.imageHash,
+      image = image,
+      insertedAt = thirdEyeLookupEntity.insertedAt
+    )
+  }
+
+}
@@ -0,0 +1,32 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v41_to_v42 : Migration(41, 42) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL(
+        """
+          CREATE TABLE IF NOT EXISTS `conditional_request_validator` 
+          (
+            `descriptor_key` TEXT NOT NULL, 
+            `consumer` INTEGER NOT NULL, 
+            `request_url` TEXT NOT NULL, 
+            `last_modified` TEXT, 
+            `etag` TEXT, 
+            `updated_at` INTEGER NOT NULL, 
+            PRIMARY KEY(`descriptor_key`, `consumer`)
+          )
+        """.trimIndent()
+      )
+
+      database.execSQL(
+        "CREATE INDEX IF NOT EXISTS `conditional_request_validator_updated_at_idx` " +
+          "ON `conditional_request_validator` (`updated_at`)"
+      )
+    }
+  }
+
+}
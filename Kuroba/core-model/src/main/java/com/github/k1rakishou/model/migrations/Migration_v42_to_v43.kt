@@ -0,0 +1,15 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v42_to_v43 : Migration(42, 43) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN raw_post_hash_high INTEGER")
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN raw_post_hash_low INTEGER")
+    }
+  }
+
+}
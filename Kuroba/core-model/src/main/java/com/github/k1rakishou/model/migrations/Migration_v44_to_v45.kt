@@ -0,0 +1,26 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+
+class Migration_v44_to_v45 : Migration(44, 45) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.execSQL(ChanPostSearchEntity.CREATE_TABLE_QUERY)
+    ChanPostSearchEntity.createTriggers(database)
+
+    // Index the posts that are already in the database
+    database.execSQL("""
+      INSERT INTO chan_post_search (rowid, comment, subject, name, filenames)
+      SELECT
+        cp.chan_post_id,
+        (SELECT parsed_text FROM chan_text_span WHERE owner_post_id = cp.chan_post_id AND text_type = 0),
+        (SELECT parsed_text FROM chan_text_span WHERE owner_post_id = cp.chan_post_id AND text_type = 1),
+        cp.name,
+        (SELECT group_concat(IFNULL(filename, server_filename), ' ') FROM chan_post_image WHERE owner_post_id = cp.chan_post_id)
+      FROM chan_post cp
+    """.trimIndent())
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.github.k1rakishou.model.migrations
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.core.content.contentValuesOf
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
+
+class Migration_v45_to_v46 : Migration(45, 46) {
+
+  // Moves seen posts from one row per post into one row per thread
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("""
+        CREATE TABLE IF NOT EXISTS `thread_seen_posts` 
+        (
+          `owner_thread_id` INTEGER NOT NULL, 
+          `seen_posts` BLOB NOT NULL, 
+          `seen_posts_count` INTEGER NOT NULL, 
+          `last_seen_at` INTEGER NOT NULL, 
+          PRIMARY KEY(`owner_thread_id`), 
+          FOREIGN KEY(`owner_thread_id`) REFERENCES `chan_thread`(`thread_id`) ON UPDATE CASCADE ON DELETE CASCADE 
+        )
+      """.trimIndent())
+
+      database.execSQL("CREATE INDEX IF NOT EXISTS `thread_seen_posts_last_seen_at_idx` ON `thread_seen_posts` (`last_seen_at`)")
+
+      val query = """
+        SELECT owner_thread_id, post_no, post_sub_no, inserted_at 
+        FROM seen_post 
+        ORDER BY owner_thread_id ASC, post_no ASC
+      """.trimIndent()
+
+      var currentThreadId = -1L
+      var currentSeenPosts: ThreadSeenPosts? = null
+
+      database.query(query)?.use { cursor ->
+        while (cursor.moveToNext()) {
+          val ownerThreadId = cursor.getLong(0)
+          val postNo = cursor.getLong(1)
+          val postSubNo = cursor.getLong(2)
+          val insertedAt = cursor.getLong(3)
+
+          if (ownerThreadId != currentThreadId) {
+            currentSeenPosts?.let { seenPosts -> insertSeenPosts(database, currentThreadId, seenPosts) }
+
+            currentThreadId = ownerThreadId
+            currentSeenPosts = ThreadSeenPosts()
+          }
+
+          currentSeenPosts!!.markSeen(postNo, postSubNo, insertedAt)
+        }
+      }
+
+      currentSeenPosts?.let { seenPosts -> insertSeenPosts(database, currentThreadId, seenPosts) }
+
+      database.dropTable("seen_post")
+      database.dropIndex("seen_post_owner_thread_id_idx")
+      database.dropIndex("seen_post_inserted_at_idx")
+    }
+  }
+
+  private fun insertSeenPosts(database: SupportSQLiteDatabase, ownerThreadId: Long, seenPosts: ThreadSeenPosts) {
+    if (seenPosts.isEmpty()) {
+      return
+    }
+
+    val contentValues = contentValuesOf(
+      "owner_thread_id" to ownerThreadId,
+      "seen_posts" to seenPosts.serialize(),
+      "seen_posts_count" to seenPosts.size,
+      "last_seen_at" to seenPosts.lastSeenAt
+    )
+
+    database.insert("thread_seen_posts", SQLiteDatabase.CONFLICT_REPLACE, contentValues)
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v46_to_v47 : Migration(46, 47) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL(
+        """
+          CREATE TABLE IF NOT EXISTS `third_eye_lookup` 
+          (
+            `booru_key` TEXT NOT NULL, 
+            `image_hash` TEXT NOT NULL, 
+            `image_url` TEXT, 
+            `thumbnail_url` TEXT, 
+            `image_width` INTEGER, 
+            `image_height` INTEGER, 
+            `image_size` INTEGER, 
+            `tags` TEXT, 
+            `inserted_at` INTEGER NOT NULL, 
+            PRIMARY KEY(`booru_key`, `image_hash`)
+          )
+        """.trimIndent()
+      )
+
+      database.execSQL(
+        "CREATE INDEX IF NOT EXISTS `third_eye_lookup_inserted_at_idx` " +
+          "ON `third_eye_lookup` (`inserted_at`)"
+      )
+    }
+  }
+
+}
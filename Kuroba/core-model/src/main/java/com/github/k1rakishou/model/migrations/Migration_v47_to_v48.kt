@@ -0,0 +1,31 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v47_to_v48 : Migration(47, 48) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL(
+        """
+          CREATE TABLE IF NOT EXISTS `saved_image` 
+          (
+            `output_file_uri` TEXT NOT NULL, 
+            `output_dir_uri` TEXT NOT NULL, 
+            `file_hash` TEXT NOT NULL, 
+            `file_size` INTEGER NOT NULL, 
+            `saved_at` INTEGER NOT NULL, 
+            PRIMARY KEY(`output_file_uri`)
+          )
+        """.trimIndent()
+      )
+
+      database.execSQL(
+        "CREATE INDEX IF NOT EXISTS `saved_image_file_hash_idx` " +
+          "ON `saved_image` (`file_hash`)"
+      )
+    }
+  }
+
+}
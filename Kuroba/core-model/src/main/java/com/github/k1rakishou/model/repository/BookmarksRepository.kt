@@ -4,6 +4,7 @@ import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmark
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.source.local.ThreadBookmarkLocalSource
 import com.github.k1rakishou.model.util.ensureBackgroundThread
 import kotlinx.coroutines.CoroutineScope
@@ -40,15 +41,22 @@ class BookmarksRepository(
   }
 
   @OptIn(ExperimentalTime::class)
-  suspend fun persist(bookmarks: List<ThreadBookmark>): ModularResult<Unit> {
+  suspend fun persist(
+    changedBookmarks: List<ThreadBookmark>,
+    deletedBookmarks: Collection<ChanDescriptor.ThreadDescriptor>
+  ): ModularResult<ThreadBookmarkLocalSource.PersistResult> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         val (result, duration) = measureTimedValue {
-          return@measureTimedValue localSource.persist(bookmarks)
+          return@measureTimedValue localSource.persist(changedBookmarks, deletedBookmarks)
         }
 
-        Logger.d(TAG, "persist(${bookmarks.size}) took $duration")
+        Logger.d(TAG, "persist(changed=${changedBookmarks.size}, deleted=${deletedBookmarks.size}) took $duration")
         return@tryWithTransaction result
+      }.mapValue { persistedChanges ->
+        // Only update the caches once the transaction is committed
+        localSource.onPersisted(persistedChanges)
+        return@mapValue persistedChanges.persistResult
       }
     }
   }
@@ -21,6 +21,7 @@ import com.github.k1rakishou.model.data.options.PostsToReloadOptions
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.search.LocalPostSearchResult
 import com.github.k1rakishou.model.mapper.ChanPostMapper
 import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
@@ -582,6 +583,20 @@ class ChanPostRepository(
     }
   }
 
+  /**
+   * Full-text search over every post stored in the database (cached and downloaded threads) without
+   * any network requests. Results are ordered by relevance.
+   * */
+  suspend fun searchLocalPosts(query: String, limit: Int): ModularResult<List<LocalPostSearchResult>> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction localSource.searchPosts(query, limit)
+      }
+    }
+  }
+
   suspend fun totalThreadsCount(): ModularResult<Int> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
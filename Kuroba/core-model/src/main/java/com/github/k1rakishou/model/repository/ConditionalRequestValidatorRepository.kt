@@ -0,0 +1,137 @@
+package com.github.k1rakishou.model.repository
+
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import com.github.k1rakishou.model.source.local.ConditionalRequestValidatorLocalSource
+import kotlinx.coroutines.CoroutineScope
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Per-descriptor store of HTTP validators (Last-Modified/ETag). Validators are kept in memory and
+ * persisted in the database so that they survive process death (which is important for the
+ * bookmark watcher which is usually running in the background).
+ * */
+class ConditionalRequestValidatorRepository(
+  database: KurobaDatabase,
+  private val applicationScope: CoroutineScope,
+  private val conditionalRequestValidatorLocalSource: ConditionalRequestValidatorLocalSource
+) : AbstractRepository(database) {
+  private val TAG = "ConditionalRequestValidatorRepository"
+  private val alreadyExecuted = AtomicBoolean(false)
+
+  // CachedValidator with null validator means we have already checked the database and there is
+  // nothing there, so there is no need to go to the database again.
+  private val validatorsCache = ConcurrentHashMap<ValidatorKey, CachedValidator>(128)
+
+  suspend fun getValidator(
+    consumer: ConditionalRequestConsumer,
+    chanDescriptor: ChanDescriptor
+  ): ModularResult<ConditionalRequestValidator?> {
+    val validatorKey = ValidatorKey(consumer, chanDescriptor)
+
+    val cachedValidator = validatorsCache[validatorKey]
+    if (cachedValidator != null) {
+      return ModularResult.value(cachedValidator.validator)
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        conditionalRequestValidatorRepositoryCleanup()
+
+        val fromDatabase = conditionalRequestValidatorLocalSource.select(
+          descriptorKey = validatorKey.descriptorKey,
+          consumer = consumer
+        )
+
+        val prevCachedValidator = validatorsCache.putIfAbsent(validatorKey, CachedValidator(fromDatabase))
+        if (prevCachedValidator != null) {
+          // Someone has updated the validator while we were reading it from the database
+          return@tryWithTransaction prevCachedValidator.validator
+        }
+
+        return@tryWithTransaction fromDatabase
+      }
+    }
+  }
+
+  suspend fun storeValidator(
+    consumer: ConditionalRequestConsumer,
+    chanDescriptor: ChanDescriptor,
+    conditionalRequestValidator: ConditionalRequestValidator
+  ): ModularResult<Unit> {
+    val validatorKey = ValidatorKey(consumer, chanDescriptor)
+
+    val prevValidator = validatorsCache[validatorKey]?.validator
+    if (prevValidator != null && prevValidator.sameValidators(conditionalRequestValidator)) {
+      return ModularResult.value(Unit)
+    }
+
+    validatorsCache[validatorKey] = CachedValidator(conditionalRequestValidator)
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        conditionalRequestValidatorLocalSource.insertOrReplace(
+          descriptorKey = validatorKey.descriptorKey,
+          consumer = consumer,
+          conditionalRequestValidator = conditionalRequestValidator
+        )
+      }
+    }
+  }
+
+  suspend fun deleteValidator(
+    consumer: ConditionalRequestConsumer,
+    chanDescriptor: ChanDescriptor
+  ): ModularResult<Unit> {
+    val validatorKey = ValidatorKey(consumer, chanDescriptor)
+
+    val prevCachedValidator = validatorsCache.put(validatorKey, CachedValidator(null))
+    if (prevCachedValidator != null && prevCachedValidator.validator == null) {
+      return ModularResult.value(Unit)
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        conditionalRequestValidatorLocalSource.delete(
+          descriptorKey = validatorKey.descriptorKey,
+          consumer = consumer
+        )
+      }
+    }
+  }
+
+  suspend fun deleteAll(): ModularResult<Int> {
+    validatorsCache.clear()
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction conditionalRequestValidatorLocalSource.deleteAll()
+      }
+    }
+  }
+
+  private suspend fun conditionalRequestValidatorRepositoryCleanup() {
+    if (!alreadyExecuted.compareAndSet(false, true)) {
+      return
+    }
+
+    val deletedCount = conditionalRequestValidatorLocalSource.deleteOlderThan()
+    Logger.d(TAG, "conditionalRequestValidatorRepositoryCleanup deletedCount=$deletedCount")
+  }
+
+  private class CachedValidator(val validator: ConditionalRequestValidator?)
+
+  private data class ValidatorKey(
+    val consumer: ConditionalRequestConsumer,
+    val chanDescriptor: ChanDescriptor
+  ) {
+    val descriptorKey: String
+      get() = chanDescriptor.serializeToString()
+  }
+
+}
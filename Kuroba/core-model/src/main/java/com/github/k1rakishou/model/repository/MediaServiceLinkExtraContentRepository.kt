@@ -95,6 +95,50 @@ class MediaServiceLinkExtraContentRepository(
     }
   }
 
+  /**
+   * Loads the extra content of all [videoIds] that are not in the memory cache yet with one database
+   * query so that the following [getLinkExtraContent]/[isCached] calls for them don't have to query the
+   * database one by one. Returns the amount of entries loaded from the database.
+   * */
+  suspend fun preloadIntoCache(
+    mediaServiceType: MediaServiceType,
+    videoIds: Collection<GenericVideoId>
+  ): ModularResult<Int> {
+    ensureBackgroundThread()
+
+    if (videoIds.isEmpty()) {
+      return ModularResult.value(0)
+    }
+
+    val alreadyCached = cache.getMany(videoIds.map { videoId -> MediaServiceKey(videoId, mediaServiceType) })
+    val notCachedVideoIds = videoIds.filter { videoId ->
+      !alreadyCached.containsKey(MediaServiceKey(videoId, mediaServiceType))
+    }
+
+    if (notCachedVideoIds.isEmpty()) {
+      return ModularResult.value(0)
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        val fromDatabase = mediaServiceLinkExtraContentLocalSource.selectManyByVideoIds(
+          notCachedVideoIds,
+          mediaServiceType
+        )
+
+        if (fromDatabase.isNotEmpty()) {
+          cache.storeMany(
+            fromDatabase.associateBy { mediaServiceLinkExtraContent ->
+              MediaServiceKey(mediaServiceLinkExtraContent.videoId, mediaServiceType)
+            }
+          )
+        }
+
+        return@tryWithTransaction fromDatabase.size
+      }
+    }
+  }
+
   suspend fun deleteAll(): ModularResult<Int> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
@@ -0,0 +1,52 @@
+package com.github.k1rakishou.model.repository
+
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.download.SavedImage
+import com.github.k1rakishou.model.source.local.SavedImageLocalSource
+import kotlinx.coroutines.CoroutineScope
+
+/**
+ * Persistent index of files saved by the image saver keyed by the server-side image hash. Used to find
+ * out whether an image was already saved (maybe under a different name or into a different directory)
+ * before downloading it again. The files may be deleted/modified by the user at any time so the
+ * callers must check that the file still exists and remove stale entries with [deleteStale].
+ * */
+class SavedImageRepository(
+  database: KurobaDatabase,
+  private val applicationScope: CoroutineScope,
+  private val savedImageLocalSource: SavedImageLocalSource
+) : AbstractRepository(database) {
+
+  /**
+   * Returns all known files with [fileHash], the most recently saved ones first.
+   * */
+  suspend fun selectByFileHash(fileHash: String): ModularResult<List<SavedImage>> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction savedImageLocalSource.selectByFileHash(fileHash)
+      }
+    }
+  }
+
+  suspend fun insertOrReplace(savedImage: SavedImage): ModularResult<Unit> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        savedImageLocalSource.insertOrReplace(savedImage)
+      }
+    }
+  }
+
+  suspend fun deleteStale(outputFileUris: Collection<String>): ModularResult<Int> {
+    if (outputFileUris.isEmpty()) {
+      return ModularResult.value(0)
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction savedImageLocalSource.deleteByOutputFileUris(outputFileUris)
+      }
+    }
+  }
+
+}
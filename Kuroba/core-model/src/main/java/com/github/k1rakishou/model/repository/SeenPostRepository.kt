@@ -5,7 +5,7 @@ import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
-import com.github.k1rakishou.model.data.post.SeenPost
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
 import com.github.k1rakishou.model.source.local.SeenPostLocalSource
 import kotlinx.coroutines.CoroutineScope
 import java.util.concurrent.atomic.AtomicBoolean
@@ -18,36 +18,36 @@ class SeenPostRepository(
   private val TAG = "SeenPostRepository"
   private val alreadyExecuted = AtomicBoolean(false)
 
-  suspend fun insertMany(
+  suspend fun insertOrMerge(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    seenPosts: Collection<SeenPost>
+    threadSeenPosts: ThreadSeenPosts
   ): ModularResult<Unit> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         seenPostLocalRepositoryCleanup()
 
-        return@tryWithTransaction seenPostLocalSource.insertMany(threadDescriptor, seenPosts)
+        return@tryWithTransaction seenPostLocalSource.insertOrMerge(threadDescriptor, threadSeenPosts)
       }
     }
   }
 
-  suspend fun selectAllByThreadDescriptor(
+  suspend fun selectByThreadDescriptor(
     threadDescriptor: ChanDescriptor.ThreadDescriptor
-  ): ModularResult<List<SeenPost>> {
+  ): ModularResult<ThreadSeenPosts?> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        return@tryWithTransaction seenPostLocalSource.selectAllByThreadDescriptor(threadDescriptor)
+        return@tryWithTransaction seenPostLocalSource.selectByThreadDescriptor(threadDescriptor)
       }
     }
   }
 
-  suspend fun selectAllByThreadDescriptors(
+  suspend fun selectSeenThreads(
     boardDescriptor: BoardDescriptor,
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>
-  ): ModularResult<List<SeenPost>> {
+  ): ModularResult<Set<ChanDescriptor.ThreadDescriptor>> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        return@tryWithTransaction seenPostLocalSource.selectAllByThreadDescriptors(boardDescriptor, threadDescriptors)
+        return@tryWithTransaction seenPostLocalSource.selectSeenThreads(boardDescriptor, threadDescriptors)
       }
     }
   }
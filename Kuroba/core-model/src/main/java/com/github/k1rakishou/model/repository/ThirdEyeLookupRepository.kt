@@ -0,0 +1,132 @@
+package com.github.k1rakishou.model.repository
+
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.mutableMapWithCap
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import com.github.k1rakishou.model.source.cache.GenericSuspendableCacheSource
+import com.github.k1rakishou.model.source.local.ThirdEyeLookupLocalSource
+import kotlinx.coroutines.CoroutineScope
+import org.joda.time.DateTime
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Persistent image hash -> booru lookup result cache. Shared by all threads and catalogs so that the
+ * same (reposted) image is only looked up once per booru until the result expires (see
+ * [ThirdEyeLookupResult.isExpired]).
+ * */
+class ThirdEyeLookupRepository(
+  database: KurobaDatabase,
+  private val applicationScope: CoroutineScope,
+  private val cache: GenericSuspendableCacheSource<LookupKey, ThirdEyeLookupResult>,
+  private val thirdEyeLookupLocalSource: ThirdEyeLookupLocalSource
+) : AbstractRepository(database) {
+  private val TAG = "ThirdEyeLookupRepository"
+  private val alreadyExecuted = AtomicBoolean(false)
+
+  /**
+   * Returns not yet expired lookup results for [imageHashes] (keyed by image hash). Hashes that
+   * were never looked up (or whose results have expired) are not in the resulting map.
+   * */
+  suspend fun getLookupResults(
+    booruKey: String,
+    imageHashes: Collection<String>
+  ): ModularResult<Map<String, ThirdEyeLookupResult>> {
+    val now = DateTime.now()
+    val resultMap = mutableMapWithCap<String, ThirdEyeLookupResult>(imageHashes.size)
+
+    val fromCache = cache.getMany(imageHashes.map { imageHash -> LookupKey(booruKey, imageHash) })
+    fromCache.values.forEach { thirdEyeLookupResult ->
+      if (!thirdEyeLookupResult.isExpired(now)) {
+        resultMap[thirdEyeLookupResult.imageHash] = thirdEyeLookupResult
+      }
+    }
+
+    val notCachedHashes = imageHashes.filter { imageHash -> imageHash !in resultMap }
+    if (notCachedHashes.isEmpty()) {
+      return ModularResult.value(resultMap)
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        thirdEyeLookupRepositoryCleanup()
+
+        val fromDatabase = thirdEyeLookupLocalSource.select(booruKey, notCachedHashes)
+          .filter { thirdEyeLookupResult -> !thirdEyeLookupResult.isExpired(now) }
+
+        if (fromDatabase.isNotEmpty()) {
+          cache.storeMany(fromDatabase.associateBy { result -> LookupKey(result.booruKey, result.imageHash) })
+          fromDatabase.forEach { thirdEyeLookupResult -> resultMap[thirdEyeLookupResult.imageHash] = thirdEyeLookupResult }
+        }
+
+        return@tryWithTransaction resultMap
+      }
+    }
+  }
+
+  suspend fun storeLookupResults(thirdEyeLookupResults: List<ThirdEyeLookupResult>): ModularResult<Unit> {
+    if (thirdEyeLookupResults.isEmpty()) {
+      return ModularResult.value(Unit)
+    }
+
+    cache.storeMany(thirdEyeLookupResults.associateBy { result -> LookupKey(result.booruKey, result.imageHash) })
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        thirdEyeLookupLocalSource.insertOrReplace(thirdEyeLookupResults)
+      }
+    }
+  }
+
+  /**
+   * Called when booru settings change (e.g. json keys) since the stored results may not be valid
+   * anymore.
+   * */
+  suspend fun deleteForBoorus(booruKeys: Collection<String>): ModularResult<Int> {
+    if (booruKeys.isEmpty()) {
+      return ModularResult.value(0)
+    }
+
+    cache.clear()
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction thirdEyeLookupLocalSource.deleteByBooruKeys(booruKeys)
+      }
+    }
+  }
+
+  suspend fun deleteAll(): ModularResult<Int> {
+    cache.clear()
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction thirdEyeLookupLocalSource.deleteAll()
+      }
+    }
+  }
+
+  suspend fun count(): ModularResult<Int> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction thirdEyeLookupLocalSource.count()
+      }
+    }
+  }
+
+  private suspend fun thirdEyeLookupRepositoryCleanup() {
+    if (!alreadyExecuted.compareAndSet(false, true)) {
+      return
+    }
+
+    val deletedCount = thirdEyeLookupLocalSource.deleteExpired()
+    Logger.d(TAG, "thirdEyeLookupRepositoryCleanup deletedCount=$deletedCount")
+  }
+
+  data class LookupKey(
+    val booruKey: String,
+    val imageHash: String
+  )
+
+}
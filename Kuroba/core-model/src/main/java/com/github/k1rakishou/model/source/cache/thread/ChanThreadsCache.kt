@@ -40,10 +40,6 @@ class ChanThreadsCache(
     chanThreadDeleteEventListeners += listener
   }
 
-  fun isThreadLockCurrentlyLocked(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
-    return chanThreads[threadDescriptor]?.isThreadLockCurrentlyLocked() ?: false
-  }
-
   fun putPostHash(postDescriptor: PostDescriptor, hash: MurmurHashUtils.Murmur3Hash) {
     chanThreads[postDescriptor.threadDescriptor()]?.putPostHash(postDescriptor, hash)
   }
@@ -296,6 +292,13 @@ class ChanThreadsCache(
     )
   }
 
+  fun updateLastUpdateTime(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    chanCacheUpdateOptions: ChanCacheUpdateOptions
+  ) {
+    chanThreads[threadDescriptor]?.updateLastUpdateTime(chanCacheUpdateOptions)
+  }
+
   fun updateLastAccessTime(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
     chanThreads[threadDescriptor]?.updateLastAccessTime()
   }
@@ -0,0 +1,725 @@
+package com.github.k1rakishou.model.source.local
+
+import android.database.Cursor
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
+import com.github.k1rakishou.model.mapper.ChanPostEntityMapper
+import com.github.k1rakishou.model.mapper.ChanPostHttpIconMapper
+import com.github.k1rakishou.model.mapper.ChanPostImageMapper
+import com.github.k1rakishou.model.mapper.TextSpanMapper
+
+/**
+ * Writes posts with all of their related rows (text spans, images, icons, replies) in one pass over
+ * the post list. Post ids are inserted one by one with the same compiled statement because we need
+ * the generated ids, everything else is accumulated and inserted with multi-row
+ * "INSERT ... VALUES (...), (...)" statements that are also compiled only once per [write] call.
+ * Posts which are already in the database with the same post hash and exactly the same post, image
+ * and icon rows are skipped entirely. The hash covers the text of the post together with the parser
+ * version and settings (see ChanPostUtils.getPostHash) so the text spans, replies and the search
+ * entry don't need to be compared. Everything else (deleted files, flags, sage etc.) is not part of
+ * the hash so it is compared row by row with what is stored in the database.
+ * The full-text search index ([ChanPostSearchEntity]) is updated in the same pass.
+ *
+ * Must be called inside of a transaction. Not thread safe.
+ * */
+internal class ChanPostBulkWriter(
+  private val database: SupportSQLiteDatabase,
+  private val compressStoredPostComments: Boolean,
+  private val timeProvider: () -> Long = { System.nanoTime() }
+) {
+
+  fun write(chanPostIdEntities: List<ChanPostIdEntity>, chanPostList: List<ChanPost>): Stats {
+    require(chanPostIdEntities.size == chanPostList.size) {
+      "Sizes differ: chanPostIdEntities=${chanPostIdEntities.size}, chanPostList=${chanPostList.size}"
+    }
+
+    val startTime = timeProvider()
+    val stats = Stats()
+
+    val existingPosts = selectExistingPosts(chanPostIdEntities, chanPostList, stats)
+    val postIdInserter = PostIdInserter(stats.table(ChanPostIdEntity.TABLE_NAME))
+
+    val postInserter = MultiRowInserter(
+      table = ChanPostEntity.TABLE_NAME,
+      columns = POST_COLUMNS,
+      conflictClause = "OR REPLACE",
+      tableStats = stats.table(ChanPostEntity.TABLE_NAME),
+      parent = null
+    )
+    val textSpanInserter = MultiRowInserter(
+      table = ChanTextSpanEntity.TABLE_NAME,
+      columns = TEXT_SPAN_COLUMNS,
+      conflictClause = "OR IGNORE",
+      tableStats = stats.table(ChanTextSpanEntity.TABLE_NAME),
+      parent = postInserter
+    )
+    val imageInserter = MultiRowInserter(
+      table = ChanPostImageEntity.TABLE_NAME,
+      columns = IMAGE_COLUMNS,
+      conflictClause = "OR REPLACE",
+      tableStats = stats.table(ChanPostImageEntity.TABLE_NAME),
+      parent = postInserter
+    )
+    val iconInserter = MultiRowInserter(
+      table = ChanPostHttpIconEntity.TABLE_NAME,
+      columns = ICON_COLUMNS,
+      conflictClause = "OR REPLACE",
+      tableStats = stats.table(ChanPostHttpIconEntity.TABLE_NAME),
+      parent = postInserter
+    )
+    val replyInserter = MultiRowInserter(
+      table = ChanPostReplyEntity.TABLE_NAME,
+      columns = REPLY_COLUMNS,
+      conflictClause = "OR IGNORE",
+      tableStats = stats.table(ChanPostReplyEntity.TABLE_NAME),
+      parent = postInserter
+    )
+
+    val searchInserter = MultiRowInserter(
+      table = ChanPostSearchEntity.TABLE_NAME,
+      columns = SEARCH_COLUMNS,
+      conflictClause = "OR REPLACE",
+      tableStats = stats.table(ChanPostSearchEntity.TABLE_NAME),
+      parent = null
+    )
+
+    val inserters = listOf(textSpanInserter, imageInserter, iconInserter, replyInserter, postInserter, searchInserter)
+
+    try {
+      for (index in chanPostList.indices) {
+        val chanPost = chanPostList[index]
+        val chanPostIdEntity = chanPostIdEntities[index]
+
+        val existingPost = existingPosts?.get(PostKey.fromEntity(chanPostIdEntity))
+        if (existingPost != null && existingPost.isSameAs(chanPost)) {
+          chanPostIdEntity.postId = existingPost.postId
+          ++stats.skippedPosts
+          continue
+        }
+
+        val postId = postIdInserter.insert(chanPostIdEntity)
+        chanPostIdEntity.postId = postId
+
+        addPost(postInserter, ChanPostEntityMapper.toEntity(postId, chanPost))
+        addTextSpans(textSpanInserter, postId, chanPost)
+
+        for (postImage in chanPost.postImages) {
+          if (postImage.isInlined) {
+            // Skip inlined images
+            continue
+          }
+
+          addImage(imageInserter, ChanPostImageMapper.toEntity(postId, postImage))
+        }
+
+        for (postIcon in chanPost.postIcons) {
+          addIcon(iconInserter, ChanPostHttpIconMapper.toEntity(postId, postIcon))
+        }
+
+        addSearchEntry(searchInserter, postId, chanPost)
+
+        for (replyTo in chanPost.repliesTo) {
+          replyInserter.addRow(
+            postId,
+            replyTo.postNo,
+            replyTo.postSubNo,
+            ChanPostReplyEntity.ReplyType.ReplyTo.value
+          )
+        }
+
+        ++stats.writtenPosts
+      }
+
+      inserters.forEach { inserter -> inserter.flush() }
+    } finally {
+      postIdInserter.close()
+      inserters.forEach { inserter -> inserter.close() }
+    }
+
+    stats.totalNanos = timeProvider() - startTime
+    return stats
+  }
+
+  private fun selectExistingPosts(
+    chanPostIdEntities: List<ChanPostIdEntity>,
+    chanPostList: List<ChanPost>,
+    stats: Stats
+  ): Map<PostKey, ExistingPost>? {
+    if (chanPostList.none { chanPost -> chanPost.rawPostHash != null }) {
+      return null
+    }
+
+    val tableStats = stats.table(SELECT_EXISTING)
+    val startTime = timeProvider()
+    val existingPosts = HashMap<PostKey, ExistingPost>(chanPostList.size)
+    val existingPostsById = HashMap<Long, ExistingPost>(chanPostList.size)
+
+    val ownerThreadIdChunks = chanPostIdEntities
+      .map { chanPostIdEntity -> chanPostIdEntity.ownerThreadId }
+      .distinct()
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+
+    ownerThreadIdChunks.forEach { ownerThreadIds ->
+      queryByOwnerThreadIds(SELECT_EXISTING_POSTS_QUERY, ownerThreadIds) { cursor ->
+        val postKey = PostKey(
+          ownerThreadId = cursor.getLong(0),
+          postNo = cursor.getLong(1),
+          postSubNo = cursor.getLong(2)
+        )
+
+        val existingPost = ExistingPost(
+          postId = cursor.getLong(3),
+          postRow = readRow(cursor, 3, POST_COLUMNS.size)
+        )
+
+        existingPosts[postKey] = existingPost
+        existingPostsById[existingPost.postId] = existingPost
+
+        ++tableStats.rows
+      }
+    }
+
+    if (existingPostsById.isNotEmpty()) {
+      ownerThreadIdChunks.forEach { ownerThreadIds ->
+        queryByOwnerThreadIds(SELECT_EXISTING_IMAGES_QUERY, ownerThreadIds) { cursor ->
+          val imageRow = readRow(cursor, 0, IMAGE_COLUMNS.size)
+          existingPostsById[imageRow[IMAGE_OWNER_POST_ID_INDEX] as Long]?.imageRows?.add(imageRow)
+
+          ++tableStats.rows
+        }
+
+        queryByOwnerThreadIds(SELECT_EXISTING_ICONS_QUERY, ownerThreadIds) { cursor ->
+          val iconRow = readRow(cursor, 0, ICON_COLUMNS.size)
+          existingPostsById[iconRow[ICON_OWNER_POST_ID_INDEX] as Long]?.iconRows?.add(iconRow)
+
+          ++tableStats.rows
+        }
+      }
+    }
+
+    tableStats.nanos += timeProvider() - startTime
+    return existingPosts
+  }
+
+  private inline fun queryByOwnerThreadIds(
+    queryTemplate: String,
+    ownerThreadIds: List<Long>,
+    onRow: (Cursor) -> Unit
+  ) {
+    val placeholders = ownerThreadIds.joinToString(separator = ",") { "?" }
+    val query = queryTemplate.replace(PLACEHOLDERS, placeholders)
+
+    database.query(query, ownerThreadIds.toTypedArray()).use { cursor ->
+      while (cursor.moveToNext()) {
+        onRow(cursor)
+      }
+    }
+  }
+
+  private fun addPost(inserter: MultiRowInserter, chanPostEntity: ChanPostEntity) {
+    inserter.addRow(*postRow(chanPostEntity))
+  }
+
+  private fun addImage(inserter: MultiRowInserter, chanPostImageEntity: ChanPostImageEntity) {
+    inserter.addRow(*imageRow(chanPostImageEntity))
+  }
+
+  private fun addIcon(inserter: MultiRowInserter, chanPostHttpIconEntity: ChanPostHttpIconEntity) {
+    inserter.addRow(*iconRow(chanPostHttpIconEntity))
+  }
+
+  private fun addTextSpans(inserter: MultiRowInserter, postId: Long, chanPost: ChanPost) {
+    addTextSpan(
+      inserter = inserter,
+      parcelableSpannableString = ParcelableSpannableStringMapper
+        .toParcelableSpannableString(chanPost.postComment.originalComment()),
+      chanTextSpanEntity = { parcelableSpannableString ->
+        TextSpanMapper.toEntity(
+          ownerPostId = postId,
+          parcelableSpannableString = parcelableSpannableString,
+          originalUnparsedComment = chanPost.postComment.originalUnparsedComment,
+          chanTextType = ChanTextSpanEntity.TextType.PostComment,
+          // With the raw post hash stored unchanged posts are not parsed again so the original comment
+          // is only rarely needed (reparsing posts from the database, exporting threads)
+          compressUnparsedComment = compressStoredPostComments && chanPost.rawPostHash != null
+        )
+      }
+    )
+
+    addTextSpan(
+      inserter = inserter,
+      parcelableSpannableString = ParcelableSpannableStringMapper.toParcelableSpannableString(chanPost.subject),
+      chanTextSpanEntity = { parcelableSpannableString ->
+        TextSpanMapper.toEntity(postId, parcelableSpannableString, null, ChanTextSpanEntity.TextType.Subject)
+      }
+    )
+
+    addTextSpan(
+      inserter = inserter,
+      parcelableSpannableString = ParcelableSpannableStringMapper.toParcelableSpannableString(chanPost.tripcode),
+      chanTextSpanEntity = { parcelableSpannableString ->
+        TextSpanMapper.toEntity(postId, parcelableSpannableString, null, ChanTextSpanEntity.TextType.Tripcode)
+      }
+    )
+  }
+
+  private inline fun addTextSpan(
+    inserter: MultiRowInserter,
+    parcelableSpannableString: ParcelableSpannableString?,
+    chanTextSpanEntity: (ParcelableSpannableString) -> ChanTextSpanEntity?
+  ) {
+    if (parcelableSpannableString == null) {
+      return
+    }
+
+    val textSpanEntity = chanTextSpanEntity(parcelableSpannableString)
+      ?: return
+
+    inserter.addRow(
+      textSpanEntity.ownerPostId,
+      textSpanEntity.parsedText,
+      textSpanEntity.unparsedText,
+      textSpanEntity.unparsedTextCompressed,
+      textSpanEntity.spanInfoBytes,
+      textSpanEntity.textType.value
+    )
+  }
+
+  private fun addSearchEntry(inserter: MultiRowInserter, postId: Long, chanPost: ChanPost) {
+    val filenames = if (chanPost.postImages.isEmpty()) {
+      null
+    } else {
+      chanPost.postImages.joinToString(separator = " ") { postImage ->
+        postImage.filename ?: postImage.serverFilename
+      }
+    }
+
+    inserter.addRow(
+      postId,
+      chanPost.postComment.originalComment().toString(),
+      chanPost.subject?.toString(),
+      chanPost.name,
+      filenames
+    )
+  }
+
+  private inner class PostIdInserter(private val tableStats: TableStats) {
+    private var statement: SupportSQLiteStatement? = null
+
+    fun insert(chanPostIdEntity: ChanPostIdEntity): Long {
+      val startTime = timeProvider()
+
+      val insertStatement = statement
+        ?: database.compileStatement(POST_ID_INSERT_QUERY).also { statement = it }
+
+      insertStatement.bindLong(1, chanPostIdEntity.ownerThreadId)
+      insertStatement.bindLong(2, chanPostIdEntity.postNo)
+      insertStatement.bindLong(3, chanPostIdEntity.postSubNo)
+
+      val postId = insertStatement.executeInsert()
+      insertStatement.clearBindings()
+
+      check(postId >= 0L) { "Failed to insert post id: ${chanPostIdEntity}" }
+
+      ++tableStats.rows
+      tableStats.nanos += timeProvider() - startTime
+
+      return postId
+    }
+
+    fun close() {
+      statement?.close()
+      statement = null
+    }
+  }
+
+  /**
+   * Accumulates rows and inserts them in chunks of up to [maxRowsPerStatement] rows. The statement
+   * for a full chunk is compiled once and then reused, only the last (incomplete) chunk needs its
+   * own statement. Rows of the [parent] table are always flushed first so that foreign key
+   * constraints are satisfied.
+   * */
+  private inner class MultiRowInserter(
+    private val table: String,
+    private val columns: Array<String>,
+    private val conflictClause: String,
+    private val tableStats: TableStats,
+    private val parent: MultiRowInserter?
+  ) {
+    private val maxRowsPerStatement = (KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE / columns.size)
+      .coerceAtLeast(1)
+    private val values = arrayOfNulls<Any?>(maxRowsPerStatement * columns.size)
+
+    private var rowsCount = 0
+    private var fullChunkStatement: SupportSQLiteStatement? = null
+
+    fun addRow(vararg rowValues: Any?) {
+      require(rowValues.size == columns.size) {
+        "Bad values count for ${table}: expected ${columns.size}, got ${rowValues.size}"
+      }
+
+      System.arraycopy(rowValues, 0, values, rowsCount * columns.size, columns.size)
+      ++rowsCount
+
+      if (rowsCount == maxRowsPerStatement) {
+        flush()
+      }
+    }
+
+    fun flush() {
+      if (rowsCount == 0) {
+        return
+      }
+
+      parent?.flush()
+
+      val startTime = timeProvider()
+
+      if (rowsCount == maxRowsPerStatement) {
+        val statement = fullChunkStatement
+          ?: database.compileStatement(insertQuery(rowsCount)).also { fullChunkStatement = it }
+
+        execute(statement)
+      } else {
+        database.compileStatement(insertQuery(rowsCount)).use { statement -> execute(statement) }
+      }
+
+      tableStats.rows += rowsCount
+      ++tableStats.statements
+      tableStats.nanos += timeProvider() - startTime
+
+      values.fill(null, 0, rowsCount * columns.size)
+      rowsCount = 0
+    }
+
+    fun close() {
+      fullChunkStatement?.close()
+      fullChunkStatement = null
+    }
+
+    private fun execute(statement: SupportSQLiteStatement) {
+      val valuesCount = rowsCount * columns.size
+
+      for (index in 0 until valuesCount) {
+        bind(statement, index + 1, values[index])
+      }
+
+      statement.executeInsert()
+      statement.clearBindings()
+    }
+
+    private fun bind(statement: SupportSQLiteStatement, index: Int, value: Any?) {
+      when (value) {
+        null -> statement.bindNull(index)
+        is Long -> statement.bindLong(index, value)
+        is Int -> statement.bindLong(index, value.toLong())
+        is Boolean -> statement.bindLong(index, if (value) 1L else 0L)
+        is String -> statement.bindString(index, value)
+        is ByteArray -> statement.bindBlob(index, value)
+        else -> throw IllegalArgumentException("Unsupported value type: ${value.javaClass.simpleName}")
+      }
+    }
+
+    private fun insertQuery(rows: Int): String {
+      val row = columns.joinToString(separator = ",", prefix = "(", postfix = ")") { "?" }
+
+      return buildString(capacity = 64 + rows * (row.length + 1)) {
+        append("INSERT ")
+        append(conflictClause)
+        append(" INTO `")
+        append(table)
+        append("` ")
+        append(columns.joinToString(separator = ",", prefix = "(", postfix = ")") { column -> "`${column}`" })
+        append(" VALUES ")
+
+        for (rowIndex in 0 until rows) {
+          if (rowIndex > 0) {
+            append(',')
+          }
+
+          append(row)
+        }
+      }
+    }
+  }
+
+  private data class PostKey(
+    val ownerThreadId: Long,
+    val postNo: Long,
+    val postSubNo: Long
+  ) {
+    companion object {
+      fun fromEntity(chanPostIdEntity: ChanPostIdEntity): PostKey {
+        return PostKey(chanPostIdEntity.ownerThreadId, chanPostIdEntity.postNo, chanPostIdEntity.postSubNo)
+      }
+    }
+  }
+
+  /**
+   * A post that is already stored in the database with all of its rows that are not covered by the
+   * post hash. Rows are normalized with [normalizeRow] so that they can be compared with the rows we
+   * would insert for the new version of the post.
+   * */
+  private class ExistingPost(
+    val postId: Long,
+    val postRow: List<Any?>
+  ) {
+    val imageRows = HashSet<List<Any?>>()
+    val iconRows = HashSet<List<Any?>>()
+
+    fun isSameAs(chanPost: ChanPost): Boolean {
+      if (chanPost.rawPostHash == null) {
+        return false
+      }
+
+      // The stored rows use the same postId so the new rows are built with it too
+      val newPostRow = normalizeRow(postRow(ChanPostEntityMapper.toEntity(postId, chanPost)))
+      if (newPostRow != postRow) {
+        return false
+      }
+
+      val newImageRows = chanPost.postImages
+        .filter { postImage -> !postImage.isInlined }
+        .mapTo(HashSet()) { postImage -> normalizeRow(imageRow(ChanPostImageMapper.toEntity(postId, postImage))) }
+
+      if (newImageRows != imageRows) {
+        return false
+      }
+
+      val newIconRows = chanPost.postIcons
+        .mapTo(HashSet()) { postIcon -> normalizeRow(iconRow(ChanPostHttpIconMapper.toEntity(postId, postIcon))) }
+
+      if (newIconRows != iconRows) {
+        return false
+      }
+
+      return true
+    }
+
+  }
+
+  class TableStats {
+    var rows: Int = 0
+    var statements: Int = 0
+    var nanos: Long = 0L
+
+    override fun toString(): String {
+      return "rows=${rows}, statements=${statements}, took=${nanos / 1_000_000}ms"
+    }
+  }
+
+  class Stats {
+    val tables = LinkedHashMap<String, TableStats>()
+    var writtenPosts: Int = 0
+    var skippedPosts: Int = 0
+    var totalNanos: Long = 0L
+
+    fun table(name: String): TableStats = tables.getOrPut(name) { TableStats() }
+
+    override fun toString(): String {
+      return buildString {
+        append("written=${writtenPosts}, skipped=${skippedPosts}, took=${totalNanos / 1_000_000}ms")
+
+        tables.forEach { (name, tableStats) ->
+          append(", ")
+          append(name)
+          append(": {")
+          append(tableStats)
+          append("}")
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val SELECT_EXISTING = "select_existing"
+    private const val PLACEHOLDERS = "{placeholders}"
+
+    private val POST_ID_INSERT_QUERY = """
+      INSERT OR REPLACE INTO `${ChanPostIdEntity.TABLE_NAME}` (
+        `${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}`,
+        `${ChanPostIdEntity.POST_NO_COLUMN_NAME}`,
+        `${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME}`
+      ) VALUES (?, ?, ?)
+    """.trimIndent()
+
+    private val POST_COLUMNS = arrayOf(
+      ChanPostEntity.CHAN_POST_ID_COLUMN_NAME,
+      ChanPostEntity.DELETED_COLUMN_NAME,
+      ChanPostEntity.TIMESTAMP_SECONDS_COLUMN_NAME,
+      ChanPostEntity.NAME_COLUMN_NAME,
+      ChanPostEntity.POSTER_ID_COLUMN_NAME,
+      ChanPostEntity.POSTER_ID_COLOR_COLUMN_NAME,
+      ChanPostEntity.MODERATOR_CAPCODE_COLUMN_NAME,
+      ChanPostEntity.IS_OP_COLUMN_NAME,
+      ChanPostEntity.IS_SAVED_REPLY_COLUMN_NAME,
+      ChanPostEntity.IS_SAGE_COLUMN_NAME,
+      ChanPostEntity.RAW_POST_HASH_HIGH_COLUMN_NAME,
+      ChanPostEntity.RAW_POST_HASH_LOW_COLUMN_NAME
+    )
+
+    private val TEXT_SPAN_COLUMNS = arrayOf(
+      ChanTextSpanEntity.OWNER_POST_ID_COLUMN_NAME,
+      ChanTextSpanEntity.PARSED_TEXT_COLUMN_NAME,
+      ChanTextSpanEntity.UNPARSED_TEXT_COLUMN_NAME,
+      ChanTextSpanEntity.UNPARSED_TEXT_COMPRESSED_COLUMN_NAME,
+      ChanTextSpanEntity.SPAN_INFO_BYTES_COLUMN_NAME,
+      ChanTextSpanEntity.TEXT_TYPE_COLUMN_NAME
+    )
+
+    private val IMAGE_COLUMNS = arrayOf(
+      ChanPostImageEntity.OWNER_POST_ID_COLUMN_NAME,
+      ChanPostImageEntity.SERVER_FILENAME_COLUMN_NAME,
+      ChanPostImageEntity.THUMBNAIL_URL_COLUMN_NAME,
+      ChanPostImageEntity.IMAGE_URL_COLUMN_NAME,
+      ChanPostImageEntity.SPOILER_THUMBNAIL_URL_COLUMN_NAME,
+      ChanPostImageEntity.FILENAME_COLUMN_NAME,
+      ChanPostImageEntity.EXTENSION_COLUMN_NAME,
+      ChanPostImageEntity.IMAGE_WIDTH_COLUMN_NAME,
+      ChanPostImageEntity.IMAGE_HEIGHT_COLUMN_NAME,
+      ChanPostImageEntity.SPOILER_COLUMN_NAME,
+      ChanPostImageEntity.IS_INLINED_COLUMN_NAME,
+      ChanPostImageEntity.FILE_SIZE_COLUMN_NAME,
+      ChanPostImageEntity.FILE_HASH_COLUMN_NAME,
+      ChanPostImageEntity.TYPE_COLUMN_NAME
+    )
+
+    private val ICON_COLUMNS = arrayOf(
+      ChanPostHttpIconEntity.ICON_URL_COLUMN_NAME,
+      ChanPostHttpIconEntity.OWNER_POST_ID_COLUMN_NAME,
+      ChanPostHttpIconEntity.ICON_NAME_COLUMN_NAME
+    )
+
+    private val SEARCH_COLUMNS = arrayOf(
+      ChanPostSearchEntity.ROWID_COLUMN_NAME,
+      ChanPostSearchEntity.COMMENT_COLUMN_NAME,
+      ChanPostSearchEntity.SUBJECT_COLUMN_NAME,
+      ChanPostSearchEntity.NAME_COLUMN_NAME,
+      ChanPostSearchEntity.FILENAMES_COLUMN_NAME
+    )
+
+    private val REPLY_COLUMNS = arrayOf(
+      ChanPostReplyEntity.OWNER_POST_ID_COLUMN_NAME,
+      ChanPostReplyEntity.REPLY_NO_COLUMN_NAME,
+      ChanPostReplyEntity.REPLY_SUB_NO_COLUMN_NAME,
+      ChanPostReplyEntity.REPLY_TYPE_COLUMN_NAME
+    )
+
+    private val IMAGE_OWNER_POST_ID_INDEX = IMAGE_COLUMNS.indexOf(ChanPostImageEntity.OWNER_POST_ID_COLUMN_NAME)
+    private val ICON_OWNER_POST_ID_INDEX = ICON_COLUMNS.indexOf(ChanPostHttpIconEntity.OWNER_POST_ID_COLUMN_NAME)
+
+    private val SELECT_EXISTING_POSTS_QUERY = """
+      SELECT
+        cp_id.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME},
+        cp_id.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        cp_id.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        ${POST_COLUMNS.joinToString(separator = ", ") { column -> "cpe.${column}" }}
+      FROM ${ChanPostIdEntity.TABLE_NAME} cp_id
+      INNER JOIN ${ChanPostEntity.TABLE_NAME} cpe
+        ON cpe.${ChanPostEntity.CHAN_POST_ID_COLUMN_NAME} = cp_id.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+      WHERE cp_id.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} IN (${PLACEHOLDERS})
+    """.trimIndent()
+
+    private val SELECT_EXISTING_IMAGES_QUERY = """
+      SELECT
+        ${IMAGE_COLUMNS.joinToString(separator = ", ") { column -> "cpi.${column}" }}
+      FROM ${ChanPostImageEntity.TABLE_NAME} cpi
+      INNER JOIN ${ChanPostIdEntity.TABLE_NAME} cp_id
+        ON cp_id.${ChanPostIdEntity.POST_ID_COLUMN_NAME} = cpi.${ChanPostImageEntity.OWNER_POST_ID_COLUMN_NAME}
+      WHERE cp_id.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} IN (${PLACEHOLDERS})
+    """.trimIndent()
+
+    private val SELECT_EXISTING_ICONS_QUERY = """
+      SELECT
+        ${ICON_COLUMNS.joinToString(separator = ", ") { column -> "cphi.${column}" }}
+      FROM ${ChanPostHttpIconEntity.TABLE_NAME} cphi
+      INNER JOIN ${ChanPostIdEntity.TABLE_NAME} cp_id
+        ON cp_id.${ChanPostIdEntity.POST_ID_COLUMN_NAME} = cphi.${ChanPostHttpIconEntity.OWNER_POST_ID_COLUMN_NAME}
+      WHERE cp_id.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} IN (${PLACEHOLDERS})
+    """.trimIndent()
+
+    // The row functions must return the values in the order of the corresponding columns arrays
+
+    private fun postRow(chanPostEntity: ChanPostEntity): Array<Any?> {
+      return arrayOf(
+        chanPostEntity.chanPostId,
+        chanPostEntity.deleted,
+        chanPostEntity.timestamp,
+        chanPostEntity.name,
+        chanPostEntity.posterId,
+        chanPostEntity.posterIdColor,
+        chanPostEntity.moderatorCapcode,
+        chanPostEntity.isOp,
+        chanPostEntity.isSavedReply,
+        chanPostEntity.isSage,
+        chanPostEntity.rawPostHashHigh,
+        chanPostEntity.rawPostHashLow
+      )
+    }
+
+    private fun imageRow(chanPostImageEntity: ChanPostImageEntity): Array<Any?> {
+      return arrayOf(
+        chanPostImageEntity.ownerPostId,
+        chanPostImageEntity.serverFilename,
+        chanPostImageEntity.thumbnailUrl?.toString(),
+        chanPostImageEntity.imageUrl?.toString(),
+        chanPostImageEntity.spoilerThumbnailUrl?.toString(),
+        chanPostImageEntity.filename,
+        chanPostImageEntity.extension,
+        chanPostImageEntity.imageWidth,
+        chanPostImageEntity.imageHeight,
+        chanPostImageEntity.spoiler,
+        chanPostImageEntity.isInlined,
+        chanPostImageEntity.fileSize,
+        chanPostImageEntity.fileHash,
+        chanPostImageEntity.type?.value
+      )
+    }
+
+    private fun iconRow(chanPostHttpIconEntity: ChanPostHttpIconEntity): Array<Any?> {
+      return arrayOf(
+        chanPostHttpIconEntity.iconUrl.toString(),
+        chanPostHttpIconEntity.ownerPostId,
+        chanPostHttpIconEntity.iconName
+      )
+    }
+
+    /**
+     * Converts the values the same way they are bound (see [MultiRowInserter]) so that a row we are
+     * about to insert can be compared with a row read by [readRow].
+     * */
+    private fun normalizeRow(row: Array<Any?>): List<Any?> {
+      return row.map { value ->
+        when (value) {
+          is Int -> value.toLong()
+          is Boolean -> if (value) 1L else 0L
+          else -> value
+        }
+      }
+    }
+
+    private fun readRow(cursor: Cursor, fromColumn: Int, count: Int): List<Any?> {
+      return (fromColumn until fromColumn + count).map { column ->
+        when (cursor.getType(column)) {
+          Cursor.FIELD_TYPE_NULL -> null
+          Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(column)
+          Cursor.FIELD_TYPE_FLOAT -> cursor.getDouble(column)
+          Cursor.FIELD_TYPE_BLOB -> cursor.getBlob(column)
+          else -> cursor.getString(column)
+        }
+      }
+    }
+  }
+
+}
@@ -1,33 +1,30 @@
 package com.github.k1rakishou.model.source.local
 
-import com.github.k1rakishou.common.flatMapIndexed
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
-import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.search.LocalPostSearchResult
 import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
 import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
-import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
 import com.github.k1rakishou.model.entity.view.ChanThreadsWithPosts
 import com.github.k1rakishou.model.entity.view.OldChanPostThread
 import com.github.k1rakishou.model.mapper.ChanPostEntityMapper
-import com.github.k1rakishou.model.mapper.ChanPostHttpIconMapper
-import com.github.k1rakishou.model.mapper.ChanPostImageMapper
 import com.github.k1rakishou.model.mapper.ChanThreadMapper
-import com.github.k1rakishou.model.mapper.TextSpanMapper
+import com.github.k1rakishou.model.util.FtsQueryHelper
 import java.util.concurrent.TimeUnit
 
 class ChanPostLocalSource(
-  database: KurobaDatabase
+  database: KurobaDatabase,
+  private val compressStoredPostComments: Boolean
 ) : AbstractLocalSource(database) {
   private val TAG = "ChanPostLocalSource"
   private val chanBoardDao = database.chanBoardDao()
@@ -37,6 +34,7 @@ class ChanPostLocalSource(
   private val chanPostHttpIconDao = database.chanPostHttpIconDao()
   private val chanTextSpanDao = database.chanTextSpanDao()
   private val chanPostReplyDao = database.chanPostReplyDao()
+  private val chanPostSearchDao = database.chanPostSearchDao()
 
   suspend fun insertEmptyThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
     ensureInTransaction()
@@ -167,123 +165,16 @@ class ChanPostLocalSource(
   private suspend fun insertPostsInternal(
     chanPostIdEntities: List<ChanPostIdEntity>,
     chanPostList: List<ChanPost>
-  ) {
-    chanPostDao.insertOrReplaceManyIds(chanPostIdEntities).forEachIndexed { index, postDatabaseId ->
-      chanPostIdEntities[index].postId = postDatabaseId
-    }
-
-    chanPostDao.insertOrReplaceManyPosts(
-      chanPostIdEntities.mapIndexed { index, chanPostIdEntity ->
-        ChanPostEntityMapper.toEntity(chanPostIdEntity.postId, chanPostList[index])
-      }
-    )
-
-    insertPostSpannables(chanPostIdEntities, chanPostList)
-
-    chanPostImageDao.insertMany(
-      chanPostIdEntities.flatMapIndexed { index, chanPostIdEntity ->
-        val chanPost = chanPostList[index]
-
-        return@flatMapIndexed chanPost.postImages.mapNotNull { postImage ->
-          if (postImage.isInlined) {
-            // Skip inlined images
-            return@mapNotNull null
-          }
-
-          return@mapNotNull ChanPostImageMapper.toEntity(chanPostIdEntity.postId, postImage)
-        }
-      }
-    )
-
-    chanPostHttpIconDao.insertMany(
-      chanPostIdEntities.flatMapIndexed { index, chanPostIdEntity ->
-        val chanPost = chanPostList[index]
-
-        return@flatMapIndexed chanPost.postIcons.map { postIcon ->
-          ChanPostHttpIconMapper.toEntity(chanPostIdEntity.postId, postIcon)
-        }
-      }
-    )
-
-    chanPostReplyDao.insertManyOrIgnore(
-      chanPostIdEntities.flatMapIndexed { index, chanPostIdEntity ->
-        val chanPost = chanPostList[index]
-
-        return@flatMapIndexed chanPost.repliesTo.map { replyTo ->
-          ChanPostReplyEntity(
-            postReplyId = 0L,
-            ownerPostId = chanPostIdEntity.postId,
-            replyNo = replyTo.postNo,
-            replySubNo = replyTo.postSubNo,
-            replyType = ChanPostReplyEntity.ReplyType.ReplyTo
-          )
-        }.toList()
-      }
-    )
-  }
-
-  private suspend fun insertPostSpannables(
-    chanPostEntityIdList: List<ChanPostIdEntity>,
-    chanPostList: List<ChanPost>
   ) {
     ensureInTransaction()
 
-    val postCommentWithSpansJsonList = chanPostEntityIdList.mapIndexedNotNull { index, chanPostEntityId ->
-      val chanPost = chanPostList[index]
-
-      val parcelableSpannableString = ParcelableSpannableStringMapper
-        .toParcelableSpannableString(chanPost.postComment.originalComment())
-        ?: return@mapIndexedNotNull null
-
-      return@mapIndexedNotNull TextSpanMapper.toEntity(
-        ownerPostId = chanPostEntityId.postId,
-        parcelableSpannableString = parcelableSpannableString,
-        originalUnparsedComment = chanPost.postComment.originalUnparsedComment,
-        chanTextType = ChanTextSpanEntity.TextType.PostComment
-      )
-    }
-
-    if (postCommentWithSpansJsonList.isNotEmpty()) {
-      chanTextSpanDao.insertMany(postCommentWithSpansJsonList)
-    }
-
-    val subjectWithSpansJsonList = chanPostEntityIdList.mapIndexedNotNull { index, chanPostEntityId ->
-      val chanPost = chanPostList[index]
-
-      val parcelableSpannableString = ParcelableSpannableStringMapper
-        .toParcelableSpannableString(chanPost.subject)
-        ?: return@mapIndexedNotNull null
-
-      return@mapIndexedNotNull TextSpanMapper.toEntity(
-        ownerPostId = chanPostEntityId.postId,
-        parcelableSpannableString = parcelableSpannableString,
-        originalUnparsedComment = null,
-        chanTextType = ChanTextSpanEntity.TextType.Subject
-      )
-    }
-
-    if (subjectWithSpansJsonList.isNotEmpty()) {
-      chanTextSpanDao.insertMany(subjectWithSpansJsonList)
-    }
-
-    val tripcodeWithSpansJsonList = chanPostEntityIdList.mapIndexedNotNull { index, chanPostEntityId ->
-      val chanPost = chanPostList[index]
-
-      val parcelableSpannableString = ParcelableSpannableStringMapper
-        .toParcelableSpannableString(chanPost.tripcode)
-        ?: return@mapIndexedNotNull null
-
-      return@mapIndexedNotNull TextSpanMapper.toEntity(
-        ownerPostId = chanPostEntityId.postId,
-        parcelableSpannableString = parcelableSpannableString,
-        originalUnparsedComment = null,
-        chanTextType = ChanTextSpanEntity.TextType.Tripcode
-      )
-    }
+    val chanPostBulkWriter = ChanPostBulkWriter(
+      database = database.openHelper.writableDatabase,
+      compressStoredPostComments = compressStoredPostComments
+    )
 
-    if (tripcodeWithSpansJsonList.isNotEmpty()) {
-      chanTextSpanDao.insertMany(tripcodeWithSpansJsonList)
-    }
+    val stats = chanPostBulkWriter.write(chanPostIdEntities, chanPostList)
+    Logger.d(TAG, "insertPostsInternal() ${stats}")
   }
 
   suspend fun updateThreadState(threadDatabaseId: Long, deleted: Boolean?, archived: Boolean?, closed: Boolean?) {
@@ -536,6 +427,59 @@ class ChanPostLocalSource(
     )
   }
 
+  suspend fun searchPosts(query: String, limit: Int): List<LocalPostSearchResult> {
+    ensureInTransaction()
+
+    val ftsQuery = FtsQueryHelper.toFtsQuery(query)
+      ?: return emptyList()
+
+    val matches = chanPostSearchDao.search(
+      query = ftsQuery,
+      snippetStart = LocalPostSearchResult.MATCH_START.toString(),
+      snippetEnd = LocalPostSearchResult.MATCH_END.toString(),
+      snippetTokens = SEARCH_SNIPPET_TOKENS,
+      limit = SEARCH_MAX_CANDIDATES
+    )
+
+    if (matches.isEmpty()) {
+      return emptyList()
+    }
+
+    val bestMatches = matches
+      .map { match -> match to FtsQueryHelper.rank(match.matchInfo, SEARCH_COLUMN_WEIGHTS) }
+      .sortedByDescending { (_, rank) -> rank }
+      .take(limit)
+
+    val postDescriptorsByPostId = bestMatches
+      .map { (match, _) -> match.postId }
+      .toSet()
+      .chunked(ENTITIES_IN_BATCH)
+      .flatMap { chunk -> chanPostDao.selectPostDescriptorDatabaseObjectsByPostIds(chunk.toSet()) }
+      .associateBy(
+        keySelector = { postDescriptorDatabaseObject -> postDescriptorDatabaseObject.postDatabaseId },
+        valueTransform = { postDescriptorDatabaseObject ->
+          PostDescriptor.create(
+            siteName = postDescriptorDatabaseObject.siteName,
+            boardCode = postDescriptorDatabaseObject.boardCode,
+            threadNo = postDescriptorDatabaseObject.threadNo,
+            postNo = postDescriptorDatabaseObject.postNo,
+            postSubNo = postDescriptorDatabaseObject.postSubNo
+          )
+        }
+      )
+
+    return bestMatches.mapNotNull { (match, rank) ->
+      val postDescriptor = postDescriptorsByPostId[match.postId]
+        ?: return@mapNotNull null
+
+      return@mapNotNull LocalPostSearchResult(
+        postDescriptor = postDescriptor,
+        snippet = match.snippet,
+        rank = rank
+      )
+    }
+  }
+
   suspend fun getThreadIdByPostDescriptor(postDescriptor: PostDescriptor): Long? {
     ensureInTransaction()
 
@@ -882,5 +826,12 @@ class ChanPostLocalSource(
     private const val ENTITIES_IN_BATCH = KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE
 
     private val TEN_SECONDS = TimeUnit.SECONDS.toMillis(10)
+
+    private const val SEARCH_SNIPPET_TOKENS = 16
+    // FTS4 has no bm25() so the candidates are ranked after being loaded, this is how many of the
+    // newest matches we are going to rank.
+    private const val SEARCH_MAX_CANDIDATES = 1000
+    // comment, subject, name, filenames
+    private val SEARCH_COLUMN_WEIGHTS = doubleArrayOf(1.0, 2.0, 0.5, 0.75)
   }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.github.k1rakishou.model.source.local
+
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.validator.ConditionalRequestConsumer
+import com.github.k1rakishou.model.data.validator.ConditionalRequestValidator
+import com.github.k1rakishou.model.mapper.ConditionalRequestValidatorMapper
+import org.joda.time.DateTime
+
+class ConditionalRequestValidatorLocalSource(
+  database: KurobaDatabase
+) : AbstractLocalSource(database) {
+  private val conditionalRequestValidatorDao = database.conditionalRequestValidatorDao()
+
+  suspend fun insertOrReplace(
+    descriptorKey: String,
+    consumer: ConditionalRequestConsumer,
+    conditionalRequestValidator: ConditionalRequestValidator
+  ) {
+    ensureInTransaction()
+
+    val entity = ConditionalRequestValidatorMapper.toEntity(
+      descriptorKey = descriptorKey,
+      consumer = consumer,
+      conditionalRequestValidator = conditionalRequestValidator
+    )
+
+    conditionalRequestValidatorDao.insertOrReplace(entity)
+  }
+
+  suspend fun select(
+    descriptorKey: String,
+    consumer: ConditionalRequestConsumer
+  ): ConditionalRequestValidator? {
+    ensureInTransaction()
+
+    val entity = conditionalRequestValidatorDao.select(descriptorKey, consumer.value)
+    return ConditionalRequestValidatorMapper.fromEntity(entity)
+  }
+
+  suspend fun delete(descriptorKey: String, consumer: ConditionalRequestConsumer) {
+    ensureInTransaction()
+
+    conditionalRequestValidatorDao.delete(descriptorKey, consumer.value)
+  }
+
+  suspend fun deleteOlderThan(dateTime: DateTime = ONE_WEEK_AGO): Int {
+    ensureInTransaction()
+
+    return conditionalRequestValidatorDao.deleteOlderThan(dateTime)
+  }
+
+  suspend fun deleteAll(): Int {
+    ensureInTransaction()
+
+    return conditionalRequestValidatorDao.deleteAll()
+  }
+
+  companion object {
+    val ONE_WEEK_AGO: DateTime = DateTime.now().minusWeeks(1)
+  }
+}
@@ -3,6 +3,7 @@ package com.github.k1rakishou.model.source.local
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.media.GenericVideoId
 import com.github.k1rakishou.model.data.video_service.MediaServiceLinkExtraContent
+import com.github.k1rakishou.model.data.video_service.MediaServiceType
 import com.github.k1rakishou.model.mapper.MediaServiceLinkExtraContentMapper
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository
 import org.joda.time.DateTime
@@ -39,6 +40,25 @@ open class MediaServiceLinkExtraContentLocalSource(
     )
   }
 
+  open suspend fun selectManyByVideoIds(
+    videoIds: Collection<GenericVideoId>,
+    mediaServiceType: MediaServiceType
+  ): List<MediaServiceLinkExtraContent> {
+    ensureInTransaction()
+
+    val videoIdMap = videoIds.associateBy { videoId -> videoId.id }
+
+    return videoIdMap.keys
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { chunk -> mediaServiceLinkExtraContentDao.selectMany(chunk, mediaServiceType) }
+      .mapNotNull { mediaServiceLinkExtraContentEntity ->
+        val videoId = videoIdMap[mediaServiceLinkExtraContentEntity.videoId]
+          ?: return@mapNotNull null
+
+        return@mapNotNull MediaServiceLinkExtraContentMapper.fromEntity(videoId, mediaServiceLinkExtraContentEntity)
+      }
+  }
+
   open suspend fun deleteOlderThan(dateTime: DateTime = ONE_WEEK_AGO): Int {
     ensureInTransaction()
 
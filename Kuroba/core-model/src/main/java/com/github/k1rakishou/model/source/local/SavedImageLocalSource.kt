@@ -0,0 +1,37 @@
+package com.github.k1rakishou.model.source.local
+
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.download.SavedImage
+import com.github.k1rakishou.model.mapper.SavedImageMapper
+
+class SavedImageLocalSource(
+  database: KurobaDatabase
+) : AbstractLocalSource(database) {
+  private val savedImageDao = database.savedImageDao()
+
+  suspend fun insertOrReplace(savedImage: SavedImage) {
+    ensureInTransaction()
+
+    savedImageDao.insertOrReplace(SavedImageMapper.toEntity(savedImage))
+  }
+
+  suspend fun selectByFileHash(fileHash: String): List<SavedImage> {
+    ensureInTransaction()
+
+    return savedImageDao.selectByFileHash(fileHash)
+      .map { savedImageEntity -> SavedImageMapper.fromEntity(savedImageEntity) }
+  }
+
+  suspend fun deleteByOutputFileUris(outputFileUris: Collection<String>): Int {
+    ensureInTransaction()
+
+    if (outputFileUris.isEmpty()) {
+      return 0
+    }
+
+    return outputFileUris
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .sumOf { chunk -> savedImageDao.deleteByOutputFileUris(chunk) }
+  }
+
+}
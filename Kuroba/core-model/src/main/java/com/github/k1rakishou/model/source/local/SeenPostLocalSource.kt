@@ -3,7 +3,7 @@ package com.github.k1rakishou.model.source.local
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
-import com.github.k1rakishou.model.data.post.SeenPost
+import com.github.k1rakishou.model.data.post.ThreadSeenPosts
 import com.github.k1rakishou.model.mapper.SeenPostMapper
 import org.joda.time.DateTime
 
@@ -14,9 +14,14 @@ open class SeenPostLocalSource(
   private val chanBoardDao = database.chanBoardDao()
   private val chanThreadDao = database.chanThreadDao()
 
-  open suspend fun insertMany(
+  /**
+   * Merges [threadSeenPosts] with what's already stored for this thread (the in-memory version may
+   * not contain everything when posts were marked as seen before the thread was loaded from the
+   * database) and writes the result back as one row.
+   * */
+  open suspend fun insertOrMerge(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
-    seenPosts: Collection<SeenPost>
+    threadSeenPosts: ThreadSeenPosts
   ) {
     ensureInTransaction()
 
@@ -30,63 +35,58 @@ open class SeenPostLocalSource(
       threadDescriptor.threadNo
     )
 
-    val seenPostEntities = seenPosts
-      .map { seenPost -> SeenPostMapper.toEntity(chanThreadEntityId, seenPost) }
-
-    seenPostDao.insertMany(seenPostEntities)
+    val storedSeenPosts = SeenPostMapper.fromEntity(seenPostDao.selectByThreadId(chanThreadEntityId))
+    if (storedSeenPosts != null) {
+      storedSeenPosts.merge(threadSeenPosts)
+      seenPostDao.insertOrReplace(SeenPostMapper.toEntity(chanThreadEntityId, storedSeenPosts))
+    } else {
+      seenPostDao.insertOrReplace(SeenPostMapper.toEntity(chanThreadEntityId, threadSeenPosts))
+    }
   }
 
-  open suspend fun selectAllByThreadDescriptor(
+  open suspend fun selectByThreadDescriptor(
     threadDescriptor: ChanDescriptor.ThreadDescriptor
-  ): List<SeenPost> {
+  ): ThreadSeenPosts? {
     ensureInTransaction()
 
     val chanBoardEntity = chanBoardDao.selectBoardId(
       threadDescriptor.siteName(),
       threadDescriptor.boardCode()
-    ) ?: return emptyList()
+    ) ?: return null
 
     val chanThreadEntity = chanThreadDao.select(
       chanBoardEntity.boardId,
       threadDescriptor.threadNo
-    ) ?: return emptyList()
+    ) ?: return null
 
-    return seenPostDao.selectAllByThreadId(chanThreadEntity.threadId)
-      .mapNotNull { seenPostEntity ->
-        return@mapNotNull SeenPostMapper.fromEntity(threadDescriptor, seenPostEntity)
-      }
+    return SeenPostMapper.fromEntity(seenPostDao.selectByThreadId(chanThreadEntity.threadId))
   }
 
-  suspend fun selectAllByThreadDescriptors(
+  suspend fun selectSeenThreads(
     boardDescriptor: BoardDescriptor,
     threadDescriptors: List<ChanDescriptor.ThreadDescriptor>
-  ): List<SeenPost> {
+  ): Set<ChanDescriptor.ThreadDescriptor> {
     ensureInTransaction()
 
     val chanBoardEntity = chanBoardDao.selectBoardId(
       boardDescriptor.siteName(),
       boardDescriptor.boardCode
-    ) ?: return emptyList()
+    ) ?: return emptySet()
+
+    val resultSet = HashSet<ChanDescriptor.ThreadDescriptor>()
 
-    return threadDescriptors
+    threadDescriptors
       .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { threadDescriptorBatch ->
-        val threadNos = threadDescriptorBatch.map { threadDescriptor -> threadDescriptor.threadNo }
-
-        val threadIds = chanThreadDao.selectManyThreadIdsByThreadNos(
-          chanBoardEntity.boardId,
-          threadNos
-        )
-
-        return@flatMap seenPostDao.selectManyOriginalPostsByThreadId(threadIds)
-          .mapNotNull { seenPostEntity ->
-            val threadDescriptor = threadDescriptorBatch
-              .firstOrNull { threadDescriptor -> threadDescriptor.threadNo == seenPostEntity.postNo }
-              ?: return@mapNotNull null
-
-            return@mapNotNull SeenPostMapper.fromEntity(threadDescriptor, seenPostEntity)
-          }
+      .forEach { threadDescriptorBatch ->
+        val threadDescriptorsByThreadNo = threadDescriptorBatch.associateBy { threadDescriptor -> threadDescriptor.threadNo }
+        val seenThreadNos = seenPostDao.selectSeenThreadNos(chanBoardEntity.boardId, threadDescriptorsByThreadNo.keys)
+
+        seenThreadNos.forEach { threadNo ->
+          threadDescriptorsByThreadNo[threadNo]?.let { threadDescriptor -> resultSet += threadDescriptor }
+        }
       }
+
+    return resultSet
   }
 
   open suspend fun deleteOlderThan(dateTime: DateTime = ONE_MONTH_AGO): Int {
@@ -110,4 +110,4 @@ open class SeenPostLocalSource(
   companion object {
     val ONE_MONTH_AGO = DateTime.now().minusMonths(1)
   }
-}
\ No newline at end of file
+}
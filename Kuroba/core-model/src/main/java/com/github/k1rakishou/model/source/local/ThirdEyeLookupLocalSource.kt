@@ -0,0 +1,65 @@
+package com.github.k1rakishou.model.source.local
+
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.thirdeye.ThirdEyeLookupResult
+import com.github.k1rakishou.model.mapper.ThirdEyeLookupMapper
+import org.joda.time.DateTime
+
+class ThirdEyeLookupLocalSource(
+  database: KurobaDatabase
+) : AbstractLocalSource(database) {
+  private val thirdEyeLookupDao = database.thirdEyeLookupDao()
+
+  suspend fun insertOrReplace(thirdEyeLookupResults: Collection<ThirdEyeLookupResult>) {
+    ensureInTransaction()
+
+    if (thirdEyeLookupResults.isEmpty()) {
+      return
+    }
+
+    thirdEyeLookupDao.insertOrReplaceMany(
+      thirdEyeLookupResults.map { thirdEyeLookupResult -> ThirdEyeLookupMapper.toEntity(thirdEyeLookupResult) }
+    )
+  }
+
+  suspend fun select(booruKey: String, imageHashes: Collection<String>): List<ThirdEyeLookupResult> {
+    ensureInTransaction()
+
+    return imageHashes
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { chunk -> thirdEyeLookupDao.selectMany(booruKey, chunk) }
+      .map { thirdEyeLookupEntity -> ThirdEyeLookupMapper.fromEntity(thirdEyeLookupEntity) }
+  }
+
+  suspend fun deleteByBooruKeys(booruKeys: Collection<String>): Int {
+    ensureInTransaction()
+
+    if (booruKeys.isEmpty()) {
+      return 0
+    }
+
+    return thirdEyeLookupDao.deleteByBooruKeys(booruKeys)
+  }
+
+  suspend fun deleteExpired(now: DateTime = DateTime.now()): Int {
+    ensureInTransaction()
+
+    return thirdEyeLookupDao.deleteExpired(
+      foundOlderThan = now.minus(ThirdEyeLookupResult.FOUND_TTL),
+      notFoundOlderThan = now.minus(ThirdEyeLookupResult.NOT_FOUND_TTL)
+    )
+  }
+
+  suspend fun deleteAll(): Int {
+    ensureInTransaction()
+
+    return thirdEyeLookupDao.deleteAll()
+  }
+
+  suspend fun count(): Int {
+    ensureInTransaction()
+
+    return thirdEyeLookupDao.count()
+  }
+
+}
@@ -2,7 +2,6 @@ package com.github.k1rakishou.model.source.local
 
 import com.github.k1rakishou.common.flatMapIndexed
 import com.github.k1rakishou.common.mapReverseIndexedNotNull
-import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
@@ -43,29 +42,77 @@ class ThreadBookmarkLocalSource(
     return bookmarks
   }
 
-  suspend fun persist(bookmarks: List<ThreadBookmark>) {
+  /**
+   * Persists only the bookmarks that were changed (or created) since the last persist and deletes the
+   * [deletedBookmarks]. Bookmarks and replies that are equal to their cached versions (what is
+   * currently stored in the database) are skipped.
+   *
+   * The caches are not touched here since the transaction may still fail (and the same changes will
+   * be persisted again). [onPersisted] must be called with the result once the transaction is
+   * committed.
+   * */
+  suspend fun persist(
+    changedBookmarks: List<ThreadBookmark>,
+    deletedBookmarks: Collection<ChanDescriptor.ThreadDescriptor>
+  ): PersistedChanges {
     ensureInTransaction()
-    Logger.d(TAG, "persist(${bookmarks.size})")
+    Logger.d(TAG, "persist(changed=${changedBookmarks.size}, deleted=${deletedBookmarks.size})")
 
-    val threadDescriptors = bookmarks.map { bookmark -> bookmark.threadDescriptor }
-    val cachedBookmarks = threadBookmarkCache.getMany(threadDescriptors)
-
-    val toDelete = retainDeletedBookmarks(
-      bookmarks.map { it.threadDescriptor }.toHashSet(),
-      threadBookmarkCache.getAll()
-    )
+    val toDelete = deletedBookmarks.toList()
+    var deletedCount = 0
 
     if (toDelete.isNotEmpty()) {
-      deleteBookmarks(toDelete)
+      deletedCount = deleteBookmarks(toDelete)
     }
 
-    val toInsertOrUpdateInDatabase = retainUpdatedBookmarks(bookmarks, cachedBookmarks)
+    var writtenReplies = 0
+    var writtenBookmarkIds = emptyMap<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>()
+    val cachedBookmarks = threadBookmarkCache.getMany(changedBookmarks.map { bookmark -> bookmark.threadDescriptor })
+
+    val toInsertOrUpdateInDatabase = retainUpdatedBookmarks(changedBookmarks, cachedBookmarks)
     if (toInsertOrUpdateInDatabase.isNotEmpty()) {
-      insertOrUpdateBookmarks(toInsertOrUpdateInDatabase)
+      val (bookmarkIds, repliesCount) = insertOrUpdateBookmarks(toInsertOrUpdateInDatabase, cachedBookmarks)
+
+      writtenBookmarkIds = bookmarkIds
+      writtenReplies = repliesCount
+    }
+
+    val persistResult = PersistResult(
+      writtenBookmarks = toInsertOrUpdateInDatabase.size,
+      writtenReplies = writtenReplies,
+      deletedBookmarks = deletedCount
+    )
+
+    Logger.d(TAG, "persist() ${persistResult}")
+
+    return PersistedChanges(
+      persistResult = persistResult,
+      writtenBookmarks = toInsertOrUpdateInDatabase,
+      writtenBookmarkIds = writtenBookmarkIds,
+      deletedBookmarks = toDelete
+    )
+  }
+
+  /**
+   * Updates the caches with what [persist] has written. Must only be called after the transaction
+   * is committed, otherwise a failed persist would make the caches think that the changes are already
+   * in the database and they would be skipped when persisted again.
+   * */
+  suspend fun onPersisted(persistedChanges: PersistedChanges) {
+    if (persistedChanges.deletedBookmarks.isNotEmpty()) {
+      threadBookmarkCache.deleteMany(persistedChanges.deletedBookmarks)
+      chanDescriptorCache.deleteManyBookmarkIds(persistedChanges.deletedBookmarks)
     }
 
-    Logger.d(TAG, "persist() inserted/updated ${toInsertOrUpdateInDatabase.size} bookmarks, " +
-      "deleted ${toDelete.size} bookmarks")
+    if (persistedChanges.writtenBookmarks.isNotEmpty()) {
+      threadBookmarkCache.storeMany(
+        persistedChanges.writtenBookmarks.associateBy { threadBookmark ->
+          return@associateBy threadBookmark.threadDescriptor
+        }
+      )
+
+      chanDescriptorCache.putManyBookmarkIds(persistedChanges.writtenBookmarkIds)
+    }
   }
 
   suspend fun deleteAll() {
@@ -76,7 +123,11 @@ class ThreadBookmarkLocalSource(
     chanDescriptorCache.deleteAllBookmarkIds()
   }
 
-  private suspend fun deleteBookmarks(toDelete: List<ChanDescriptor.ThreadDescriptor>) {
+  /**
+   * Bookmark ids that are not cached are looked up in the database so bookmarks are deleted even if
+   * the caches don't know about them.
+   * */
+  private suspend fun deleteBookmarks(toDelete: List<ChanDescriptor.ThreadDescriptor>): Int {
     val threadBookmarkIdSet = chanDescriptorCache.getManyThreadBookmarkIds(
       toDelete
     ).map { (_, threadBookmarkId) -> threadBookmarkId.id }.toSet()
@@ -85,11 +136,13 @@ class ThreadBookmarkLocalSource(
       .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
       .forEach { batch -> threadBookmarkDao.deleteMany(batch) }
 
-    threadBookmarkCache.deleteMany(toDelete)
-    chanDescriptorCache.deleteManyBookmarkIds(toDelete)
+    return threadBookmarkIdSet.size
   }
 
-  private suspend fun insertOrUpdateBookmarks(toInsertOrUpdateInDatabase: List<ThreadBookmark>) {
+  private suspend fun insertOrUpdateBookmarks(
+    toInsertOrUpdateInDatabase: List<ThreadBookmark>,
+    cachedBookmarks: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmark>
+  ): Pair<Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>, Int> {
     val toInsertOrUpdateThreadDescriptors = toInsertOrUpdateInDatabase.map { threadBookmark ->
       return@map threadBookmark.threadDescriptor
     }
@@ -125,41 +178,31 @@ class ThreadBookmarkLocalSource(
       val threadBookmarkId = toInsertOrUpdateThreadBookmarkEntities[index].threadBookmarkId
       check(threadBookmarkId > 0L) { "Bad threadBookmarkId: $threadBookmarkId" }
 
-      return@flatMapIndexed threadBookmark.threadBookmarkReplies.values.map { threadBookmarkReply ->
-        ThreadBookmarkReplyMapper.toThreadBookmarkReplyEntity(
+      val cachedReplies = cachedBookmarks[threadBookmark.threadDescriptor]?.threadBookmarkReplies
+
+      return@flatMapIndexed threadBookmark.threadBookmarkReplies.values.mapNotNull { threadBookmarkReply ->
+        if (cachedReplies != null && cachedReplies[threadBookmarkReply.postDescriptor] == threadBookmarkReply) {
+          // Already in the database
+          return@mapNotNull null
+        }
+
+        return@mapNotNull ThreadBookmarkReplyMapper.toThreadBookmarkReplyEntity(
           threadBookmarkId,
           threadBookmarkReply
         )
       }
     }
 
-    threadBookmarkReplyDao.insertOrUpdateMany(toInsertOrUpdateBookmarkReplyEntities)
-
-    threadBookmarkCache.storeMany(
-      toInsertOrUpdateInDatabase.associateBy { threadBookmark ->
-        return@associateBy threadBookmark.threadDescriptor
-      }
-    )
+    if (toInsertOrUpdateBookmarkReplyEntities.isNotEmpty()) {
+      threadBookmarkReplyDao.insertOrUpdateMany(toInsertOrUpdateBookmarkReplyEntities)
+    }
 
-    cacheNewBookmarkDatabaseIds(toInsertOrUpdateInDatabase, toInsertOrUpdateThreadBookmarkEntities)
+    val bookmarkIds = collectNewBookmarkDatabaseIds(toInsertOrUpdateInDatabase, toInsertOrUpdateThreadBookmarkEntities)
 
     Logger.d(TAG, "persist() toInsertOrUpdateBookmarkReplyEntities: ${toInsertOrUpdateBookmarkReplyEntities.size}, " +
       "toInsertOrUpdateThreadBookmarkEntities: ${toInsertOrUpdateThreadBookmarkEntities.size}")
-  }
-
-  private fun retainDeletedBookmarks(
-    bookmarksDescriptors: Set<ChanDescriptor.ThreadDescriptor>,
-    cachedBookmarks: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmark>
-  ): List<ChanDescriptor.ThreadDescriptor> {
-    val list = mutableListWithCap<ChanDescriptor.ThreadDescriptor>(cachedBookmarks.size / 2)
 
-    cachedBookmarks.forEach { (threadDescriptor, _) ->
-      if (!bookmarksDescriptors.contains(threadDescriptor)) {
-        list += threadDescriptor
-      }
-    }
-
-    return list
+    return bookmarkIds to toInsertOrUpdateBookmarkReplyEntities.size
   }
 
   private fun retainUpdatedBookmarks(
@@ -200,10 +243,10 @@ class ThreadBookmarkLocalSource(
     return map
   }
 
-  private suspend fun cacheNewBookmarkDatabaseIds(
+  private fun collectNewBookmarkDatabaseIds(
     threadBookmarks: List<ThreadBookmark>,
     bookmarkEntities: List<ThreadBookmarkEntity>
-  ) {
+  ): Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId> {
     require(threadBookmarks.size == bookmarkEntities.size) {
       "Bad sizes: threadBookmarks.size=${threadBookmarks.size}, " +
         "bookmarkEntities.size=${bookmarkEntities.size}"
@@ -219,7 +262,7 @@ class ThreadBookmarkLocalSource(
       resultMap[threadDescriptor] = ThreadBookmarkDBId(threadBookmarkId)
     }
 
-    chanDescriptorCache.putManyBookmarkIds(resultMap)
+    return resultMap
   }
 
   private suspend fun cacheBookmarkDatabaseIds(bookmarkEntities: List<ThreadBookmarkFull>) {
@@ -241,4 +284,20 @@ class ThreadBookmarkLocalSource(
     chanDescriptorCache.putManyBookmarkIds(resultMap)
   }
 
+  class PersistedChanges(
+    val persistResult: PersistResult,
+    val writtenBookmarks: List<ThreadBookmark>,
+    val writtenBookmarkIds: Map<ChanDescriptor.ThreadDescriptor, ThreadBookmarkDBId>,
+    val deletedBookmarks: List<ChanDescriptor.ThreadDescriptor>
+  )
+
+  data class PersistResult(
+    val writtenBookmarks: Int = 0,
+    val writtenReplies: Int = 0,
+    val deletedBookmarks: Int = 0
+  ) {
+    val rowsWritten: Int
+      get() = writtenBookmarks + writtenReplies + deletedBookmarks
+  }
+
 }
\ No newline at end of file
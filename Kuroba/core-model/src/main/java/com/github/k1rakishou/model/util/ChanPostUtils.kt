@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.util
 
 import android.annotation.SuppressLint
 import android.text.TextUtils
+import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.StringUtils
 import com.github.k1rakishou.core_logger.Logger
@@ -22,6 +23,12 @@ import kotlin.math.min
 object ChanPostUtils {
   private const val TAG = "ChanPostUtils"
 
+  /**
+   * Must be bumped whenever the parsed output (comment spans, links, images etc) of the same raw
+   * post changes, see [getPostHash].
+   * */
+  const val POST_PARSER_VERSION = 1
+
   private val dateFormatEnglish = SimpleDateFormat.getDateTimeInstance(
     DateFormat.SHORT,
     DateFormat.MEDIUM,
@@ -259,6 +266,12 @@ object ChanPostUtils {
     return false
   }
 
+  /**
+   * The hash of the raw post data together with everything the parsed post depends on besides it
+   * (the parser version and the settings the parser uses). Posts with the same hash are neither
+   * parsed nor written into the database again, so anything that changes the parsed output but is
+   * not a part of the hash would leave the stored posts stale forever.
+   * */
   @JvmStatic
   fun getPostHash(chanPostBuilder: ChanPostBuilder): MurmurHashUtils.Murmur3Hash {
     val inputString = buildString {
@@ -269,11 +282,23 @@ object ChanPostUtils {
       chanPostBuilder.tripcode?.let { tripcode -> append(tripcode) }
       chanPostBuilder.posterId?.let { posterId -> append(posterId) }
       chanPostBuilder.moderatorCapcode?.let { moderatorCapcode -> append(moderatorCapcode) }
+
+      append('\u0000')
+      append(parserOutputKey())
     }
 
     return MurmurHashUtils.murmurhash3_x64_128(inputString)
   }
 
+  private fun parserOutputKey(): String {
+    // The settings are not initialized in unit tests. The font size is used by the parser for the
+    // size of code/sjis spans.
+    val fontSize = ChanSettings.fontSize?.get()
+    val forceHttpsUrlScheme = ChanSettings.forceHttpsUrlScheme?.get()
+
+    return "${POST_PARSER_VERSION}:${fontSize}:${forceHttpsUrlScheme}"
+  }
+
   @JvmStatic
   fun findPostWithReplies(postDescriptor: PostDescriptor, posts: Collection<ChanPost>): HashSet<ChanPost> {
     val postsSet = HashSet<ChanPost>()
@@ -0,0 +1,72 @@
+package com.github.k1rakishou.model.util
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+object FtsQueryHelper {
+
+  /**
+   * Converts user input into an FTS query where every word must be present in a post. Every word
+   * is quoted so that the FTS operators (OR, NEAR, -, etc) in the input are searched for as normal
+   * words and the last word is searched as a prefix because it's most likely not finished yet.
+   * Returns null if there is nothing to search for.
+   * */
+  fun toFtsQuery(input: String): String? {
+    val words = input
+      .split(WHITESPACE_REGEX)
+      .map { word -> word.replace("\"", "") }
+      .filter { word -> word.isNotBlank() }
+
+    if (words.isEmpty()) {
+      return null
+    }
+
+    return words
+      .mapIndexed { index, word ->
+        if (index == words.lastIndex) {
+          "\"${word}*\""
+        } else {
+          "\"${word}\""
+        }
+      }
+      .joinToString(separator = " ")
+  }
+
+  /**
+   * Ranks a match by the result of matchinfo() with the 'pcx' format. This is the simple ranking
+   * function from the SQLite FTS docs: for every phrase and column the amount of hits in this row
+   * divided by the amount of hits in all rows multiplied by the column weight.
+   * */
+  fun rank(matchInfo: ByteArray, columnWeights: DoubleArray): Double {
+    val buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+    if (buffer.remaining() < 2) {
+      return 0.0
+    }
+
+    val phrasesCount = buffer.get(0)
+    val columnsCount = buffer.get(1)
+
+    if (buffer.remaining() < 2 + phrasesCount * columnsCount * 3) {
+      return 0.0
+    }
+
+    var score = 0.0
+
+    for (phrase in 0 until phrasesCount) {
+      for (column in 0 until columnsCount) {
+        val offset = 2 + (phrase * columnsCount + column) * 3
+        val hitsThisRow = buffer.get(offset)
+        val hitsAllRows = buffer.get(offset + 1)
+
+        if (hitsThisRow > 0 && hitsAllRows > 0) {
+          val weight = columnWeights.getOrElse(column) { 1.0 }
+          score += weight * (hitsThisRow.toDouble() / hitsAllRows.toDouble())
+        }
+      }
+    }
+
+    return score
+  }
+
+  private val WHITESPACE_REGEX = "\\s+".toRegex()
+}
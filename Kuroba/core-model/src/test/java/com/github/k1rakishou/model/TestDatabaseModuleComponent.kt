@@ -50,6 +50,7 @@ class TestDatabaseModuleComponent(
       application.applicationContext,
       KurobaDatabase::class.java
     )
+      .addCallback(KurobaDatabase.DATABASE_CALLBACK)
       .build()
 
     return inMemoryDatabase!!
@@ -65,6 +66,7 @@ class TestDatabaseModuleComponent(
       KurobaDatabase::class.java,
       "kuroba-test.db"
     )
+      .addCallback(KurobaDatabase.DATABASE_CALLBACK)
       .build()
 
     return onDiskDatabase!!
@@ -0,0 +1,88 @@
+package com.github.k1rakishou.model.data.post
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+
+class ThreadSeenPostsTest {
+
+  @Test
+  fun `test bitmap behaves like a sorted set`() {
+    val random = Random(1)
+    val postNoBitmap = PostNoBitmap()
+    val expected = TreeSet<Long>()
+
+    // Sparse buckets, a dense bucket that gets converted into a bitmap and out of order inserts
+    val postNos = (0 until 3000).map { 400_000_000L + random.nextInt(10_000_000) } +
+      (0 until 6000).map { 500_000_000L + random.nextInt(8000) } +
+      (0 until 100).map { random.nextInt(100_000).toLong() }
+
+    postNos.forEach { postNo ->
+      assertEquals(expected.add(postNo), postNoBitmap.add(postNo))
+    }
+
+    postNos.take(500).forEach { postNo ->
+      assertEquals(expected.remove(postNo), postNoBitmap.remove(postNo))
+    }
+
+    assertEquals(expected.size, postNoBitmap.size)
+
+    val actual = mutableListOf<Long>()
+    postNoBitmap.forEach { postNo -> actual += postNo }
+    assertEquals(expected.toList(), actual)
+
+    repeat(10_000) {
+      val postNo = 400_000_000L + random.nextInt(110_000_000)
+      assertEquals(expected.contains(postNo), postNoBitmap.contains(postNo))
+    }
+  }
+
+  @Test
+  fun `test seen posts survive serialization`() {
+    val threadSeenPosts = ThreadSeenPosts()
+
+    for (postNo in 1000L..1500L step 3) {
+      assertTrue(threadSeenPosts.markSeen(postNo, 0L, postNo))
+    }
+
+    assertTrue(threadSeenPosts.markSeen(1001L, 1L, 2000L))
+    assertFalse(threadSeenPosts.markSeen(1003L, 0L, 3000L))
+
+    val restored = ThreadSeenPosts.deserialize(threadSeenPosts.serialize(), threadSeenPosts.lastSeenAt)
+
+    assertEquals(threadSeenPosts.size, restored.size)
+    assertEquals(2000L, restored.lastSeenAt)
+    assertTrue(restored.isSeen(1003L, 0L))
+    assertTrue(restored.isSeen(1001L, 1L))
+    assertFalse(restored.isSeen(1001L, 0L))
+    assertFalse(restored.isSeen(1004L, 0L))
+  }
+
+  @Test
+  fun `test only recently seen posts have exact timestamps`() {
+    val threadSeenPosts = ThreadSeenPosts()
+
+    for (postNo in 1L..100L) {
+      threadSeenPosts.markSeen(postNo, 0L, postNo * 10)
+    }
+
+    assertEquals(1000L, threadSeenPosts.seenAt(100L, 0L))
+    assertEquals(ThreadSeenPosts.SEEN_LONG_AGO, threadSeenPosts.seenAt(1L, 0L))
+    assertEquals(ThreadSeenPosts.NOT_SEEN, threadSeenPosts.seenAt(101L, 0L))
+
+    val merged = ThreadSeenPosts()
+    merged.markSeen(200L, 0L, 5000L)
+    merged.merge(threadSeenPosts)
+
+    assertEquals(101, merged.size)
+    assertEquals(5000L, merged.seenAt(200L, 0L))
+    assertEquals(ThreadSeenPosts.SEEN_LONG_AGO, merged.seenAt(100L, 0L))
+
+    merged.retainOnly(1L)
+    assertEquals(1, merged.size)
+    assertTrue(merged.isSeen(1L, 0L))
+  }
+
+}
@@ -0,0 +1,204 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.PostsFromServerData
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.system.measureNanoTime
+
+@RunWith(RobolectricTestRunner::class)
+class ChanThreadTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test add update and mark deleted posts`() {
+    val chanThread = createThread(postsCount = 10)
+
+    val newPosts = (1L..12L).map { postNo -> createPost(postNo, comment = "updated $postNo") }
+      .filter { post -> post.postNo() != 5L }
+
+    val postsFromServerData = PostsFromServerData(
+      allPostDescriptors = newPosts.map { post -> post.postDescriptor }.toSet(),
+      isIncrementalUpdate = false,
+      isUpdatingDataFromTheServer = true
+    )
+
+    assertTrue(chanThread.addOrUpdatePosts(newPosts, postsFromServerData))
+
+    assertEquals(12, chanThread.postsCount)
+    assertEquals((1L..12L).toList(), chanThread.getAll().map { post -> post.postNo() })
+    assertEquals("updated 3", chanThread.getPost(postDescriptor(3L))!!.postComment.originalComment().toString())
+    assertTrue(chanThread.getPost(postDescriptor(5L))!!.isDeleted)
+    assertFalse(chanThread.getPost(postDescriptor(6L))!!.isDeleted)
+    assertEquals(postDescriptor(7L), chanThread.getPostDescriptorRelativeTo(postDescriptor(6L), 1))
+  }
+
+  @Test
+  fun `test unsorted posts are sorted and still found by descriptor`() {
+    val chanThread = createThread(postsCount = 5)
+
+    chanThread.addOrUpdatePosts(
+      listOf(createPost(10L), createPost(7L), createPost(8L), createPost(3L, comment = "updated 3")),
+      null
+    )
+
+    assertEquals(listOf(1L, 2L, 3L, 4L, 5L, 7L, 8L, 10L), chanThread.getAll().map { post -> post.postNo() })
+    assertEquals(postDescriptor(8L), chanThread.getPostDescriptorRelativeTo(postDescriptor(7L), 1))
+    assertEquals(postDescriptor(5L), chanThread.getPostDescriptorRelativeTo(postDescriptor(7L), -1))
+    assertEquals("updated 3", chanThread.getPost(postDescriptor(3L))!!.postComment.originalComment().toString())
+  }
+
+  @Test
+  fun `test delete posts`() {
+    val chanThread = createThread(postsCount = 10)
+
+    chanThread.deletePosts(listOf(postDescriptor(2L), postDescriptor(5L), postDescriptor(9L), postDescriptor(100L)))
+
+    assertEquals(listOf(1L, 3L, 4L, 6L, 7L, 8L, 10L), chanThread.getAll().map { post -> post.postNo() })
+    assertNull(chanThread.getPost(postDescriptor(5L)))
+    assertEquals(postDescriptor(6L), chanThread.getPostDescriptorRelativeTo(postDescriptor(4L), 1))
+
+    chanThread.addOrUpdatePosts(listOf(createPost(8L, comment = "updated 8")), null)
+    assertEquals("updated 8", chanThread.getPost(postDescriptor(8L))!!.postComment.originalComment().toString())
+  }
+
+  @Test
+  fun `test snapshot is republished after every change and old snapshots stay intact`() {
+    val chanThread = createThread(postsCount = 5)
+    val oldSnapshot = chanThread.snapshot()
+
+    assertEquals(5, oldSnapshot.postsCount)
+
+    chanThread.addOrUpdatePosts(listOf(createPost(6L), createPost(2L, comment = "updated 2")), null)
+    val newSnapshot = chanThread.snapshot()
+
+    assertTrue(newSnapshot.version > oldSnapshot.version)
+    assertEquals(5, oldSnapshot.postsCount)
+    assertEquals("comment 2", oldSnapshot.getPost(postDescriptor(2L))!!.postComment.originalComment().toString())
+    assertEquals(6, newSnapshot.postsCount)
+    assertEquals("updated 2", newSnapshot.getPost(postDescriptor(2L))!!.postComment.originalComment().toString())
+
+    chanThread.deletePosts(listOf(postDescriptor(3L)))
+    val afterDeleteSnapshot = chanThread.snapshot()
+
+    assertTrue(afterDeleteSnapshot.version > newSnapshot.version)
+    assertEquals(listOf(1L, 2L, 4L, 5L, 6L), afterDeleteSnapshot.posts.map { post -> post.postNo() })
+    assertEquals(2, afterDeleteSnapshot.indexOf(postDescriptor(4L)))
+    assertEquals(-1, afterDeleteSnapshot.indexOf(postDescriptor(3L)))
+    assertEquals(6, newSnapshot.postsCount)
+
+    // Nothing has changed so no new snapshot must be published
+    chanThread.addOrUpdatePosts(emptyList(), null)
+    assertTrue(afterDeleteSnapshot === chanThread.snapshot())
+  }
+
+  /**
+   * Not a real benchmark (there is no JMH in this project) but good enough to see how long we hold
+   * the write lock when a huge thread is refreshed. Only executed when the RUN_BENCHMARKS environment
+   * variable is set to true.
+   * */
+  @Test
+  fun `benchmark merge 5k posts into 5k posts thread`() {
+    assumeTrue(System.getenv("RUN_BENCHMARKS") == "true")
+
+    val postsCount = 5000
+    val iterations = 5
+    val timings = mutableListOf<Long>()
+
+    repeat(iterations + 1) { iteration ->
+      val chanThread = createThread(postsCount = postsCount)
+
+      // Every other post is updated, every 10th post is deleted and the rest of the posts are new
+      val newPosts = (1L..(postsCount * 2L))
+        .filter { postNo -> postNo == 1L || postNo % 10L != 0L }
+        .map { postNo -> createPost(postNo, comment = "updated $postNo") }
+
+      val postsFromServerData = PostsFromServerData(
+        allPostDescriptors = newPosts.map { post -> post.postDescriptor }.toSet(),
+        isIncrementalUpdate = false,
+        isUpdatingDataFromTheServer = true
+      )
+
+      val time = measureNanoTime { chanThread.addOrUpdatePosts(newPosts, postsFromServerData) }
+
+      assertEquals(postsCount + (newPosts.size - (postsCount - postsCount / 10)), chanThread.postsCount)
+      assertTrue(chanThread.getPost(postDescriptor(10L))!!.isDeleted)
+
+      // First iteration is a warmup
+      if (iteration > 0) {
+        timings += time
+      }
+    }
+
+    println("Merging ${postsCount} posts into ${postsCount} posts thread took " +
+      "avg=${timings.average() / 1_000_000.0}ms, min=${timings.minOrNull()!! / 1_000_000.0}ms")
+  }
+
+  private fun createThread(postsCount: Int): ChanThread {
+    val chanThread = ChanThread(
+      isDevBuild = false,
+      threadDescriptor = threadDescriptor,
+      initialLastAccessTime = System.currentTimeMillis()
+    )
+
+    chanThread.addOrUpdatePosts((1L..postsCount.toLong()).map { postNo -> createPost(postNo) }, null)
+    return chanThread
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, postNo)
+  }
+
+  private fun createPost(postNo: Long, comment: String = "comment $postNo"): ChanPost {
+    val postComment = PostComment(
+      originalComment = comment,
+      originalUnparsedComment = comment,
+      linkables = emptyList()
+    )
+
+    if (postNo == threadDescriptor.threadNo) {
+      return ChanOriginalPost(
+        chanPostId = postNo,
+        postDescriptor = postDescriptor(postNo),
+        postImages = emptyList(),
+        postIcons = emptyList(),
+        repliesTo = emptySet(),
+        postComment = postComment,
+        isSavedReply = false,
+        lastModified = 0L,
+        sticky = false,
+        closed = false,
+        archived = false,
+        endless = false,
+        isSage = false,
+        deleted = false,
+        posterIdColor = 0
+      )
+    }
+
+    return ChanPost(
+      chanPostId = postNo,
+      postDescriptor = postDescriptor(postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = postComment,
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+}
@@ -0,0 +1,135 @@
+package com.github.k1rakishou.model.mapper
+
+import com.github.k1rakishou.common.marshall
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpanType
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableType
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class TextSpanMapperTest {
+
+  @Test
+  fun `test spans survive encoding and decoding`() {
+    val parcelableSpans = createSpans()
+    val entity = TextSpanMapper.toEntity(
+      ownerPostId = 1L,
+      parcelableSpannableString = ParcelableSpannableString(parcelableSpans, TEXT),
+      originalUnparsedComment = null,
+      chanTextType = ChanTextSpanEntity.TextType.PostComment
+    )!!
+
+    assertTrue(entity.spanInfoBytes.size < parcelableSpans.marshall().size)
+    assertSpansEqual(parcelableSpans, decode(entity))
+  }
+
+  @Test
+  fun `test spans stored as parcel are still decoded`() {
+    val parcelableSpans = createSpans()
+    val entity = ChanTextSpanEntity(
+      ownerPostId = 1L,
+      parsedText = TEXT,
+      unparsedText = null,
+      spanInfoBytes = parcelableSpans.marshall(),
+      textType = ChanTextSpanEntity.TextType.PostComment
+    )
+
+    assertSpansEqual(parcelableSpans, decode(entity))
+  }
+
+  @Test
+  fun `test unparsed comment is compressed only when requested`() {
+    val unparsedComment = "<a href=\"#p12345\" class=\"quotelink\">&gt;&gt;12345</a><br>".repeat(20)
+
+    val uncompressed = createEntity(unparsedComment, compress = false)
+    assertEquals(unparsedComment, uncompressed.unparsedText)
+    assertNull(uncompressed.unparsedTextCompressed)
+
+    val compressed = createEntity(unparsedComment, compress = true)
+    assertNull(compressed.unparsedText)
+    assertNotNull(compressed.unparsedTextCompressed)
+    assertTrue(compressed.unparsedTextCompressed!!.size < unparsedComment.length)
+    assertEquals(unparsedComment, TextSpanMapper.unparsedText(compressed))
+
+    val shortComment = createEntity("short comment", compress = true)
+    assertEquals("short comment", shortComment.unparsedText)
+    assertNull(shortComment.unparsedTextCompressed)
+  }
+
+  private fun createEntity(unparsedComment: String, compress: Boolean): ChanTextSpanEntity {
+    return TextSpanMapper.toEntity(
+      ownerPostId = 1L,
+      parcelableSpannableString = ParcelableSpannableString(createSpans(), TEXT),
+      originalUnparsedComment = unparsedComment,
+      chanTextType = ChanTextSpanEntity.TextType.PostComment,
+      compressUnparsedComment = compress
+    )!!
+  }
+
+  private fun decode(entity: ChanTextSpanEntity): ParcelableSpans {
+    return TextSpanMapper.fromEntity(listOf(entity), ChanTextSpanEntity.TextType.PostComment)!!.parcelableSpans
+  }
+
+  private fun assertSpansEqual(expected: ParcelableSpans, actual: ParcelableSpans) {
+    assertEquals(expected.version, actual.version)
+    assertEquals(expected.spanInfoList, actual.spanInfoList)
+  }
+
+  private fun createSpans(): ParcelableSpans {
+    val quoteType = PostLinkableType.Quote.value
+    val spans = listOf(
+      ParcelableSpan.PostLinkable(">>12345", quoteType, PostLinkableValue.Quote(12345L)),
+      ParcelableSpan.PostLinkable(">>12346", quoteType, PostLinkableValue.Quote(12346L, 1L)),
+      ParcelableSpan.PostLinkable(">>>/g/1", PostLinkableType.Thread.value, PostLinkableValue.ThreadOrPost("g", 1L, 2L)),
+      ParcelableSpan.PostLinkable("link", PostLinkableType.Link.value, PostLinkableValue.Link("https://example.com")),
+      ParcelableSpan.PostLinkable("link", PostLinkableType.Link.value, PostLinkableValue.Link("https://example.com")),
+      ParcelableSpan.PostLinkable("spoiler", PostLinkableType.Spoiler.value, PostLinkableValue.Spoiler),
+      ParcelableSpan.PostLinkable(
+        "archive",
+        PostLinkableType.Archive.value,
+        PostLinkableValue.Archive("archived.moe", "g", 1L, 2L, 0L)
+      ),
+      ParcelableSpan.PostLinkable("search", PostLinkableType.Search.value, PostLinkableValue.Search("g", "тест")),
+      ParcelableSpan.PostLinkable("dead", PostLinkableType.Dead.value, PostLinkableValue.Dead(Long.MAX_VALUE)),
+      ParcelableSpan.PostLinkable("board", PostLinkableType.Board.value, PostLinkableValue.Board("g")),
+      ParcelableSpan.ForegroundColorId(ChanThemeColorId.PostInlineQuoteColor),
+      ParcelableSpan.BackgroundColorId(ChanThemeColorId.BackColorSecondary),
+      ParcelableSpan.ForegroundColor(0xFF112233.toInt()),
+      ParcelableSpan.BackgroundColor(-1),
+      ParcelableSpan.AbsoluteSize(24),
+      ParcelableSpan.Style(1),
+      ParcelableSpan.Typeface("monospace"),
+      ParcelableSpan.Strikethrough,
+      null
+    )
+
+    val spanInfoList = spans.mapIndexed { index, parcelableSpan ->
+      ParcelableSpanInfo(
+        spanStart = (index * 7) % TEXT.length,
+        spanEnd = minOf(TEXT.length, (index * 7) % TEXT.length + 5),
+        flags = 33,
+        parcelableTypeRaw = if (parcelableSpan == null) ParcelableSpanType.Unknown.value else ParcelableSpanType.PostLinkable.value,
+        parcelableSpan = parcelableSpan
+      )
+    }
+
+    return ParcelableSpans(1, spanInfoList)
+  }
+
+  companion object {
+    private val TEXT = "Some post comment with a bunch of spans in it\nAnd a second line".repeat(2)
+  }
+
+}
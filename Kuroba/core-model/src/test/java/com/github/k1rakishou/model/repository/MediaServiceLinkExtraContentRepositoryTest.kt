@@ -133,4 +133,27 @@ class MediaServiceLinkExtraContentRepositoryTest {
       verify(remoteSource, times(1)).fetchFromNetwork(requestUrl, videoId, serviceType)
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `test preloading into cache queries the local source once only for not cached videos`() {
+    runBlocking(Dispatchers.Default) {
+      val serviceType = MediaServiceType.Youtube
+      val cachedVideoId = GenericVideoId("cachedVideoId")
+      val videoIds = listOf(cachedVideoId, GenericVideoId("videoId1"), GenericVideoId("videoId2"))
+      val notCachedVideoIds = videoIds.drop(1)
+      val cachedContent = MediaServiceLinkExtraContent(cachedVideoId, serviceType, "cached", null)
+      val storedContent = MediaServiceLinkExtraContent(notCachedVideoIds[0], serviceType, "stored", null)
+      val cachedKey = MediaServiceLinkExtraContentRepository.MediaServiceKey(cachedVideoId, serviceType)
+      val storedKey = MediaServiceLinkExtraContentRepository.MediaServiceKey(notCachedVideoIds[0], serviceType)
+
+      whenever(cache.getMany(any())).thenReturn(mapOf(cachedKey to cachedContent))
+      whenever(localSource.selectManyByVideoIds(notCachedVideoIds, serviceType)).thenReturn(listOf(storedContent))
+
+      assertEquals(1, repository.preloadIntoCache(serviceType, videoIds).unwrap())
+
+      verify(localSource, times(1)).selectManyByVideoIds(notCachedVideoIds, serviceType)
+      verify(cache, times(1)).storeMany(mapOf(storedKey to storedContent))
+      verifyZeroInteractions(remoteSource)
+    }
+  }
+}
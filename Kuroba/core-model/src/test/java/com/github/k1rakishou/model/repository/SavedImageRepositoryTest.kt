@@ -0,0 +1,99 @@
+package com.github.k1rakishou.model.repository
+
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.data.download.SavedImage
+import com.github.k1rakishou.model.source.local.SavedImageLocalSource
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.TestCoroutineScope
+import org.joda.time.DateTime
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@ExperimentalCoroutinesApi
+@RunWith(RobolectricTestRunner::class)
+class SavedImageRepositoryTest {
+  private val coroutineScope = TestCoroutineScope()
+
+  lateinit var database: KurobaDatabase
+  lateinit var repository: SavedImageRepository
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    database = TestDatabaseModuleComponent().provideInMemoryKurobaDatabase()
+    repository = SavedImageRepository(database, coroutineScope, SavedImageLocalSource(database))
+  }
+
+  @Test
+  fun `test saved images are selected by file hash with the most recently saved first`() {
+    runBlocking(Dispatchers.Default) {
+      val older = createSavedImage(FILE_HASH, "content://dir1/image.jpg", savedAtMillis = 1_000L)
+      val newer = createSavedImage(FILE_HASH, "content://dir2/image.jpg", savedAtMillis = 2_000L)
+      val otherHash = createSavedImage("other_hash", "content://dir1/other.jpg", savedAtMillis = 3_000L)
+
+      listOf(older, otherHash, newer).forEach { savedImage -> repository.insertOrReplace(savedImage).unwrap() }
+
+      assertEquals(listOf(newer, older), repository.selectByFileHash(FILE_HASH).unwrap())
+      assertTrue(repository.selectByFileHash("unknown_hash").unwrap().isEmpty())
+    }
+  }
+
+  @Test
+  fun `test saving into the same file replaces the old entry`() {
+    runBlocking(Dispatchers.Default) {
+      val outputFileUri = "content://dir1/image.jpg"
+
+      repository.insertOrReplace(createSavedImage("old_hash", outputFileUri, savedAtMillis = 1_000L)).unwrap()
+
+      val replacement = createSavedImage(FILE_HASH, outputFileUri, savedAtMillis = 2_000L, fileSize = 200L)
+      repository.insertOrReplace(replacement).unwrap()
+
+      assertTrue(repository.selectByFileHash("old_hash").unwrap().isEmpty())
+      assertEquals(listOf(replacement), repository.selectByFileHash(FILE_HASH).unwrap())
+    }
+  }
+
+  @Test
+  fun `test stale entries are deleted by output file uri`() {
+    runBlocking(Dispatchers.Default) {
+      val deleted = createSavedImage(FILE_HASH, "content://dir1/image.jpg", savedAtMillis = 1_000L)
+      val kept = createSavedImage(FILE_HASH, "content://dir2/image.jpg", savedAtMillis = 2_000L)
+
+      repository.insertOrReplace(deleted).unwrap()
+      repository.insertOrReplace(kept).unwrap()
+
+      assertEquals(0, repository.deleteStale(emptyList()).unwrap())
+      assertEquals(1, repository.deleteStale(listOf(deleted.outputFileUri, "content://dir3/unknown.jpg")).unwrap())
+
+      assertEquals(listOf(kept), repository.selectByFileHash(FILE_HASH).unwrap())
+    }
+  }
+
+  private fun createSavedImage(
+    fileHash: String,
+    outputFileUri: String,
+    savedAtMillis: Long,
+    fileSize: Long = 100L
+  ): SavedImage {
+    return SavedImage(
+      fileHash = fileHash,
+      fileSize = fileSize,
+      outputFileUri = outputFileUri,
+      outputDirUri = outputFileUri.substringBeforeLast('/'),
+      savedAt = DateTime(savedAtMillis)
+    )
+  }
+
+  companion object {
+    private const val FILE_HASH = "6pNIDw+kEyT6jBaKYDFsOA=="
+  }
+}
@@ -0,0 +1,262 @@
+package com.github.k1rakishou.model.source.local
+
+import androidx.room.withTransaction
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.data.search.LocalPostSearchResult
+import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class ChanPostLocalSourceTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  lateinit var database: KurobaDatabase
+  lateinit var localSource: ChanPostLocalSource
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    database = TestDatabaseModuleComponent().provideInMemoryKurobaDatabase()
+    localSource = ChanPostLocalSource(database, compressStoredPostComments = true)
+
+    runBlocking {
+      database.chanSiteDao().insertDefaultSiteIdsOrIgnore(listOf(ChanSiteIdEntity("test")))
+    }
+  }
+
+  @Test
+  fun `test posts are written and read back in multiple chunks`() {
+    runBlocking(Dispatchers.Default) {
+      val posts = (1L..POSTS_COUNT).map { postNo -> createPost(postNo) }
+
+      val storedPosts = database.withTransaction {
+        localSource.insertPosts(posts)
+        localSource.getThreadPosts(threadDescriptor).sortedBy { post -> post.postNo() }
+      }
+
+      assertEquals(posts.map { post -> post.postNo() }, storedPosts.map { post -> post.postNo() })
+
+      posts.zip(storedPosts).forEach { (post, storedPost) ->
+        assertEquals(post.postComment.originalComment().toString(), storedPost.postComment.originalComment().toString())
+        assertEquals(post.postComment.originalUnparsedComment, storedPost.postComment.originalUnparsedComment)
+        assertEquals(post.repliesTo, storedPost.repliesTo)
+        assertEquals(post.rawPostHash, storedPost.rawPostHash)
+      }
+    }
+  }
+
+  @Test
+  fun `test unchanged posts are not rewritten`() {
+    runBlocking(Dispatchers.Default) {
+      val posts = (1L..POSTS_COUNT).map { postNo -> createPost(postNo) }
+
+      val storedPostIds = database.withTransaction {
+        localSource.insertPosts(posts)
+        localSource.getThreadPosts(threadDescriptor)
+          .sortedBy { post -> post.postNo() }
+          .map { post -> post.chanPostId }
+      }
+
+      val updatedPosts = (1L..POSTS_COUNT).map { postNo ->
+        if (postNo == 3L) {
+          createPost(postNo, comment = "updated", hash = 100L)
+        } else {
+          createPost(postNo)
+        }
+      }
+
+      val updatedStoredPosts = database.withTransaction {
+        localSource.insertPosts(updatedPosts)
+        localSource.getThreadPosts(threadDescriptor).sortedBy { post -> post.postNo() }
+      }
+
+      updatedStoredPosts.forEachIndexed { index, storedPost ->
+        if (storedPost.postNo() == 3L) {
+          assertNotEquals(storedPostIds[index], storedPost.chanPostId)
+          assertEquals("updated", storedPost.postComment.originalComment().toString())
+        } else {
+          assertEquals(storedPostIds[index], storedPost.chanPostId)
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `test posts with the same hash are rewritten when their other fields change`() {
+    runBlocking(Dispatchers.Default) {
+      val postImage = ChanPostImage(
+        serverFilename = "1234567890",
+        imageUrl = "https://i.4cdn.org/g/1234567890.jpg".toHttpUrl(),
+        filename = "image",
+        extension = "jpg"
+      )
+
+      val posts = (1L..POSTS_COUNT).map { postNo ->
+        if (postNo == 5L) {
+          createPost(postNo, postImages = listOf(postImage))
+        } else {
+          createPost(postNo)
+        }
+      }
+
+      val storedPostIds = database.withTransaction {
+        localSource.insertPosts(posts)
+        localSource.getThreadPosts(threadDescriptor)
+          .sortedBy { post -> post.postNo() }
+          .map { post -> post.chanPostId }
+      }
+
+      // Same hashes but the file of post 5 was deleted and post 6 is now a sage post
+      val updatedPosts = (1L..POSTS_COUNT).map { postNo ->
+        if (postNo == 6L) {
+          createPost(postNo, isSage = true)
+        } else {
+          createPost(postNo)
+        }
+      }
+
+      val updatedStoredPosts = database.withTransaction {
+        localSource.insertPosts(updatedPosts)
+        localSource.getThreadPosts(threadDescriptor).sortedBy { post -> post.postNo() }
+      }
+
+      updatedStoredPosts.forEachIndexed { index, storedPost ->
+        when (storedPost.postNo()) {
+          5L -> {
+            assertNotEquals(storedPostIds[index], storedPost.chanPostId)
+            assertTrue(storedPost.postImages.isEmpty())
+          }
+          6L -> {
+            assertNotEquals(storedPostIds[index], storedPost.chanPostId)
+            assertTrue(storedPost.isSage)
+          }
+          else -> assertEquals(storedPostIds[index], storedPost.chanPostId)
+        }
+      }
+    }
+  }
+
+  @Test
+  fun `test posts are found by full text search and updated posts are reindexed`() {
+    runBlocking(Dispatchers.Default) {
+      val posts = (1L..POSTS_COUNT).map { postNo ->
+        when (postNo) {
+          10L -> createPost(postNo, comment = "the quick brown fox jumps over the lazy dog")
+          20L -> createPost(postNo, comment = "a quick reply")
+          else -> createPost(postNo)
+        }
+      }
+
+      val results = database.withTransaction {
+        localSource.insertPosts(posts)
+        localSource.searchPosts("quick", 10)
+      }
+
+      assertEquals(setOf(10L, 20L), results.map { result -> result.postDescriptor.postNo }.toSet())
+      assertTrue(results.all { result -> result.snippet.contains("${LocalPostSearchResult.MATCH_START}quick") })
+
+      val prefixResults = database.withTransaction { localSource.searchPosts("brown fo", 10) }
+      assertEquals(listOf(10L), prefixResults.map { result -> result.postDescriptor.postNo })
+
+      val updatedPosts = posts.map { post ->
+        if (post.postNo() == 10L) {
+          createPost(post.postNo(), comment = "nothing to see here", hash = 100L)
+        } else {
+          post
+        }
+      }
+
+      val updatedResults = database.withTransaction {
+        localSource.insertPosts(updatedPosts)
+        localSource.searchPosts("quick", 10)
+      }
+
+      assertEquals(listOf(20L), updatedResults.map { result -> result.postDescriptor.postNo })
+      assertTrue(database.withTransaction { localSource.searchPosts("\"  ", 10) }.isEmpty())
+    }
+  }
+
+  private fun createPost(
+    postNo: Long,
+    comment: String = longComment(postNo),
+    hash: Long = postNo,
+    postImages: List<ChanPostImage> = emptyList(),
+    isSage: Boolean = false
+  ): ChanPost {
+    val postComment = PostComment(
+      originalComment = comment,
+      originalUnparsedComment = comment,
+      linkables = emptyList()
+    )
+
+    val repliesTo = if (postNo > 1L) setOf(postDescriptor(postNo - 1L)) else emptySet()
+
+    val chanPost = if (postNo == threadDescriptor.threadNo) {
+      ChanOriginalPost(
+        chanPostId = postNo,
+        postDescriptor = postDescriptor(postNo),
+        postImages = postImages,
+        postIcons = emptyList(),
+        repliesTo = repliesTo,
+        postComment = postComment,
+        isSavedReply = false,
+        lastModified = 0L,
+        sticky = false,
+        closed = false,
+        archived = false,
+        endless = false,
+        isSage = isSage,
+        deleted = false,
+        posterIdColor = 0
+      )
+    } else {
+      ChanPost(
+        chanPostId = postNo,
+        postDescriptor = postDescriptor(postNo),
+        _postImages = postImages.toMutableList(),
+        postIcons = emptyList(),
+        repliesTo = repliesTo,
+        postComment = postComment,
+        subject = "subject $postNo",
+        tripcode = null,
+        isSavedReply = false,
+        isSage = isSage,
+        deleted = false,
+        posterIdColor = 0
+      )
+    }
+
+    chanPost.rawPostHash = MurmurHashUtils.Murmur3Hash(hash, hash)
+    return chanPost
+  }
+
+  private fun longComment(postNo: Long): String = "comment $postNo ".repeat(32)
+
+  private fun postDescriptor(postNo: Long): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, postNo)
+  }
+
+  companion object {
+    // More than fits into one multi-row insert statement
+    private const val POSTS_COUNT = 300L
+  }
+}
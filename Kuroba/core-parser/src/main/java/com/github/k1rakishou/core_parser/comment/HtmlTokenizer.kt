@@ -0,0 +1,378 @@
+package com.github.k1rakishou.core_parser.comment
+
+import com.github.k1rakishou.common.mutableListWithCap
+import org.jsoup.parser.Parser
+
+/**
+ * Streaming tokenizer for post comments. Works directly over index ranges of the source string and
+ * emits node events into a [Handler] so no intermediate per-character collections are created.
+ * Entities of text runs are decoded into a reusable buffer, only runs with entities that we don't
+ * know about are passed to Jsoup.
+ *
+ * Not thread safe!
+ * */
+class HtmlTokenizer {
+  private var buffer = CharArray(INITIAL_BUFFER_SIZE)
+
+  fun tokenize(html: String, handler: Handler) {
+    var offset = 0
+    var textStart = 0
+    var depth = 0
+    var textHasEntities = false
+
+    while (offset < html.length) {
+      val ch = html[offset]
+      if (ch != '<') {
+        if (ch == '&') {
+          textHasEntities = true
+        }
+
+        ++offset
+        continue
+      }
+
+      if (textStart < offset) {
+        handler.onText(decodeText(html, textStart, offset, textHasEntities))
+      }
+
+      textHasEntities = false
+
+      ++offset
+
+      if (offset >= html.length) {
+        throw HtmlParser.ParsingException("Unexpected end of html after '<'")
+      }
+
+      if (html[offset] == '/') {
+        offset = skipTagEnd(html, offset)
+        textStart = offset
+
+        if (depth == 0) {
+          // A closing tag without an opening one ends the document
+          return
+        }
+
+        --depth
+        handler.onTagEnd()
+        continue
+      }
+
+      var tagEnd = html.indexOf('>', offset)
+      if (tagEnd < 0) {
+        tagEnd = html.length
+      }
+
+      val tagName = readTag(html, offset, tagEnd, handler)
+      offset = tagEnd + 1
+
+      if (tagName == "br") {
+        // Skip any '\n' symbols after <br> tag
+        while (offset < html.length && html[offset] == '\n') {
+          ++offset
+        }
+      }
+
+      if (!VOID_TAGS.contains(tagName)) {
+        ++depth
+      }
+
+      textStart = offset
+    }
+
+    if (textStart < html.length) {
+      handler.onText(decodeText(html, textStart, html.length, textHasEntities))
+    }
+
+    while (depth > 0) {
+      --depth
+      handler.onTagEnd()
+    }
+  }
+
+  private fun readTag(html: String, start: Int, end: Int, handler: Handler): String {
+    val tagParts = splitIntoPartsBySeparator(start, end, ' ') { index -> html[index] }
+    if (tagParts.isEmpty()) {
+      throw HtmlParser.ParsingException("tagParts is empty! tagRaw=${html.substring(start, end)}")
+    }
+
+    var tagNameMaybe: CharArray? = null
+    var attributes: MutableList<HtmlAttribute>? = null
+
+    for (tagPart in tagParts) {
+      if (!tagPart.contains('=')) {
+        if (tagNameMaybe == null) {
+          tagNameMaybe = tagPart
+        } else {
+          if (attributes == null) {
+            attributes = mutableListWithCap(4)
+          }
+
+          attributes.add(HtmlAttribute(tagPart, EMPTY_CHAR_ARRAY))
+        }
+
+        continue
+      }
+
+      val attribute = readAttribute(tagPart)
+        ?: continue
+
+      if (attributes == null) {
+        attributes = mutableListWithCap(4)
+      }
+
+      attributes.add(attribute)
+    }
+
+    if (tagNameMaybe == null || tagNameMaybe.isEmpty()) {
+      throw HtmlParser.ParsingException("Tag has no name!")
+    }
+
+    val tagName = String(tagNameMaybe)
+    val isVoidElement = VOID_TAGS.contains(tagName)
+
+    handler.onTagStart(tagName, attributes ?: emptyList(), isVoidElement)
+    return tagName
+  }
+
+  private fun readAttribute(tagPart: CharArray): HtmlAttribute? {
+    val attributeSplitList = splitIntoPartsBySeparator(0, tagPart.size, '=') { index -> tagPart[index] }
+    val attrName = attributeSplitList.getOrNull(0) ?: EMPTY_CHAR_ARRAY
+    val attrValue = attributeSplitList.getOrNull(1) ?: EMPTY_CHAR_ARRAY
+
+    if (attrName.isEmpty() || attrValue.isEmpty()) {
+      return null
+    }
+
+    var valueStart = 0
+    var valueEnd = attrValue.size
+
+    if (attrValue[0] == '\\' && attrValue.getOrNull(1) == '\"') {
+      valueStart = 2
+    } else if (attrValue[0] == '\"') {
+      valueStart = 1
+    }
+
+    if (valueStart >= valueEnd) {
+      return null
+    }
+
+    val lastCh = attrValue[valueEnd - 1]
+    val secondToLastCh = if (valueEnd - 2 >= valueStart) attrValue[valueEnd - 2] else null
+
+    if (secondToLastCh == '\\' && lastCh == '\"') {
+      valueEnd -= 2
+    } else if (lastCh == '\"') {
+      valueEnd -= 1
+    }
+
+    if (valueStart == 0 && valueEnd == attrValue.size) {
+      return HtmlAttribute(attrName, attrValue)
+    }
+
+    return HtmlAttribute(attrName, attrValue.copyOfRange(valueStart, valueEnd))
+  }
+
+  private inline fun splitIntoPartsBySeparator(
+    start: Int,
+    end: Int,
+    separator: Char,
+    charAt: (Int) -> Char
+  ): List<CharArray> {
+    var isInsideString = false
+    var offset = start
+    var partLength = 0
+    val tagParts = mutableListWithCap<CharArray>(4)
+
+    while (offset < end) {
+      val prevCh = if (offset - 1 >= start) charAt(offset - 1) else null
+      val currentCh = charAt(offset)
+      val nextCh = if (offset + 1 < end) charAt(offset + 1) else null
+
+      if (currentCh == '\"' && prevCh != '\\') {
+        isInsideString = isInsideString.not()
+      } else if (currentCh == '\\' && nextCh == '\"') {
+        isInsideString = isInsideString.not()
+      }
+
+      if (currentCh == separator && !isInsideString && nextCh != '/') {
+        tagParts.add(buffer.copyOf(partLength))
+        partLength = 0
+
+        ++offset
+        continue
+      }
+
+      if (!isInsideString && (currentCh == '/' || currentCh.isWhitespace())) {
+        ++offset
+        continue
+      }
+
+      ensureBufferCapacity(partLength + 1)
+      buffer[partLength++] = currentCh
+      ++offset
+    }
+
+    if (partLength > 0) {
+      tagParts.add(buffer.copyOf(partLength))
+    }
+
+    return tagParts
+  }
+
+  /**
+   * Decodes the most common entities in place. Anything unusual (named entities we don't know,
+   * entities without the trailing ';', invalid code points etc.) is handled by Jsoup to keep the
+   * exact same results.
+   * */
+  private fun decodeText(html: String, start: Int, end: Int, hasEntities: Boolean): String {
+    if (!hasEntities) {
+      return html.substring(start, end)
+    }
+
+    ensureBufferCapacity(end - start)
+
+    var length = 0
+    var offset = start
+
+    while (offset < end) {
+      val ch = html[offset]
+      if (ch != '&') {
+        buffer[length++] = ch
+        ++offset
+        continue
+      }
+
+      val semicolon = indexOfEntityEnd(html, offset + 1, minOf(end, offset + 1 + MAX_ENTITY_LENGTH))
+      if (semicolon < 0) {
+        return Parser.unescapeEntities(html.substring(start, end), false)
+      }
+
+      val decoded = decodeEntity(html, offset + 1, semicolon)
+      if (decoded < 0) {
+        return Parser.unescapeEntities(html.substring(start, end), false)
+      }
+
+      length += Character.toChars(decoded, buffer, length)
+      offset = semicolon + 1
+    }
+
+    return String(buffer, 0, length)
+  }
+
+  private fun indexOfEntityEnd(html: String, start: Int, end: Int): Int {
+    for (index in start until end) {
+      if (html[index] == ';') {
+        return index
+      }
+    }
+
+    return -1
+  }
+
+  private fun decodeEntity(html: String, start: Int, end: Int): Int {
+    if (start >= end) {
+      return -1
+    }
+
+    if (html[start] != '#') {
+      val length = end - start
+
+      return when {
+        length == 2 && html.regionMatches(start, "gt", 0, 2) -> '>'.code
+        length == 2 && html.regionMatches(start, "lt", 0, 2) -> '<'.code
+        length == 3 && html.regionMatches(start, "amp", 0, 3) -> '&'.code
+        length == 4 && html.regionMatches(start, "quot", 0, 4) -> '\"'.code
+        length == 4 && html.regionMatches(start, "apos", 0, 4) -> '\''.code
+        length == 4 && html.regionMatches(start, "nbsp", 0, 4) -> '\u00A0'.code
+        else -> -1
+      }
+    }
+
+    var offset = start + 1
+    var radix = 10
+
+    if (offset < end && (html[offset] == 'x' || html[offset] == 'X')) {
+      radix = 16
+      ++offset
+    }
+
+    if (offset >= end) {
+      return -1
+    }
+
+    var codePoint = 0
+
+    while (offset < end) {
+      val digit = asciiDigit(html[offset], radix)
+      if (digit < 0) {
+        return -1
+      }
+
+      codePoint = codePoint * radix + digit
+      if (codePoint > Character.MAX_CODE_POINT) {
+        return -1
+      }
+
+      ++offset
+    }
+
+    // Control characters and surrogates are remapped by Jsoup
+    if (codePoint < 0x20 || codePoint in 0x7F..0x9F || codePoint in 0xD800..0xDFFF) {
+      return -1
+    }
+
+    return codePoint
+  }
+
+  private fun asciiDigit(ch: Char, radix: Int): Int {
+    return when {
+      ch in '0'..'9' -> ch - '0'
+      radix == 16 && ch in 'a'..'f' -> ch - 'a' + 10
+      radix == 16 && ch in 'A'..'F' -> ch - 'A' + 10
+      else -> -1
+    }
+  }
+
+  private fun ensureBufferCapacity(capacity: Int) {
+    if (capacity <= buffer.size) {
+      return
+    }
+
+    buffer = buffer.copyOf(maxOf(capacity, buffer.size * 2))
+  }
+
+  interface Handler {
+    fun onText(text: String)
+    fun onTagStart(tagName: String, attributes: List<HtmlAttribute>, isVoidElement: Boolean)
+    fun onTagEnd()
+  }
+
+  companion object {
+    private const val INITIAL_BUFFER_SIZE = 256
+    private const val MAX_ENTITY_LENGTH = 10
+    private val EMPTY_CHAR_ARRAY = CharArray(0)
+
+    private val VOID_TAGS = mutableSetOf(
+      "area",
+      "base",
+      "br",
+      "wbr",
+      "col",
+      "hr",
+      "img",
+      "input",
+      "link",
+      "meta",
+      "param",
+    )
+
+    private fun skipTagEnd(html: String, start: Int): Int {
+      val tagEnd = html.indexOf('>', start)
+      if (tagEnd < 0) {
+        throw HtmlParser.ParsingException("Failed to find tag end")
+      }
+
+      return tagEnd + 1
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package comment
+
+import com.github.k1rakishou.core_parser.comment.HtmlNode
+import com.github.k1rakishou.core_parser.comment.HtmlParser
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.jsoup.Jsoup
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares [HtmlParser] against [LegacyHtmlParser] using post comments from the archive search page
+ * fixtures. The benchmark itself is only executed when the RUN_BENCHMARKS environment variable is
+ * set to true (RUN_BENCHMARKS=true ./gradlew :core-parser:testDebugUnitTest --tests comment.HtmlParserBenchmark)
+ * because it takes a while and its results only make sense on an otherwise idle machine.
+ * */
+class HtmlParserBenchmark {
+
+  @Test
+  fun `test both parsers produce the same nodes for the fixture comments`() {
+    val comments = loadComments() + TRICKY_COMMENTS
+    assertTrue(comments.size > TRICKY_COMMENTS.size)
+
+    val htmlParser = HtmlParser()
+    val legacyHtmlParser = LegacyHtmlParser()
+
+    for (comment in comments) {
+      val expected = htmlParser.debugConcatIntoString(legacyHtmlParser.parse(comment).nodes)
+      val actual = htmlParser.debugConcatIntoString(htmlParser.parse(comment).nodes)
+
+      assertEquals(comment, expected, actual)
+    }
+  }
+
+  @Test
+  fun benchmark() {
+    assumeTrue(System.getenv("RUN_BENCHMARKS") == "true")
+
+    val fixtureComments = loadComments()
+    val thread = List(THREAD_POSTS_COUNT) { index -> fixtureComments[index % fixtureComments.size] }
+
+    val htmlParser = HtmlParser()
+    val legacyHtmlParser = LegacyHtmlParser()
+
+    val legacyResult = measure("LegacyHtmlParser", thread) { comment -> legacyHtmlParser.parse(comment).nodes }
+    val newResult = measure("HtmlParser", thread) { comment -> htmlParser.parse(comment).nodes }
+
+    println(legacyResult)
+    println(newResult)
+    println("Speedup: ${"%.2f".format(legacyResult.nanosPerPost / newResult.nanosPerPost)}x, " +
+      "allocations: ${"%.2f".format(newResult.bytesPerPost / legacyResult.bytesPerPost * 100.0)}% of legacy")
+  }
+
+  private fun measure(name: String, thread: List<String>, parse: (String) -> List<HtmlNode>): BenchmarkResult {
+    var blackhole = 0
+
+    repeat(WARMUP_ITERATIONS) {
+      for (comment in thread) {
+        blackhole += parse(comment).size
+      }
+    }
+
+    val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+
+    val allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId)
+    val start = System.nanoTime()
+
+    repeat(MEASUREMENT_ITERATIONS) {
+      for (comment in thread) {
+        blackhole += parse(comment).size
+      }
+    }
+
+    val elapsedNanos = System.nanoTime() - start
+    val allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore
+    val parsedPosts = thread.size.toDouble() * MEASUREMENT_ITERATIONS
+
+    return BenchmarkResult(
+      name = name,
+      nanosPerPost = elapsedNanos / parsedPosts,
+      postsPerSecond = parsedPosts / (elapsedNanos / 1_000_000_000.0),
+      bytesPerPost = allocatedBytes / parsedPosts,
+      blackhole = blackhole
+    )
+  }
+
+  private fun loadComments(): List<String> {
+    return FIXTURES.flatMap { fixture ->
+      val document = javaClass.classLoader!!.getResourceAsStream(fixture).use { inputStream ->
+        Jsoup.parse(inputStream, Charsets.UTF_8.name(), "")
+      }
+
+      document.outputSettings().prettyPrint(false)
+
+      return@flatMap document.select("div.text")
+        .map { element -> element.html().trim() }
+        .filter { comment -> comment.isNotEmpty() }
+    }
+  }
+
+  private class BenchmarkResult(
+    val name: String,
+    val nanosPerPost: Double,
+    val postsPerSecond: Double,
+    val bytesPerPost: Double,
+    val blackhole: Int
+  ) {
+    override fun toString(): String {
+      return "${name}: ${"%.0f".format(nanosPerPost)} ns/post, ${"%.0f".format(postsPerSecond)} posts/s, " +
+        "${"%.0f".format(bytesPerPost)} bytes allocated/post (blackhole=${blackhole})"
+    }
+  }
+
+  companion object {
+    private const val THREAD_POSTS_COUNT = 3000
+    private const val WARMUP_ITERATIONS = 20
+    private const val MEASUREMENT_ITERATIONS = 50
+
+    private val FIXTURES = listOf(
+      "parsing/foolfuuka_search/archived_moe_search.html",
+      "parsing/foolfuuka_search/fireden_search.html",
+      "parsing/foolfuuka_search/arch_b4k_co_search.html",
+    )
+
+    private val TRICKY_COMMENTS = listOf(
+      "&gt;&gt;123<br>&gt implied greentext&lt;3 &amp;amp; &AMP; &#039;&#x27;&#39 &#0; &#128512; &nbsp;end",
+      "Tom & Jerry; fish & chips &unknownentity; &#xZZ;",
+      "text</b>this is dropped",
+      "<span class=\"quote\">unclosed <b>tags",
+      "<br>\n\n<br/>\n<wbr> \n <p>para</p>",
+      "<a href=\"/g/thread/1#p2\" class=\"quotelink\">&gt;&gt;2</a><br><s>spoiler</s>",
+    )
+  }
+}
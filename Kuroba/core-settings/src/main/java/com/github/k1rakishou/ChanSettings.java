@@ -269,6 +269,7 @@ public class ChanSettings {
     public static BooleanSetting useSoundForReplyNotifications;
     public static BooleanSetting watchLastPageNotify;
     public static BooleanSetting useSoundForLastPageNotifications;
+    public static BooleanSetting reuseWatcherThreadResponses;
     //endregion
 
     //region FILTER WATCHER
@@ -390,6 +391,7 @@ public class ChanSettings {
     public static RangeSetting diskCacheSizeMegabytes;
     public static RangeSetting prefetchDiskCacheSizeMegabytes;
     public static RangeSetting diskCacheCleanupRemovePercent;
+    public static BooleanSetting compressStoredPostComments;
     //endregion
 
     // region Captcha-solvers
@@ -485,6 +487,7 @@ public class ChanSettings {
             useSoundForReplyNotifications = new BooleanSetting(provider, "use_sound_for_reply_notifications", false);
             watchLastPageNotify = new BooleanSetting(provider, "preference_watch_last_page_notify", false);
             useSoundForLastPageNotifications = new BooleanSetting(provider, "use_sound_for_last_page_notifications", false);
+            reuseWatcherThreadResponses = new BooleanSetting(provider, "reuse_watcher_thread_responses", true);
             //endregion
 
             //region FILTER WATCHER
@@ -638,6 +641,7 @@ public class ChanSettings {
             diskCacheSizeMegabytes = new RangeSetting(provider, "disk_cache_size", 256, diskCacheSizeGetMin(), 1024);
             prefetchDiskCacheSizeMegabytes = new RangeSetting(provider, "prefetch_disk_cache_size", 512, diskCacheSizePrefetchGetMin(), 2048);
             diskCacheCleanupRemovePercent = new RangeSetting(provider, "disk_cache_cleanup_remove_files_percent", 25, cleanupPercentsGetMin(), 75);
+            compressStoredPostComments = new BooleanSetting(provider, "compress_stored_post_comments", true);
             //endregion
 
             // region Captcha-solvers
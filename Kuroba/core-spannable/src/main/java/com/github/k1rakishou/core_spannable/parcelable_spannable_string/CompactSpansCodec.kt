@@ -0,0 +1,393 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string
+
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+
+/**
+ * Compact binary format for [ParcelableSpans] that is stored in the database instead of the
+ * marshalled Parcel. It doesn't depend on the Parcel implementation and it's a couple of times
+ * smaller: numbers are stored as varints, span offsets are stored relative to the previous span,
+ * span types are stored as one byte tags and repeated strings (links, board codes etc.) are only
+ * stored once per comment.
+ *
+ * Layout:
+ * [MAGIC] [FORMAT_VERSION] varint(spans version) varint(spans count) span*
+ * span: zigzag(start - prevStart) zigzag(end - start) varint(flags) zigzag(typeRaw) tag payload
+ * string: varint(0) varint(utf8 length) utf8 bytes, or varint(index in the string table + 1)
+ *
+ * Marshalled Parcels start with the spans version (a small little endian int) so they can never
+ * start with [MAGIC] which lets us read the old data as well (see [isCompactFormat]).
+ * */
+object CompactSpansCodec {
+  private const val MAGIC = 0xC5.toByte()
+  const val FORMAT_VERSION = 1
+
+  private const val NULL_SPAN_TAG = 0
+  private const val ABSOLUTE_SIZE_TAG = 1
+  private const val BACKGROUND_COLOR_TAG = 2
+  private const val FOREGROUND_COLOR_TAG = 3
+  private const val BACKGROUND_COLOR_ID_TAG = 4
+  private const val FOREGROUND_COLOR_ID_TAG = 5
+  private const val POST_LINKABLE_TAG = 6
+  private const val STYLE_TAG = 7
+  private const val TYPEFACE_TAG = 8
+  private const val STRIKETHROUGH_TAG = 9
+
+  private const val ARCHIVE_VALUE_TAG = 0
+  private const val BOARD_VALUE_TAG = 1
+  private const val LINK_VALUE_TAG = 2
+  private const val QUOTE_VALUE_TAG = 3
+  private const val DEAD_VALUE_TAG = 4
+  private const val SEARCH_VALUE_TAG = 5
+  private const val SPOILER_VALUE_TAG = 6
+  private const val THREAD_OR_POST_VALUE_TAG = 7
+
+  @JvmStatic
+  fun isCompactFormat(bytes: ByteArray): Boolean {
+    return bytes.size >= 2 && bytes[0] == MAGIC
+  }
+
+  @JvmStatic
+  fun encode(parcelableSpans: ParcelableSpans): ByteArray {
+    val writer = Writer(16 + parcelableSpans.spanInfoList.size * 16)
+
+    writer.writeByte(MAGIC.toInt())
+    writer.writeByte(FORMAT_VERSION)
+    writer.writeVarInt(parcelableSpans.version)
+    writer.writeVarInt(parcelableSpans.spanInfoList.size)
+
+    var prevStart = 0
+
+    for (spanInfo in parcelableSpans.spanInfoList) {
+      writer.writeZigZag(spanInfo.spanStart - prevStart)
+      writer.writeZigZag(spanInfo.spanEnd - spanInfo.spanStart)
+      writer.writeVarInt(spanInfo.flags)
+      writer.writeZigZag(spanInfo.parcelableTypeRaw)
+      writeSpan(writer, spanInfo.parcelableSpan)
+
+      prevStart = spanInfo.spanStart
+    }
+
+    return writer.toByteArray()
+  }
+
+  @JvmStatic
+  fun decode(bytes: ByteArray): ParcelableSpans {
+    require(isCompactFormat(bytes)) { "Not a compact spans format" }
+
+    val reader = Reader(bytes)
+    reader.readByte()
+
+    val formatVersion = reader.readByte()
+    if (formatVersion > FORMAT_VERSION) {
+      throw IllegalStateException("Unsupported format version: ${formatVersion}")
+    }
+
+    val version = reader.readVarInt()
+    val spansCount = reader.readVarInt()
+    val spanInfoList = ArrayList<ParcelableSpanInfo>(spansCount)
+
+    var prevStart = 0
+
+    repeat(spansCount) {
+      val spanStart = prevStart + reader.readZigZag()
+      val spanEnd = spanStart + reader.readZigZag()
+      val flags = reader.readVarInt()
+      val parcelableTypeRaw = reader.readZigZag()
+      val parcelableSpan = readSpan(reader)
+
+      spanInfoList += ParcelableSpanInfo(spanStart, spanEnd, flags, parcelableTypeRaw, parcelableSpan)
+      prevStart = spanStart
+    }
+
+    return ParcelableSpans(version, spanInfoList)
+  }
+
+  private fun writeSpan(writer: Writer, parcelableSpan: ParcelableSpan?) {
+    when (parcelableSpan) {
+      null -> writer.writeByte(NULL_SPAN_TAG)
+      is ParcelableSpan.AbsoluteSize -> {
+        writer.writeByte(ABSOLUTE_SIZE_TAG)
+        writer.writeZigZag(parcelableSpan.size)
+      }
+      is ParcelableSpan.BackgroundColor -> {
+        writer.writeByte(BACKGROUND_COLOR_TAG)
+        writer.writeFixedInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.ForegroundColor -> {
+        writer.writeByte(FOREGROUND_COLOR_TAG)
+        writer.writeFixedInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.BackgroundColorId -> {
+        writer.writeByte(BACKGROUND_COLOR_ID_TAG)
+        writer.writeVarInt(parcelableSpan.colorId.id)
+      }
+      is ParcelableSpan.ForegroundColorId -> {
+        writer.writeByte(FOREGROUND_COLOR_ID_TAG)
+        writer.writeVarInt(parcelableSpan.colorId.id)
+      }
+      is ParcelableSpan.PostLinkable -> {
+        writer.writeByte(POST_LINKABLE_TAG)
+        writer.writeString(parcelableSpan.key)
+        writer.writeZigZag(parcelableSpan.postLinkableTypeRaw)
+        writePostLinkableValue(writer, parcelableSpan.postLinkableValue)
+      }
+      is ParcelableSpan.Style -> {
+        writer.writeByte(STYLE_TAG)
+        writer.writeZigZag(parcelableSpan.style)
+      }
+      is ParcelableSpan.Typeface -> {
+        writer.writeByte(TYPEFACE_TAG)
+        writer.writeString(parcelableSpan.family)
+      }
+      ParcelableSpan.Strikethrough -> writer.writeByte(STRIKETHROUGH_TAG)
+    }
+  }
+
+  private fun readSpan(reader: Reader): ParcelableSpan? {
+    return when (val tag = reader.readByte()) {
+      NULL_SPAN_TAG -> null
+      ABSOLUTE_SIZE_TAG -> ParcelableSpan.AbsoluteSize(reader.readZigZag())
+      BACKGROUND_COLOR_TAG -> ParcelableSpan.BackgroundColor(reader.readFixedInt())
+      FOREGROUND_COLOR_TAG -> ParcelableSpan.ForegroundColor(reader.readFixedInt())
+      BACKGROUND_COLOR_ID_TAG -> ParcelableSpan.BackgroundColorId(ChanThemeColorId.byId(reader.readVarInt()))
+      FOREGROUND_COLOR_ID_TAG -> ParcelableSpan.ForegroundColorId(ChanThemeColorId.byId(reader.readVarInt()))
+      POST_LINKABLE_TAG -> {
+        ParcelableSpan.PostLinkable(
+          key = reader.readString(),
+          postLinkableTypeRaw = reader.readZigZag(),
+          postLinkableValue = readPostLinkableValue(reader)
+        )
+      }
+      STYLE_TAG -> ParcelableSpan.Style(reader.readZigZag())
+      TYPEFACE_TAG -> ParcelableSpan.Typeface(reader.readString())
+      STRIKETHROUGH_TAG -> ParcelableSpan.Strikethrough
+      else -> throw IllegalStateException("Unknown span tag: ${tag}")
+    }
+  }
+
+  private fun writePostLinkableValue(writer: Writer, postLinkableValue: PostLinkableValue) {
+    when (postLinkableValue) {
+      is PostLinkableValue.Archive -> {
+        writer.writeByte(ARCHIVE_VALUE_TAG)
+        writer.writeString(postLinkableValue.archiveDomain)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeZigZag(postLinkableValue.threadNo)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Board -> {
+        writer.writeByte(BOARD_VALUE_TAG)
+        writer.writeString(postLinkableValue.boardCode)
+      }
+      is PostLinkableValue.Link -> {
+        writer.writeByte(LINK_VALUE_TAG)
+        writer.writeString(postLinkableValue.link)
+      }
+      is PostLinkableValue.Quote -> {
+        writer.writeByte(QUOTE_VALUE_TAG)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Dead -> {
+        writer.writeByte(DEAD_VALUE_TAG)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Search -> {
+        writer.writeByte(SEARCH_VALUE_TAG)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeString(postLinkableValue.searchQuery)
+      }
+      PostLinkableValue.Spoiler -> writer.writeByte(SPOILER_VALUE_TAG)
+      is PostLinkableValue.ThreadOrPost -> {
+        writer.writeByte(THREAD_OR_POST_VALUE_TAG)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeZigZag(postLinkableValue.threadNo)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+    }
+  }
+
+  private fun readPostLinkableValue(reader: Reader): PostLinkableValue {
+    return when (val tag = reader.readByte()) {
+      ARCHIVE_VALUE_TAG -> {
+        PostLinkableValue.Archive(
+          archiveDomain = reader.readString(),
+          boardCode = reader.readString(),
+          threadNo = reader.readZigZagLong(),
+          postNo = reader.readZigZagLong(),
+          postSubNo = reader.readZigZagLong()
+        )
+      }
+      BOARD_VALUE_TAG -> PostLinkableValue.Board(reader.readString())
+      LINK_VALUE_TAG -> PostLinkableValue.Link(reader.readString())
+      QUOTE_VALUE_TAG -> PostLinkableValue.Quote(reader.readZigZagLong(), reader.readZigZagLong())
+      DEAD_VALUE_TAG -> PostLinkableValue.Dead(reader.readZigZagLong(), reader.readZigZagLong())
+      SEARCH_VALUE_TAG -> PostLinkableValue.Search(reader.readString(), reader.readString())
+      SPOILER_VALUE_TAG -> PostLinkableValue.Spoiler
+      THREAD_OR_POST_VALUE_TAG -> {
+        PostLinkableValue.ThreadOrPost(
+          boardCode = reader.readString(),
+          threadNo = reader.readZigZagLong(),
+          postNo = reader.readZigZagLong(),
+          postSubNo = reader.readZigZagLong()
+        )
+      }
+      else -> throw IllegalStateException("Unknown post linkable value tag: ${tag}")
+    }
+  }
+
+  private class Writer(initialCapacity: Int) {
+    private var buffer = ByteArray(initialCapacity)
+    private var position = 0
+    private var strings: HashMap<String, Int>? = null
+
+    fun writeByte(value: Int) {
+      ensureCapacity(1)
+      buffer[position++] = value.toByte()
+    }
+
+    fun writeFixedInt(value: Int) {
+      ensureCapacity(4)
+      buffer[position++] = (value ushr 24).toByte()
+      buffer[position++] = (value ushr 16).toByte()
+      buffer[position++] = (value ushr 8).toByte()
+      buffer[position++] = value.toByte()
+    }
+
+    fun writeVarInt(value: Int) {
+      writeVarLong(value.toLong() and 0xFFFFFFFFL)
+    }
+
+    fun writeZigZag(value: Int) {
+      writeVarInt((value shl 1) xor (value shr 31))
+    }
+
+    fun writeZigZag(value: Long) {
+      writeVarLong((value shl 1) xor (value shr 63))
+    }
+
+    fun writeString(value: String) {
+      val stringTable = strings ?: HashMap<String, Int>().also { strings = it }
+
+      val index = stringTable[value]
+      if (index != null) {
+        writeVarInt(index + 1)
+        return
+      }
+
+      stringTable[value] = stringTable.size
+
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      writeVarInt(0)
+      writeVarInt(bytes.size)
+
+      ensureCapacity(bytes.size)
+      System.arraycopy(bytes, 0, buffer, position, bytes.size)
+      position += bytes.size
+    }
+
+    fun toByteArray(): ByteArray = buffer.copyOf(position)
+
+    private fun writeVarLong(value: Long) {
+      var remaining = value
+      ensureCapacity(10)
+
+      while (remaining and 0x7FL.inv() != 0L) {
+        buffer[position++] = ((remaining and 0x7FL) or 0x80L).toByte()
+        remaining = remaining ushr 7
+      }
+
+      buffer[position++] = remaining.toByte()
+    }
+
+    private fun ensureCapacity(additional: Int) {
+      if (position + additional <= buffer.size) {
+        return
+      }
+
+      buffer = buffer.copyOf(maxOf(position + additional, buffer.size * 2))
+    }
+  }
+
+  private class Reader(private val bytes: ByteArray) {
+    private var position = 0
+    private var strings: ArrayList<String>? = null
+
+    fun readByte(): Int {
+      checkAvailable(1)
+      return bytes[position++].toInt() and 0xFF
+    }
+
+    fun readFixedInt(): Int {
+      checkAvailable(4)
+
+      return ((bytes[position++].toInt() and 0xFF) shl 24) or
+        ((bytes[position++].toInt() and 0xFF) shl 16) or
+        ((bytes[position++].toInt() and 0xFF) shl 8) or
+        (bytes[position++].toInt() and 0xFF)
+    }
+
+    fun readVarInt(): Int = readVarLong().toInt()
+
+    fun readZigZag(): Int {
+      val value = readVarInt()
+      return (value ushr 1) xor -(value and 1)
+    }
+
+    fun readZigZagLong(): Long {
+      val value = readVarLong()
+      return (value ushr 1) xor -(value and 1L)
+    }
+
+    fun readString(): String {
+      val stringTable = strings ?: ArrayList<String>().also { strings = it }
+
+      val reference = readVarInt()
+      if (reference > 0) {
+        return stringTable.getOrNull(reference - 1)
+          ?: throw IllegalStateException("Bad string reference: ${reference}")
+      }
+
+      val length = readVarInt()
+      checkAvailable(length)
+
+      val value = String(bytes, position, length, Charsets.UTF_8)
+      position += length
+
+      stringTable += value
+      return value
+    }
+
+    private fun readVarLong(): Long {
+      var result = 0L
+      var shift = 0
+
+      while (shift < 64) {
+        val byte = readByte()
+        result = result or ((byte and 0x7F).toLong() shl shift)
+
+        if (byte and 0x80 == 0) {
+          return result
+        }
+
+        shift += 7
+      }
+
+      throw IllegalStateException("Malformed varint")
+    }
+
+    private fun checkAvailable(count: Int) {
+      if (count < 0 || position + count > bytes.size) {
+        throw IllegalStateException("Unexpected end of data, position=${position}, " +
+          "count=${count}, size=${bytes.size}")
+      }
+    }
+  }
+
+}